@@ -31,8 +31,6 @@ import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.ArrayList;
@@ -155,9 +153,56 @@ public class Bed extends UCSCTrack {
   public static List<UCSCTrack> parseTracks(GenomicType type, Path file) throws IOException {
     LOG.info("Parsing BED file {}...", file);
 
-    BufferedReader reader = FileUtils.newBufferedReader(file);
+    BedReader reader = new BedReader(file, GenomeService.getInstance().guessGenome(file));
 
-    return parseTracks(type, GenomeService.getInstance().guessGenome(file), getName(file), reader);
+    return parseTracks(type, getName(file), reader);
+  }
+
+  /**
+   * Parse tracks from a BED reader. Simple BED lines are created directly
+   * from the columns of the reader and only lines with blocks, colors and
+   * strands are parsed as text.
+   *
+   * @param type        the type of the elements.
+   * @param defaultName the name of the track if the file has no track line.
+   * @param reader      the reader, which is closed once read.
+   * @return the tracks
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public static List<UCSCTrack> parseTracks(GenomicType type, String defaultName, BedReader reader)
+      throws IOException {
+    Bed bed = null;
+
+    List<UCSCTrack> tracks = new ArrayList<UCSCTrack>();
+
+    try {
+      while (reader.next()) {
+        if (reader.isTrackLine()) {
+          bed = createBed(reader.getLine(), defaultName);
+
+          tracks.add(bed);
+        } else {
+          if (bed == null) {
+            bed = new Bed(defaultName);
+            tracks.add(bed);
+          }
+
+          GenomicElement region = parseElement(type, reader);
+
+          if (region != null) {
+            bed.add(region);
+          }
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    if (bed != null) {
+      LOG.info("BED {} ({} peaks).", bed.getName(), bed.size());
+    }
+
+    return tracks;
   }
 
   /**
@@ -173,7 +218,6 @@ public class Bed extends UCSCTrack {
     Bed bed = null;
 
     String line;
-    Matcher matcher;
 
     List<UCSCTrack> tracks = new ArrayList<UCSCTrack>();
 
@@ -183,29 +227,9 @@ public class Bed extends UCSCTrack {
           continue;
         }
 
-        matcher = NAME_PATTERN.matcher(line);
-
-        if (matcher.find()) {
-
-          String name = matcher.group(1);
-
-          String description = name;
-
-          matcher = DESCRIPTION_PATTERN.matcher(line);
-
-          if (matcher.find()) {
-            description = matcher.group(1);
-          }
-
-          matcher = COLOR_PATTERN.matcher(line);
-
-          Color color = DEFAULT_BED_COLOR;
-
-          if (matcher.find()) {
-            color = parseColor(matcher);
-          }
-
-          bed = new Bed(name, description, color);
+        // Only track lines need to be searched for attributes
+        if (isTrackLine(line)) {
+          bed = createBed(line, defaultName);
 
           tracks.add(bed);
         } else {
@@ -225,11 +249,75 @@ public class Bed extends UCSCTrack {
       reader.close();
     }
 
-    LOG.info("BED {} ({} peaks).", bed.getName(), bed.size());
+    if (bed != null) {
+      LOG.info("BED {} ({} peaks).", bed.getName(), bed.size());
+    }
 
     return tracks;
   }
 
+  /**
+   * Create an element from the current line of a reader in the same way as
+   * {@code BedElement.parse()}.
+   *
+   * @param type   the type of the element.
+   * @param reader the reader
+   * @return the element or null if the chromosome is not in the genome.
+   */
+  private static GenomicElement parseElement(GenomicType type, BedReader reader) {
+    // Lines with strands, colors and blocks are rare enough to parse from
+    // strings, but use the columns of the reader so that lines separated by
+    // spaces are split the same way as simple lines
+    if (reader.getColumnCount() > 8) {
+      return BedElement.parse(type, reader.getGenome(), reader.getStrings());
+    }
+
+    Chromosome chr = reader.getChr();
+
+    if (chr == null) {
+      return null;
+    }
+
+    GenomicElement ret = new BedElement(type, new GenomicRegion(chr, reader.getStart(), reader.getEnd()));
+
+    if (reader.getColumnCount() > 3) {
+      ret.setProperty("name", reader.getString(3));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Create a bed from the name, description and color of a track line.
+   *
+   * @param line        the track line
+   * @param defaultName the name to use if the line has none.
+   * @return the bed
+   */
+  private static Bed createBed(String line, String defaultName) {
+    Matcher matcher = NAME_PATTERN.matcher(line);
+
+    String name = matcher.find() ? matcher.group(1) : defaultName;
+
+    String description = name;
+
+    matcher = DESCRIPTION_PATTERN.matcher(line);
+
+    if (matcher.find()) {
+      description = matcher.group(1);
+    }
+
+    matcher = COLOR_PATTERN.matcher(line);
+
+    Color color = DEFAULT_BED_COLOR;
+
+    if (matcher.find()) {
+      color = parseColor(matcher);
+    }
+
+    return new Bed(name, description, color);
+  }
+
   /**
    * Creates the bed from track line.
    *
@@ -302,27 +390,29 @@ public class Bed extends UCSCTrack {
   public static List<Bed> parseBedGraphs(GenomicType type, Path file) throws IOException {
     LOG.info("Parsing Bedgraph as BED file {}...", file);
 
-    BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+    BedReader reader = new BedReader(file, GenomeService.getInstance().guessGenome(file));
 
     Bed bed = null;
 
-    String line;
-
     List<Bed> beds = new ArrayList<Bed>();
 
     try {
-      while ((line = reader.readLine()) != null) {
-        if (Io.isEmptyLine(line)) {
-          continue;
-        }
-
-        if (isTrackLine(line)) {
-          bed = createBedFromTrackLine(line);
+      while (reader.next()) {
+        if (reader.isTrackLine()) {
+          bed = createBedFromTrackLine(reader.getLine());
 
           beds.add(bed);
         } else {
-          GenomicElement region = BedElement.parse(type, GenomeService.getInstance().guessGenome(file), line);
-          bed.add(region);
+          if (bed == null) {
+            bed = new Bed(getName(file));
+            beds.add(bed);
+          }
+
+          GenomicElement region = parseElement(type, reader);
+
+          if (region != null) {
+            bed.add(region);
+          }
         }
       }
     } finally {
@@ -122,8 +122,16 @@ public class BedElement extends GenomicElement implements NameGetter {
   public static GenomicElement parse(GenomicType type, Genome genome, String line) {
     // System.err.println("bed: " + line);
 
-    List<String> tokens = TextUtils.tabSplit(line);
+    return parse(type, genome, TextUtils.tabSplit(line));
+  }
 
+  /**
+   * Parses the columns of a line.
+   *
+   * @param tokens the columns of the line.
+   * @return the bed region
+   */
+  public static GenomicElement parse(GenomicType type, Genome genome, List<String> tokens) {
     // convert first part to chromosome (replacing x,y and m) {
     Chromosome chr = ChromosomeService.getInstance().chr(genome, tokens.get(0));
 
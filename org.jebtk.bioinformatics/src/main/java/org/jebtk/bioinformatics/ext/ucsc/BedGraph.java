@@ -36,8 +36,10 @@ import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.jebtk.bioinformatics.genomic.Chromosome;
 import org.jebtk.bioinformatics.genomic.GenomeService;
 import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.GenomicType;
 import org.jebtk.core.io.FileUtils;
 import org.jebtk.core.io.Io;
 import org.jebtk.core.io.PathUtils;
@@ -137,7 +139,7 @@ public class BedGraph extends UCSCTrack {
   public static List<BedGraph> parse(Path file) throws IOException {
     LOG.info("Parsing BedGraph file {}...", file);
 
-    BufferedReader reader = FileUtils.newBufferedReader(file);
+    BedReader reader = new BedReader(file, GenomeService.getInstance().guessGenome(file));
 
     BedGraph bedgraph = new BedGraph(PathUtils.getNameNoExt(file));
 
@@ -147,16 +149,13 @@ public class BedGraph extends UCSCTrack {
     List<BedGraph> tracks = new ArrayList<BedGraph>();
 
     try {
-      while ((line = reader.readLine()) != null) {
-        if (Io.isEmptyLine(line)) {
-          continue;
-        }
-
-        matcher = NAME_PATTERN.matcher(line);
+      while (reader.next()) {
+        if (reader.isTrackLine()) {
+          line = reader.getLine();
 
-        if (matcher.find()) {
+          matcher = NAME_PATTERN.matcher(line);
 
-          String name = matcher.group(1);
+          String name = matcher.find() ? matcher.group(1) : bedgraph.getName();
 
           String description = name;
 
@@ -187,9 +186,12 @@ public class BedGraph extends UCSCTrack {
 
           tracks.add(bedgraph);
         } else {
-          BedGraphElement region = BedGraphElement.parse(GenomeService.getInstance().guessGenome(file), line);
+          Chromosome chr = reader.getChr();
 
-          bedgraph.add(region);
+          if (chr != null) {
+            bedgraph.add(new BedGraphElement(GenomicType.REGION, new GenomicRegion(chr, reader.getStart(),
+                reader.getEnd()), reader.getDouble(3)));
+          }
         }
       }
     } finally {
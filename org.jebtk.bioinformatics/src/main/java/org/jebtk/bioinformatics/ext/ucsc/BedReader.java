@@ -0,0 +1,527 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.ext.ucsc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.jebtk.bioinformatics.file.DecimalParser;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.core.io.PathUtils;
+
+/**
+ * Reads BED and bedGraph files line by line directly from the bytes of a
+ * channel. Lines are split into columns by recording where each column
+ * starts and ends in the buffer, and columns are only converted to numbers
+ * or strings when asked for, so reading a data line creates no objects.
+ * Chromosomes are resolved through a cache, which for sorted files means the
+ * chromosome name is only looked up when it changes.
+ *
+ * <pre>
+ * BedReader reader = new BedReader(file, genome);
+ *
+ * while (reader.next()) {
+ *   if (!reader.isTrackLine()) {
+ *     add(reader.getChr(), reader.getStart(), reader.getEnd(), reader.getDouble(3));
+ *   }
+ * }
+ * </pre>
+ *
+ * Comment and browser lines are skipped. Gzipped files are decompressed as
+ * they are read.
+ *
+ * @author Antony Holmes
+ */
+public class BedReader implements Closeable {
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private static final byte[] TRACK = UCSCTrack.TRACK_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+  private static final byte[] BROWSER = "browser".getBytes(StandardCharsets.US_ASCII);
+
+  private final ReadableByteChannel mChannel;
+
+  private final Genome mGenome;
+
+  private byte[] mBuffer = new byte[BUFFER_SIZE];
+
+  /** Start of the bytes not yet read as lines. */
+  private int mPos = 0;
+
+  /** End of the bytes in the buffer. */
+  private int mLimit = 0;
+
+  private boolean mEof = false;
+
+  private int mLineStart = 0;
+  private int mLineEnd = 0;
+
+  private boolean mTrack = false;
+
+  /** Start and end of each column of the current line. */
+  private int[] mStarts = new int[16];
+  private int[] mEnds = new int[16];
+  private int mColumns = 0;
+
+  /** The chromosome of the last data line. */
+  private byte[] mChrName = new byte[64];
+  private int mChrLength = -1;
+  private Chromosome mChr = null;
+
+  private final Map<String, Chromosome> mChrs = new HashMap<String, Chromosome>();
+
+  /** The buffer as text so that numbers can be parsed in place. */
+  private final BufferChars mChars = new BufferChars();
+
+  /**
+   * Open a file, decompressing it if its name ends with {@code .gz}.
+   *
+   * @param file   the file
+   * @param genome the genome used to resolve chromosomes.
+   * @throws IOException
+   */
+  public BedReader(Path file, Genome genome) throws IOException {
+    this(open(file), genome);
+  }
+
+  public BedReader(ReadableByteChannel channel, Genome genome) {
+    mChannel = channel;
+    mGenome = genome;
+  }
+
+  private static ReadableByteChannel open(Path file) throws IOException {
+    if (PathUtils.getName(file).toLowerCase().endsWith(".gz")) {
+      return Channels.newChannel(new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE));
+    } else {
+      return FileChannel.open(file, StandardOpenOption.READ);
+    }
+  }
+
+  public Genome getGenome() {
+    return mGenome;
+  }
+
+  /**
+   * Move to the next line that is not empty, a comment or a browser line.
+   *
+   * @return true if there is a line, false at the end of the file.
+   * @throws IOException
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      int end = indexOf('\n', mPos, mLimit);
+
+      if (end == -1) {
+        if (!mEof) {
+          fill();
+          continue;
+        }
+
+        if (mPos >= mLimit) {
+          return false;
+        }
+
+        // Last line has no new line
+        end = mLimit;
+      }
+
+      int start = mPos;
+
+      mPos = Math.min(end + 1, mLimit);
+
+      if (end > start && mBuffer[end - 1] == '\r') {
+        --end;
+      }
+
+      if (isBlank(start, end) || mBuffer[start] == '#' || startsWith(start, end, BROWSER)) {
+        continue;
+      }
+
+      mLineStart = start;
+      mLineEnd = end;
+      mTrack = startsWith(start, end, TRACK);
+
+      if (mTrack) {
+        mColumns = 0;
+      } else {
+        split(start, end);
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Move unread bytes to the start of the buffer and read more after them.
+   */
+  private void fill() throws IOException {
+    if (mPos > 0) {
+      System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+
+      mLimit -= mPos;
+      mPos = 0;
+    }
+
+    if (mLimit == mBuffer.length) {
+      // A line longer than the buffer
+      byte[] buffer = new byte[mBuffer.length * 2];
+      System.arraycopy(mBuffer, 0, buffer, 0, mLimit);
+      mBuffer = buffer;
+    }
+
+    int n = mChannel.read(ByteBuffer.wrap(mBuffer, mLimit, mBuffer.length - mLimit));
+
+    if (n == -1) {
+      mEof = true;
+    } else {
+      mLimit += n;
+    }
+  }
+
+  private int indexOf(char c, int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (mBuffer[i] == c) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private boolean isBlank(int start, int end) {
+    for (int i = start; i < end; ++i) {
+      if (mBuffer[i] != ' ' && mBuffer[i] != '\t') {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private boolean startsWith(int start, int end, byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+
+    for (int i = 0; i < prefix.length; ++i) {
+      if (mBuffer[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Record the columns of a line. Columns are separated by tabs, or by runs
+   * of spaces if the line has no tabs.
+   */
+  private void split(int start, int end) {
+    mColumns = 0;
+
+    if (indexOf('\t', start, end) != -1) {
+      int s = start;
+
+      for (int i = start; i <= end; ++i) {
+        if (i == end || mBuffer[i] == '\t') {
+          addColumn(s, i);
+          s = i + 1;
+        }
+      }
+    } else {
+      int i = start;
+
+      while (i < end) {
+        while (i < end && mBuffer[i] == ' ') {
+          ++i;
+        }
+
+        int s = i;
+
+        while (i < end && mBuffer[i] != ' ') {
+          ++i;
+        }
+
+        if (i > s) {
+          addColumn(s, i);
+        }
+      }
+    }
+  }
+
+  private void addColumn(int start, int end) {
+    if (mColumns == mStarts.length) {
+      int[] starts = new int[mColumns * 2];
+      int[] ends = new int[mColumns * 2];
+      System.arraycopy(mStarts, 0, starts, 0, mColumns);
+      System.arraycopy(mEnds, 0, ends, 0, mColumns);
+      mStarts = starts;
+      mEnds = ends;
+    }
+
+    mStarts[mColumns] = start;
+    mEnds[mColumns] = end;
+    ++mColumns;
+  }
+
+  /**
+   * Returns true if the current line is a track line.
+   *
+   * @return true if the line is a track line.
+   */
+  public boolean isTrackLine() {
+    return mTrack;
+  }
+
+  /**
+   * Returns the current line.
+   *
+   * @return the line
+   */
+  public String getLine() {
+    return new String(mBuffer, mLineStart, mLineEnd - mLineStart, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the number of columns of the current data line.
+   *
+   * @return the column count
+   */
+  public int getColumnCount() {
+    return mColumns;
+  }
+
+  /**
+   * Returns a column of the current line as a string.
+   *
+   * @param column the column
+   * @return the string
+   */
+  public String getString(int column) {
+    check(column);
+
+    return new String(mBuffer, mStarts[column], mEnds[column] - mStarts[column], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the columns of the current line as strings.
+   *
+   * @return the columns
+   */
+  public List<String> getStrings() {
+    List<String> ret = new ArrayList<String>(mColumns);
+
+    for (int i = 0; i < mColumns; ++i) {
+      ret.add(getString(i));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the chromosome in the first column of the current line.
+   *
+   * @return the chromosome or null if it is not in the genome.
+   */
+  public Chromosome getChr() {
+    check(0);
+
+    int start = mStarts[0];
+    int l = mEnds[0] - start;
+
+    if (l == mChrLength) {
+      boolean same = true;
+
+      for (int i = 0; i < l; ++i) {
+        if (mBuffer[start + i] != mChrName[i]) {
+          same = false;
+          break;
+        }
+      }
+
+      if (same) {
+        return mChr;
+      }
+    }
+
+    String name = getString(0);
+
+    if (mChrs.containsKey(name)) {
+      mChr = mChrs.get(name);
+    } else {
+      mChr = ChromosomeService.getInstance().chr(mGenome, name);
+
+      mChrs.put(name, mChr);
+    }
+
+    if (mChrName.length < l) {
+      mChrName = new byte[l];
+    }
+
+    System.arraycopy(mBuffer, start, mChrName, 0, l);
+    mChrLength = l;
+
+    return mChr;
+  }
+
+  /**
+   * Returns the start of the current line converted from the zero based
+   * coordinates of the file to one based coordinates.
+   *
+   * @return the start
+   */
+  public int getStart() {
+    return getInt(1) + 1;
+  }
+
+  /**
+   * Returns the end of the current line.
+   *
+   * @return the end
+   */
+  public int getEnd() {
+    return getInt(2);
+  }
+
+  /**
+   * Returns a column of the current line as an integer.
+   *
+   * @param column the column
+   * @return the value
+   */
+  public int getInt(int column) {
+    check(column);
+
+    int i = mStarts[column];
+    int end = mEnds[column];
+
+    boolean negative = false;
+
+    if (i < end && (mBuffer[i] == '-' || mBuffer[i] == '+')) {
+      negative = mBuffer[i] == '-';
+      ++i;
+    }
+
+    if (i == end || end - i > 10) {
+      return Integer.parseInt(getString(column));
+    }
+
+    long ret = 0;
+
+    for (; i < end; ++i) {
+      int d = mBuffer[i] - '0';
+
+      if (d < 0 || d > 9) {
+        return Integer.parseInt(getString(column));
+      }
+
+      ret = ret * 10 + d;
+    }
+
+    ret = negative ? -ret : ret;
+
+    if (ret < Integer.MIN_VALUE || ret > Integer.MAX_VALUE) {
+      return Integer.parseInt(getString(column));
+    }
+
+    return (int) ret;
+  }
+
+  /**
+   * Returns a column of the current line as a double. Numbers are parsed
+   * directly from the bytes using {@code DecimalParser}; anything it does not
+   * recognize is given to {@code Double.parseDouble()}.
+   *
+   * @param column the column
+   * @return the value
+   */
+  public double getDouble(int column) {
+    check(column);
+
+    double ret = DecimalParser.parseDouble(mChars, mStarts[column], mEnds[column]);
+
+    if (Double.isNaN(ret)) {
+      return Double.parseDouble(getString(column));
+    }
+
+    return ret;
+  }
+
+  private void check(int column) {
+    if (column >= mColumns) {
+      throw new IndexOutOfBoundsException("Line has " + mColumns + " columns: " + getLine());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    mChannel.close();
+  }
+
+  /**
+   * The bytes of the buffer as ASCII characters. The view follows the buffer
+   * when it is replaced by a larger one.
+   */
+  private class BufferChars implements CharSequence {
+    @Override
+    public int length() {
+      return mLimit;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) (mBuffer[index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new String(mBuffer, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+      return subSequence(0, mLimit).toString();
+    }
+  }
+}
@@ -0,0 +1,489 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.ext.ucsc;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.GenomicType;
+import org.jebtk.core.io.FileUtils;
+
+/**
+ * Binary, chromosome indexed coverage track written by a
+ * {@code CoverageIndexWriter}, in the spirit of bigWig. Rather than keeping
+ * every interval of a bedGraph as an object, each chromosome is a section of
+ * the file that is memory mapped the first time it is queried. Intervals in a
+ * region are found through a fixed size bin index, and display windows are
+ * summarised from precomputed zoom levels so that the work depends on the
+ * number of display bins and not on how much data the track holds.
+ *
+ * The file is laid out as:
+ *
+ * <pre>
+ * int      check (45)
+ * byte     version
+ * int      number of zoom levels
+ * int[]    zoom level bin sizes, smallest first
+ * int      number of chromosomes
+ * for each chromosome:
+ *   utf      name
+ *   int      length, the end of the last interval
+ *   int      number of intervals
+ *   long     offset of the chromosome section
+ *   long     size of the chromosome section
+ * for each chromosome section:
+ *   int[]    for each index bin, the first interval ending in or after it
+ *   for each interval, sorted and not overlapping:
+ *     int      start
+ *     int      end
+ *     float    value
+ *   for each zoom level, for each bin from zero to the length:
+ *     int      number of bases with a value
+ *     float    min
+ *     float    max
+ *     double   sum of the value of each base
+ * </pre>
+ *
+ * Zoom bin i covers locations [i * size, (i + 1) * size - 1] and empty bins
+ * are stored so that a bin is found by its position alone. Sections larger
+ * than a memory mapping can address are mapped in overlapping windows.
+ *
+ * @author Antony Holmes
+ */
+public class CoverageIndex {
+
+  public static final int CHECK = 45;
+  public static final byte VERSION = 1;
+
+  public static final String EXT = "cvi";
+
+  /**
+   * Number of bases in each bin of the interval index.
+   */
+  public static final int INDEX_BIN_SIZE = 16384;
+
+  /**
+   * Zoom levels used by default, increasing by a factor of four. Windows whose
+   * output bins are smaller than the first level are summarised from the
+   * intervals, so at most that many bases per output bin are scanned.
+   */
+  public static final int[] DEFAULT_ZOOMS = { 512, 2048, 8192, 32768, 131072, 524288, 2097152 };
+
+  static final int INTERVAL_BYTES = 4 + 4 + 4;
+  static final int ZOOM_BYTES = 4 + 4 + 4 + 8;
+
+  /**
+   * Sections are mapped in windows of 2^WINDOW_BITS bytes.
+   */
+  private static final int WINDOW_BITS = 30;
+
+  private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+
+  /**
+   * Each window also maps the start of the next one so that a record never
+   * has to be read across two windows.
+   */
+  private static final int WINDOW_OVERLAP = ZOOM_BYTES;
+
+  /**
+   * A chromosome section of the file. Positions within the section are longs
+   * since a section can be larger than 2 GB.
+   */
+  private static class Section {
+    private final int mLength;
+    private final int mSize;
+    private final long mOffset;
+    private final long mBytes;
+    private final long mIntervalOffset;
+    private final long[] mZoomOffsets;
+    private ByteBuffer[] mBuffers = null;
+
+    public Section(int length, int size, long offset, long bytes, int[] zooms) {
+      mLength = length;
+      mSize = size;
+      mOffset = offset;
+      mBytes = bytes;
+      mIntervalOffset = indexBins(length) * 4L;
+
+      mZoomOffsets = new long[zooms.length];
+
+      long o = mIntervalOffset + (long) size * INTERVAL_BYTES;
+
+      for (int z = 0; z < zooms.length; ++z) {
+        mZoomOffsets[z] = o;
+        o += (long) zoomBins(length, zooms[z]) * ZOOM_BYTES;
+      }
+    }
+
+    private ByteBuffer window(long p) {
+      return mBuffers[(int) (p >>> WINDOW_BITS)];
+    }
+
+    public int getInt(long p) {
+      return window(p).getInt((int) (p & WINDOW_MASK));
+    }
+
+    public float getFloat(long p) {
+      return window(p).getFloat((int) (p & WINDOW_MASK));
+    }
+
+    public double getDouble(long p) {
+      return window(p).getDouble((int) (p & WINDOW_MASK));
+    }
+
+    /**
+     * Returns the position of an interval.
+     */
+    public long interval(int i) {
+      return mIntervalOffset + (long) i * INTERVAL_BYTES;
+    }
+  }
+
+  private final Path mFile;
+
+  private final int[] mZooms;
+
+  private final Map<String, Section> mSectionMap = new HashMap<String, Section>();
+
+  private final List<String> mChrs = new ArrayList<String>();
+
+  /**
+   * Open a coverage index.
+   *
+   * @param file the file
+   * @throws IOException
+   */
+  public CoverageIndex(Path file) throws IOException {
+    mFile = file;
+
+    DataInputStream reader = FileUtils.newDataInputStream(file);
+
+    try {
+      if (reader.readInt() != CHECK || reader.readByte() != VERSION) {
+        throw new IOException(file + " is not a current coverage index.");
+      }
+
+      mZooms = new int[reader.readInt()];
+
+      for (int z = 0; z < mZooms.length; ++z) {
+        mZooms[z] = reader.readInt();
+      }
+
+      int n = reader.readInt();
+
+      for (int i = 0; i < n; ++i) {
+        String name = reader.readUTF();
+        int length = reader.readInt();
+        int size = reader.readInt();
+        long offset = reader.readLong();
+        long bytes = reader.readLong();
+
+        mChrs.add(name);
+        mSectionMap.put(name, new Section(length, size, offset, bytes, mZooms));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Returns the names of the chromosomes with data, in the order they are
+   * stored.
+   *
+   * @return the chromosomes
+   */
+  public List<String> getChrs() {
+    return Collections.unmodifiableList(mChrs);
+  }
+
+  public boolean contains(Chromosome chr) {
+    return mSectionMap.containsKey(chr.toString());
+  }
+
+  /**
+   * Returns the end of the last interval on a chromosome.
+   *
+   * @param chr the chr
+   * @return the length or zero if the chromosome has no data.
+   */
+  public int getLength(Chromosome chr) {
+    Section section = mSectionMap.get(chr.toString());
+
+    return section != null ? section.mLength : 0;
+  }
+
+  /**
+   * Returns the zoom level bin sizes, smallest first.
+   *
+   * @return the zooms
+   */
+  public int[] getZooms() {
+    return mZooms.clone();
+  }
+
+  /**
+   * Returns the intervals overlapping a region.
+   *
+   * @param region the region
+   * @return the intervals ordered by position.
+   * @throws IOException
+   */
+  public List<BedGraphElement> find(GenomicRegion region) throws IOException {
+    List<BedGraphElement> ret = new ArrayList<BedGraphElement>();
+
+    Section section = mSectionMap.get(region.mChr.toString());
+
+    if (section == null || region.mStart > section.mLength) {
+      return ret;
+    }
+
+    map(section);
+
+    for (int i = firstInterval(section, region.mStart); i < section.mSize; ++i) {
+      long p = section.interval(i);
+
+      int start = section.getInt(p);
+
+      if (start > region.mEnd) {
+        break;
+      }
+
+      ret.add(new BedGraphElement(GenomicType.REGION, new GenomicRegion(region.mChr, start, section.getInt(p + 4)),
+          section.getFloat(p + 8)));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the intervals overlapping a region as a bedGraph track.
+   *
+   * @param name   the name of the track.
+   * @param region the region
+   * @return the bedGraph
+   * @throws IOException
+   */
+  public BedGraph getBedGraph(String name, GenomicRegion region) throws IOException {
+    BedGraph ret = new BedGraph(name);
+
+    for (BedGraphElement e : find(region)) {
+      ret.add(e);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Summarise the signal in a region.
+   *
+   * @param region the region
+   * @return the summary
+   * @throws IOException
+   */
+  public CoverageSummary summarize(GenomicRegion region) throws IOException {
+    return summarize(region, 1)[0];
+  }
+
+  /**
+   * Summarise the signal in equal sized bins across a region, for example
+   * one bin per pixel of a display. The coarsest zoom level whose bins are no
+   * larger than the output bins is used, so each output bin is built from a
+   * handful of zoom bins regardless of the size of the region. Regions too
+   * small for any zoom level are summarised from the intervals.
+   *
+   * @param region the region
+   * @param bins   the number of bins.
+   * @return the summary of each bin.
+   * @throws IOException
+   */
+  public CoverageSummary[] summarize(GenomicRegion region, int bins) throws IOException {
+    CoverageSummary[] ret = new CoverageSummary[bins];
+
+    for (int i = 0; i < bins; ++i) {
+      ret[i] = new CoverageSummary();
+    }
+
+    Section section = mSectionMap.get(region.mChr.toString());
+
+    if (section == null || section.mSize == 0 || region.mStart > section.mLength) {
+      return ret;
+    }
+
+    map(section);
+
+    long width = region.mEnd - region.mStart + 1;
+
+    int z = mZooms.length - 1;
+
+    while (z >= 0 && mZooms[z] > width / bins) {
+      --z;
+    }
+
+    int start = region.mStart;
+    int end = Math.min(region.mEnd, section.mLength);
+
+    if (z < 0) {
+      // Window is too small for the zoom levels so use the intervals
+      for (int i = firstInterval(section, start); i < section.mSize; ++i) {
+        long p = section.interval(i);
+
+        int s = section.getInt(p);
+
+        if (s > end) {
+          break;
+        }
+
+        double v = section.getFloat(p + 8);
+
+        add(ret, region.mStart, width, Math.max(s, start), Math.min(section.getInt(p + 4), end), v, v, v, 1);
+      }
+    } else {
+      int size = mZooms[z];
+      long offset = section.mZoomOffsets[z];
+
+      for (int b = start / size; b <= end / size; ++b) {
+        long p = offset + (long) b * ZOOM_BYTES;
+
+        int coverage = section.getInt(p);
+
+        if (coverage == 0) {
+          continue;
+        }
+
+        double min = section.getFloat(p + 4);
+        double max = section.getFloat(p + 8);
+        double sum = section.getDouble(p + 12);
+
+        // Bases are assumed to be spread evenly across a zoom bin when it
+        // straddles output bins
+        add(ret, region.mStart, width, Math.max(b * size, start), Math.min((b + 1) * size - 1, end), min, max,
+            sum / size, (double) coverage / size);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Add a stretch of bases to the output bins it overlaps.
+   *
+   * @param ret          the output bins.
+   * @param origin       the start of the region being summarised.
+   * @param width        the width of the region.
+   * @param s            the start of the stretch.
+   * @param e            the end of the stretch.
+   * @param min          the min value.
+   * @param max          the max value.
+   * @param sumPerBase   the sum per base of the stretch.
+   * @param basesPerBase the fraction of bases in the stretch with a value.
+   */
+  private static void add(CoverageSummary[] ret, int origin, long width, int s, int e, double min, double max,
+      double sumPerBase, double basesPerBase) {
+    int bins = ret.length;
+
+    while (s <= e) {
+      int b = (int) ((long) (s - origin) * bins / width);
+
+      // Last location of the output bin
+      int be = (int) Math.min(e, origin + ((b + 1) * width + bins - 1) / bins - 1);
+
+      int l = be - s + 1;
+
+      ret[b].add(l * basesPerBase, min, max, l * sumPerBase);
+
+      s = be + 1;
+    }
+  }
+
+  /**
+   * Returns the first interval ending at or after a location.
+   */
+  private static int firstInterval(Section section, int location) {
+    int i = section.getInt(Math.min(location / INDEX_BIN_SIZE, indexBins(section.mLength) - 1) * 4L);
+
+    while (i < section.mSize && section.getInt(section.interval(i) + 4) < location) {
+      ++i;
+    }
+
+    return i;
+  }
+
+  /**
+   * Map the section of a chromosome the first time it is needed. Buffers are
+   * only read with absolute gets so they can be shared by concurrent queries.
+   */
+  private synchronized void map(Section section) throws IOException {
+    if (section.mBuffers != null) {
+      return;
+    }
+
+    int n = (int) ((section.mBytes + WINDOW_MASK) >>> WINDOW_BITS);
+
+    ByteBuffer[] buffers = new ByteBuffer[Math.max(1, n)];
+
+    FileChannel channel = FileChannel.open(mFile, StandardOpenOption.READ);
+
+    try {
+      for (int w = 0; w < buffers.length; ++w) {
+        long start = (long) w << WINDOW_BITS;
+        long size = Math.min(section.mBytes - start, (1L << WINDOW_BITS) + WINDOW_OVERLAP);
+
+        buffers[w] = channel.map(FileChannel.MapMode.READ_ONLY, section.mOffset + start, Math.max(0, size));
+      }
+    } finally {
+      channel.close();
+    }
+
+    section.mBuffers = buffers;
+  }
+
+  /**
+   * Returns the number of index bins of a chromosome.
+   */
+  static int indexBins(int length) {
+    return length / INDEX_BIN_SIZE + 1;
+  }
+
+  /**
+   * Returns the number of bins of a zoom level on a chromosome.
+   */
+  static int zoomBins(int length, int size) {
+    return length / size + 1;
+  }
+}
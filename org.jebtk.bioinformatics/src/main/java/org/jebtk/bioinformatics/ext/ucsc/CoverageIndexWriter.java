@@ -0,0 +1,447 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.ext.ucsc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.jebtk.bioinformatics.gapsearch.GapSearch;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Coverage;
+import org.jebtk.bioinformatics.genomic.CoverageRuns;
+import org.jebtk.bioinformatics.genomic.GenomeService;
+import org.jebtk.bioinformatics.genomic.GenomicElement;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.core.io.FileUtils;
+import org.jebtk.core.io.PathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects intervals of signal from bedGraph files, tracks or coverage and
+ * writes them to a {@code CoverageIndex}. Intervals are kept in primitive
+ * arrays per chromosome until the index is written. They need not be added
+ * in order, but they should not overlap; where they do, the later interval
+ * is clipped so that each base has one value.
+ *
+ * @author Antony Holmes
+ */
+public class CoverageIndexWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CoverageIndexWriter.class);
+
+  /**
+   * Growable list of the intervals of a chromosome.
+   */
+  private static class Intervals {
+    private int[] mStarts = new int[1024];
+    private int[] mEnds = new int[1024];
+    private float[] mValues = new float[1024];
+    private int mSize = 0;
+    private boolean mSorted = true;
+
+    public void add(int start, int end, float value) {
+      if (mSize == mStarts.length) {
+        mStarts = Arrays.copyOf(mStarts, mSize * 2);
+        mEnds = Arrays.copyOf(mEnds, mSize * 2);
+        mValues = Arrays.copyOf(mValues, mSize * 2);
+      }
+
+      if (mSize > 0 && start < mStarts[mSize - 1]) {
+        mSorted = false;
+      }
+
+      mStarts[mSize] = start;
+      mEnds[mSize] = end;
+      mValues[mSize] = value;
+      ++mSize;
+    }
+
+    /**
+     * Sort the intervals by start and clip any that overlap.
+     */
+    public void normalize() {
+      if (!mSorted) {
+        // Pack the start and index so that a primitive sort orders both
+        long[] keys = new long[mSize];
+
+        for (int i = 0; i < mSize; ++i) {
+          keys[i] = ((long) mStarts[i] << 32) | i;
+        }
+
+        Arrays.sort(keys);
+
+        int[] starts = new int[mSize];
+        int[] ends = new int[mSize];
+        float[] values = new float[mSize];
+
+        for (int i = 0; i < mSize; ++i) {
+          int j = (int) keys[i];
+
+          starts[i] = mStarts[j];
+          ends[i] = mEnds[j];
+          values[i] = mValues[j];
+        }
+
+        mStarts = starts;
+        mEnds = ends;
+        mValues = values;
+        mSorted = true;
+      }
+
+      int n = 0;
+      int last = 0;
+
+      for (int i = 0; i < mSize; ++i) {
+        int start = Math.max(mStarts[i], last + 1);
+
+        if (start > mEnds[i]) {
+          continue;
+        }
+
+        mStarts[n] = start;
+        mEnds[n] = mEnds[i];
+        mValues[n] = mValues[i];
+        last = mEnds[i];
+        ++n;
+      }
+
+      mSize = n;
+    }
+
+    public int getLength() {
+      return mSize > 0 ? mEnds[mSize - 1] : 0;
+    }
+  }
+
+  private final int[] mZooms;
+
+  private final Map<Chromosome, Intervals> mChrMap = new TreeMap<Chromosome, Intervals>();
+
+  public CoverageIndexWriter() {
+    this(CoverageIndex.DEFAULT_ZOOMS);
+  }
+
+  /**
+   * Create a writer with custom zoom levels.
+   *
+   * @param zooms the bin sizes of the zoom levels.
+   */
+  public CoverageIndexWriter(int... zooms) {
+    mZooms = zooms.clone();
+
+    Arrays.sort(mZooms);
+
+    if (mZooms.length > 0 && mZooms[0] < 1) {
+      throw new IllegalArgumentException("Zoom levels must have a bin size of at least 1.");
+    }
+  }
+
+  /**
+   * Add an interval of signal.
+   *
+   * @param chr   the chr
+   * @param start the start (one based).
+   * @param end   the end (inclusive).
+   * @param value the value of each base of the interval.
+   * @return the writer
+   */
+  public CoverageIndexWriter add(Chromosome chr, int start, int end, double value) {
+    if (start < 1 || end < start) {
+      return this;
+    }
+
+    Intervals intervals = mChrMap.get(chr);
+
+    if (intervals == null) {
+      intervals = new Intervals();
+      mChrMap.put(chr, intervals);
+    }
+
+    intervals.add(start, end, (float) value);
+
+    return this;
+  }
+
+  /**
+   * Add the intervals of a bedGraph file. Track lines are ignored so
+   * multiple tracks in one file are merged.
+   *
+   * @param file the file
+   * @return the writer
+   * @throws IOException
+   */
+  public CoverageIndexWriter addBedGraph(Path file) throws IOException {
+    LOG.info("Indexing coverage of {}...", file);
+
+    BedReader reader = new BedReader(file, GenomeService.getInstance().guessGenome(file));
+
+    try {
+      while (reader.next()) {
+        if (reader.isTrackLine()) {
+          continue;
+        }
+
+        Chromosome chr = reader.getChr();
+
+        if (chr != null) {
+          add(chr, reader.getStart(), reader.getEnd(), reader.getDouble(3));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    return this;
+  }
+
+  /**
+   * Add the elements of a track. Elements that are not
+   * {@code BedGraphElement}s have a value of one.
+   *
+   * @param track the track
+   * @return the writer
+   */
+  public CoverageIndexWriter add(UCSCTrack track) {
+    for (Entry<Chromosome, List<GenomicElement>> item : track) {
+      for (GenomicElement e : item.getValue()) {
+        add(e.mChr, e.mStart, e.mEnd, e instanceof BedGraphElement ? ((BedGraphElement) e).getValue() : 1);
+      }
+    }
+
+    return this;
+  }
+
+  /**
+   * Add run length coverage, using the depth as the value.
+   *
+   * @param runs the runs
+   * @return the writer
+   */
+  public CoverageIndexWriter add(CoverageRuns runs) {
+    for (int i = 0; i < runs.size(); ++i) {
+      add(runs.getChr(), runs.getStart(i), runs.getEnd(i), runs.getDepth(i));
+    }
+
+    return this;
+  }
+
+  /**
+   * Add the run length coverage of a set of chromosomes.
+   *
+   * @param runs the runs
+   * @return the writer
+   */
+  public CoverageIndexWriter add(Map<Chromosome, CoverageRuns> runs) {
+    for (CoverageRuns r : runs.values()) {
+      add(r);
+    }
+
+    return this;
+  }
+
+  /**
+   * Add the depth of coverage of the features in a gap search. Each feature
+   * is counted once for each time it was added to the search.
+   *
+   * @param search the search
+   * @return the writer
+   */
+  public <T extends GenomicRegion> CoverageIndexWriter add(GapSearch<T> search) {
+    return add(Coverage.runs(search));
+  }
+
+  /**
+   * Write the index.
+   *
+   * @param file the file
+   * @throws IOException
+   */
+  public void write(Path file) throws IOException {
+    for (Intervals intervals : mChrMap.values()) {
+      intervals.normalize();
+    }
+
+    Path tmp = file.resolveSibling(PathUtils.getName(file) + ".tmp");
+
+    DataOutputStream writer = FileUtils.newDataOutputStream(tmp);
+
+    try {
+      writer.writeInt(CoverageIndex.CHECK);
+      writer.writeByte(CoverageIndex.VERSION);
+      writer.writeInt(mZooms.length);
+
+      for (int zoom : mZooms) {
+        writer.writeInt(zoom);
+      }
+
+      writer.writeInt(mChrMap.size());
+
+      // Sections follow the header, whose size depends on the names. These
+      // are measured as writeUTF encodes them, which is not quite standard
+      // UTF-8.
+      DataOutputStream names = new DataOutputStream(new ByteArrayOutputStream());
+
+      for (Chromosome chr : mChrMap.keySet()) {
+        names.writeUTF(chr.toString());
+      }
+
+      long offset = writer.size() + names.size() + (4 + 4 + 8 + 8) * mChrMap.size();
+
+      long header = offset;
+
+      for (Entry<Chromosome, Intervals> item : mChrMap.entrySet()) {
+        Intervals intervals = item.getValue();
+
+        long bytes = getBytes(intervals);
+
+        writer.writeUTF(item.getKey().toString());
+        writer.writeInt(intervals.getLength());
+        writer.writeInt(intervals.mSize);
+        writer.writeLong(offset);
+        writer.writeLong(bytes);
+
+        offset += bytes;
+      }
+
+      if (writer.size() != header) {
+        throw new IOException("Header of " + file + " is " + writer.size() + " bytes, expected " + header + ".");
+      }
+
+      for (Intervals intervals : mChrMap.values()) {
+        writeIndex(intervals, writer);
+
+        for (int i = 0; i < intervals.mSize; ++i) {
+          writer.writeInt(intervals.mStarts[i]);
+          writer.writeInt(intervals.mEnds[i]);
+          writer.writeFloat(intervals.mValues[i]);
+        }
+
+        for (int zoom : mZooms) {
+          writeZoom(intervals, zoom, writer);
+        }
+      }
+    } finally {
+      writer.close();
+    }
+
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Returns the size of the section of a chromosome.
+   */
+  private long getBytes(Intervals intervals) {
+    int length = intervals.getLength();
+
+    long ret = CoverageIndex.indexBins(length) * 4L + (long) intervals.mSize * CoverageIndex.INTERVAL_BYTES;
+
+    for (int zoom : mZooms) {
+      ret += (long) CoverageIndex.zoomBins(length, zoom) * CoverageIndex.ZOOM_BYTES;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Write the first interval ending in or after each index bin.
+   */
+  private static void writeIndex(Intervals intervals, DataOutputStream writer) throws IOException {
+    int n = CoverageIndex.indexBins(intervals.getLength());
+
+    int i = 0;
+
+    for (int b = 0; b < n; ++b) {
+      int start = b * CoverageIndex.INDEX_BIN_SIZE;
+
+      while (i < intervals.mSize && intervals.mEnds[i] < start) {
+        ++i;
+      }
+
+      writer.writeInt(i);
+    }
+  }
+
+  /**
+   * Summarise the intervals into the bins of a zoom level.
+   */
+  private static void writeZoom(Intervals intervals, int zoom, DataOutputStream writer) throws IOException {
+    int n = CoverageIndex.zoomBins(intervals.getLength(), zoom);
+
+    int[] coverage = new int[n];
+    float[] min = new float[n];
+    float[] max = new float[n];
+    double[] sum = new double[n];
+
+    Arrays.fill(min, Float.POSITIVE_INFINITY);
+    Arrays.fill(max, Float.NEGATIVE_INFINITY);
+
+    for (int i = 0; i < intervals.mSize; ++i) {
+      int s = intervals.mStarts[i];
+      int e = intervals.mEnds[i];
+      float v = intervals.mValues[i];
+
+      // Split the interval at bin boundaries
+      while (s <= e) {
+        int b = s / zoom;
+        int be = Math.min(e, (b + 1) * zoom - 1);
+        int l = be - s + 1;
+
+        coverage[b] += l;
+        min[b] = Math.min(min[b], v);
+        max[b] = Math.max(max[b], v);
+        sum[b] += (double) l * v;
+
+        s = be + 1;
+      }
+    }
+
+    for (int b = 0; b < n; ++b) {
+      writer.writeInt(coverage[b]);
+
+      if (coverage[b] > 0) {
+        writer.writeFloat(min[b]);
+        writer.writeFloat(max[b]);
+      } else {
+        writer.writeFloat(0);
+        writer.writeFloat(0);
+      }
+
+      writer.writeDouble(sum[b]);
+    }
+  }
+}
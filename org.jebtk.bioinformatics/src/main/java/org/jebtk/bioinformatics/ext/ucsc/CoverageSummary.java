@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.ext.ucsc;
+
+/**
+ * Summary of the signal in a window of a {@code CoverageIndex}. The coverage
+ * is the number of bases with a value, which is estimated when the window is
+ * summarised from a zoom level rather than from the intervals themselves.
+ *
+ * @author Antony Holmes
+ */
+public class CoverageSummary {
+  private double mCoverage = 0;
+  private double mMin = Double.POSITIVE_INFINITY;
+  private double mMax = Double.NEGATIVE_INFINITY;
+  private double mSum = 0;
+
+  /**
+   * Add some bases to the summary.
+   *
+   * @param coverage the number of bases.
+   * @param min      the smallest value of the bases.
+   * @param max      the largest value of the bases.
+   * @param sum      the sum of the value of each base.
+   */
+  void add(double coverage, double min, double max, double sum) {
+    mCoverage += coverage;
+    mMin = Math.min(mMin, min);
+    mMax = Math.max(mMax, max);
+    mSum += sum;
+  }
+
+  public boolean isEmpty() {
+    return mCoverage == 0;
+  }
+
+  /**
+   * Returns the number of bases with a value.
+   *
+   * @return the coverage
+   */
+  public double getCoverage() {
+    return mCoverage;
+  }
+
+  public double getMin() {
+    return isEmpty() ? 0 : mMin;
+  }
+
+  public double getMax() {
+    return isEmpty() ? 0 : mMax;
+  }
+
+  /**
+   * Returns the sum of the value of each base.
+   *
+   * @return the sum
+   */
+  public double getSum() {
+    return mSum;
+  }
+
+  /**
+   * Returns the mean value of the bases with a value.
+   *
+   * @return the mean or zero if the summary is empty.
+   */
+  public double getMean() {
+    return isEmpty() ? 0 : mSum / mCoverage;
+  }
+
+  @Override
+  public String toString() {
+    return getCoverage() + " " + getMin() + " " + getMax() + " " + getMean();
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.file;
+
+/**
+ * Parses decimal numbers from part of a line without first copying the text
+ * into a string. Numbers with up to 15 significant digits and small
+ * exponents, which covers the numbers in motif, BED and bedGraph files, are
+ * converted with one exact multiplication or division. Other numbers are
+ * given to {@code Double.parseDouble()}.
+ *
+ * @author Antony Holmes
+ */
+public class DecimalParser {
+
+  /**
+   * Powers of ten that can be represented exactly as doubles.
+   */
+  private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+      1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /**
+   * Largest mantissa that is exact as a double and so can be scaled by an
+   * exact power of ten with a single rounding.
+   */
+  private static final long MAX_EXACT = (1L << 53) - 1;
+
+  private DecimalParser() {
+    // Do nothing
+  }
+
+  /**
+   * Parse a decimal number from a string.
+   *
+   * @param s the string
+   * @return the number or NaN if the text is not a number.
+   */
+  public static double parseDouble(CharSequence s) {
+    return parseDouble(s, 0, s.length());
+  }
+
+  /**
+   * Parse a decimal number from part of a string.
+   *
+   * @param s     the string
+   * @param start the start of the number
+   * @param end   the end of the number (exclusive)
+   * @return the number or NaN if the text is not a number.
+   */
+  public static double parseDouble(CharSequence s, int start, int end) {
+    if (start >= end) {
+      return Double.NaN;
+    }
+
+    int i = start;
+
+    boolean negative = false;
+
+    char c = s.charAt(i);
+
+    if (c == '-' || c == '+') {
+      negative = c == '-';
+      ++i;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int exp = 0;
+    boolean anyDigits = false;
+    boolean point = false;
+
+    for (; i < end; ++i) {
+      c = s.charAt(i);
+
+      if (c >= '0' && c <= '9') {
+        anyDigits = true;
+
+        // Leading zeros are not significant
+        if (mantissa > 0 || c != '0') {
+          if (digits < 18) {
+            mantissa = mantissa * 10 + (c - '0');
+          } else if (!point) {
+            ++exp;
+          }
+
+          ++digits;
+        }
+
+        if (point && digits <= 18) {
+          --exp;
+        }
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+
+    if (!anyDigits) {
+      return Double.NaN;
+    }
+
+    if (i < end) {
+      if (c != 'e' && c != 'E') {
+        return Double.NaN;
+      }
+
+      ++i;
+
+      boolean negativeExp = false;
+
+      if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+        negativeExp = s.charAt(i) == '-';
+        ++i;
+      }
+
+      if (i == end) {
+        return Double.NaN;
+      }
+
+      int e = 0;
+
+      for (; i < end; ++i) {
+        c = s.charAt(i);
+
+        if (c < '0' || c > '9') {
+          return Double.NaN;
+        }
+
+        if (e < 10000) {
+          e = e * 10 + (c - '0');
+        }
+      }
+
+      exp += negativeExp ? -e : e;
+    }
+
+    double ret;
+
+    if (mantissa == 0) {
+      ret = 0;
+    } else if (digits <= 15 && mantissa <= MAX_EXACT && exp >= -22 && exp <= 22) {
+      ret = exp < 0 ? mantissa / POW10[-exp] : mantissa * POW10[exp];
+    } else {
+      return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+
+    return negative ? -ret : ret;
+  }
+}
@@ -116,7 +116,7 @@ public class BinaryGapSearch<T> extends FixedGapSearch<T> {
     // Make sure everything is sorted before doing anything
     organize();
 
-    Map<Integer, GappedSearchFeatures<T>> features = mFeatures.get(chr);
+    Map<Integer, GappedSearchFeatures<T>> features = get(chr);
     List<Integer> bins = mBins.get(chr);
 
     // SysUtils.err().println("bins", chr, mBins.keySet());
@@ -384,7 +384,7 @@ public class BinaryGapSearch<T> extends FixedGapSearch<T> {
   public int size(Chromosome chr) {
     int ret = 0;
 
-    IterMap<Integer, GappedSearchFeatures<T>> features = mFeatures.get(chr);
+    IterMap<Integer, GappedSearchFeatures<T>> features = get(chr);
 
     for (Entry<Integer, GappedSearchFeatures<T>> f : features) {
       ret += f.getValue().size();
@@ -401,7 +401,7 @@ public class BinaryGapSearch<T> extends FixedGapSearch<T> {
    * @return the features at
    */
   public GappedSearchFeatures<T> getFeaturesAt(Chromosome chr, int i) {
-    return mFeatures.get(chr).get(mBins.get(chr).get(i));
+    return get(chr).get(mBins.get(chr).get(i));
   }
 
   /**
@@ -427,7 +427,7 @@ public class BinaryGapSearch<T> extends FixedGapSearch<T> {
     // Make sure everything is sorted before doing anything
     organize();
 
-    Map<Integer, GappedSearchFeatures<T>> features = mFeatures.get(chr);
+    Map<Integer, GappedSearchFeatures<T>> features = get(chr);
 
     List<Integer> bins = mBins.get(chr);
 
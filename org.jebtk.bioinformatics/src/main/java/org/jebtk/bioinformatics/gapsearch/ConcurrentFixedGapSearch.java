@@ -0,0 +1,395 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.gapsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.Strand;
+import org.jebtk.core.collections.UniqueArrayList;
+
+/**
+ * Thread safe version of {@link FixedGapSearch} for read mostly use where
+ * features are added while other threads search.
+ *
+ * Writes to a chromosome are serialized by a lock per chromosome so writes to
+ * different chromosomes proceed in parallel. Bins are copy on write: a write
+ * builds a new copy of each bin it touches and then publishes it, so readers
+ * never lock and never see a partially built bin. A feature spanning several
+ * bins may be visible in some of its bins before the others until the write
+ * completes. Use {@link #addAll(Map)} to load many features at once so that
+ * each bin is copied once per batch rather than once per feature.
+ *
+ * @author Antony Holmes
+ * @param <T> the generic type
+ */
+public class ConcurrentFixedGapSearch<T> extends GapSearch<T> {
+
+  /**
+   * The bins of a chromosome. The object also acts as the write lock for the
+   * chromosome.
+   */
+  private static class ChrBins<T> {
+    private final ConcurrentNavigableMap<Integer, GappedSearchFeatures<T>> mBins = new ConcurrentSkipListMap<Integer, GappedSearchFeatures<T>>();
+  }
+
+  private final ConcurrentMap<Chromosome, ChrBins<T>> mFeatures = new ConcurrentSkipListMap<Chromosome, ChrBins<T>>();
+
+  private final AtomicInteger mSize = new AtomicInteger(0);
+
+  private final int mBinSize;
+
+  /**
+   * Instantiates a new concurrent fixed gap search.
+   */
+  public ConcurrentFixedGapSearch() {
+    this(FixedGapSearch.DEFAULT_BIN_SIZE);
+  }
+
+  /**
+   * Instantiates a new concurrent fixed gap search.
+   *
+   * @param binSize the bin size
+   */
+  public ConcurrentFixedGapSearch(int binSize) {
+    mBinSize = Math.max(1, binSize);
+  }
+
+  @Override
+  public void add(GenomicRegion region, T feature) {
+    addAll(region, Collections.singletonList(feature));
+  }
+
+  /**
+   * Add multiple features associated with the same region.
+   *
+   * @param region   the region
+   * @param features the features
+   */
+  public void addAll(GenomicRegion region, Collection<T> features) {
+    addAll(Collections.singletonMap(region, features));
+  }
+
+  /**
+   * Add the features of many regions. The regions are grouped by chromosome
+   * and the bins of each chromosome are copied and published once, so a bulk
+   * load takes time linear in the number of features.
+   *
+   * @param features the features of each region
+   */
+  public void addAll(Map<GenomicRegion, ? extends Collection<T>> features) {
+    Map<Chromosome, List<GenomicRegion>> chrMap = new HashMap<Chromosome, List<GenomicRegion>>();
+
+    for (GenomicRegion region : features.keySet()) {
+      List<GenomicRegion> regions = chrMap.get(region.getChr());
+
+      if (regions == null) {
+        regions = new ArrayList<GenomicRegion>();
+        chrMap.put(region.getChr(), regions);
+      }
+
+      regions.add(region);
+    }
+
+    for (Entry<Chromosome, List<GenomicRegion>> item : chrMap.entrySet()) {
+      ChrBins<T> chrBins = getChrBins(item.getKey());
+
+      synchronized (chrBins) {
+        Map<Integer, GappedSearchFeatures<T>> copies = new HashMap<Integer, GappedSearchFeatures<T>>();
+
+        for (GenomicRegion region : item.getValue()) {
+          int startBin = getBin(region.getStart());
+          int endBin = getBin(region.getEnd());
+
+          for (int bin = startBin; bin <= endBin; ++bin) {
+            GappedSearchFeatures<T> copy = copies.get(bin);
+
+            if (copy == null) {
+              copy = new GappedSearchFeatures<T>(bin);
+
+              GappedSearchFeatures<T> current = chrBins.mBins.get(bin);
+
+              if (current != null) {
+                copy.addAll(current);
+              }
+
+              copies.put(bin, copy);
+            }
+
+            copy.addAll(region, features.get(region));
+          }
+        }
+
+        // Publish the fully built bins
+        chrBins.mBins.putAll(copies);
+      }
+
+      mSize.addAndGet(item.getValue().size());
+    }
+  }
+
+  /**
+   * Adds a search object to this one.
+   *
+   * @param gappedSearch the gapped search
+   */
+  public void add(FixedGapSearch<T> gappedSearch) {
+    // A region spanning several bins is listed in each of them with the
+    // same features so only keep one copy
+    Map<GenomicRegion, List<T>> features = new TreeMap<GenomicRegion, List<T>>();
+
+    for (Chromosome chr : gappedSearch) {
+      for (Entry<Integer, GappedSearchFeatures<T>> f : gappedSearch.get(chr)) {
+        for (Entry<GenomicRegion, List<T>> r : f.getValue()) {
+          features.put(r.getKey(), r.getValue());
+        }
+      }
+    }
+
+    addAll(features);
+  }
+
+  private ChrBins<T> getChrBins(Chromosome chr) {
+    ChrBins<T> chrBins = mFeatures.get(chr);
+
+    if (chrBins == null) {
+      ChrBins<T> newBins = new ChrBins<T>();
+
+      chrBins = mFeatures.putIfAbsent(chr, newBins);
+
+      if (chrBins == null) {
+        chrBins = newBins;
+      }
+    }
+
+    return chrBins;
+  }
+
+  public int getBin(int x) {
+    return x / mBinSize;
+  }
+
+  @Override
+  public int size() {
+    return mSize.get();
+  }
+
+  @Override
+  public boolean contains(Chromosome chr) {
+    return mFeatures.containsKey(chr);
+  }
+
+  @Override
+  public List<T> getFeatures() {
+    List<T> ret = new UniqueArrayList<T>();
+
+    for (Chromosome chr : mFeatures.keySet()) {
+      ret.addAll(getFeatures(chr));
+    }
+
+    return ret;
+  }
+
+  @Override
+  public List<T> getFeatures(Chromosome chr) {
+    ChrBins<T> chrBins = mFeatures.get(chr);
+
+    if (chrBins == null) {
+      return Collections.emptyList();
+    }
+
+    List<T> ret = new UniqueArrayList<T>();
+
+    for (GappedSearchFeatures<T> f : chrBins.mBins.values()) {
+      for (Entry<GenomicRegion, List<T>> r : f) {
+        ret.addAll(r.getValue());
+      }
+    }
+
+    return ret;
+  }
+
+  @Override
+  public List<GappedSearchFeatures<T>> getBins(Chromosome chr) {
+    ChrBins<T> chrBins = mFeatures.get(chr);
+
+    if (chrBins == null) {
+      return Collections.emptyList();
+    }
+
+    return new ArrayList<GappedSearchFeatures<T>>(chrBins.mBins.values());
+  }
+
+  @Override
+  public List<GappedSearchFeatures<T>> getFeatures(Chromosome chr, int start, int end) {
+    ChrBins<T> chrBins = mFeatures.get(chr);
+
+    if (chrBins == null) {
+      return Collections.emptyList();
+    }
+
+    return new ArrayList<GappedSearchFeatures<T>>(
+        chrBins.mBins.subMap(getBin(start), true, getBin(end), true).values());
+  }
+
+  /**
+   * Return the closest set of features to the mid-point of a region.
+   *
+   * @param region the region
+   * @return the closest features
+   */
+  @Override
+  public List<T> getClosestFeatures(GenomicRegion region) {
+    if (region == null) {
+      return Collections.emptyList();
+    }
+
+    List<GappedSearchFeatures<T>> allFeatures = getFeatures(region);
+
+    if (allFeatures.size() == 0) {
+      return Collections.emptyList();
+    }
+
+    int minD = Integer.MAX_VALUE;
+
+    GappedSearchFeatures<T> minF = null;
+
+    int mid = GenomicRegion.mid(region);
+
+    for (GappedSearchFeatures<T> features : allFeatures) {
+      int d = Math.abs(mid - features.getPosition());
+
+      if (d < minD) {
+        minF = features;
+        minD = d;
+      }
+    }
+
+    return minF.toList();
+  }
+
+  /**
+   * Return the features closest to the mid-point of a region, grouped by
+   * distance. The distance of a feature is measured from its start, or its
+   * end if it is on the antisense strand.
+   *
+   * @param region the region
+   * @param n      the number of distances to return
+   * @return up to n lists of features in order of increasing distance
+   */
+  public List<List<T>> getClosestFeatures(GenomicRegion region, int n) {
+    ChrBins<T> chrBins = mFeatures.get(region.getChr());
+
+    if (chrBins == null || n < 1) {
+      return Collections.emptyList();
+    }
+
+    int mid = GenomicRegion.mid(region);
+    int midBin = getBin(mid);
+
+    TreeMap<Integer, List<T>> closestMap = new TreeMap<Integer, List<T>>();
+
+    // Every feature is in the bin containing the position its distance is
+    // measured from, so visit bins outwards from the mid-point until the
+    // next bin is further away than the nth closest distance found.
+    Integer left = chrBins.mBins.floorKey(midBin);
+    Integer right = chrBins.mBins.higherKey(midBin);
+
+    while (left != null || right != null) {
+      int dl = left != null ? mid - ((left + 1) * mBinSize - 1) : Integer.MAX_VALUE;
+      int dr = right != null ? right * mBinSize - mid : Integer.MAX_VALUE;
+
+      int bin;
+
+      if (dl <= dr) {
+        bin = left;
+        left = chrBins.mBins.lowerKey(left);
+      } else {
+        bin = right;
+        right = chrBins.mBins.higherKey(right);
+      }
+
+      if (closestMap.size() >= n && Math.max(0, Math.min(dl, dr)) > closestMap.lastKey()) {
+        break;
+      }
+
+      GappedSearchFeatures<T> features = chrBins.mBins.get(bin);
+
+      if (features == null) {
+        continue;
+      }
+
+      for (Entry<GenomicRegion, List<T>> r : features) {
+        GenomicRegion fr = r.getKey();
+
+        int p = Strand.isSense(fr.getStrand()) ? fr.getStart() : fr.getEnd();
+
+        // Only count a feature in the bin of its position so that features
+        // spanning several bins are not found twice
+        if (getBin(p) != bin) {
+          continue;
+        }
+
+        int d = Math.abs(p - mid);
+
+        List<T> values = closestMap.get(d);
+
+        if (values == null) {
+          values = new UniqueArrayList<T>();
+          closestMap.put(d, values);
+        }
+
+        values.addAll(r.getValue());
+
+        if (closestMap.size() > n) {
+          closestMap.pollLastEntry();
+        }
+      }
+    }
+
+    return new ArrayList<List<T>>(closestMap.values());
+  }
+
+  @Override
+  public Iterator<Chromosome> iterator() {
+    return mFeatures.keySet().iterator();
+  }
+}
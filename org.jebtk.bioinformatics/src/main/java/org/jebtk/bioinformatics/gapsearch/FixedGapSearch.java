@@ -30,7 +30,9 @@ package org.jebtk.bioinformatics.gapsearch;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,6 +44,7 @@ import org.jebtk.core.collections.ArrayListCreator;
 import org.jebtk.core.collections.CollectionUtils;
 import org.jebtk.core.collections.DefaultTreeMap;
 import org.jebtk.core.collections.IterMap;
+import org.jebtk.core.collections.IterTreeMap;
 import org.jebtk.core.collections.TreeMapCreator;
 import org.jebtk.core.collections.UniqueArrayList;
 import org.jebtk.core.sys.SysUtils;
@@ -60,7 +63,8 @@ public class FixedGapSearch<T> extends GapSearch<T> {
   protected static final int DEFAULT_BIN_SIZE = 10000;
 
   /**
-   * The member features.
+   * The member features. Looking up a chromosome that is not present creates
+   * an entry, so read only methods go through {@link #get(Chromosome)}.
    */
   protected IterMap<Chromosome, IterMap<Integer, GappedSearchFeatures<T>>> mFeatures = DefaultTreeMap
       .create(new TreeMapCreator<Integer, GappedSearchFeatures<T>>());
@@ -128,6 +132,13 @@ public class FixedGapSearch<T> extends GapSearch<T> {
     ++mSize;
   }
 
+  /**
+   * Add several features with the same region. The size of the search grows
+   * by the number of features, as if each had been added separately.
+   *
+   * @param region   the region
+   * @param features the features
+   */
   public void addAll(GenomicRegion region, Collection<T> features) {
     int startBin = getBin(region.getStart());
     int endBin = getBin(region.getEnd());
@@ -144,7 +155,7 @@ public class FixedGapSearch<T> extends GapSearch<T> {
       }
     }
 
-    ++mSize;
+    mSize += features.size();
   }
 
   public int getBin(int x) {
@@ -183,7 +194,19 @@ public class FixedGapSearch<T> extends GapSearch<T> {
     return mFeatures.containsKey(chr);
   }
 
+  /**
+   * Returns the bins of a chromosome. Looking up a chromosome does not modify
+   * the search, so searches shared between threads can be read under a read
+   * lock.
+   *
+   * @param chr the chr
+   * @return the bins, or an empty map if the chromosome has no features.
+   */
   public IterMap<Integer, GappedSearchFeatures<T>> get(Chromosome chr) {
+    if (!mFeatures.containsKey(chr)) {
+      return new IterTreeMap<Integer, GappedSearchFeatures<T>>();
+    }
+
     return mFeatures.get(chr);
   }
 
@@ -228,7 +251,7 @@ public class FixedGapSearch<T> extends GapSearch<T> {
   public List<T> getFeatures(Chromosome chr) {
     List<T> ret = new UniqueArrayList<T>();
 
-    for (Entry<Integer, GappedSearchFeatures<T>> f : mFeatures.get(chr)) {
+    for (Entry<Integer, GappedSearchFeatures<T>> f : get(chr)) {
       for (Entry<GenomicRegion, List<T>> r : f.getValue()) {
         ret.addAll(r.getValue());
       }
@@ -237,6 +260,23 @@ public class FixedGapSearch<T> extends GapSearch<T> {
     return ret;
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.jebtk.bioinformatics.gapsearch.GapSearch#getBins(org.jebtk.
+   * bioinformatics.genomic.Chromosome)
+   */
+  @Override
+  public List<GappedSearchFeatures<T>> getBins(Chromosome chr) {
+    List<GappedSearchFeatures<T>> ret = new ArrayList<GappedSearchFeatures<T>>();
+
+    for (Entry<Integer, GappedSearchFeatures<T>> f : get(chr)) {
+      ret.add(f.getValue());
+    }
+
+    return ret;
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -260,7 +300,7 @@ public class FixedGapSearch<T> extends GapSearch<T> {
    * @return the features by bin
    */
   public List<GappedSearchFeatures<T>> getFeaturesByBin(Chromosome chr, int sbin, int ebin) {
-    Map<Integer, GappedSearchFeatures<T>> features = mFeatures.get(chr);
+    Map<Integer, GappedSearchFeatures<T>> features = get(chr);
 
     if (features.size() == 0) {
       return Collections.emptyList();
@@ -294,7 +334,7 @@ public class FixedGapSearch<T> extends GapSearch<T> {
     int bs = getBin(start);
     int be = getBin(end);
 
-    Map<Integer, GappedSearchFeatures<T>> features = mFeatures.get(chr);
+    Map<Integer, GappedSearchFeatures<T>> features = get(chr);
 
     List<Integer> bins = CollectionUtils.sortKeys(features);
 
@@ -373,6 +413,40 @@ public class FixedGapSearch<T> extends GapSearch<T> {
     return mFeatures.keySet().iterator();
   }
 
+  /**
+   * Remove all of the features on a chromosome.
+   *
+   * @param chr the chr
+   * @return the number of features removed.
+   */
+  public int remove(Chromosome chr) {
+    IterMap<Integer, GappedSearchFeatures<T>> bins = mFeatures.remove(chr);
+
+    if (bins == null) {
+      return 0;
+    }
+
+    // Features spanning several bins are stored in each of them so count
+    // each region once
+    Map<GenomicRegion, Integer> counts = new HashMap<GenomicRegion, Integer>();
+
+    for (Entry<Integer, GappedSearchFeatures<T>> f : bins) {
+      for (Entry<GenomicRegion, List<T>> r : f.getValue()) {
+        counts.put(r.getKey(), r.getValue().size());
+      }
+    }
+
+    int n = 0;
+
+    for (int c : counts.values()) {
+      n += c;
+    }
+
+    mSize = Math.max(0, mSize - n);
+
+    return n;
+  }
+
   /**
    * Adds a search object to this one.
    *
@@ -380,14 +454,22 @@ public class FixedGapSearch<T> extends GapSearch<T> {
    */
   public void add(FixedGapSearch<T> gappedSearch) {
     for (Entry<Chromosome, IterMap<Integer, GappedSearchFeatures<T>>> f1 : gappedSearch.mFeatures) {
+      // Features spanning several bins are stored in each of them so add
+      // each region once
+      Map<GenomicRegion, List<T>> regions = new LinkedHashMap<GenomicRegion, List<T>>();
+
       for (Entry<Integer, GappedSearchFeatures<T>> f2 : f1.getValue()) {
         GappedSearchFeatures<T> search = f2.getValue();
 
         for (Entry<GenomicRegion, List<T>> r : search) {
-          addAll(r.getKey(), r.getValue());
+          regions.put(r.getKey(), r.getValue());
         }
       }
 
+      for (Entry<GenomicRegion, List<T>> r : regions.entrySet()) {
+        addAll(r.getKey(), r.getValue());
+      }
+
       /*
        * for (int bin : gappedSearch.mFeatures.get(chr)) {
        * 
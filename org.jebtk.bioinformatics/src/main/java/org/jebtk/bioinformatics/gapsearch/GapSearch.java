@@ -27,9 +27,12 @@
  */
 package org.jebtk.bioinformatics.gapsearch;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.jebtk.bioinformatics.genomic.Chromosome;
 import org.jebtk.bioinformatics.genomic.GenomicRegion;
@@ -97,6 +100,40 @@ public abstract class GapSearch<T> implements Iterable<Chromosome> {
    */
   public abstract List<T> getFeatures(Chromosome chr);
 
+  /**
+   * Returns every feature on a chromosome once for each time it was added.
+   * Unlike {@link #getFeatures(Chromosome)}, distinct features that are equal
+   * are all returned, so this is suitable for counting features.
+   *
+   * @param chr the chr
+   * @return the features
+   */
+  public List<T> getAllFeatures(Chromosome chr) {
+    List<T> ret = new ArrayList<T>();
+
+    // A region is stored in each bin it occupies, with the same features
+    Set<GenomicRegion> used = new TreeSet<GenomicRegion>();
+
+    for (GappedSearchFeatures<T> bin : getBins(chr)) {
+      for (Entry<GenomicRegion, List<T>> r : bin) {
+        if (used.add(r.getKey())) {
+          ret.addAll(r.getValue());
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the bins of a chromosome. Looking up a chromosome does not modify
+   * the search.
+   *
+   * @param chr the chr
+   * @return the bins or an empty list if the chromosome has no features.
+   */
+  public abstract List<GappedSearchFeatures<T>> getBins(Chromosome chr);
+
   public abstract boolean contains(Chromosome chr);
 
   /**
@@ -27,15 +27,16 @@
  */
 package org.jebtk.bioinformatics.gapsearch;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 
 import org.jebtk.bioinformatics.genomic.GenomicRegion;
-import org.jebtk.core.collections.ArrayListCreator;
-import org.jebtk.core.collections.DefaultTreeMap;
 import org.jebtk.core.collections.IterMap;
+import org.jebtk.core.collections.IterTreeMap;
 import org.jebtk.core.collections.UniqueArrayList;
 
 /**
@@ -55,7 +56,7 @@ public class SearchResults<T> implements Iterable<Entry<GenomicRegion, List<T>>>
   /**
    * The member features.
    */
-  private IterMap<GenomicRegion, List<T>> mFeatures = DefaultTreeMap.create(new ArrayListCreator<T>());
+  private IterMap<GenomicRegion, List<T>> mFeatures = new IterTreeMap<GenomicRegion, List<T>>();
 
   /**
    * Adds the.
@@ -63,11 +64,41 @@ public class SearchResults<T> implements Iterable<Entry<GenomicRegion, List<T>>>
    * @param feature the feature
    */
   public void add(GenomicRegion region, T feature) {
-    mFeatures.get(region).add(feature);
+    values(region).add(feature);
   }
 
+  /**
+   * Returns the values of a region. Looking up a region does not modify the
+   * results, so results shared between threads can be read without locking.
+   *
+   * @param region the region
+   * @return the values or an empty list if the region is not present.
+   */
   public List<T> getValues(GenomicRegion region) {
-    return mFeatures.get(region);
+    List<T> ret = mFeatures.get(region);
+
+    if (ret == null) {
+      return Collections.emptyList();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the values of a region, creating the list if necessary.
+   *
+   * @param region the region
+   * @return the values
+   */
+  private List<T> values(GenomicRegion region) {
+    List<T> ret = mFeatures.get(region);
+
+    if (ret == null) {
+      ret = new ArrayList<T>();
+      mFeatures.put(region, ret);
+    }
+
+    return ret;
   }
 
   /*
@@ -116,6 +147,6 @@ public class SearchResults<T> implements Iterable<Entry<GenomicRegion, List<T>>>
   }
 
   public void addAll(GenomicRegion r, Collection<T> values) {
-    mFeatures.get(r).addAll(values);
+    values(r).addAll(values);
   }
 }
@@ -0,0 +1,670 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Asynchronous version of {@code WebGenes} for annotating many locations at
+ * once, for example all the peaks in a file. Rather than one HTTP request per
+ * query, queries made within a short time of each other are coalesced into a
+ * single POST whose body lists all of the locations or ids and whose response
+ * is an array of results in the same order.
+ *
+ * At most a fixed number of requests are in flight at once, each thread
+ * reusing its keep-alive connection to the server. Results are cached, so
+ * that repeated queries, including ones still in flight, do not go back to the
+ * server.
+ *
+ * {@code WebGenesServer} implements the server side of the protocol.
+ *
+ * @author Antony Holmes
+ */
+public class AsyncWebGenes extends GenesDB {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  public static final int DEFAULT_CONCURRENCY = 4;
+
+  public static final int DEFAULT_CACHE_SIZE = 10000;
+
+  /**
+   * How long in ms to wait for more queries before sending a batch that is
+   * not full.
+   */
+  public static final long DEFAULT_LINGER = 5;
+
+  /**
+   * How long in ms to wait to connect to the service and for each read of
+   * the response before failing the batch.
+   */
+  public static final int DEFAULT_TIMEOUT = 30000;
+
+  /**
+   * Leaves the response open once the json has been read so that it can be
+   * drained.
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+  private static final String FIND = "find";
+
+  private static final String SEARCH = "search";
+
+  /**
+   * Queries waiting to be sent to the same end point with the same genome,
+   * type and minimum overlap.
+   */
+  private static class Batch {
+    private final String mPath;
+    private final Genome mGenome;
+    private final GenomicType mType;
+    private final int mMinBp;
+    private final List<String> mQueries = new ArrayList<String>();
+    private final List<CompletableFuture<List<GenomicElement>>> mFutures = new ArrayList<CompletableFuture<List<GenomicElement>>>();
+
+    public Batch(String path, Genome genome, GenomicType type, int minBp) {
+      mPath = path;
+      mGenome = genome;
+      mType = type;
+      mMinBp = minBp;
+    }
+
+    public void add(String query, CompletableFuture<List<GenomicElement>> future) {
+      mQueries.add(query);
+      mFutures.add(future);
+    }
+
+    public int size() {
+      return mQueries.size();
+    }
+  }
+
+  private final URL mUrl;
+
+  private final WebGenes mWebGenes;
+
+  private final int mBatchSize;
+
+  private final long mLinger;
+
+  private final int mCacheSize;
+
+  private final int mTimeout;
+
+  /**
+   * Sends requests. The number of threads bounds the number of requests in
+   * flight.
+   */
+  private final ExecutorService mExecutor;
+
+  private final ScheduledExecutorService mScheduler;
+
+  private final Map<String, Batch> mPending = new HashMap<String, Batch>();
+
+  /**
+   * Results of queries in least recently used order. Also guards the
+   * statistics.
+   */
+  private final Map<String, CompletableFuture<List<GenomicElement>>> mCache;
+
+  private long mHits = 0;
+
+  private long mMisses = 0;
+
+  private long mRequests = 0;
+
+  public AsyncWebGenes(URL url) {
+    this(url, DEFAULT_BATCH_SIZE, DEFAULT_CONCURRENCY, DEFAULT_CACHE_SIZE);
+  }
+
+  public AsyncWebGenes(URL url, int batchSize, int concurrency, int cacheSize) {
+    this(url, batchSize, concurrency, cacheSize, DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * Instantiates a new async web genes.
+   *
+   * @param url         the base url of the service.
+   * @param batchSize   the maximum number of queries per request.
+   * @param concurrency the maximum number of requests in flight.
+   * @param cacheSize   the maximum number of results to cache.
+   * @param timeout     the connect and read timeout in ms. Zero waits
+   *                    forever.
+   */
+  public AsyncWebGenes(URL url, int batchSize, int concurrency, int cacheSize, int timeout) {
+    mUrl = url;
+    mWebGenes = new WebGenes(url);
+    mBatchSize = Math.max(1, batchSize);
+    mLinger = DEFAULT_LINGER;
+    mCacheSize = Math.max(1, cacheSize);
+    mTimeout = Math.max(0, timeout);
+
+    mExecutor = Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+      Thread t = new Thread(r, "async-web-genes");
+      t.setDaemon(true);
+      return t;
+    });
+
+    mScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "async-web-genes-linger");
+      t.setDaemon(true);
+      return t;
+    });
+
+    mCache = new LinkedHashMap<String, CompletableFuture<List<GenomicElement>>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<List<GenomicElement>>> eldest) {
+        return size() > mCacheSize;
+      }
+    };
+  }
+
+  /**
+   * Find the elements overlapping a region. The query is sent with any others
+   * made around the same time.
+   *
+   * @param genome the genome
+   * @param region the region
+   * @param type   the type
+   * @param minBp  the minimum overlap
+   * @return the elements when the request completes.
+   */
+  public CompletableFuture<List<GenomicElement>> findAsync(Genome genome, GenomicRegion region, GenomicType type,
+      int minBp) {
+    return submit(FIND, genome, type, minBp, region.getLocation());
+  }
+
+  /**
+   * Search for elements by id. The query is sent with any others made around
+   * the same time.
+   *
+   * @param genome the genome
+   * @param search the id
+   * @param type   the type
+   * @return the elements when the request completes.
+   */
+  public CompletableFuture<List<GenomicElement>> getElementsAsync(Genome genome, String search, GenomicType type) {
+    return submit(SEARCH, genome, type, 1, search);
+  }
+
+  @Override
+  public List<GenomicElement> find(Genome genome, GenomicRegion region, GenomicType type, int minBp) {
+    CompletableFuture<List<GenomicElement>> f = findAsync(genome, region, type, minBp);
+
+    flush();
+
+    return get(f);
+  }
+
+  @Override
+  public List<GenomicElement> getElements(Genome genome, String search, GenomicType type) {
+    CompletableFuture<List<GenomicElement>> f = getElementsAsync(genome, search, type);
+
+    flush();
+
+    return get(f);
+  }
+
+  /**
+   * Find the elements overlapping each of a set of regions using as few
+   * requests as possible.
+   *
+   * @param genome  the genome
+   * @param regions the regions
+   * @param type    the type
+   * @param minBp   the minimum overlap
+   * @return the elements overlapping each region, in the same order as the
+   *         regions.
+   */
+  public List<List<GenomicElement>> find(Genome genome, List<? extends GenomicRegion> regions, GenomicType type,
+      int minBp) {
+    List<CompletableFuture<List<GenomicElement>>> futures = new ArrayList<CompletableFuture<List<GenomicElement>>>(
+        regions.size());
+
+    for (GenomicRegion region : regions) {
+      futures.add(findAsync(genome, region, type, minBp));
+    }
+
+    flush();
+
+    return get(futures);
+  }
+
+  /**
+   * Search for the elements matching each of a set of ids using as few
+   * requests as possible.
+   *
+   * @param genome the genome
+   * @param ids    the ids
+   * @param type   the type
+   * @return the elements matching each id, in the same order as the ids.
+   */
+  public List<List<GenomicElement>> getElements(Genome genome, List<String> ids, GenomicType type) {
+    List<CompletableFuture<List<GenomicElement>>> futures = new ArrayList<CompletableFuture<List<GenomicElement>>>(
+        ids.size());
+
+    for (String id : ids) {
+      futures.add(getElementsAsync(genome, id, type));
+    }
+
+    flush();
+
+    return get(futures);
+  }
+
+  @Override
+  public Iterable<Genome> getGenomes() {
+    return mWebGenes.getGenomes();
+  }
+
+  @Override
+  public List<GenomicElement> closest(Genome genome, GenomicRegion region, GenomicType type, int minBp)
+      throws IOException {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public void add(GenomicElement element) {
+    // Do nothing
+  }
+
+  /**
+   * Send all waiting queries without waiting for their batches to fill.
+   */
+  public void flush() {
+    List<Batch> batches;
+
+    synchronized (mPending) {
+      batches = new ArrayList<Batch>(mPending.values());
+      mPending.clear();
+    }
+
+    for (Batch batch : batches) {
+      send(batch);
+    }
+  }
+
+  /**
+   * Stop the threads sending requests. Queries made after the client is shut
+   * down will fail.
+   */
+  public void shutdown() {
+    flush();
+
+    mScheduler.shutdown();
+    mExecutor.shutdown();
+  }
+
+  /**
+   * Returns the number of queries answered from the cache.
+   *
+   * @return the hits
+   */
+  public long getHits() {
+    synchronized (mCache) {
+      return mHits;
+    }
+  }
+
+  /**
+   * Returns the number of queries sent to the server.
+   *
+   * @return the misses
+   */
+  public long getMisses() {
+    synchronized (mCache) {
+      return mMisses;
+    }
+  }
+
+  /**
+   * Returns the number of HTTP requests made to the server.
+   *
+   * @return the requests
+   */
+  public long getRequests() {
+    synchronized (mCache) {
+      return mRequests;
+    }
+  }
+
+  /**
+   * Remove all cached results.
+   */
+  public void clear() {
+    synchronized (mCache) {
+      mCache.clear();
+    }
+  }
+
+  private CompletableFuture<List<GenomicElement>> submit(String path, Genome genome, GenomicType type, int minBp,
+      String query) {
+    String batchKey = path + '\t' + genome.getName() + '\t' + genome.getAssembly() + '\t' + genome.getTrack() + '\t'
+        + type + '\t' + minBp;
+
+    String key = batchKey + '\t' + query;
+
+    CompletableFuture<List<GenomicElement>> f;
+
+    synchronized (mCache) {
+      f = mCache.get(key);
+
+      // A failed query may still be cached if the caller sees the failure
+      // before the future removes itself
+      if (f != null && !f.isCompletedExceptionally()) {
+        ++mHits;
+
+        return f;
+      }
+
+      ++mMisses;
+
+      f = new CompletableFuture<List<GenomicElement>>();
+
+      mCache.put(key, f);
+    }
+
+    // Failed queries are not cached so they can be retried
+    final CompletableFuture<List<GenomicElement>> future = f;
+
+    future.whenComplete((v, e) -> {
+      if (e != null) {
+        synchronized (mCache) {
+          mCache.remove(key, future);
+        }
+      }
+    });
+
+    Batch full = null;
+
+    synchronized (mPending) {
+      Batch batch = mPending.get(batchKey);
+
+      boolean linger = true;
+
+      if (batch == null) {
+        batch = new Batch(path, genome, type, minBp);
+        mPending.put(batchKey, batch);
+
+        final Batch b = batch;
+
+        try {
+          mScheduler.schedule(() -> flush(batchKey, b), mLinger, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+          // The client has been shut down so send the batch straight away,
+          // which fails it, rather than leave it waiting forever
+          linger = false;
+        }
+      }
+
+      batch.add(query, future);
+
+      if (batch.size() >= mBatchSize || !linger) {
+        mPending.remove(batchKey);
+        full = batch;
+      }
+    }
+
+    if (full != null) {
+      send(full);
+    }
+
+    return future;
+  }
+
+  /**
+   * Send a batch if it has not already been sent.
+   */
+  private void flush(String batchKey, Batch batch) {
+    synchronized (mPending) {
+      if (mPending.get(batchKey) != batch) {
+        return;
+      }
+
+      mPending.remove(batchKey);
+    }
+
+    send(batch);
+  }
+
+  private void send(final Batch batch) {
+    try {
+      mExecutor.execute(() -> {
+        try {
+          List<List<GenomicElement>> results = post(batch);
+
+          for (int i = 0; i < batch.mFutures.size(); ++i) {
+            batch.mFutures.get(i).complete(Collections.unmodifiableList(results.get(i)));
+          }
+        } catch (Throwable e) {
+          // Any failure, including a malformed response, must complete the
+          // futures or callers waiting on them would hang
+          fail(batch, e);
+        }
+      });
+    } catch (RuntimeException e) {
+      // For example the executor has been shut down
+      fail(batch, e);
+    }
+  }
+
+  /**
+   * Complete the queries of a batch that could not be sent or answered.
+   * Failed futures remove themselves from the cache so the queries can be
+   * retried.
+   */
+  private static void fail(Batch batch, Throwable e) {
+    e.printStackTrace();
+
+    for (CompletableFuture<List<GenomicElement>> f : batch.mFutures) {
+      f.completeExceptionally(e);
+    }
+  }
+
+  private List<List<GenomicElement>> post(Batch batch) throws IOException {
+    ObjectNode body = MAPPER.createObjectNode();
+
+    body.put("genome", batch.mGenome.getName());
+    body.put("assembly", batch.mGenome.getAssembly());
+    body.put("track", batch.mGenome.getTrack());
+    body.put("type", batch.mType.name());
+    body.put("minbp", batch.mMinBp);
+
+    ArrayNode queries = body.putArray("q");
+
+    for (String query : batch.mQueries) {
+      queries.add(query);
+    }
+
+    HttpURLConnection conn = (HttpURLConnection) resolve(batch.mPath).openConnection();
+
+    conn.setConnectTimeout(mTimeout);
+    conn.setReadTimeout(mTimeout);
+    conn.setRequestMethod("POST");
+    conn.setDoOutput(true);
+    conn.setRequestProperty("Content-Type", "application/json");
+
+    try (OutputStream out = conn.getOutputStream()) {
+      out.write(MAPPER.writeValueAsBytes(body));
+    }
+
+    synchronized (mCache) {
+      ++mRequests;
+    }
+
+    int code = conn.getResponseCode();
+
+    if (code != HttpURLConnection.HTTP_OK) {
+      // Read the error so the connection can be reused
+      InputStream err = conn.getErrorStream();
+
+      if (err != null) {
+        try (InputStream in = err) {
+          drain(in);
+        }
+      }
+
+      throw new IOException(conn.getURL() + " returned " + code);
+    }
+
+    JsonNode json;
+
+    try (InputStream in = conn.getInputStream()) {
+      json = MAPPER.readTree(in);
+
+      // The connection is only returned to the keep-alive cache once the
+      // response has been read to the end
+      drain(in);
+    }
+
+    List<List<GenomicElement>> ret = new ArrayList<List<GenomicElement>>(json.size());
+
+    for (JsonNode genesJson : json) {
+      List<GenomicElement> genes = new ArrayList<GenomicElement>(genesJson.size());
+
+      for (JsonNode geneJson : genesJson) {
+        genes.add(parse(batch.mGenome, geneJson));
+      }
+
+      ret.add(genes);
+    }
+
+    // A short response cannot be matched to the queries so nothing in it
+    // can be trusted
+    if (ret.size() != batch.size()) {
+      throw new IOException(conn.getURL() + " returned " + ret.size() + " results for " + batch.size() + " queries");
+    }
+
+    return ret;
+  }
+
+  private URL resolve(String path) throws MalformedURLException {
+    String url = mUrl.toString();
+
+    if (!url.endsWith("/")) {
+      url += "/";
+    }
+
+    return new URL(url + path);
+  }
+
+  /**
+   * Parse a gene in the format returned by the genes service.
+   *
+   * @param genome   the genome
+   * @param geneJson the gene json
+   * @return the gene
+   */
+  private static GenomicElement parse(Genome genome, JsonNode geneJson) {
+    GenomicRegion l = GenomicRegion.parse(genome, geneJson.get("loc").asText());
+
+    Strand s = Strand.parse(geneJson.get("strand").asText());
+
+    Transcript gene = new Transcript(l, s);
+
+    JsonNode exonsJson = geneJson.get("exons");
+
+    if (exonsJson != null) {
+      for (JsonNode exonJson : exonsJson) {
+        gene.addExon(GenomicRegion.parse(genome, exonJson.get("loc").asText()));
+      }
+    }
+
+    JsonNode idsJson = geneJson.get("ids");
+
+    if (idsJson != null) {
+      addId(GenomicEntity.GENE_ID, idsJson, gene);
+      addId(GenomicEntity.TRANSCRIPT_ID, idsJson, gene);
+      addId(GenomicEntity.GENE_NAME, idsJson, gene);
+    }
+
+    return gene;
+  }
+
+  private static void addId(String name, JsonNode json, GenomicElement gene) {
+    if (json.has(name)) {
+      gene.setProperty(name, json.get(name).asText());
+    }
+  }
+
+  private static void drain(InputStream in) throws IOException {
+    byte[] buffer = new byte[4096];
+
+    while (in.read(buffer) != -1) {
+      // Do nothing
+    }
+  }
+
+  /**
+   * Wait for a query, returning an empty list if it failed.
+   */
+  private static List<GenomicElement> get(CompletableFuture<List<GenomicElement>> f) {
+    try {
+      return f.join();
+    } catch (RuntimeException e) {
+      return Collections.emptyList();
+    }
+  }
+
+  private static List<List<GenomicElement>> get(List<CompletableFuture<List<GenomicElement>>> futures) {
+    List<List<GenomicElement>> ret = new ArrayList<List<GenomicElement>>(futures.size());
+
+    for (CompletableFuture<List<GenomicElement>> f : futures) {
+      ret.add(get(f));
+    }
+
+    return ret;
+  }
+}
@@ -0,0 +1,493 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Caches the results of queries of another genes database so that repeated
+ * lookups of the same locus or id, which are common from user interfaces and
+ * web services, do not have to search the database again. Results are keyed
+ * by query, genome, region or id, type and minimum overlap.
+ *
+ * The cache holds a maximum number of results, discarding the least recently
+ * used, and results can optionally expire after a fixed time. Concurrent
+ * callers asking the same query wait for a single search of the database
+ * rather than each searching it. Since results are shared between callers
+ * they are returned as unmodifiable lists.
+ *
+ * @author Antony Holmes
+ */
+public class CachedGenesDB extends GenesDB {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /**
+   * Results never expire.
+   */
+  public static final long NO_TTL = Long.MAX_VALUE;
+
+  /**
+   * The query types.
+   */
+  private enum QueryType {
+    FIND, CLOSEST, CLOSEST_TSS, NTH_CLOSEST, ELEMENTS
+  }
+
+  /**
+   * Identifies a query.
+   */
+  private static class QueryKey {
+    private final QueryType mQuery;
+    private final Genome mGenome;
+    private final Chromosome mChr;
+    private final int mStart;
+    private final int mEnd;
+    private final String mId;
+    private final GenomicType mType;
+    private final int mN;
+    private final int mHash;
+
+    public QueryKey(QueryType query, Genome genome, GenomicRegion region, GenomicType type, int n) {
+      this(query, genome, region.mChr, region.mStart, region.mEnd, null, type, n);
+    }
+
+    public QueryKey(QueryType query, Genome genome, String id, GenomicType type) {
+      this(query, genome, null, 0, 0, id, type, 0);
+    }
+
+    private QueryKey(QueryType query, Genome genome, Chromosome chr, int start, int end, String id, GenomicType type,
+        int n) {
+      mQuery = query;
+      mGenome = genome;
+      mChr = chr;
+      mStart = start;
+      mEnd = end;
+      mId = id;
+      mType = type;
+      mN = n;
+
+      mHash = Objects.hash(query, genome, chr, start, end, id, type, n);
+    }
+
+    @Override
+    public int hashCode() {
+      return mHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof QueryKey)) {
+        return false;
+      }
+
+      QueryKey k = (QueryKey) o;
+
+      return mQuery == k.mQuery && mStart == k.mStart && mEnd == k.mEnd && mN == k.mN && mType == k.mType
+          && Objects.equals(mChr, k.mChr) && Objects.equals(mId, k.mId) && Objects.equals(mGenome, k.mGenome);
+    }
+  }
+
+  /**
+   * A cached result, which may still be being searched for, and when it
+   * expires.
+   */
+  private static class CacheEntry {
+    private final QueryKey mKey;
+    private final CompletableFuture<List<?>> mValue = new CompletableFuture<List<?>>();
+    private final long mExpires;
+
+    public CacheEntry(QueryKey key, long expires) {
+      mKey = key;
+      mExpires = expires;
+    }
+  }
+
+  /**
+   * Searches the database for the result of a query.
+   */
+  private interface Query<T> {
+    List<T> search() throws IOException;
+  }
+
+  private final GenomicElementsDB mDb;
+
+  private final int mMaxSize;
+
+  private final long mTtl;
+
+  /**
+   * Cached results in least recently used order. Also guards the statistics.
+   */
+  private final Map<QueryKey, CacheEntry> mCache;
+
+  /**
+   * Cached results that can expire in the order they were added, which since
+   * every result lives for the same time is also the order they expire.
+   */
+  private final Deque<CacheEntry> mExpiry = new ArrayDeque<CacheEntry>();
+
+  private long mHits = 0;
+
+  private long mMisses = 0;
+
+  private long mEvictions = 0;
+
+  private long mExpirations = 0;
+
+  /**
+   * Instantiates a new cached genes db with the default size and no expiry.
+   *
+   * @param db the db to cache.
+   */
+  public CachedGenesDB(GenomicElementsDB db) {
+    this(db, DEFAULT_MAX_SIZE, NO_TTL);
+  }
+
+  /**
+   * Instantiates a new cached genes db.
+   *
+   * @param db      the db to cache.
+   * @param maxSize the maximum number of results to cache.
+   * @param ttl     how long in ms results remain valid, or {@code NO_TTL}.
+   */
+  public CachedGenesDB(GenomicElementsDB db, final int maxSize, long ttl) {
+    mDb = db;
+    mMaxSize = Math.max(1, maxSize);
+    mTtl = ttl;
+
+    mCache = new LinkedHashMap<QueryKey, CacheEntry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<QueryKey, CacheEntry> eldest) {
+        if (size() > mMaxSize) {
+          ++mEvictions;
+
+          return true;
+        } else {
+          return false;
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the database being cached.
+   *
+   * @return the db
+   */
+  public GenomicElementsDB getDb() {
+    return mDb;
+  }
+
+  @Override
+  public List<GenomicElement> find(Genome genome, GenomicRegion region, GenomicType type, int minBp) {
+    QueryKey key = new QueryKey(QueryType.FIND, genome, region, type, minBp);
+
+    return getUnchecked(key, () -> mDb.find(genome, region, type, minBp));
+  }
+
+  @Override
+  public List<GenomicElement> closest(Genome genome, GenomicRegion region, GenomicType type, int minBp)
+      throws IOException {
+    QueryKey key = new QueryKey(QueryType.CLOSEST, genome, region, type, minBp);
+
+    return get(key, () -> mDb.closest(genome, region, type, minBp));
+  }
+
+  @Override
+  public List<GenomicElement> closestByTss(Genome genome, GenomicRegion region, GenomicType type, int minBp)
+      throws IOException {
+    QueryKey key = new QueryKey(QueryType.CLOSEST_TSS, genome, region, type, minBp);
+
+    return get(key, () -> mDb.closestByTss(genome, region, type, minBp));
+  }
+
+  @Override
+  public List<List<GenomicElement>> nthClosest(Genome genome, GenomicRegion region, int n, GenomicType type) {
+    QueryKey key = new QueryKey(QueryType.NTH_CLOSEST, genome, region, type, n);
+
+    return getUnchecked(key, () -> mDb.nthClosest(genome, region, n, type));
+  }
+
+  @Override
+  public List<GenomicElement> getElements(Genome genome, String search, GenomicType type) {
+    QueryKey key = new QueryKey(QueryType.ELEMENTS, genome, search, type);
+
+    return getUnchecked(key, () -> mDb.getElements(genome, search, type));
+  }
+
+  @Override
+  public List<GenomicElement> getElements() {
+    return mDb.getElements();
+  }
+
+  @Override
+  public List<GenomicElement> getElements(Chromosome chr) {
+    return mDb.getElements(chr);
+  }
+
+  @Override
+  public TssIndex getTssIndex(GenomicType type) {
+    return mDb.getTssIndex(type);
+  }
+
+  @Override
+  public Iterable<String> getIds(String type) {
+    return mDb.getIds(type);
+  }
+
+  @Override
+  public boolean contains(Chromosome chr) {
+    return mDb.contains(chr);
+  }
+
+  @Override
+  public Iterable<Genome> getGenomes() {
+    return mDb.getGenomes();
+  }
+
+  /**
+   * Adds an element to the underlying database and clears the cache since
+   * cached results may no longer be correct.
+   */
+  @Override
+  public void add(GenomicElement element) {
+    mDb.add(element);
+
+    clear();
+  }
+
+  /**
+   * Remove all cached results.
+   */
+  public void clear() {
+    synchronized (mCache) {
+      mCache.clear();
+      mExpiry.clear();
+    }
+  }
+
+  /**
+   * Returns the number of cached results.
+   *
+   * @return the size
+   */
+  public int size() {
+    synchronized (mCache) {
+      return mCache.size();
+    }
+  }
+
+  /**
+   * Returns the number of queries answered from the cache.
+   *
+   * @return the hits
+   */
+  public long getHits() {
+    synchronized (mCache) {
+      return mHits;
+    }
+  }
+
+  /**
+   * Returns the number of queries that had to be passed to the database.
+   *
+   * @return the misses
+   */
+  public long getMisses() {
+    synchronized (mCache) {
+      return mMisses;
+    }
+  }
+
+  /**
+   * Returns the fraction of queries answered from the cache.
+   *
+   * @return the hit rate
+   */
+  public double getHitRate() {
+    synchronized (mCache) {
+      long total = mHits + mMisses;
+
+      return total > 0 ? (double) mHits / total : 0;
+    }
+  }
+
+  /**
+   * Returns the number of results discarded to keep the cache within its
+   * maximum size.
+   *
+   * @return the evictions
+   */
+  public long getEvictions() {
+    synchronized (mCache) {
+      return mEvictions;
+    }
+  }
+
+  /**
+   * Returns the number of results discarded because they expired.
+   *
+   * @return the expirations
+   */
+  public long getExpirations() {
+    synchronized (mCache) {
+      return mExpirations;
+    }
+  }
+
+  /**
+   * Returns the cached result of a query, searching the database if the
+   * result is not cached. If the query is already being searched for by
+   * another thread, waits for its result. Failed searches are not cached.
+   *
+   * @param key   the query key.
+   * @param query searches the database.
+   * @return the result
+   * @throws IOException if the search failed.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> List<T> get(QueryKey key, Query<T> query) throws IOException {
+    CacheEntry entry;
+
+    boolean search = false;
+
+    synchronized (mCache) {
+      long time = System.currentTimeMillis();
+
+      entry = mCache.get(key);
+
+      if (entry != null && time >= entry.mExpires) {
+        mCache.remove(key);
+
+        ++mExpirations;
+
+        entry = null;
+      }
+
+      if (entry != null) {
+        ++mHits;
+      } else {
+        ++mMisses;
+
+        removeExpired(time);
+
+        entry = new CacheEntry(key, mTtl == NO_TTL ? Long.MAX_VALUE : time + mTtl);
+
+        mCache.put(key, entry);
+
+        if (mTtl != NO_TTL) {
+          mExpiry.add(entry);
+        }
+
+        search = true;
+      }
+    }
+
+    if (search) {
+      try {
+        List<T> ret = Collections.unmodifiableList(query.search());
+
+        entry.mValue.complete(ret);
+
+        return ret;
+      } catch (IOException | RuntimeException | Error e) {
+        synchronized (mCache) {
+          mCache.remove(key, entry);
+        }
+
+        entry.mValue.completeExceptionally(e);
+
+        throw e;
+      }
+    }
+
+    try {
+      return (List<T>) entry.mValue.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof IOException) {
+        throw new IOException(cause);
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Returns the cached result of a query whose search cannot throw an
+   * {@code IOException}.
+   *
+   * @param key   the query key.
+   * @param query searches the database.
+   * @return the result
+   */
+  private <T> List<T> getUnchecked(QueryKey key, Query<T> query) {
+    try {
+      return get(key, query);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Discard cached results that have expired. Must be called holding the
+   * lock on the cache.
+   *
+   * @param time the current time.
+   */
+  private void removeExpired(long time) {
+    while (!mExpiry.isEmpty() && time >= mExpiry.peekFirst().mExpires) {
+      CacheEntry entry = mExpiry.removeFirst();
+
+      // Entries may already have been replaced or evicted
+      if (mCache.remove(entry.mKey, entry)) {
+        ++mExpirations;
+      }
+    }
+  }
+}
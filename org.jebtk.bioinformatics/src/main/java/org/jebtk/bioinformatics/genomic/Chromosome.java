@@ -27,6 +27,8 @@
  */
 package org.jebtk.bioinformatics.genomic;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -65,6 +67,21 @@ public class Chromosome implements Comparable<Chromosome>, IdProperty, NameGette
 
   public static final ChrParser MOUSE_PARSER = new MouseChrParser();
 
+  /**
+   * Canonical chromosomes of each parser indexed by the names they were
+   * created from, so that decoding millions of elements shares a handful of
+   * chromosome objects and does not have to parse each name again.
+   */
+  private static final Map<ChrParser, Map<String, Chromosome>> CHR_CACHE = new ConcurrentHashMap<ChrParser, Map<String, Chromosome>>();
+
+  /**
+   * The maximum number of names cached per parser. Assemblies with many
+   * thousands of contigs, or files with junk in the chromosome column,
+   * would otherwise grow the cache forever. Names beyond the limit get a new
+   * instance each time, equal to but not the same object as the others.
+   */
+  public static final int MAX_CACHED_NAMES = 10000;
+
   /**
    * The member chr.
    */
@@ -317,9 +334,27 @@ public class Chromosome implements Comparable<Chromosome>, IdProperty, NameGette
   }
 
   public static Chromosome newChr(String chr, ChrParser parser) {
-    String shortName = getShortName(chr);
-    int id = parser.getId(shortName);
+    Map<String, Chromosome> cache = CHR_CACHE.computeIfAbsent(parser,
+        p -> new ConcurrentHashMap<String, Chromosome>());
+
+    Chromosome ret = cache.get(chr);
+
+    if (ret == null) {
+      String shortName = getShortName(chr);
 
-    return new Chromosome(id, shortName);
+      if (cache.size() >= MAX_CACHED_NAMES) {
+        ret = cache.get('\0' + shortName);
+
+        return ret != null ? ret : new Chromosome(parser.getId(shortName), shortName);
+      }
+
+      // Different names of the same chromosome, e.g. chr1 and 1, share the
+      // instance keyed by its short name
+      ret = cache.computeIfAbsent('\0' + shortName, s -> new Chromosome(parser.getId(shortName), shortName));
+
+      cache.putIfAbsent(chr, ret);
+    }
+
+    return ret;
   }
 }
@@ -106,7 +106,7 @@ public class ChromosomeDirs extends GenomeDirs implements ChromosomeReader, Iter
     load(file, this);
   }
 
-  public void cache() {
+  public synchronized void cache() {
     mAutoLoad = true;
   }
 
@@ -127,18 +127,19 @@ public class ChromosomeDirs extends GenomeDirs implements ChromosomeReader, Iter
   }
 
   @Override
-  public Iterator<Chromosome> iterator() {
+  public synchronized Iterator<Chromosome> iterator() {
     try {
       autoLoad();
     } catch (IOException e) {
       e.printStackTrace();
     }
 
-    return mChrs.iterator();
+    // Copy since lookups of new chromosomes add to the list
+    return new ArrayList<Chromosome>(mChrs).iterator();
   }
 
   @Override
-  public Chromosome chr(String chr) {
+  public synchronized Chromosome chr(String chr) {
     // LOG.info("Request {} {}", chr, getMapId(chr));
 
     try {
@@ -166,7 +167,7 @@ public class ChromosomeDirs extends GenomeDirs implements ChromosomeReader, Iter
     return ret;
   }
 
-  public Chromosome chr(int id) {
+  public synchronized Chromosome chr(int id) {
     try {
       autoLoad();
     } catch (IOException e) {
@@ -177,7 +178,7 @@ public class ChromosomeDirs extends GenomeDirs implements ChromosomeReader, Iter
   }
 
   @Override
-  public int size(Chromosome chr) {
+  public synchronized int size(Chromosome chr) {
     try {
       autoLoad();
     } catch (IOException e) {
@@ -206,7 +207,7 @@ public class ChromosomeDirs extends GenomeDirs implements ChromosomeReader, Iter
     return mGenome;
   }
 
-  public Chromosome randChr() {
+  public synchronized Chromosome randChr() {
     try {
       autoLoad();
     } catch (IOException e) {
@@ -29,6 +29,7 @@ package org.jebtk.bioinformatics.genomic;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Iterator;
 
 import org.jebtk.core.collections.IterMap;
@@ -161,11 +162,19 @@ public class ChromosomeService extends GenomeDirs implements Iterable<Genome> {
   /**
    * Invalidate the cache so it will be rebuilt.
    */
-  public void cache() {
+  public synchronized void cache() {
     mAutoLoad = true;
   }
 
-  private ChromosomeReader autoLoad(Genome genome) {
+  /**
+   * Returns the chromosomes of a genome, loading them if necessary. Lookups
+   * may come from several parsing threads so this is synchronized, and the
+   * readers it returns are thread safe.
+   *
+   * @param genome the genome
+   * @return the chromosomes
+   */
+  private synchronized ChromosomeReader autoLoad(Genome genome) {
     genome = Genome.assembly(genome);
 
     try {
@@ -205,6 +214,16 @@ public class ChromosomeService extends GenomeDirs implements Iterable<Genome> {
     return autoLoad(genome).size(chr);
   }
 
+  /**
+   * Returns the chromosomes of a genome and their sizes.
+   *
+   * @param genome the genome
+   * @return the chromosomes
+   */
+  public ChromosomeReader chrs(Genome genome) {
+    return autoLoad(genome);
+  }
+
   public Chromosome hg19(String chr) {
     return chr(Genome.HG19, chr);
   }
@@ -222,11 +241,11 @@ public class ChromosomeService extends GenomeDirs implements Iterable<Genome> {
   }
 
   public Chromosome randChr(Genome genome) {
-    return mChrsMap.get(genome).randChr();
+    return autoLoad(genome).randChr();
   }
 
   @Override
-  public Iterator<Genome> iterator() {
-    return mChrsMap.keySet().iterator();
+  public synchronized Iterator<Genome> iterator() {
+    return new ArrayList<Genome>(mChrsMap.keySet()).iterator();
   }
 }
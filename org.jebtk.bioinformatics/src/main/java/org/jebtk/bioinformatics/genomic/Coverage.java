@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.jebtk.bioinformatics.gapsearch.GapSearch;
+
+/**
+ * Computes the depth of coverage of a set of regions. Each chromosome is
+ * processed independently, and in parallel, by sorting the start and end
+ * events of its regions into primitive arrays and sweeping over them. The
+ * results can be used as run length coverage (e.g. for bedGraph export) or
+ * summarised into fixed size bins.
+ *
+ * @author Antony Holmes
+ */
+public class Coverage {
+
+  private Coverage() {
+    // Do nothing
+  }
+
+  /**
+   * Returns the run length coverage of each chromosome covered by a set of
+   * regions.
+   *
+   * @param regions the regions
+   * @return the coverage of each chromosome, sorted by chromosome
+   */
+  public static Map<Chromosome, CoverageRuns> runs(Collection<? extends GenomicRegion> regions) {
+    // Group the coordinates by chromosome
+    Map<Chromosome, List<GenomicRegion>> chrMap = new TreeMap<Chromosome, List<GenomicRegion>>();
+
+    for (GenomicRegion region : regions) {
+      List<GenomicRegion> chrRegions = chrMap.get(region.mChr);
+
+      if (chrRegions == null) {
+        chrRegions = new ArrayList<GenomicRegion>();
+        chrMap.put(region.mChr, chrRegions);
+      }
+
+      chrRegions.add(region);
+    }
+
+    return runs(chrMap);
+  }
+
+  /**
+   * Returns the run length coverage of the features in a gap search. Each
+   * feature is counted once for each time it was added, regardless of how
+   * many bins it occupies or whether other features are equal to it.
+   *
+   * @param search the search
+   * @return the coverage of each chromosome, sorted by chromosome
+   */
+  public static <T extends GenomicRegion> Map<Chromosome, CoverageRuns> runs(GapSearch<T> search) {
+    Map<Chromosome, List<? extends GenomicRegion>> chrMap = new TreeMap<Chromosome, List<? extends GenomicRegion>>();
+
+    for (Chromosome chr : search) {
+      chrMap.put(chr, search.getAllFeatures(chr));
+    }
+
+    return runs(chrMap);
+  }
+
+  /**
+   * Returns the depth summed over the bases of fixed size bins for each
+   * chromosome. Divide by the bin size to get the mean depth per base.
+   *
+   * @param regions the regions
+   * @param binSize the bin size
+   * @return the binned depth of each chromosome
+   */
+  public static Map<Chromosome, long[]> bins(Collection<? extends GenomicRegion> regions, int binSize) {
+    return bins(runs(regions), binSize);
+  }
+
+  /**
+   * Returns the depth summed over the bases of fixed size bins for each
+   * chromosome.
+   *
+   * @param search  the search
+   * @param binSize the bin size
+   * @return the binned depth of each chromosome
+   */
+  public static <T extends GenomicRegion> Map<Chromosome, long[]> bins(GapSearch<T> search, int binSize) {
+    return bins(runs(search), binSize);
+  }
+
+  /**
+   * Bin existing run length coverage.
+   *
+   * @param runs    the runs
+   * @param binSize the bin size
+   * @return the binned depth of each chromosome
+   */
+  public static Map<Chromosome, long[]> bins(Map<Chromosome, CoverageRuns> runs, final int binSize) {
+    final Map<Chromosome, long[]> ret = new ConcurrentSkipListMap<Chromosome, long[]>();
+
+    runs.entrySet().parallelStream().forEach(item -> ret.put(item.getKey(), item.getValue().toBins(binSize, 0)));
+
+    return ret;
+  }
+
+  private static Map<Chromosome, CoverageRuns> runs(Map<Chromosome, ? extends List<? extends GenomicRegion>> chrMap) {
+    final Map<Chromosome, CoverageRuns> ret = new ConcurrentSkipListMap<Chromosome, CoverageRuns>();
+
+    chrMap.entrySet().parallelStream()
+        .forEach(item -> ret.put(item.getKey(), sweep(item.getKey(), item.getValue())));
+
+    return ret;
+  }
+
+  /**
+   * Sweep over the sorted start and end events of the regions on a
+   * chromosome.
+   *
+   * @param chr     the chr
+   * @param regions the regions
+   * @return the coverage runs
+   */
+  private static CoverageRuns sweep(Chromosome chr, List<? extends GenomicRegion> regions) {
+    int n = regions.size();
+
+    // Depth increases at a start and decreases after an end
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+
+    for (int i = 0; i < n; ++i) {
+      GenomicRegion region = regions.get(i);
+
+      starts[i] = region.mStart;
+      ends[i] = region.mEnd + 1;
+    }
+
+    Arrays.sort(starts);
+    Arrays.sort(ends);
+
+    // There can be at most 2n - 1 runs
+    int size = Math.max(1, 2 * n);
+
+    int[] runStarts = new int[size];
+    int[] runEnds = new int[size];
+    int[] runDepths = new int[size];
+
+    int r = 0;
+    int depth = 0;
+    int pos = 0;
+
+    int si = 0;
+    int ei = 0;
+
+    while (ei < n) {
+      // Next event position
+      int next = si < n ? Math.min(starts[si], ends[ei]) : ends[ei];
+
+      if (depth > 0 && next > pos) {
+        if (r > 0 && runDepths[r - 1] == depth && runEnds[r - 1] == pos - 1) {
+          // Extend the previous run if the depth has not changed
+          runEnds[r - 1] = next - 1;
+        } else {
+          runStarts[r] = pos;
+          runEnds[r] = next - 1;
+          runDepths[r] = depth;
+          ++r;
+        }
+      }
+
+      // Apply all events at this position
+      while (si < n && starts[si] == next) {
+        ++depth;
+        ++si;
+      }
+
+      while (ei < n && ends[ei] == next) {
+        --depth;
+        ++ei;
+      }
+
+      pos = next;
+    }
+
+    return new CoverageRuns(chr, runStarts, runEnds, runDepths, r);
+  }
+}
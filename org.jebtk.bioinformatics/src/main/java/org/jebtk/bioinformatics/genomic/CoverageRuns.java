@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+/**
+ * Run length encoded coverage of a chromosome. Each run is a maximal stretch
+ * of bases (inclusive coordinates) with the same non-zero depth. Runs are
+ * sorted and do not overlap; bases not in a run have zero depth.
+ *
+ * @author Antony Holmes
+ */
+public class CoverageRuns {
+  private final Chromosome mChr;
+  private final int[] mStarts;
+  private final int[] mEnds;
+  private final int[] mDepths;
+  private final int mSize;
+
+  /**
+   * Instantiates new coverage runs. The arrays may be larger than the number
+   * of runs.
+   *
+   * @param chr    the chr
+   * @param starts the run starts
+   * @param ends   the run ends
+   * @param depths the run depths
+   * @param size   the number of runs
+   */
+  public CoverageRuns(Chromosome chr, int[] starts, int[] ends, int[] depths, int size) {
+    mChr = chr;
+    mStarts = starts;
+    mEnds = ends;
+    mDepths = depths;
+    mSize = size;
+  }
+
+  /**
+   * Returns the chromosome the runs are on.
+   *
+   * @return the chr
+   */
+  public Chromosome getChr() {
+    return mChr;
+  }
+
+  /**
+   * Returns the number of runs.
+   *
+   * @return the size
+   */
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * Returns the first base of a run.
+   *
+   * @param i the run index
+   * @return the start
+   */
+  public int getStart(int i) {
+    return mStarts[i];
+  }
+
+  /**
+   * Returns the last base of a run (inclusive).
+   *
+   * @param i the run index
+   * @return the end
+   */
+  public int getEnd(int i) {
+    return mEnds[i];
+  }
+
+  /**
+   * Returns the depth of every base in a run.
+   *
+   * @param i the run index
+   * @return the depth
+   */
+  public int getDepth(int i) {
+    return mDepths[i];
+  }
+
+  /**
+   * Returns the run as a genomic region.
+   *
+   * @param i the run index
+   * @return the region
+   */
+  public GenomicRegion getRegion(int i) {
+    return new GenomicRegion(mChr, mStarts[i], mEnds[i]);
+  }
+
+  /**
+   * Returns the depth at a location.
+   *
+   * @param location the location
+   * @return the depth
+   */
+  public int depthAt(int location) {
+    int min = 0;
+    int max = mSize - 1;
+
+    while (min <= max) {
+      int mid = (min + max) >>> 1;
+
+      if (location < mStarts[mid]) {
+        max = mid - 1;
+      } else if (location > mEnds[mid]) {
+        min = mid + 1;
+      } else {
+        return mDepths[mid];
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * Returns the number of bases with non-zero depth.
+   *
+   * @return the covered bases
+   */
+  public long getCoveredBases() {
+    long ret = 0;
+
+    for (int i = 0; i < mSize; ++i) {
+      ret += mEnds[i] - mStarts[i] + 1;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Sum the depth of each base into fixed size bins. Bin i covers locations
+   * [i * binSize, (i + 1) * binSize - 1]. Divide by the bin size to get the
+   * mean depth per base.
+   *
+   * @param binSize the bin size
+   * @param length  the chromosome length; bins beyond the last run are
+   *                included up to this length.
+   * @return the depth sum in each bin
+   */
+  public long[] toBins(int binSize, int length) {
+    int last = mSize > 0 ? mEnds[mSize - 1] : 0;
+
+    long[] ret = new long[Math.max(last, length) / binSize + 1];
+
+    for (int i = 0; i < mSize; ++i) {
+      int s = mStarts[i];
+      int e = mEnds[i];
+      int d = mDepths[i];
+
+      // Split the run at bin boundaries
+      while (s <= e) {
+        int b = s / binSize;
+        int be = Math.min(e, (b + 1) * binSize - 1);
+
+        ret[b] += (long) (be - s + 1) * d;
+
+        s = be + 1;
+      }
+    }
+
+    return ret;
+  }
+}
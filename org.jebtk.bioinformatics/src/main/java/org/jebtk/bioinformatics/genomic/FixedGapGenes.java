@@ -109,6 +109,8 @@ public class FixedGapGenes extends SingleGenesDB {
   public void add(GenomicElement gene) {
     mSearch.add(gene, gene);
 
+    clearTssIndex(gene.mChr);
+
     // Map to exons
 
     /*
@@ -180,6 +182,23 @@ public class FixedGapGenes extends SingleGenesDB {
     return mSearch.getFeatures();
   }
 
+  @Override
+  public List<GenomicElement> getElements(Chromosome chr) {
+    if (!mSearch.contains(chr)) {
+      return Collections.emptyList();
+    }
+
+    return mSearch.getFeatures(chr);
+  }
+
+  /**
+   * Chromosomes are indexed as they are queried.
+   */
+  @Override
+  protected TssIndex createTssIndex(GenomicType type) {
+    return new TssIndex(this, type);
+  }
+
   /**
    * Find genes.
    *
@@ -331,4 +350,16 @@ public class FixedGapGenes extends SingleGenesDB {
     return mSearch.contains(chr);
   }
 
+  /**
+   * Remove the elements on a chromosome.
+   *
+   * @param chr the chr
+   * @return the number of elements removed.
+   */
+  public int remove(Chromosome chr) {
+    clearTssIndex(chr);
+
+    return mSearch.remove(chr);
+  }
+
 }
\ No newline at end of file
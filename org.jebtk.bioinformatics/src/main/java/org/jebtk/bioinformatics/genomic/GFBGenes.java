@@ -17,18 +17,25 @@
 package org.jebtk.bioinformatics.genomic;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jebtk.core.collections.ArrayUtils;
 import org.jebtk.core.collections.UniqueArrayList;
-import org.jebtk.core.io.FileUtils;
 import org.jebtk.core.io.PathUtils;
 import org.jebtk.core.text.Join;
 import org.jebtk.core.text.TextUtils;
@@ -42,20 +49,6 @@ public class GFBGenes extends SingleGenesDB {
 
   private static final long serialVersionUID = 1L;
 
-  /** The buffer. */
-  private final byte[] mBuffer = new byte[256];
-
-  /** The bin addresses. */
-  private final int[] mBinAddresses = new int[300000];
-
-  /** The gene addresses. */
-  private final int[] mGeneAddresses = new int[200000];
-
-  /** keep track of which addresses are used during a search **/
-  // private final boolean[] mUsed = new boolean[200000];
-
-  private final GenomicElement[] mGenes = new GenomicElement[200000];
-
   /**
    * The Constant INT_BYTES represents the bytes used by a 32bit number (8 * 4)
    */
@@ -104,11 +97,12 @@ public class GFBGenes extends SingleGenesDB {
   /** The m window. */
   private int mWindow;
 
-  private int mAddress;
-
-  private long mPos;
-
-  private int mAddress2;
+  /**
+   * Memory mapped GFB files. Files are mapped the first time they are
+   * queried and stay mapped so that subsequent queries do not need to open
+   * them again. Mappings cannot be serialized so are recreated on demand.
+   */
+  private transient Map<Path, MappedByteBuffer> mFileMap = new ConcurrentHashMap<Path, MappedByteBuffer>();
 
   /**
    * Instantiates a new GFB genes.
@@ -162,16 +156,16 @@ public class GFBGenes extends SingleGenesDB {
    */
   public List<GenomicElement> findGenes(Chromosome chr, int start, int end, GenomicType type) {
 
-    int n = _findGenes(chr, start, end, type);
+    List<GenomicElement> genes = _findGenes(chr, start, end, type);
 
-    return overlappingGenes(chr, start, end, n);
+    return overlappingGenes(chr, start, end, genes);
   }
 
   /**
    * Find genes in the blocks spanning the coordinates. These are the genes most
    * likely to be overlapping the region of interest. A further test is required
    * to test for overlap. This method is designed to narrow down the list of genes
-   * 
+   *
    * @param chr
    * @param start
    * @param end
@@ -179,60 +173,52 @@ public class GFBGenes extends SingleGenesDB {
    * @return
    * @throws IOException
    */
-  private int _findGenes(Chromosome chr, int start, int end, GenomicType type) {
-    int sb = start / mWindow;
-    int eb = end / mWindow;
-
-    int n = 0;
+  private List<GenomicElement> _findGenes(Chromosome chr, int start, int end, GenomicType type) {
+    Path file = mDir.resolve(getFileName(mGenome, chr, mWindow));
 
-    int[] bins = ArrayUtils.array(sb, eb);
+    try {
+      GFBReader reader = new GFBReader(getReader(file));
 
-    Path file = mDir.resolve(getFileName(mGenome, chr, mWindow));
+      // Only read bins that exist in the file, a region beyond the end of the
+      // chromosome has no genes
+      int maxBin = reader.readBinCount() - 1;
 
-    RandomAccessFile reader;
+      int sb = Math.max(0, start / mWindow);
+      int eb = Math.min(maxBin, end / mWindow);
 
-    try {
-      reader = FileUtils.newRandomAccess(file);
+      if (sb > eb) {
+        return Collections.emptyList();
+      }
 
-      try {
-        n = binAddressesFromBins(reader, bins);
+      int[] bins = ArrayUtils.array(sb, eb);
 
-        n = geneAddressesFromBins(reader, n);
+      int[] binAddresses = reader.binAddressesFromBins(bins);
 
-        n = genesFromGeneAddresses(reader, n, type);
+      int[] geneAddresses = reader.geneAddressesFromBins(binAddresses);
 
-      } finally {
-        reader.close();
-      }
+      return reader.genesFromGeneAddresses(geneAddresses, type);
     } catch (IOException e) {
       e.printStackTrace();
     }
 
-    return n;
+    return Collections.emptyList();
   }
 
   @Override
   public List<GenomicElement> getElements() {
     Path file = mDir.resolve(getRadixFileName(mGenome));
 
-    int n = 0;
-
-    RandomAccessFile reader;
     try {
-      reader = FileUtils.newRandomAccess(file);
+      GFBReader reader = new GFBReader(getReader(file));
 
-      try {
-        int address = readGenesAddress(reader);
+      int address = reader.readGenesAddress();
 
-        n = readAllGenes(reader, address, GenomicType.GENE);
-      } finally {
-        reader.close();
-      }
+      return reader.readAllGenes(address, GenomicType.GENE);
     } catch (IOException e) {
       e.printStackTrace();
     }
 
-    return ArrayUtils.toList(mGenes, n);
+    return Collections.emptyList();
   }
 
   public List<GenomicElement> getGenes(String id) throws IOException {
@@ -247,25 +233,17 @@ public class GFBGenes extends SingleGenesDB {
   public List<GenomicElement> getGenes(String search, GenomicType type) {
     Path file = mDir.resolve(getRadixFileName(mGenome));
 
-    int n = 0;
-
-    RandomAccessFile reader;
     try {
-      reader = FileUtils.newRandomAccess(file);
-
-      try {
-        n = geneAddressesFromRadix(reader, search);
+      GFBReader reader = new GFBReader(getReader(file));
 
-        n = genesFromGeneAddresses(reader, n, type);
-      } finally {
-        reader.close();
-      }
+      int[] geneAddresses = reader.geneAddressesFromRadix(search);
 
+      return reader.genesFromGeneAddresses(geneAddresses, type);
     } catch (IOException e) {
       e.printStackTrace();
     }
 
-    return ArrayUtils.toList(mGenes, n);
+    return Collections.emptyList();
   }
 
   @Override
@@ -285,35 +263,32 @@ public class GFBGenes extends SingleGenesDB {
   public List<GenomicElement> findClosestGenes(Chromosome chr, int start, int end, GenomicType type, int minBp)
       throws IOException {
 
-    int n = _findGenes(chr, start, end, type);
+    List<GenomicElement> genes = _findGenes(chr, start, end, type);
 
-    return findClosestGenes(chr, start, end, n, minBp);
+    return findClosestGenes(chr, start, end, genes, minBp);
   }
 
-  private List<GenomicElement> findClosestGenes(Chromosome chr, int start, int end, int n, int minBp) {
-    if (n < 1) {
+  private static List<GenomicElement> findClosestGenes(Chromosome chr, int start, int end, List<GenomicElement> genes,
+      int minBp) {
+    if (genes.size() < 1) {
       return Collections.emptyList();
     }
 
-    List<GenomicElement> ret = new ArrayList<GenomicElement>(n);
+    List<GenomicElement> ret = new ArrayList<GenomicElement>(genes.size());
 
     int mid = GenomicRegion.mid(start, end);
     int minD = Integer.MAX_VALUE;
 
-    for (int i = 0; i < n; ++i) {
-      GenomicElement gene = mGenes[i];
-
-      int d = Math.abs(mid - gene.getStart()); // GenomicRegion.mid(gene));
+    for (GenomicElement gene : genes) {
+      int d = Math.abs(mid - TssIndex.tss(gene));
 
       if (d < minD) {
         minD = d;
       }
     }
 
-    for (int i = 0; i < n; ++i) {
-      GenomicElement gene = mGenes[i];
-
-      int d = Math.abs(mid - gene.getStart()); // GenomicRegion.mid(gene));
+    for (GenomicElement gene : genes) {
+      int d = Math.abs(mid - TssIndex.tss(gene));
 
       if (d == minD) {
         ret.add(gene);
@@ -332,8 +307,8 @@ public class GFBGenes extends SingleGenesDB {
    * @param genes the genes
    * @return the overlapping genes
    */
-  private List<GenomicElement> overlappingGenes(Chromosome chr, int start, int end, int n) {
-    return overlappingGenes(chr, start, end, n, 1);
+  private static List<GenomicElement> overlappingGenes(Chromosome chr, int start, int end, List<GenomicElement> genes) {
+    return overlappingGenes(chr, start, end, genes, 1);
   }
 
   /**
@@ -346,16 +321,15 @@ public class GFBGenes extends SingleGenesDB {
    * @param minBp the min bp
    * @return the overlapping genes
    */
-  private List<GenomicElement> overlappingGenes(Chromosome chr, int start, int end, int n, int minBp) {
-    if (n < 1) {
+  private static List<GenomicElement> overlappingGenes(Chromosome chr, int start, int end, List<GenomicElement> genes,
+      int minBp) {
+    if (genes.size() < 1) {
       return Collections.emptyList();
     }
 
-    List<GenomicElement> ret = new ArrayList<GenomicElement>(n);
-
-    for (int i = 0; i < n; ++i) {
-      GenomicElement gene = mGenes[i];
+    List<GenomicElement> ret = new ArrayList<GenomicElement>(genes.size());
 
+    for (GenomicElement gene : genes) {
       GenomicRegion overlap = GenomicRegion.overlap(chr, start, end, gene);
 
       if (overlap != null && (overlap.getLength() >= minBp)) {
@@ -367,426 +341,429 @@ public class GFBGenes extends SingleGenesDB {
   }
 
   /**
-   * Gets the bin addresses in the files for a list of bins.
-   *
-   * @param reader    the reader
-   * @param bins      a list of bins.
-   * @param addresses array that will be populated with the bin addresses in the
-   *                  same order as bins.
-   * @return the number of bins.
-   * @throws IOException Signals that an I/O exception has occurred.
-   */
-  private int binAddressesFromBins(RandomAccessFile reader, final int[] bins) throws IOException {
-    int n = bins.length;
-
-    for (int i = 0; i < n; ++i) {
-      mBinAddresses[i] = readBinAddress(reader, bins[i]);
-    }
-
-    return n;
-  }
-
-  /**
-   * Get the gene addresses from a selection of bin addresses, removing
-   * duplicates. A Gene address corresponds to a gene transcript.
+   * Returns a reader for a GFB file. The file is memory mapped the first time
+   * it is requested. Each reader has its own position in the mapping so
+   * multiple threads can query the same file concurrently.
    *
-   * @param reader        a GFB binary file.
-   * @param binAddresses  an array of bin addresses
-   * @param n             how many bin addresses are in use.
-   * @param geneAddresses an array of gene addresses that will be populated with
-   *                      results.
-   * @return the gene addresses
+   * @param file the file
+   * @return a buffer positioned at the start of the file.
    * @throws IOException Signals that an I/O exception has occurred.
    */
-  private int geneAddressesFromBins(RandomAccessFile reader, int n) throws IOException {
-
-    int retn = 0;
-
-    // bin address
-    int ba;
-
-    // Gene address
-    int ga;
-
-    // How many genes are in the bin
-    int size;
-
-    Set<Integer> used = new HashSet<Integer>();
-
-    for (int i = 0; i < n; ++i) {
-      ba = mBinAddresses[i];
+  private ByteBuffer getReader(Path file) throws IOException {
+    MappedByteBuffer buffer = mFileMap.get(file);
 
-      reader.seek(ba);
+    if (buffer == null) {
+      synchronized (mFileMap) {
+        buffer = mFileMap.get(file);
 
-      size = reader.readInt();
+        if (buffer == null) {
+          FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
 
-      // Read how many addresses are in the bin and then extract them
-      for (int j = 0; j < size; ++j) {
-        ga = reader.readInt();
+          try {
+            // The mapping remains valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+          } finally {
+            channel.close();
+          }
 
-        // Remove duplicates
-        if (!used.contains(ga)) {
-          mGeneAddresses[retn++] = ga;
-          used.add(ga);
+          mFileMap.put(file, buffer);
         }
       }
     }
 
-    // Return the number of genes we found
-    return retn;
+    return buffer.duplicate();
   }
 
   /**
-   * Loads genes from an array of gene addresses
-   *
-   * @param reader    the reader
-   * @param chr       the chr
-   * @param addresses the addresses
-   * @param n         the n
-   * @return the genes
-   * @throws IOException Signals that an I/O exception has occurred.
+   * Release the file mappings. Files will be mapped again if they are
+   * subsequently queried. Java provides no way to unmap a file explicitly so
+   * the memory is only returned once the garbage collector reclaims the
+   * mappings, and any buffers duplicated from them by queries still running.
    */
-  private int genesFromGeneAddresses(RandomAccessFile reader, int n, GenomicType type) throws IOException {
-    int retn = 0;
-
-    // Clear the used array
-    // Arrays.fill(mUsed, false);
-
-    for (int i = 0; i < n; ++i) {
-      // Skip to address of gene
-      reader.seek(mGeneAddresses[i]);
+  public void freeMemory() {
+    mFileMap.clear();
+  }
 
-      retn = readGene(reader, retn, type);
-    }
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
 
-    return retn;
+    mFileMap = new ConcurrentHashMap<Path, MappedByteBuffer>();
   }
 
   /**
-   * Read all the genes.
-   * 
-   * @param reader
-   * @param address
-   * @param genes
-   * @return
-   * @throws IOException
+   * Reads elements from a mapped GFB file. A reader holds all of the state of
+   * a single query so that queries do not share buffers.
    */
-  private int readAllGenes(RandomAccessFile reader, final int address, GenomicType type) throws IOException {
-    int retn = 0;
+  private static class GFBReader {
+    /** The reader. */
+    private final ByteBuffer mReader;
+
+    /** The buffer. */
+    private final byte[] mBuffer = new byte[256];
 
-    // Clear the used array
-    // Arrays.fill(mUsed, false);
+    /** The elements read so far. */
+    private final List<GenomicElement> mGenes = new ArrayList<GenomicElement>();
 
-    reader.seek(address);
+    public GFBReader(ByteBuffer reader) {
+      mReader = reader;
+    }
+
+    /**
+     * Gets the bin addresses in the files for a list of bins.
+     *
+     * @param bins a list of bins.
+     * @return the bin addresses in the same order as bins.
+     */
+    private int[] binAddressesFromBins(final int[] bins) {
+      int n = bins.length;
+
+      int[] ret = new int[n];
 
-    int n = reader.readInt();
+      for (int i = 0; i < n; ++i) {
+        ret[i] = mReader.getInt(HEADER_BYTES_OFFSET + bins[i] * INT_BYTES);
+      }
 
-    for (int i = 0; i < n; ++i) {
-      // Read all the genes
-      retn = readGene(reader, retn, type);
+      return ret;
     }
 
-    return retn;
-  }
+    /**
+     * Get the gene addresses from a selection of bin addresses, removing
+     * duplicates. A Gene address corresponds to a gene transcript.
+     *
+     * @param binAddresses an array of bin addresses
+     * @return the gene addresses
+     */
+    private int[] geneAddressesFromBins(int[] binAddresses) {
+      int retn = 0;
 
-  private int readGene(RandomAccessFile reader, int index, GenomicType type) throws IOException {
-    // System.err.println("Reading gene");
+      int[] ret = new int[0];
 
-    GenomicElement gene = readEntity(reader, GenomicType.GENE);
+      // Gene address
+      int ga;
 
-    int n = reader.read();
+      // How many genes are in the bin
+      int size;
 
-    for (int i = 0; i < n; ++i) {
-      // If type requested is not a gene, pass null to indicate that the
-      // transcripts should not add themselves to the gene
-      index = readTranscript(reader, index, type, type == GenomicType.GENE ? gene : null);
-    }
+      Set<Integer> used = new HashSet<Integer>();
 
-    if (type == GenomicType.GENE) {
-      mGenes[index++] = gene;
-    }
+      for (int ba : binAddresses) {
+        mReader.position(ba);
 
-    return index;
-  }
+        size = mReader.getInt();
 
-  private int readTranscript(RandomAccessFile reader, int index, GenomicType type, GenomicElement gene)
-      throws IOException {
-    // System.err.println("Reading transcript");
+        ret = grow(ret, retn + size);
 
-    GenomicElement transcript = readEntity(reader, GenomicType.TRANSCRIPT);
+        // Read how many addresses are in the bin and then extract them
+        for (int j = 0; j < size; ++j) {
+          ga = mReader.getInt();
 
-    int n = reader.read();
+          // Remove duplicates
+          if (used.add(ga)) {
+            ret[retn++] = ga;
+          }
+        }
+      }
 
-    for (int i = 0; i < n; ++i) {
-      index = readExon(reader, index, type, gene, type != GenomicType.EXON ? transcript : null);
+      return Arrays.copyOf(ret, retn);
     }
 
-    if (gene != null) {
-      gene.addChild(transcript);
-    }
+    /**
+     * Loads genes from an array of gene addresses
+     *
+     * @param geneAddresses the addresses
+     * @param type          the type of element to return.
+     * @return the genes
+     */
+    private List<GenomicElement> genesFromGeneAddresses(int[] geneAddresses, GenomicType type) {
+      for (int address : geneAddresses) {
+        // Skip to address of gene
+        mReader.position(address);
+
+        readGene(type);
+      }
 
-    if (type == GenomicType.TRANSCRIPT) {
-      mGenes[index++] = transcript;
+      return mGenes;
     }
 
-    return index;
-  }
-
-  private int readExon(RandomAccessFile reader, int index, GenomicType type, GenomicElement gene,
-      GenomicElement transcript) throws IOException {
-    // System.err.println("Reading exon");
+    /**
+     * Read all the genes.
+     *
+     * @param address
+     * @param type
+     * @return
+     */
+    private List<GenomicElement> readAllGenes(final int address, GenomicType type) {
+      mReader.position(address);
 
-    GenomicElement exon = readEntity(reader, GenomicType.EXON);
+      int n = mReader.getInt();
 
-    // skip byte for exon child count, since exons cannot have children
-    // so this byte is always set to zero.
-    reader.skipBytes(1);
+      for (int i = 0; i < n; ++i) {
+        // Read all the genes
+        readGene(type);
+      }
 
-    if (transcript != null) {
-      transcript.addChild(exon);
+      return mGenes;
     }
 
-    if (type == GenomicType.EXON) {
-      mGenes[index++] = exon;
+    /**
+     * Gets the address of where the genes begin
+     *
+     * @return the address
+     */
+    /**
+     * Returns the number of bins in the file.
+     *
+     * @return the bin count.
+     */
+    private int readBinCount() {
+      return mReader.getInt(BINS_BYTE_OFFSET);
     }
 
-    return index;
-  }
-
-  private GenomicElement readEntity(RandomAccessFile reader, GenomicType type) throws IOException {
-
-    // Skip id (int) and type (byte)
-    reader.skipBytes(INT_BYTES + 1); // .readInt();
+    private int readGenesAddress() {
+      return mReader.getInt(GENES_BYTES_OFFSET);
+    }
 
-    GenomicRegion l = readLocation(reader);
+    private void readGene(GenomicType type) {
+      GenomicElement gene = readEntity(GenomicType.GENE);
 
-    Strand strand = readStrand(reader);
+      int n = mReader.get() & 0xff;
 
-    GenomicElement gene;
+      for (int i = 0; i < n; ++i) {
+        // If type requested is not a gene, pass null to indicate that the
+        // transcripts should not add themselves to the gene
+        readTranscript(type, type == GenomicType.GENE ? gene : null);
+      }
 
-    switch (type) {
-    case GENE:
-      gene = new Gene(l, strand);
-      break;
-    case EXON:
-      gene = new Exon(l, strand);
-      break;
-    default:
-      // Assume everything is a transcript
-      gene = new Transcript(l, strand);
-      break;
+      if (type == GenomicType.GENE) {
+        mGenes.add(gene);
+      }
     }
 
-    readIds(reader, gene);
+    private void readTranscript(GenomicType type, GenomicElement gene) {
+      GenomicElement transcript = readEntity(GenomicType.TRANSCRIPT);
 
-    readTags(reader, gene);
+      int n = mReader.get() & 0xff;
 
-    return gene;
-  }
-
-  private GenomicRegion readLocation(RandomAccessFile reader) throws IOException {
-    Chromosome chr = Chromosome.newChr(readVarchar(reader));
+      for (int i = 0; i < n; ++i) {
+        readExon(type, type != GenomicType.EXON ? transcript : null);
+      }
 
-    int start = reader.readInt();
-    int end = reader.readInt();
+      if (gene != null) {
+        gene.addChild(transcript);
+      }
 
-    return GenomicRegion.create(chr, start, end);
-  }
+      if (type == GenomicType.TRANSCRIPT) {
+        mGenes.add(transcript);
+      }
+    }
 
-  private Strand readStrand(RandomAccessFile reader) throws IOException {
-    int strand = reader.read();
+    private void readExon(GenomicType type, GenomicElement transcript) {
+      GenomicElement exon = readEntity(GenomicType.EXON);
 
-    return getStrand(strand);
-  }
+      // skip byte for exon child count, since exons cannot have children
+      // so this byte is always set to zero.
+      skip(1);
 
-  /**
-   * Read ids and add them to a genomic entity, e.g. read gene symbol and add to a
-   * transcript.
-   * 
-   * @param reader
-   * @param e
-   * @return
-   * @throws IOException
-   */
-  private int readIds(RandomAccessFile reader, GenomicElement e) throws IOException {
-    int n = reader.readByte();
+      if (transcript != null) {
+        transcript.addChild(exon);
+      }
 
-    for (int i = 0; i < n; ++i) {
-      readId(reader, e);
+      if (type == GenomicType.EXON) {
+        mGenes.add(exon);
+      }
     }
 
-    return n;
-  }
-
-  private void readId(RandomAccessFile reader, GenomicElement e) throws IOException {
+    private GenomicElement readEntity(GenomicType type) {
+      // Skip id (int) and type (byte)
+      skip(INT_BYTES + 1);
 
-    mAddress = reader.readInt();
-    mAddress2 = reader.readInt();
+      GenomicRegion l = readLocation();
 
-    mPos = reader.getFilePointer();
+      Strand strand = getStrand(mReader.get() & 0xff);
 
-    e.setProperty(readString(reader, mAddress), readString(reader, mAddress2));
+      GenomicElement gene;
 
-    reader.seek(mPos);
-  }
+      switch (type) {
+      case GENE:
+        gene = new Gene(l, strand);
+        break;
+      case EXON:
+        gene = new Exon(l, strand);
+        break;
+      default:
+        // Assume everything is a transcript
+        gene = new Transcript(l, strand);
+        break;
+      }
 
-  /**
-   * Load tags associated with an entity.
-   * 
-   * @param reader
-   * @param e
-   * @return
-   * @throws IOException
-   */
-  private int readTags(RandomAccessFile reader, GenomicElement e) throws IOException {
-    int n = reader.readByte();
+      readIds(gene);
 
-    // System.err.println("Read tags " + n);
+      readTags(gene);
 
-    for (int i = 0; i < n; ++i) {
-      readTag(reader, e);
+      return gene;
     }
 
-    return n;
-  }
+    private GenomicRegion readLocation() {
+      Chromosome chr = Chromosome.newChr(readVarchar());
 
-  private void readTag(RandomAccessFile reader, GenomicElement e) throws IOException {
-    e.addTag(readTag(reader));
-  }
+      int start = mReader.getInt();
+      int end = mReader.getInt();
 
-  private String readTag(RandomAccessFile reader) throws IOException {
+      return GenomicRegion.create(chr, start, end);
+    }
 
-    mAddress = reader.readInt();
+    /**
+     * Read ids and add them to a genomic entity, e.g. read gene symbol and add
+     * to a transcript.
+     *
+     * @param e
+     * @return
+     */
+    private int readIds(GenomicElement e) {
+      int n = mReader.get();
 
-    mPos = reader.getFilePointer();
+      for (int i = 0; i < n; ++i) {
+        int address = mReader.getInt();
+        int address2 = mReader.getInt();
 
-    String ret = readString(reader, mAddress);
+        e.setProperty(readString(address), readString(address2));
+      }
 
-    reader.seek(mPos);
+      return n;
+    }
 
-    return ret;
-  }
+    /**
+     * Load tags associated with an entity.
+     *
+     * @param e
+     * @return
+     */
+    private int readTags(GenomicElement e) {
+      int n = mReader.get();
 
-  private String readString(RandomAccessFile reader, int address) throws IOException {
+      for (int i = 0; i < n; ++i) {
+        e.addTag(readString(mReader.getInt()));
+      }
 
-    reader.seek(address);
+      return n;
+    }
 
-    return readVarchar(reader);
-  }
+    /**
+     * Read a string stored elsewhere in the file without changing the
+     * current position.
+     *
+     * @param address the address of the string.
+     * @return the string
+     */
+    private String readString(int address) {
+      int pos = mReader.position();
 
-  /**
-   * Read a variable number of bytes to create a GenomicEntity.
-   *
-   * @param reader the reader
-   * @return the string
-   * @throws IOException Signals that an I/O exception has occurred.
-   */
-  private String readVarchar(RandomAccessFile reader) throws IOException {
-    // System.err.println("vchar " + reader.getFilePointer());
+      mReader.position(address);
 
-    // First int tells us the length of the string
-    int n = reader.readByte();
+      String ret = readVarchar();
 
-    // Read n bytes into the buffer
-    reader.read(mBuffer, 0, n);
+      mReader.position(pos);
 
-    // Create string from buffer
-    String s = new String(mBuffer, 0, n, StandardCharsets.UTF_8);
+      return ret;
+    }
 
-    return s;
-  }
+    /**
+     * Read a variable number of bytes to create a GenomicEntity.
+     *
+     * @return the string
+     */
+    private String readVarchar() {
+      // First byte tells us the length of the string
+      int n = mReader.get() & 0xff;
 
-  /*
-   * private static int getRadixRootGeneAddresses(RandomAccessFile reader, int[]
-   * geneAddresses) throws IOException { reader.seek(RADIX_BYTES_OFFSET);
-   * 
-   * // Number of children int n = reader.readInt();
-   * 
-   * // skip tree addresses // reader.seek(RADIX_HEADER_BYTES + N_BYTES + n *
-   * RADIX_TREE_PREFIX_BYTES); reader.skipBytes(n * RADIX_TREE_PREFIX_BYTES);
-   * 
-   * n = reader.readInt();
-   * 
-   * for (int i = 0; i < n; ++i) { geneAddresses[i] = reader.readInt(); }
-   * 
-   * // Return the number of genes we found return n; }
-   */
+      // Read n bytes into the buffer
+      mReader.get(mBuffer, 0, n);
 
-  /**
-   * Populates internal address list with the gene addresses from the radix tree
-   * so that a text search can be performed.
-   * 
-   * @param reader
-   * @param id
-   * @return
-   * @throws IOException
-   */
-  private int geneAddressesFromRadix(RandomAccessFile reader, String id) throws IOException {
+      // Create string from buffer
+      return new String(mBuffer, 0, n, StandardCharsets.UTF_8);
+    }
 
-    char[] chars = id.toLowerCase().toCharArray();
+    private void skip(int n) {
+      mReader.position(mReader.position() + n);
+    }
 
-    // Find the tree start
-    reader.seek(RADIX_BYTES_OFFSET);
+    /**
+     * Returns the gene addresses of the radix tree node matching an id so
+     * that a text search can be performed.
+     *
+     * @param id
+     * @return
+     */
+    private int[] geneAddressesFromRadix(String id) {
 
-    char leafc;
-    int address = 0;
-    int n;
+      char[] chars = id.toLowerCase().toCharArray();
 
-    boolean found = false;
+      // Find the tree start
+      mReader.position(RADIX_BYTES_OFFSET);
 
-    for (char c : chars) {
+      char leafc;
+      int address = 0;
+      int n;
 
-      // Number of children
-      n = reader.read(); // .readInt();
+      boolean found = false;
 
-      // System.err.println("c " + c + " " + n);
+      for (char c : chars) {
 
-      // assume we won't find a match
-      found = false;
+        // Number of children
+        n = mReader.get() & 0xff;
 
-      for (int i = 0; i < n; ++i) {
-        leafc = (char) reader.read(); // readByte();
-        address = reader.readInt();
+        // assume we won't find a match
+        found = false;
+
+        for (int i = 0; i < n; ++i) {
+          leafc = (char) (mReader.get() & 0xff);
+          address = mReader.getInt();
 
-        if (leafc == c) {
-          // we did find a match so keep going
-          found = true;
-          reader.seek(address);
+          if (leafc == c) {
+            // we did find a match so keep going
+            found = true;
+            mReader.position(address);
+            break;
+          }
+        }
+
+        if (!found) {
           break;
         }
       }
 
       if (!found) {
-        break;
+        return new int[0];
       }
-    }
 
-    if (!found) {
-      return 0;
-    }
+      // This means we kept finding a child matching the prefix so the
+      // position is at the beginning of a node either because we ran out of
+      // chars or nodes. In this case we must skip over the child addresses
+      // and just look at the addresses of the genes
+      skip((mReader.get() & 0xff) * RADIX_TREE_PREFIX_BYTES);
 
-    // This means we kept finding a child matching the prefix so the seek
-    // is at the beginning of a node either because we ran out of chars
-    // or nodes. In this case we must skip over the child addresses and
-    // just look at the addresses of the genes
+      // Should be on a node that is hopefully matches our search term
+      // Since we checked all the children, the position is at the gene
+      // addressses so we can get them
 
-    // skip past number of addresses and the addresses themselves
-    // reader.seek(address + N_BYTES + reader.readInt() *
-    // RADIX_TREE_PREFIX_BYTES);
-    reader.skipBytes(reader.read() * RADIX_TREE_PREFIX_BYTES); // readInt()
+      n = mReader.getInt();
 
-    // Should be on a node that is hopefully matches our search term
-    // Since we checked all the children, the seek is at the position of
-    // the gene addressses so we can get them
+      int[] ret = new int[n];
 
-    n = reader.readInt();
+      for (int i = 0; i < n; ++i) {
+        ret[i] = mReader.getInt();
+      }
 
-    for (int i = 0; i < n; ++i) {
-      mGeneAddresses[i] = reader.readInt();
+      return ret;
     }
 
-    // Return the number of genes we found
-    return n;
+    private static int[] grow(int[] a, int size) {
+      if (size <= a.length) {
+        return a;
+      }
+
+      return Arrays.copyOf(a, Math.max(size, a.length * 2));
+    }
   }
 
   @Override
@@ -876,19 +853,6 @@ public class GFBGenes extends SingleGenesDB {
     return reader.readInt();
   }
 
-  /**
-   * Gets the address of where the genes begin
-   *
-   * @param reader the reader
-   * @return the window
-   * @throws IOException Signals that an I/O exception has occurred.
-   */
-  private static int readGenesAddress(RandomAccessFile reader) throws IOException {
-    reader.seek(GENES_BYTES_OFFSET);
-
-    return reader.readInt();
-  }
-
   /**
    * Convert a genomic type to a int representation.
    * 
@@ -906,20 +870,6 @@ public class GFBGenes extends SingleGenesDB {
     }
   }
 
-  /**
-   * Gets the bin address.
-   *
-   * @param reader the reader
-   * @param bin    the bin
-   * @return the bin address
-   * @throws IOException Signals that an I/O exception has occurred.
-   */
-  private static int readBinAddress(RandomAccessFile reader, int bin) throws IOException {
-    reader.seek(HEADER_BYTES_OFFSET + bin * INT_BYTES);
-
-    return reader.readInt();
-  }
-
   public static int getStrand(Strand strand) {
     if (Strand.isSense(strand)) {
       return 0;
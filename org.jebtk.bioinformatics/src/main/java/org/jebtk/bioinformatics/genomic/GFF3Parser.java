@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.jebtk.bioinformatics.gapsearch.FixedGapSearch;
 import org.jebtk.core.collections.CollectionUtils;
@@ -53,88 +54,135 @@ public class GFF3Parser extends GeneParser {
   }
 
   @Override
-  protected void parse(Path file, BufferedReader reader, final Genome genome, GenesDB genes) throws IOException {
-    String line;
-    List<String> tokens;
-    GenomicType type;
-    int start;
-    int end;
-    Strand strand;
-    IterMap<String, String> attributeMap;
-
-    Splitter splitter = Splitter.onTab();
+  protected void parse(Path file, BufferedReader reader, final Genome genome, final GenesDB genes) throws IOException {
+    if (isParallel()) {
+      try {
+        parseParallel(file, reader, genome, genes);
+      } finally {
+        reader.close();
+      }
 
-    GenomicEntity gene = null;
-    GenomicEntity transcript = null;
+      return;
+    }
 
     try {
+      GFF3State state = new GFF3State(e -> genes.add(e));
+
+      String line;
+
       while ((line = reader.readLine()) != null) {
-        // System.err.println(line);
+        parseLine(line, genome, state);
+      }
+    } finally {
+      reader.close();
+    }
+  }
 
-        tokens = splitter.text(line);
+  @Override
+  protected List<GenomicEntity> parseLines(Path file, List<String> lines, Genome genome) {
+    final List<GenomicEntity> ret = new ArrayList<GenomicEntity>(lines.size());
 
-        Chromosome chr = ChromosomeService.getInstance().chr(genome, tokens.get(0));
+    GFF3State state = new GFF3State(e -> ret.add(e));
 
-        type = GenomicType.parse(tokens.get(2));
-        start = Integer.parseInt(tokens.get(3));
-        end = Integer.parseInt(tokens.get(4));
-        strand = Strand.parse(tokens.get(6));
+    for (String line : lines) {
+      parseLine(line, genome, state);
+    }
 
-        // Must be at least the current level or lower
-        if (!containsLevel(type)) {
-          continue;
-        }
+    return ret;
+  }
 
-        attributeMap = parseAttributes(tokens.get(8));
+  /**
+   * Genes and transcripts span several lines in a GFF3 file so chunks must
+   * start on a gene line to keep exons with their transcripts.
+   */
+  @Override
+  protected boolean isChunkStart(String line) {
+    int s = line.indexOf('\t');
 
-        GenomicRegion region = GenomicRegion.create(chr, start, end, strand);
+    if (s == -1) {
+      return false;
+    }
 
-        switch (type) {
-        case GENE:
-          gene = addAttributes(GenomicType.GENE, region, attributeMap);
+    s = line.indexOf('\t', s + 1);
 
-          genes.add(gene);
+    return s != -1 && line.startsWith(LEVEL_GENE + '\t', s + 1);
+  }
 
-          break;
-        case TRANSCRIPT:
-          // Gene
-          // gene = new Gene(region).setSymbol(name);
+  /**
+   * Keeps track of the current gene and transcript while parsing lines and
+   * passes the entities created to a sink.
+   */
+  private static class GFF3State {
+    private final Consumer<GenomicEntity> mEntities;
+    private final Map<String, Chromosome> mChrCache = new HashMap<String, Chromosome>();
+    private GenomicEntity mGene = null;
+    private GenomicEntity mTranscript = null;
+
+    public GFF3State(Consumer<GenomicEntity> entities) {
+      mEntities = entities;
+    }
+  }
 
-          transcript = addAttributes(GenomicType.TRANSCRIPT, region, attributeMap);
+  private void parseLine(String line, Genome genome, GFF3State state) {
+    // System.err.println(line);
 
-          if (gene != null) {
-            if (mKeepTranscripts) {
-              gene.addChild(transcript);
-            }
+    List<String> tokens = Splitter.onTab().text(line);
 
-            transcript.setParent(gene);
-          }
+    Chromosome chr = chr(genome, tokens.get(0), state.mChrCache);
 
-          genes.add(transcript);
+    GenomicType type = GenomicType.parse(tokens.get(2));
+    int start = Integer.parseInt(tokens.get(3));
+    int end = Integer.parseInt(tokens.get(4));
+    Strand strand = Strand.parse(tokens.get(6));
 
-          break;
-        case EXON:
-          GenomicEntity exon = addAttributes(GenomicType.EXON, region, attributeMap);
+    // Must be at least the current level or lower
+    if (!containsLevel(type)) {
+      return;
+    }
 
-          if (transcript != null) {
-            // Add to the current gene
+    IterMap<String, String> attributeMap = parseAttributes(tokens.get(8));
 
-            if (mKeepExons) {
-              transcript.addChild(exon);
-            }
+    GenomicRegion region = GenomicRegion.create(chr, start, end, strand);
 
-            transcript.setParent(gene);
-          }
+    switch (type) {
+    case GENE:
+      state.mGene = addAttributes(GenomicType.GENE, region, attributeMap);
 
-          genes.add(exon);
+      state.mEntities.accept(state.mGene);
 
-          break;
-        default:
-          break;
+      break;
+    case TRANSCRIPT:
+      state.mTranscript = addAttributes(GenomicType.TRANSCRIPT, region, attributeMap);
+
+      if (state.mGene != null) {
+        if (mKeepTranscripts) {
+          state.mGene.addChild(state.mTranscript);
         }
+
+        state.mTranscript.setParent(state.mGene);
       }
-    } finally {
-      reader.close();
+
+      state.mEntities.accept(state.mTranscript);
+
+      break;
+    case EXON:
+      GenomicEntity exon = addAttributes(GenomicType.EXON, region, attributeMap);
+
+      if (state.mTranscript != null) {
+        // Add to the current gene
+
+        if (mKeepExons) {
+          state.mTranscript.addChild(exon);
+        }
+
+        state.mTranscript.setParent(state.mGene);
+      }
+
+      state.mEntities.accept(exon);
+
+      break;
+    default:
+      break;
     }
   }
 
@@ -4,10 +4,13 @@ package org.jebtk.bioinformatics.genomic;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.jebtk.core.collections.DefaultTreeMap;
 import org.jebtk.core.collections.IterMap;
@@ -45,112 +48,158 @@ public class GTB2Parser extends GTBParser {
       throws IOException {
     LOG.info("Parsing GTB2 file {}, levels: {}...", file, mLevels);
 
+    if (isParallel()) {
+      // Skip header
+      reader.readLine();
+
+      parseParallel(file, reader, genome, genes);
+
+      return;
+    }
+
     final Splitter splitter = Splitter.on(';');
 
-    // Add the exons
-    final boolean hasExonLevel = containsLevel(GenomicType.EXON);
-    // final boolean hasTranscriptLevel = containsLevel(GenomicType.TRANSCRIPT);
-    final boolean has3pUtrLevel = containsLevel(GenomicType.UTR_3P);
-    final boolean has5pUtrLevel = containsLevel(GenomicType.UTR_5P);
+    final Consumer<GenomicEntity> sink = e -> genes.add(e);
+
+    final Map<String, Chromosome> chrCache = new HashMap<String, Chromosome>();
 
     FileUtils.tokenize(reader, true, new TokenFunction() {
       @Override
       public void parse(final List<String> tokens) {
-        // System.err.println("gtb2 " + line);
+        parseRow(tokens, genome, splitter, chrCache, sink);
+      }
+    });
+  }
 
-        boolean add = true;
+  @Override
+  protected List<GenomicEntity> parseLines(Path file, List<String> lines, Genome genome) {
+    Splitter splitter = Splitter.on(';');
 
-        Chromosome chr = ChromosomeService.getInstance().chr(genome, tokens.get(0));
+    final List<GenomicEntity> ret = new ArrayList<GenomicEntity>(lines.size() * 10);
 
-        // Skip random and unofficial chromosomes
-        if (chr.toString().contains("_")) {
-          return;
-        }
+    Consumer<GenomicEntity> sink = e -> ret.add(e);
 
-        Strand strand = Strand.parse(tokens.get(1));
-        int start = Integer.parseInt(tokens.get(2));
-        int end = Integer.parseInt(tokens.get(3));
+    Map<String, Chromosome> chrCache = new HashMap<String, Chromosome>();
 
-        // int exonCount = Integer.parseInt(tokens.get(4));
+    for (String line : lines) {
+      if (Io.isEmptyLine(line)) {
+        continue;
+      }
 
-        // Because of the UCSC using zero based start and one
-        // based end, we need to increment the start by 1
+      parseRow(Splitter.onTab().text(line), genome, splitter, chrCache, sink);
+    }
 
-        List<String> tags = getTags(splitter, tokens);
+    return ret;
+  }
 
-        if (mExcludeTags.size() > 0) {
-          for (String tag : tags) {
-            if (mExcludeTags.contains(tag)) {
-              add = false;
-              break;
-            }
-          }
-        }
+  /**
+   * Parse a transcript row and pass the entities created at the requested
+   * levels to a sink.
+   *
+   * @param tokens   the row tokens
+   * @param genome   the genome
+   * @param splitter a semi-colon splitter
+   * @param chrCache chromosomes already looked up by name
+   * @param genes    the sink for the entities
+   */
+  private void parseRow(final List<String> tokens, Genome genome, Splitter splitter, Map<String, Chromosome> chrCache,
+      Consumer<GenomicEntity> genes) {
+    // System.err.println("gtb2 " + line);
 
-        if (mMatchTags.size() > 0) {
-          add = false;
+    boolean add = true;
 
-          for (String tag : tags) {
-            if (mMatchTags.contains(tag)) {
-              add = true;
-              break;
-            }
-          }
+    Chromosome chr = chr(genome, tokens.get(0), chrCache);
+
+    // Skip random and unofficial chromosomes
+    if (chr.toString().contains("_")) {
+      return;
+    }
+
+    Strand strand = Strand.parse(tokens.get(1));
+    int start = Integer.parseInt(tokens.get(2));
+    int end = Integer.parseInt(tokens.get(3));
+
+    // int exonCount = Integer.parseInt(tokens.get(4));
+
+    // Because of the UCSC using zero based start and one
+    // based end, we need to increment the start by 1
+
+    List<String> tags = getTags(splitter, tokens);
+
+    if (mExcludeTags.size() > 0) {
+      for (String tag : tags) {
+        if (mExcludeTags.contains(tag)) {
+          add = false;
+          break;
         }
+      }
+    }
+
+    if (mMatchTags.size() > 0) {
+      add = false;
 
-        if (!add) {
-          return;
+      for (String tag : tags) {
+        if (mMatchTags.contains(tag)) {
+          add = true;
+          break;
         }
+      }
+    }
 
-        IterMap<String, String> attributeMap = getAttributes(splitter, tokens);
+    if (!add) {
+      return;
+    }
 
-        // Create the gene
+    // Add the exons
+    boolean hasExonLevel = containsLevel(GenomicType.EXON);
 
-        GenomicEntity gene = addAttributes(GenomicType.TRANSCRIPT, GenomicRegion.create(chr, start, end, strand),
-            attributeMap);
+    IterMap<String, String> attributeMap = getAttributes(splitter, tokens);
 
-        if (containsLevel(GenomicType.TRANSCRIPT)) {
-          genes.add(gene);
-        }
+    // Create the gene
 
-        if (hasExonLevel || mKeepExons) {
-          List<Integer> starts = TextUtils.splitInts(tokens.get(5), TextUtils.SEMI_COLON_DELIMITER);
+    GenomicEntity gene = addAttributes(GenomicType.TRANSCRIPT, GenomicRegion.create(chr, start, end, strand),
+        attributeMap);
 
-          List<Integer> ends = TextUtils.splitInts(tokens.get(6), TextUtils.SEMI_COLON_DELIMITER);
+    if (containsLevel(GenomicType.TRANSCRIPT)) {
+      genes.accept(gene);
+    }
 
-          for (int i = 0; i < starts.size(); ++i) {
-            // Again correct for the ucsc
-            GenomicRegion region = GenomicRegion.create(chr, starts.get(i), ends.get(i), strand);
+    if (hasExonLevel || mKeepExons) {
+      List<Integer> starts = TextUtils.splitInts(tokens.get(5), TextUtils.SEMI_COLON_DELIMITER);
 
-            GenomicEntity exon = addAttributes(GenomicType.EXON, region, attributeMap);
+      List<Integer> ends = TextUtils.splitInts(tokens.get(6), TextUtils.SEMI_COLON_DELIMITER);
 
-            if (mKeepExons) {
-              if (gene != null) {
-                gene.addChild(exon);
-              }
-            }
+      for (int i = 0; i < starts.size(); ++i) {
+        // Again correct for the ucsc
+        GenomicRegion region = GenomicRegion.create(chr, starts.get(i), ends.get(i), strand);
 
-            if (hasExonLevel) {
-              exon.setParent(gene);
+        GenomicEntity exon = addChildAttributes(GenomicType.EXON, region, gene);
 
-              genes.add(exon);
-            }
+        if (mKeepExons) {
+          if (gene != null) {
+            gene.addChild(exon);
           }
         }
 
-        if (has5pUtrLevel) {
-          processUTR(tokens, genome, gene, attributeMap, 7, GenomicType.UTR_5P, genes);
-        }
+        if (hasExonLevel) {
+          exon.setParent(gene);
 
-        if (has3pUtrLevel) {
-          processUTR(tokens, genome, gene, attributeMap, 10, GenomicType.UTR_3P, genes);
+          genes.accept(exon);
         }
       }
-    });
+    }
+
+    if (containsLevel(GenomicType.UTR_5P)) {
+      processUTR(tokens, genome, gene, 7, GenomicType.UTR_5P, genes);
+    }
+
+    if (containsLevel(GenomicType.UTR_3P)) {
+      processUTR(tokens, genome, gene, 10, GenomicType.UTR_3P, genes);
+    }
   }
 
-  private static void processUTR(List<String> tokens, Genome genome, GenomicEntity gene,
-      IterMap<String, String> attributeMap, int offset, GenomicType type, GenesDB genes) {
+  private static void processUTR(List<String> tokens, Genome genome, GenomicEntity gene, int offset,
+      GenomicType type, Consumer<GenomicEntity> genes) {
 
     int count = Integer.parseInt(tokens.get(offset));
 
@@ -171,12 +220,12 @@ public class GTB2Parser extends GTBParser {
     for (int i = 0; i < starts.size(); ++i) {
       GenomicRegion region = GenomicRegion.create(gene.mChr, starts.get(i), ends.get(i), gene.mStrand);
 
-      GenomicEntity g = addAttributes(type, region, attributeMap);
+      GenomicEntity g = addChildAttributes(type, region, gene);
 
       g.setParent(gene);
 
       if (genes != null) {
-        genes.add(g);
+        genes.accept(g);
       }
     }
   }
@@ -310,7 +359,7 @@ public class GTB2Parser extends GTBParser {
       // Again correct for the ucsc
       GenomicRegion region = GenomicRegion.create(chr, starts.get(i), ends.get(i), strand);
 
-      GenomicEntity exon = addAttributes(GenomicType.EXON, region, attributeMap);
+      GenomicEntity exon = addChildAttributes(GenomicType.EXON, region, transcript);
 
       // GenomicEntity exon = new Exon(region);
 
@@ -318,9 +367,9 @@ public class GTB2Parser extends GTBParser {
       exon.setParent(transcript);
     }
 
-    processUTR(tokens, genome, transcript, attributeMap, 7, GenomicType.UTR_5P, null);
+    processUTR(tokens, genome, transcript, 7, GenomicType.UTR_5P, null);
 
-    processUTR(tokens, genome, transcript, attributeMap, 10, GenomicType.UTR_3P, null);
+    processUTR(tokens, genome, transcript, 10, GenomicType.UTR_3P, null);
 
     return transcript;
   }
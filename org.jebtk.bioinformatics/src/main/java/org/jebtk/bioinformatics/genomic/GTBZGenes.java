@@ -2,10 +2,25 @@ package org.jebtk.bioinformatics.genomic;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -14,17 +29,97 @@ import org.jebtk.core.io.TokenFunction;
 
 /**
  * Only load genes when requested.
- * 
+ *
+ * Each chromosome is loaded at most once. If several threads request the same
+ * chromosome before it is loaded, one thread parses it and the others wait for
+ * it to finish. A chromosome is parsed into a separate collection and then
+ * added in one step under a write lock so queries never see a partially
+ * loaded chromosome.
+ *
+ * An optional memory budget limits how many chromosomes are held in memory.
+ * When loading a chromosome takes the estimated size of the loaded
+ * chromosomes over the budget, the least recently used chromosomes are
+ * unloaded. They are parsed again if requested later. A chromosome is not
+ * unloaded while it is being queried, so the loaded chromosomes can exceed the
+ * budget while several are in use.
+ *
+ * Chromosomes loaded in the background by {@link #prefetch()} only use spare
+ * room in the budget. They never cause other chromosomes to be unloaded and
+ * are not counted as cache hits or misses.
+ *
+ * If a chromosome cannot be loaded the error is passed to the caller and the
+ * chromosome is parsed again the next time it is requested.
+ *
  * @author antony
  *
  */
 public class GTBZGenes extends FixedGapGenes {
   private static final long serialVersionUID = 1L;
 
+  /** The extension of the chromosome entries in the zip file. */
+  private static final String CHR_ENTRY_EXT = ".gtb2";
+
+  /**
+   * Approximate heap used by each element (the element object, its location,
+   * properties and tags and its references from the gap search).
+   */
+  public static final long ELEMENT_BYTES = 400;
+
+  /**
+   * No memory budget so chromosomes are never unloaded.
+   */
+  public static final long NO_MEMORY_BUDGET = Long.MAX_VALUE;
+
+  /**
+   * How many times a query loads a chromosome that is removed before the
+   * query can run.
+   */
+  private static final int MAX_QUERY_ATTEMPTS = 3;
+
   private GeneParser mParser = new GTB2Parser();
   private final Path mFile;
   private final Map<String, Chromosome> mGeneMap = new HashMap<String, Chromosome>();
 
+  /**
+   * Loads the gene to chromosome map the first time it is run. Replaced if
+   * loading fails so that it is tried again.
+   */
+  private volatile FutureTask<Void> mGeneMapLoader = newGeneMapLoader();
+
+  /** The loader of each chromosome that has been requested. */
+  private final ConcurrentMap<Chromosome, FutureTask<Void>> mLoaders = new ConcurrentHashMap<Chromosome, FutureTask<Void>>();
+
+  /** Guards the gap search against reads while a chromosome is added. */
+  private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+  /**
+   * Loaded chromosomes and their estimated size in bytes, in least recently
+   * used order. Also guards the statistics below.
+   */
+  private final Map<Chromosome, Long> mLoaded = new LinkedHashMap<Chromosome, Long>(16, 0.75f, true);
+
+  /**
+   * The number of queries in progress on each chromosome. These chromosomes
+   * are not evicted. Guarded by mLoaded.
+   */
+  private final Map<Chromosome, Integer> mPinned = new HashMap<Chromosome, Integer>();
+
+  private long mMemoryBudget = NO_MEMORY_BUDGET;
+
+  private long mUsedBytes = 0;
+
+  private long mHits = 0;
+
+  private long mMisses = 0;
+
+  private long mEvictions = 0;
+
+  private long mLoadTime = 0;
+
+  private boolean mPrefetch = false;
+
+  private final AtomicBoolean mPrefetchStarted = new AtomicBoolean(false);
+
   public GTBZGenes(Path file, Genome genome) {
     super(genome);
 
@@ -37,6 +132,30 @@ public class GTBZGenes extends FixedGapGenes {
     mParser = parser;
   }
 
+  /**
+   * Load the remaining chromosomes in the background once the first request
+   * has been made so that later requests do not have to wait.
+   *
+   * @param prefetch Whether to prefetch chromosomes.
+   * @return this
+   */
+  public GTBZGenes setPrefetch(boolean prefetch) {
+    mPrefetch = prefetch;
+
+    return this;
+  }
+
+  private FutureTask<Void> newGeneMapLoader() {
+    return new FutureTask<Void>(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        geneChrMap();
+
+        return null;
+      }
+    });
+  }
+
   private void geneChrMap() throws IOException {
 
     final ZipFile zipFile = FileUtils.newZipFile(mFile);
@@ -52,7 +171,7 @@ public class GTBZGenes extends FixedGapGenes {
             @Override
             public void parse(final List<String> tokens) {
               String name = GenesDB.sanitize(tokens.get(0));
-              Chromosome chr = ChromosomeService.getInstance().guessChr(mFile, tokens.get(1));
+              Chromosome chr = guessChr(tokens.get(1));
 
               mGeneMap.put(name, chr);
             }
@@ -66,80 +185,662 @@ public class GTBZGenes extends FixedGapGenes {
     }
   }
 
-  private void autoLoad() {
+  /**
+   * Returns the chromosomes stored in the zip file.
+   *
+   * @return the chromosomes.
+   * @throws IOException
+   */
+  public List<Chromosome> getChromosomes() throws IOException {
+    List<Chromosome> ret = new ArrayList<Chromosome>();
+
+    final ZipFile zipFile = FileUtils.newZipFile(mFile);
+
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+      while (entries.hasMoreElements()) {
+        String name = entries.nextElement().getName();
+
+        if (name.endsWith(CHR_ENTRY_EXT)) {
+          ret.add(guessChr(name.substring(0, name.length() - CHR_ENTRY_EXT.length())));
+        }
+      }
+    } finally {
+      zipFile.close();
+    }
+
+    Collections.sort(ret);
+
+    return ret;
+  }
+
+  private Chromosome guessChr(String name) {
+    ChromosomeService service = ChromosomeService.getInstance();
+
+    synchronized (service) {
+      return service.guessChr(mFile, name);
+    }
+  }
+
+  /**
+   * Parse a chromosome and add its genes.
+   *
+   * @param chr      the chromosome.
+   * @param loader   the loader running this method.
+   * @param prefetch true if the chromosome is being prefetched, in which case
+   *                 it is only added if it fits in the budget without
+   *                 unloading other chromosomes.
+   * @throws IOException
+   */
+  private void load(Chromosome chr, FutureTask<Void> loader, boolean prefetch) throws IOException {
+    long start = System.currentTimeMillis();
+
+    ElementsCollector collector = new ElementsCollector(mGenome);
+
+    mParser.parse(mFile, mGenome, chr, collector);
+
+    long bytes = 0;
+
+    for (GenomicElement e : collector.mElements) {
+      bytes += count(e) * ELEMENT_BYTES;
+    }
+
+    mLock.writeLock().lock();
+
+    try {
+      if (prefetch && !fits(bytes)) {
+        // A request waiting on this loader will see it has been removed and
+        // load the chromosome again itself
+        mLoaders.remove(chr, loader);
+
+        return;
+      }
+
+      for (GenomicElement e : collector.mElements) {
+        super.add(e);
+      }
+
+      List<Chromosome> evicted;
+
+      synchronized (mLoaded) {
+        mLoaded.put(chr, bytes);
+        mUsedBytes += bytes;
+        mLoadTime += System.currentTimeMillis() - start;
+
+        evicted = evict(chr);
+      }
+
+      unload(evicted);
+    } finally {
+      mLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns true if a chromosome fits in the budget without unloading others.
+   *
+   * @param bytes the estimated size of the chromosome.
+   * @return true if the chromosome fits.
+   */
+  private boolean fits(long bytes) {
+    synchronized (mLoaded) {
+      return mUsedBytes + bytes <= mMemoryBudget;
+    }
+  }
+
+  /**
+   * Returns true if a chromosome is loaded.
+   *
+   * @param chr the chromosome.
+   * @return true if the chromosome is loaded.
+   */
+  private boolean isLoaded(Chromosome chr) {
+    synchronized (mLoaded) {
+      return mLoaded.containsKey(chr);
+    }
+  }
+
+  /**
+   * Choose the least recently used chromosomes to unload so that the loaded
+   * chromosomes fit within the memory budget. Chromosomes being queried are
+   * skipped. Must be called while synchronized on mLoaded.
+   *
+   * @param keep a chromosome that should not be unloaded, typically the one
+   *             just loaded.
+   * @return the chromosomes to unload.
+   */
+  private List<Chromosome> evict(Chromosome keep) {
+    List<Chromosome> ret = new ArrayList<Chromosome>();
+
+    Iterator<Map.Entry<Chromosome, Long>> iter = mLoaded.entrySet().iterator();
+
+    while (mUsedBytes > mMemoryBudget && iter.hasNext()) {
+      Map.Entry<Chromosome, Long> item = iter.next();
+
+      if (item.getKey().equals(keep) || mPinned.containsKey(item.getKey())) {
+        continue;
+      }
+
+      ret.add(item.getKey());
+      mUsedBytes -= item.getValue();
+      iter.remove();
+
+      ++mEvictions;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Remove chromosomes from the gap search. Must be called while holding the
+   * write lock. Removing the loader means the chromosome will be parsed
+   * again if it is requested.
+   *
+   * @param chrs the chromosomes.
+   */
+  private void unload(List<Chromosome> chrs) {
+    for (Chromosome chr : chrs) {
+      super.remove(chr);
+      mLoaders.remove(chr);
+    }
+  }
+
+  /**
+   * Count an element and its descendants.
+   *
+   * @param e the element.
+   * @return the number of elements.
+   */
+  private static int count(GenomicElement e) {
+    int ret = 1;
+
+    for (Map.Entry<GenomicType, List<GenomicElement>> children : e.getChildren()) {
+      for (GenomicElement child : children.getValue()) {
+        ret += count(child);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Ensure a chromosome is loaded. If loading fails the loader is removed so
+   * that the chromosome is parsed again the next time it is requested.
+   *
+   * @param chr      the chromosome.
+   * @param prefetch true if the chromosome is being prefetched rather than
+   *                 requested.
+   * @return the loader of the chromosome.
+   * @throws IOException if the chromosome cannot be loaded.
+   */
+  private FutureTask<Void> autoLoad(final Chromosome chr, final boolean prefetch) throws IOException {
+    FutureTask<Void> loader = mLoaders.get(chr);
+
+    boolean hit = loader != null;
+
+    if (loader == null) {
+      final AtomicReference<FutureTask<Void>> self = new AtomicReference<FutureTask<Void>>();
+
+      FutureTask<Void> newLoader = new FutureTask<Void>(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          load(chr, self.get(), prefetch);
+
+          return null;
+        }
+      });
+
+      self.set(newLoader);
+
+      loader = mLoaders.putIfAbsent(chr, newLoader);
+
+      if (loader == null) {
+        loader = newLoader;
+      } else {
+        hit = true;
+      }
+    }
+
+    // Prefetching does not count as using the chromosome
+    if (!prefetch) {
+      synchronized (mLoaded) {
+        if (hit) {
+          // Access order map so this moves the chromosome to the end of the
+          // queue
+          mLoaded.get(chr);
+
+          ++mHits;
+        } else {
+          ++mMisses;
+        }
+      }
+    }
+
+    // Only the first caller runs the loader, the rest wait for it
+    loader.run();
+
     try {
-      mParser.parse(mFile, mGenome, this);
+      await(loader);
     } catch (IOException e) {
-      e.printStackTrace();
+      mLoaders.remove(chr, loader);
+
+      throw e;
+    }
+
+    if (!prefetch && mPrefetch && mPrefetchStarted.compareAndSet(false, true)) {
+      prefetch();
+    }
+
+    return loader;
+  }
+
+  /**
+   * Run a query once a chromosome is loaded. The chromosome is pinned for the
+   * duration of the query so that loading other chromosomes cannot evict it.
+   * If it is nevertheless removed between loading it and acquiring the read
+   * lock, it is loaded again a limited number of times.
+   *
+   * @param chr   the chromosome.
+   * @param query the query.
+   * @return the query results.
+   * @throws IOException
+   */
+  private List<GenomicElement> query(Chromosome chr, ElementsQuery query) throws IOException {
+    pin(chr);
+
+    try {
+      for (int i = 0; i < MAX_QUERY_ATTEMPTS; ++i) {
+        FutureTask<Void> loader = autoLoad(chr, false);
+
+        mLock.readLock().lock();
+
+        try {
+          if (mLoaders.get(chr) == loader) {
+            return query.query();
+          }
+        } finally {
+          mLock.readLock().unlock();
+        }
+      }
+    } finally {
+      unpin(chr);
+    }
+
+    throw new IOException(chr + " was unloaded before it could be queried.");
+  }
+
+  private void pin(Chromosome chr) {
+    synchronized (mLoaded) {
+      Integer count = mPinned.get(chr);
+
+      mPinned.put(chr, count != null ? count + 1 : 1);
     }
   }
 
-  private void autoLoad(Chromosome chr) {
-    if (!contains(chr)) {
-      try {
-        mParser.parse(mFile, mGenome, chr, this);
-      } catch (IOException e) {
-        e.printStackTrace();
+  private void unpin(Chromosome chr) {
+    synchronized (mLoaded) {
+      int count = mPinned.get(chr);
+
+      if (count > 1) {
+        mPinned.put(chr, count - 1);
+      } else {
+        mPinned.remove(chr);
       }
     }
   }
 
-  private void autoLoad(String name) {
+  /**
+   * Returns the chromosome a gene is on.
+   *
+   * @param name the gene name.
+   * @return the chromosome or null if the gene is not known.
+   * @throws IOException if the gene map cannot be loaded.
+   */
+  private Chromosome geneChr(String name) throws IOException {
+    FutureTask<Void> loader = mGeneMapLoader;
+
     // Load a mapping of gene ids to chrs if not done so
-    if (mGeneMap.size() == 0) {
-      try {
-        geneChrMap();
-      } catch (IOException e) {
-        e.printStackTrace();
+    loader.run();
+
+    try {
+      await(loader);
+    } catch (IOException e) {
+      synchronized (mGeneMap) {
+        if (mGeneMapLoader == loader) {
+          mGeneMapLoader = newGeneMapLoader();
+        }
       }
+
+      throw e;
     }
 
-    Chromosome chr = mGeneMap.get(GenesDB.sanitize(name));
+    return mGeneMap.get(GenesDB.sanitize(name));
+  }
+
+  /**
+   * Load all chromosomes on a background thread. Chromosomes already loaded,
+   * or being loaded by another thread, are not parsed again. Prefetching stops
+   * at the first chromosome that does not fit in the spare room in the
+   * budget.
+   */
+  public void prefetch() {
+    Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          for (Chromosome chr : getChromosomes()) {
+            // Stop once there is no more room
+            if (getUsedBytes() >= getMemoryBudget()) {
+              break;
+            }
+
+            try {
+              autoLoad(chr, true);
+            } catch (IOException e) {
+              // Skip chromosomes that cannot be loaded, a request for them
+              // will report the error
+              e.printStackTrace();
+
+              continue;
+            }
+
+            if (!isLoaded(chr)) {
+              break;
+            }
+          }
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }, "prefetch-" + mFile);
+
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Wait for a task to finish, passing on any error it throws.
+   *
+   * @param task the task.
+   * @throws IOException
+   */
+  private static void await(FutureTask<Void> task) throws IOException {
+    try {
+      task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
 
-    if (chr != null) {
-      autoLoad(chr);
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw new IOException(cause);
     }
   }
 
   /*
    * @Override public void autoFindMainVariants() { autoLoad();
-   * 
+   *
    * super.autoFindMainVariants(); }
    */
 
   @Override
-  public List<GenomicElement> getElements(Genome genome, String id, GenomicType type) {
-    autoLoad(id);
+  public void add(GenomicElement gene) {
+    mLock.writeLock().lock();
 
-    return super.getElements(genome, id, type);
+    try {
+      super.add(gene);
+    } finally {
+      mLock.writeLock().unlock();
+    }
   }
 
   @Override
-  public List<GenomicElement> find(Genome genome, GenomicRegion region, GenomicType type, int minBp) {
-    autoLoad(region.mChr);
+  public List<GenomicElement> getElements(final Genome genome, final String id, final GenomicType type) {
+    try {
+      Chromosome chr = geneChr(id);
+
+      if (chr == null) {
+        mLock.readLock().lock();
+
+        try {
+          return super.getElements(genome, id, type);
+        } finally {
+          mLock.readLock().unlock();
+        }
+      }
 
-    return super.find(genome, region, type, minBp);
+      return query(chr, () -> super.getElements(genome, id, type));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    return Collections.emptyList();
   }
 
+  /**
+   * Returns the elements of a chromosome, loading it if necessary.
+   */
   @Override
-  public List<GenomicElement> closest(Genome genome, GenomicRegion region, GenomicType type, int minBp)
-      throws IOException {
-    autoLoad(region.mChr);
+  public List<GenomicElement> getElements(final Chromosome chr) {
+    try {
+      return query(chr, () -> super.getElements(chr));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<GenomicElement> find(final Genome genome, final GenomicRegion region, final GenomicType type,
+      final int minBp) {
+    try {
+      return query(region.mChr, () -> super.find(genome, region, type, minBp));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
 
-    return super.closest(genome, region, type, minBp);
+    return Collections.emptyList();
   }
 
   @Override
-  public List<GenomicElement> closestByTss(Genome genome, GenomicRegion region, GenomicType type, int minBp)
-      throws IOException {
-    autoLoad(region.mChr);
+  public List<GenomicElement> closest(final Genome genome, final GenomicRegion region, final GenomicType type,
+      final int minBp) throws IOException {
+    return query(region.mChr, () -> super.closest(genome, region, type, minBp));
+  }
+
+  /**
+   * Unload a chromosome. It will be parsed again if it is requested.
+   */
+  @Override
+  public int remove(Chromosome chr) {
+    mLock.writeLock().lock();
+
+    try {
+      synchronized (mLoaded) {
+        Long bytes = mLoaded.remove(chr);
+
+        if (bytes != null) {
+          mUsedBytes -= bytes;
+        }
+      }
+
+      mLoaders.remove(chr);
+
+      return super.remove(chr);
+    } finally {
+      mLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Set the approximate number of bytes the loaded chromosomes may occupy
+   * before the least recently used chromosomes are unloaded.
+   *
+   * @param bytes the memory budget in bytes.
+   * @return this
+   */
+  public GTBZGenes setMemoryBudget(long bytes) {
+    mLock.writeLock().lock();
+
+    try {
+      List<Chromosome> evicted;
+
+      synchronized (mLoaded) {
+        mMemoryBudget = bytes;
+
+        evicted = evict(null);
+      }
+
+      unload(evicted);
+    } finally {
+      mLock.writeLock().unlock();
+    }
+
+    return this;
+  }
+
+  /**
+   * Gets the memory budget.
+   *
+   * @return the memory budget in bytes.
+   */
+  public long getMemoryBudget() {
+    synchronized (mLoaded) {
+      return mMemoryBudget;
+    }
+  }
+
+  /**
+   * Returns the estimated number of bytes used by the loaded chromosomes.
+   *
+   * @return the used bytes
+   */
+  public long getUsedBytes() {
+    synchronized (mLoaded) {
+      return mUsedBytes;
+    }
+  }
+
+  /**
+   * Returns the number of loaded chromosomes.
+   *
+   * @return the loaded count
+   */
+  public int getLoadedCount() {
+    synchronized (mLoaded) {
+      return mLoaded.size();
+    }
+  }
+
+  /**
+   * Returns the total time in ms spent loading chromosomes.
+   *
+   * @return the load time
+   */
+  public long getLoadTime() {
+    synchronized (mLoaded) {
+      return mLoadTime;
+    }
+  }
+
+  /**
+   * Returns the number of requests for a chromosome that was already loaded
+   * or being loaded.
+   *
+   * @return the hits
+   */
+  public long getHits() {
+    synchronized (mLoaded) {
+      return mHits;
+    }
+  }
 
-    return super.closestByTss(genome, region, type, minBp);
+  /**
+   * Returns the number of requests that required a chromosome to be loaded.
+   *
+   * @return the misses
+   */
+  public long getMisses() {
+    synchronized (mLoaded) {
+      return mMisses;
+    }
+  }
+
+  /**
+   * Returns the fraction of requests for a chromosome that was already
+   * loaded.
+   *
+   * @return the hit rate
+   */
+  public double getHitRate() {
+    synchronized (mLoaded) {
+      long total = mHits + mMisses;
+
+      return total > 0 ? (double) mHits / total : 0;
+    }
+  }
+
+  /**
+   * Returns the number of chromosomes unloaded to stay within the memory
+   * budget.
+   *
+   * @return the evictions
+   */
+  public long getEvictions() {
+    synchronized (mLoaded) {
+      return mEvictions;
+    }
   }
 
   /*
    * @Override public Iterable<String> getIds(String type) { autoLoad();
-   * 
+   *
    * return super.getIds(type); }
    */
+
+  /**
+   * A query of the loaded genes.
+   */
+  private interface ElementsQuery {
+    List<GenomicElement> query() throws IOException;
+  }
+
+  /**
+   * Collects the elements of a chromosome as they are parsed so that they can
+   * be added to the genes in one step.
+   */
+  private static class ElementsCollector extends SingleGenesDB {
+    private static final long serialVersionUID = 1L;
+
+    private final List<GenomicElement> mElements = new ArrayList<GenomicElement>();
+
+    public ElementsCollector(Genome genome) {
+      super(genome);
+    }
+
+    @Override
+    public void add(GenomicElement element) {
+      mElements.add(element);
+    }
+
+    @Override
+    public List<GenomicElement> find(Genome genome, GenomicRegion region, GenomicType type, int minBp) {
+      return Collections.emptyList();
+    }
+  }
 }
@@ -31,6 +31,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -53,6 +59,11 @@ public class GTBZParser extends GTB2Parser {
 
   @Override
   public void parse(Path file, Genome genome, GenesDB genes) throws IOException {
+    if (isParallel()) {
+      parseParallel(file, genome, genes);
+
+      return;
+    }
 
     final ZipFile zipFile = new ZipFile(file.toFile());
 
@@ -77,6 +88,53 @@ public class GTBZParser extends GTB2Parser {
     }
   }
 
+  /**
+   * Parse each chromosome entry of the zip file on a separate worker.
+   *
+   * @param file   the file
+   * @param genome the genome
+   * @param genes  the genes
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private void parseParallel(final Path file, final Genome genome, GenesDB genes) throws IOException {
+    final ZipFile zipFile = new ZipFile(file.toFile());
+
+    ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+
+    try {
+      BlockingQueue<Future<List<GenomicEntity>>> pending = newPendingQueue();
+
+      final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+      while (entries.hasMoreElements()) {
+        final ZipEntry entry = entries.nextElement();
+
+        if (entry.getName().contains("gtb2")) {
+          add(executor.submit(new Callable<List<GenomicEntity>>() {
+            @Override
+            public List<GenomicEntity> call() throws IOException {
+              BufferedReader reader = FileUtils.newBufferedReader(zipFile, entry);
+
+              try {
+                // Skip header
+                reader.readLine();
+
+                return parseChunks(file, reader, genome);
+              } finally {
+                reader.close();
+              }
+            }
+          }), pending, genes);
+        }
+      }
+
+      addAll(pending, genes);
+    } finally {
+      executor.shutdownNow();
+      zipFile.close();
+    }
+  }
+
   @Override
   public void parse(Path file, Genome genome, Chromosome chr, GenesDB genes) throws IOException {
 
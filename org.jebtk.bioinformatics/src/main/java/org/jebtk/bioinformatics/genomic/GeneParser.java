@@ -30,12 +30,22 @@ package org.jebtk.bioinformatics.genomic;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jebtk.core.collections.CollectionUtils;
 import org.jebtk.core.collections.IterMap;
 import org.jebtk.core.io.FileUtils;
 import org.slf4j.Logger;
@@ -49,6 +59,15 @@ import org.slf4j.LoggerFactory;
 public abstract class GeneParser {
   public static final Logger LOG = LoggerFactory.getLogger(GeneParser.class);
 
+  /** The number of lines each worker parses in parallel mode. */
+  public static final int CHUNK_LINES = 20000;
+
+  /**
+   * The number of parsed chunks per thread that may wait to be added to the
+   * database before reading pauses, which bounds the memory used.
+   */
+  public static final int PENDING_CHUNKS_PER_THREAD = 2;
+
   protected Set<GenomicType> mLevels = new HashSet<GenomicType>();
 
   /** Whether to add exons to gene structure */
@@ -58,6 +77,12 @@ public abstract class GeneParser {
   protected Set<String> mExcludeTags = new HashSet<String>();
   protected Set<String> mExcludeIds = new HashSet<String>();
 
+  /** Number of threads to parse with. If 1, files are parsed sequentially. */
+  protected int mThreads = 1;
+
+  /** Whether to load and save binary snapshots of parsed files. */
+  protected boolean mSnapshot = false;
+
   public GeneParser() {
     // setLevels(GeneType.GENE);
   }
@@ -65,8 +90,12 @@ public abstract class GeneParser {
   public GeneParser(GeneParser parser) {
     mLevels.addAll(parser.mLevels);
     mKeepExons = parser.mKeepExons;
+    mKeepTranscripts = parser.mKeepTranscripts;
     mMatchTags.addAll(parser.mMatchTags);
     mExcludeTags.addAll(parser.mExcludeTags);
+    mExcludeIds.addAll(parser.mExcludeIds);
+    mThreads = parser.mThreads;
+    mSnapshot = parser.mSnapshot;
   }
 
   public GeneParser setKeepExons(boolean keep) {
@@ -81,6 +110,80 @@ public abstract class GeneParser {
     mKeepExons = keep;
   }
 
+  /**
+   * Parse files using multiple threads. Parsers that support parallel parsing
+   * split files into chunks of lines that are parsed by a pool of workers and
+   * the results are added to the genes database in file order.
+   * 
+   * @param threads The number of threads. Use 1 to parse sequentially.
+   * @return A new parser using the given number of threads.
+   */
+  public GeneParser setThreads(int threads) {
+    GeneParser parser = create(this);
+
+    parser.mThreads = Math.max(1, threads);
+
+    return parser;
+  }
+
+  /**
+   * Parse files using all available processors.
+   * 
+   * @return A new parser using all available processors.
+   */
+  public GeneParser parallel() {
+    return setThreads(Runtime.getRuntime().availableProcessors());
+  }
+
+  public boolean isParallel() {
+    return mThreads > 1;
+  }
+
+  /**
+   * Cache parsed files as binary snapshots written next to each file. Once a
+   * snapshot exists, the {@code parse} methods that read a whole file load it
+   * instead of parsing the file for as long as the file, genome and parser
+   * settings are unchanged.
+   * 
+   * @param snapshot Whether to use snapshots.
+   * @return A new parser using snapshots.
+   * @see GenesSnapshot
+   */
+  public GeneParser setSnapshot(boolean snapshot) {
+    GeneParser parser = create(this);
+
+    parser.mSnapshot = snapshot;
+
+    return parser;
+  }
+
+  public GeneParser snapshot() {
+    return setSnapshot(true);
+  }
+
+  public boolean isSnapshot() {
+    return mSnapshot;
+  }
+
+  /**
+   * Returns a key describing the settings that affect what this parser
+   * produces. A snapshot is only reused by a parser with the same key.
+   * 
+   * @return The snapshot key.
+   */
+  public String getSnapshotKey() {
+    StringBuilder buffer = new StringBuilder(getClass().getName());
+
+    buffer.append(";levels=").append(CollectionUtils.sort(mLevels));
+    buffer.append(";exons=").append(mKeepExons);
+    buffer.append(";transcripts=").append(mKeepTranscripts);
+    buffer.append(";match=").append(CollectionUtils.sort(mMatchTags));
+    buffer.append(";exclude=").append(CollectionUtils.sort(mExcludeTags));
+    buffer.append(";ids=").append(CollectionUtils.sort(mExcludeIds));
+
+    return buffer.toString();
+  }
+
   public GeneParser excludeIds(String id, String... ids) {
     GeneParser parser = create(this);
 
@@ -178,6 +281,10 @@ public abstract class GeneParser {
   public abstract GeneParser create(GeneParser parser);
 
   public GenesDB parse(Path file, final Genome genome) throws IOException {
+    if (mSnapshot) {
+      return GenesSnapshot.parse(this, file, genome);
+    }
+
     GenesDB genes = new FixedGapGenes(genome);
 
     parse(file, genome, genes);
@@ -194,6 +301,11 @@ public abstract class GeneParser {
   }
 
   public void parse(Path file, final Genome genome, GenesDB genes) throws IOException {
+    if (mSnapshot) {
+      GenesSnapshot.parse(this, file, genome, genes);
+      return;
+    }
+
     BufferedReader reader = FileUtils.newBufferedReader(file);
 
     try {
@@ -212,6 +324,10 @@ public abstract class GeneParser {
   }
 
   public GenesDB parse(Path file, final Genome genome, int window) throws IOException {
+    if (mSnapshot) {
+      return GenesSnapshot.parse(this, file, genome, window);
+    }
+
     GenesDB genes = new FixedGapGenes(genome);
 
     parse(file, genes, genome, window);
@@ -274,6 +390,198 @@ public abstract class GeneParser {
     return mLevels.contains(level);
   }
 
+  /**
+   * Parse a chunk of lines into entities. Parsers that support parallel
+   * parsing should override this. The method may be called concurrently from
+   * multiple threads so implementations must not modify shared state.
+   * 
+   * @param file   The file being parsed.
+   * @param lines  A chunk of lines that starts at a chunk boundary.
+   * @param genome The genome.
+   * @return The entities to add to the database, in file order.
+   */
+  protected List<GenomicEntity> parseLines(Path file, List<String> lines, Genome genome) {
+    return new ArrayList<GenomicEntity>();
+  }
+
+  /**
+   * Returns true if a chunk of lines may start with this line. Parsers whose
+   * records span several lines should only allow chunks to start on the first
+   * line of a record.
+   * 
+   * @param line A line.
+   * @return true if a new chunk can start at this line.
+   */
+  protected boolean isChunkStart(String line) {
+    return true;
+  }
+
+  /**
+   * Parse a file by splitting it into chunks of lines that are parsed in
+   * parallel using {@link #parseLines(Path, List, Genome)}. The results are
+   * added to the genes database in file order on the calling thread. Only a
+   * few chunks per thread are held at once: when the queue of pending chunks
+   * is full, the oldest is added to the database before more lines are read.
+   * 
+   * @param file   The file being parsed.
+   * @param reader The reader positioned at the first data line.
+   * @param genome The genome.
+   * @param genes  The genes database.
+   * @throws IOException
+   */
+  protected void parseParallel(final Path file, BufferedReader reader, final Genome genome, GenesDB genes)
+      throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+
+    BlockingQueue<Future<List<GenomicEntity>>> pending = newPendingQueue();
+
+    try {
+      List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+        if (chunk.size() >= CHUNK_LINES && isChunkStart(line)) {
+          add(submitLines(executor, file, chunk, genome), pending, genes);
+
+          chunk = new ArrayList<String>(CHUNK_LINES);
+        }
+
+        chunk.add(line);
+      }
+
+      if (chunk.size() > 0) {
+        add(submitLines(executor, file, chunk, genome), pending, genes);
+      }
+
+      addAll(pending, genes);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Parse the lines of a reader in chunks using
+   * {@link #parseLines(Path, List, Genome)} so that only one chunk of lines is
+   * held in memory at a time.
+   * 
+   * @param file   The file being parsed.
+   * @param reader The reader positioned at the first data line.
+   * @param genome The genome.
+   * @return The entities in file order.
+   * @throws IOException
+   */
+  protected List<GenomicEntity> parseChunks(Path file, BufferedReader reader, Genome genome) throws IOException {
+    List<GenomicEntity> ret = new ArrayList<GenomicEntity>();
+
+    List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+
+    String line;
+
+    while ((line = reader.readLine()) != null) {
+      if (chunk.size() >= CHUNK_LINES && isChunkStart(line)) {
+        ret.addAll(parseLines(file, chunk, genome));
+
+        chunk.clear();
+      }
+
+      chunk.add(line);
+    }
+
+    if (chunk.size() > 0) {
+      ret.addAll(parseLines(file, chunk, genome));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns a queue for the parsing tasks waiting to be added to a database.
+   * 
+   * @return The queue.
+   */
+  protected BlockingQueue<Future<List<GenomicEntity>>> newPendingQueue() {
+    return new ArrayBlockingQueue<Future<List<GenomicEntity>>>(PENDING_CHUNKS_PER_THREAD * mThreads);
+  }
+
+  private Future<List<GenomicEntity>> submitLines(ExecutorService executor, final Path file, final List<String> lines,
+      final Genome genome) {
+    return executor.submit(new Callable<List<GenomicEntity>>() {
+      @Override
+      public List<GenomicEntity> call() {
+        return parseLines(file, lines, genome);
+      }
+    });
+  }
+
+  /**
+   * Queue a parsing task. If the queue is full, the oldest tasks are waited
+   * for and their results added to the database first.
+   * 
+   * @param future  The parsing task.
+   * @param pending The tasks waiting to be added.
+   * @param genes   The genes database.
+   * @throws IOException If a task failed.
+   */
+  protected static void add(Future<List<GenomicEntity>> future, BlockingQueue<Future<List<GenomicEntity>>> pending,
+      GenesDB genes) throws IOException {
+    while (!pending.offer(future)) {
+      add(pending.remove(), genes);
+    }
+  }
+
+  /**
+   * Wait for the queued parsing tasks to complete and add the results to a
+   * database in the order the tasks were queued.
+   * 
+   * @param pending The parsing tasks.
+   * @param genes   The genes database.
+   * @throws IOException If a task failed.
+   */
+  protected static void addAll(BlockingQueue<Future<List<GenomicEntity>>> pending, GenesDB genes) throws IOException {
+    Future<List<GenomicEntity>> future;
+
+    while ((future = pending.poll()) != null) {
+      add(future, genes);
+    }
+  }
+
+  private static void add(Future<List<GenomicEntity>> future, GenesDB genes) throws IOException {
+    try {
+      for (GenomicEntity e : future.get()) {
+        genes.add(e);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  /**
+   * Look up a chromosome, caching the result. The chromosome service is thread
+   * safe but synchronized, so workers keep their own caches to avoid
+   * contending on it for every line.
+   * 
+   * @param genome The genome.
+   * @param name   The chromosome name.
+   * @param cache  The cache.
+   * @return The chromosome.
+   */
+  protected static Chromosome chr(Genome genome, String name, Map<String, Chromosome> cache) {
+    Chromosome chr = cache.get(name);
+
+    if (chr == null) {
+      chr = ChromosomeService.getInstance().chr(genome, name);
+
+      cache.put(name, chr);
+    }
+
+    return chr;
+  }
+
   public static GenomicEntity addAttributes(GenomicType type, final GenomicRegion region,
       final IterMap<String, String> attributeMap) {
 
@@ -290,4 +598,22 @@ public abstract class GeneParser {
 
     return gene;
   }
+
+  /**
+   * Create a child element, such as an exon or UTR, which shares the
+   * properties of its parent rather than having its own copy of them.
+   *
+   * @param type   the type of the child.
+   * @param region the location of the child.
+   * @param parent the parent, typically a transcript.
+   * @return the child element.
+   */
+  public static GenomicEntity addChildAttributes(GenomicType type, final GenomicRegion region,
+      final GenomicElement parent) {
+    GenomicEntity ret = new GenomicEntity(type, region);
+
+    ret.shareProperties(parent);
+
+    return ret;
+  }
 }
\ No newline at end of file
@@ -121,6 +121,24 @@ public class GenesService implements Iterable<Entry<Genome, GenesDB>> {
     }
   }
 
+  /**
+   * Register a genes database with its query results cached.
+   *
+   * @param genes   the genes
+   * @param maxSize the maximum number of results to cache.
+   * @param ttl     how long in ms results remain valid.
+   * @return the cached database.
+   */
+  public CachedGenesDB putCached(GenesDB genes, int maxSize, long ttl) {
+    CachedGenesDB ret = new CachedGenesDB(genes, maxSize, ttl);
+
+    for (Genome g : genes.getGenomes()) {
+      put(g, ret);
+    }
+
+    return ret;
+  }
+
   public void put(Genome g, GenesDB genes) {
     System.err.println("gene service " + g);
     
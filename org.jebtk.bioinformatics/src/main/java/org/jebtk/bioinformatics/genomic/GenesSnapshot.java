@@ -0,0 +1,661 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.jebtk.core.io.FileUtils;
+import org.jebtk.core.io.PathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary snapshot of a fully parsed genes database so that a gene file does
+ * not have to be parsed again each time it is loaded. The snapshot is written
+ * next to the source file and records the size, modification time and CRC32
+ * of the source along with a key describing the parser settings and genome. A
+ * snapshot is used if the size and key match and the modification time is
+ * unchanged. If only the modification time differs, for example because the
+ * file was copied, the CRC32 of the source is compared instead and, if it
+ * matches, the new modification time is recorded in the snapshot. Otherwise,
+ * or if the snapshot is damaged, the source is parsed again and the snapshot
+ * replaced.
+ *
+ * The snapshot stores every element reachable from the database, including
+ * exons and UTRs that are only children of a transcript, along with their
+ * properties, tags and hierarchy. Elements that shared a property map when
+ * the snapshot was written share it again when it is read. The gap search
+ * bins are rebuilt as the elements are added back to a
+ * {@link FixedGapGenes}, which takes linear time.
+ *
+ * The layout is:
+ *
+ * <pre>
+ * int      check (42)
+ * byte     version
+ * long     source size
+ * long     source modification time
+ * long     source crc32
+ * string   parser key
+ * int      number of strings
+ * string[] strings
+ * int      number of elements
+ * for each element:
+ *   byte     type
+ *   int      chr (string index)
+ *   int      start
+ *   int      end
+ *   byte     strand
+ *   int      index of element whose properties are shared, or -1
+ *   if not shared:
+ *     int      number of properties
+ *     for each property:
+ *       int      name (string index)
+ *       byte     value type (0 = string, 1 = int, 2 = double)
+ *       int/int/double value
+ *   int      number of tags
+ *   int[]    tags (string indices)
+ * for each element:
+ *   int      parent index, or -1
+ *   int      number of children
+ *   int[]    child indices
+ * int      number of elements in the database
+ * int[]    element indices
+ * </pre>
+ *
+ * Strings are stored as an int byte length followed by UTF-8 bytes.
+ *
+ * @author Antony Holmes
+ */
+public class GenesSnapshot {
+
+  private static final Logger LOG = LoggerFactory.getLogger(GenesSnapshot.class);
+
+  /**
+   * The constant SNAPSHOT_FILE_ENDING.
+   */
+  public static final String SNAPSHOT_FILE_ENDING = ".gsnap";
+
+  public static final int CHECK = 42;
+  public static final byte VERSION = 1;
+
+  private static final byte STRING_VALUE = 0;
+  private static final byte INT_VALUE = 1;
+  private static final byte DOUBLE_VALUE = 2;
+
+  private static final int HASH_BUFFER_BYTES = 1048576;
+
+  /**
+   * Offset of the source modification time in the header.
+   */
+  private static final int MODIFIED_OFFSET = 13;
+
+  /**
+   * The smallest number of bytes an element can occupy, including its entry
+   * in the hierarchy.
+   */
+  private static final int MIN_ELEMENT_BYTES = 30;
+
+  private static final GenomicType[] TYPES = GenomicType.values();
+
+  private GenesSnapshot() {
+    // Do nothing
+  }
+
+  /**
+   * Returns the snapshot file of a gene file. The snapshot is stored in the
+   * same directory as the file.
+   *
+   * @param file The gene file.
+   * @return The snapshot file.
+   */
+  public static Path getFile(Path file) {
+    return file.resolveSibling(PathUtils.getName(file) + SNAPSHOT_FILE_ENDING);
+  }
+
+  /**
+   * Returns the key of the settings that determine the contents of a snapshot.
+   *
+   * @param parser The parser.
+   * @param genome The genome.
+   * @param window The window the parser was given, or -1.
+   * @return The key.
+   */
+  public static String getKey(GeneParser parser, Genome genome, int window) {
+    StringBuilder buffer = new StringBuilder(parser.getSnapshotKey());
+
+    buffer.append(";genome=").append(genome);
+
+    if (window > 0) {
+      buffer.append(";window=").append(window);
+    }
+
+    return buffer.toString();
+  }
+
+  /**
+   * Load a genes database from its snapshot if the snapshot is up to date,
+   * otherwise parse the file and write a new snapshot. Failure to write the
+   * snapshot, for example because the directory is read only, is logged but
+   * does not prevent the genes from being returned.
+   *
+   * @param parser The parser to use if the snapshot cannot be used.
+   * @param file   The gene file.
+   * @param genome The genome.
+   * @return The genes.
+   * @throws IOException
+   */
+  public static GenesDB parse(GeneParser parser, Path file, Genome genome) throws IOException {
+    return parse(parser, file, genome, -1);
+  }
+
+  /**
+   * Load the genes of a file from its snapshot and add them to a database.
+   *
+   * @param parser The parser to use if the snapshot cannot be used.
+   * @param file   The gene file.
+   * @param genome The genome.
+   * @param genes  The genes will be added to this database.
+   * @throws IOException
+   */
+  public static void parse(GeneParser parser, Path file, Genome genome, GenesDB genes) throws IOException {
+    for (GenomicElement e : parse(parser, file, genome).getElements()) {
+      genes.add(e);
+    }
+  }
+
+  /**
+   * Load a genes database parsed with a window from its snapshot.
+   *
+   * @param parser The parser to use if the snapshot cannot be used.
+   * @param file   The gene file.
+   * @param genome The genome.
+   * @param window The window, or -1 to parse without one.
+   * @return The genes.
+   * @throws IOException
+   */
+  public static GenesDB parse(GeneParser parser, Path file, Genome genome, int window) throws IOException {
+    Path snapshot = getFile(file);
+
+    String key = getKey(parser, genome, window);
+
+    GenesDB genes = null;
+
+    try {
+      genes = read(file, key, genome, snapshot);
+    } catch (IOException | RuntimeException e) {
+      // A damaged snapshot is replaced by parsing the file again
+      LOG.warn("Rebuilding genes snapshot {}: {}", snapshot, e.toString());
+    }
+
+    if (genes != null) {
+      return genes;
+    }
+
+    // Parse the file itself rather than coming back here
+    GeneParser fileParser = parser.setSnapshot(false);
+
+    if (window > 0) {
+      genes = fileParser.parse(file, genome, window);
+    } else {
+      genes = fileParser.parse(file, genome);
+    }
+
+    try {
+      write(genes, file, key, snapshot);
+    } catch (IOException e) {
+      LOG.warn("Could not write snapshot {}: {}", snapshot, e.getMessage());
+    }
+
+    return genes;
+  }
+
+  /**
+   * Write a snapshot of a genes database. The snapshot is written to a
+   * temporary file and then moved into place so that readers never see a
+   * partial snapshot.
+   *
+   * @param genes    The genes.
+   * @param source   The file the genes were parsed from.
+   * @param key      The parser key.
+   * @param snapshot The snapshot file.
+   * @throws IOException
+   */
+  public static void write(GenesDB genes, Path source, String key, Path snapshot) throws IOException {
+    LOG.info("Writing genes snapshot {}...", snapshot);
+
+    List<GenomicElement> dbElements = genes.getElements();
+
+    // Find every element reachable from the database
+    Map<GenomicElement, Integer> indexMap = new IdentityHashMap<GenomicElement, Integer>();
+    List<GenomicElement> elements = new ArrayList<GenomicElement>(dbElements.size());
+
+    Deque<GenomicElement> stack = new ArrayDeque<GenomicElement>();
+
+    for (GenomicElement e : dbElements) {
+      stack.push(e);
+
+      while (!stack.isEmpty()) {
+        GenomicElement item = stack.pop();
+
+        if (indexMap.containsKey(item)) {
+          continue;
+        }
+
+        indexMap.put(item, elements.size());
+        elements.add(item);
+
+        if (item.getParent() != null) {
+          stack.push(item.getParent());
+        }
+
+        for (Entry<GenomicType, List<GenomicElement>> children : item.getChildren()) {
+          for (GenomicElement child : children.getValue()) {
+            stack.push(child);
+          }
+        }
+      }
+    }
+
+    // Build the string table
+    Map<String, Integer> stringMap = new HashMap<String, Integer>();
+    List<String> strings = new ArrayList<String>();
+
+    for (GenomicElement e : elements) {
+      intern(e.mChr.toString(), stringMap, strings);
+
+      for (Entry<String, Object> p : e.getPropertyMap().entrySet()) {
+        intern(p.getKey(), stringMap, strings);
+
+        Object v = p.getValue();
+
+        if (!(v instanceof Integer) && !(v instanceof Double)) {
+          intern(v.toString(), stringMap, strings);
+        }
+      }
+
+      for (String tag : e.getTags()) {
+        intern(tag, stringMap, strings);
+      }
+    }
+
+    Path tmp = snapshot.resolveSibling(PathUtils.getName(snapshot) + ".tmp");
+
+    DataOutputStream writer = FileUtils.newDataOutputStream(tmp);
+
+    try {
+      writer.writeInt(CHECK);
+      writer.writeByte(VERSION);
+      writer.writeLong(Files.size(source));
+      writer.writeLong(Files.getLastModifiedTime(source).toMillis());
+      writer.writeLong(hash(source));
+      writeString(key, writer);
+
+      writer.writeInt(strings.size());
+
+      for (String s : strings) {
+        writeString(s, writer);
+      }
+
+      writer.writeInt(elements.size());
+
+      // The first element to use a property map owns it
+      Map<Object, Integer> ownerMap = new IdentityHashMap<Object, Integer>();
+
+      for (int i = 0; i < elements.size(); ++i) {
+        GenomicElement e = elements.get(i);
+
+        writer.writeByte(e.mType.ordinal());
+        writer.writeInt(stringMap.get(e.mChr.toString()));
+        writer.writeInt(e.mStart);
+        writer.writeInt(e.mEnd);
+        writer.writeByte(e.mStrand.ordinal());
+
+        Map<String, Object> properties = e.getPropertyMap();
+
+        // Elements without properties all use the same empty placeholder,
+        // which must not be mistaken for a shared map
+        Integer owner = properties.isEmpty() ? null : ownerMap.get(properties);
+
+        if (owner != null) {
+          writer.writeInt(owner);
+        } else {
+          ownerMap.put(properties, i);
+
+          writer.writeInt(-1);
+          writer.writeInt(properties.size());
+
+          for (Entry<String, Object> p : properties.entrySet()) {
+            writer.writeInt(stringMap.get(p.getKey()));
+
+            Object v = p.getValue();
+
+            if (v instanceof Integer) {
+              writer.writeByte(INT_VALUE);
+              writer.writeInt((Integer) v);
+            } else if (v instanceof Double) {
+              writer.writeByte(DOUBLE_VALUE);
+              writer.writeDouble((Double) v);
+            } else {
+              writer.writeByte(STRING_VALUE);
+              writer.writeInt(stringMap.get(v.toString()));
+            }
+          }
+        }
+
+        writer.writeInt(e.getTagCount());
+
+        for (String tag : e.getTags()) {
+          writer.writeInt(stringMap.get(tag));
+        }
+      }
+
+      // Hierarchy
+      for (GenomicElement e : elements) {
+        writer.writeInt(e.getParent() != null ? indexMap.get(e.getParent()) : -1);
+
+        int n = 0;
+
+        for (Entry<GenomicType, List<GenomicElement>> children : e.getChildren()) {
+          n += children.getValue().size();
+        }
+
+        writer.writeInt(n);
+
+        for (Entry<GenomicType, List<GenomicElement>> children : e.getChildren()) {
+          for (GenomicElement child : children.getValue()) {
+            writer.writeInt(indexMap.get(child));
+          }
+        }
+      }
+
+      writer.writeInt(dbElements.size());
+
+      for (GenomicElement e : dbElements) {
+        writer.writeInt(indexMap.get(e));
+      }
+    } finally {
+      writer.close();
+    }
+
+    Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Load a snapshot. If the snapshot does not exist, is not a snapshot or no
+   * longer matches the source file or parser, null is returned. A damaged
+   * snapshot causes an exception.
+   *
+   * @param source   The file the snapshot was created from.
+   * @param key      The parser key.
+   * @param genome   The genome.
+   * @param snapshot The snapshot file.
+   * @return The genes or null.
+   * @throws IOException
+   */
+  public static GenesDB read(Path source, String key, Genome genome, Path snapshot) throws IOException {
+    if (!FileUtils.exists(snapshot)) {
+      return null;
+    }
+
+    FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ);
+
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.getInt() != CHECK || buffer.get() != VERSION) {
+        LOG.info("{} is not a current genes snapshot.", snapshot);
+        return null;
+      }
+
+      long size = buffer.getLong();
+      long modified = buffer.getLong();
+      long crc = buffer.getLong();
+
+      if (size != Files.size(source) || !readString(buffer).equals(key)) {
+        LOG.info("Genes snapshot {} is out of date.", snapshot);
+        return null;
+      }
+
+      long time = Files.getLastModifiedTime(source).toMillis();
+
+      // Only hash the source if its modification time has changed
+      if (modified != time) {
+        if (crc != hash(source)) {
+          LOG.info("Genes snapshot {} is out of date.", snapshot);
+          return null;
+        }
+
+        // Record the new time so the source is not hashed on every load
+        stamp(snapshot, time);
+      }
+
+      LOG.info("Loading genes snapshot {}...", snapshot);
+
+      int n = readCount(buffer, 4);
+
+      String[] strings = new String[n];
+
+      for (int i = 0; i < n; ++i) {
+        strings[i] = readString(buffer);
+      }
+
+      Map<String, Chromosome> chrCache = new HashMap<String, Chromosome>();
+
+      n = readCount(buffer, MIN_ELEMENT_BYTES);
+
+      GenomicElement[] elements = new GenomicElement[n];
+
+      for (int i = 0; i < n; ++i) {
+        GenomicType type = TYPES[buffer.get()];
+        Chromosome chr = GeneParser.chr(genome, strings[buffer.getInt()], chrCache);
+        int start = buffer.getInt();
+        int end = buffer.getInt();
+        Strand strand = buffer.get() == 0 ? Strand.SENSE : Strand.ANTISENSE;
+
+        GenomicElement e = new GenomicEntity(type, genome, chr, start, end, strand);
+
+        int owner = buffer.getInt();
+
+        if (owner > -1) {
+          e.shareProperties(elements[owner]);
+        } else {
+          int pn = buffer.getInt();
+
+          for (int j = 0; j < pn; ++j) {
+            String name = strings[buffer.getInt()];
+
+            switch (buffer.get()) {
+            case INT_VALUE:
+              e.setProperty(name, buffer.getInt());
+              break;
+            case DOUBLE_VALUE:
+              e.setProperty(name, buffer.getDouble());
+              break;
+            default:
+              e.setProperty(name, strings[buffer.getInt()]);
+              break;
+            }
+          }
+        }
+
+        int tn = buffer.getInt();
+
+        for (int j = 0; j < tn; ++j) {
+          e.addTag(strings[buffer.getInt()]);
+        }
+
+        elements[i] = e;
+      }
+
+      for (int i = 0; i < n; ++i) {
+        int parent = buffer.getInt();
+
+        if (parent > -1) {
+          elements[i].setParent(elements[parent]);
+        }
+
+        int cn = buffer.getInt();
+
+        for (int j = 0; j < cn; ++j) {
+          elements[i].addChild(elements[buffer.getInt()]);
+        }
+      }
+
+      GenesDB genes = new FixedGapGenes(genome);
+
+      n = buffer.getInt();
+
+      for (int i = 0; i < n; ++i) {
+        genes.add(elements[buffer.getInt()]);
+      }
+
+      return genes;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Update the source modification time recorded in a snapshot. Failure is
+   * logged since it only means the source will be hashed again next time.
+   *
+   * @param snapshot The snapshot file.
+   * @param modified The modification time.
+   */
+  private static void stamp(Path snapshot, long modified) {
+    ByteBuffer buffer = ByteBuffer.allocate(8);
+
+    buffer.putLong(modified);
+    buffer.flip();
+
+    try {
+      FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE);
+
+      try {
+        channel.write(buffer, MODIFIED_OFFSET);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not update snapshot {}: {}", snapshot, e.getMessage());
+    }
+  }
+
+  /**
+   * Read the number of items that follow in a snapshot, checking that the
+   * snapshot is large enough to hold them so that a damaged count cannot
+   * cause a huge allocation.
+   *
+   * @param buffer The snapshot.
+   * @param bytes  The smallest number of bytes each item occupies.
+   * @return The count.
+   * @throws IOException If the snapshot is too small to hold the items.
+   */
+  private static int readCount(ByteBuffer buffer, int bytes) throws IOException {
+    int n = buffer.getInt();
+
+    if (n < 0 || (long) n * bytes > buffer.remaining()) {
+      throw new IOException("Genes snapshot is damaged.");
+    }
+
+    return n;
+  }
+
+  /**
+   * Returns the CRC32 of the contents of a file.
+   *
+   * @param file The file.
+   * @return The CRC32.
+   * @throws IOException
+   */
+  public static long hash(Path file) throws IOException {
+    CRC32 crc = new CRC32();
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_BYTES);
+
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+    try {
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        crc.update(buffer);
+        buffer.clear();
+      }
+    } finally {
+      channel.close();
+    }
+
+    return crc.getValue();
+  }
+
+  private static int intern(String s, Map<String, Integer> stringMap, List<String> strings) {
+    Integer index = stringMap.get(s);
+
+    if (index == null) {
+      index = strings.size();
+      stringMap.put(s, index);
+      strings.add(s);
+    }
+
+    return index;
+  }
+
+  private static void writeString(String s, DataOutputStream writer) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+    writer.writeInt(bytes.length);
+    writer.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) throws IOException {
+    byte[] bytes = new byte[readCount(buffer, 1)];
+
+    buffer.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -29,8 +29,11 @@ package org.jebtk.bioinformatics.genomic;
 
 import java.awt.Color;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -38,12 +41,9 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 
-import org.jebtk.core.collections.DefaultHashMap;
 import org.jebtk.core.collections.DefaultTreeMap;
-import org.jebtk.core.collections.IterHashMap;
 import org.jebtk.core.collections.IterMap;
 import org.jebtk.core.collections.TreeSetCreator;
-import org.jebtk.core.collections.UniqueArrayListCreator;
 import org.jebtk.core.text.TextUtils;
 
 import com.fasterxml.jackson.annotation.JsonGetter;
@@ -65,15 +65,32 @@ public class GenomicElement extends GenomicRegion {
    */
   private static final long serialVersionUID = 1L;
 
-  /** The m id map. */
-  protected IterMap<String, Object> mPropertyMap = new IterHashMap<String, Object>();
+  /**
+   * Placeholder for elements without properties so that a map is only
+   * allocated when the first property is set.
+   */
+  private static final Map<String, Object> NO_PROPERTIES = Collections.emptyMap();
+
+  /**
+   * The properties. Only modified through {@link #putProperty(String, Object)}
+   * so that shared maps are copied first.
+   */
+  private Map<String, Object> mPropertyMap = NO_PROPERTIES;
+
+  /**
+   * True if the property map is shared with other elements, in which case it
+   * must be treated as immutable and copied before being modified.
+   */
+  private boolean mSharedProperties = false;
 
-  /** The m tags. */
-  private Set<String> mTags = new TreeSet<String>();
+  /** The m tags. Created when the first tag is added. */
+  private Set<String> mTags = null;
 
-  /** The m elem map. */
-  private IterMap<GenomicType, List<GenomicElement>> mElemMap = DefaultHashMap
-      .create(new UniqueArrayListCreator<GenomicElement>());
+  /**
+   * The m elem map. Created when the first child is added since most elements,
+   * such as exons, have no children.
+   */
+  private Map<GenomicType, List<GenomicElement>> mElemMap = null;
 
   /** The m utr 5 p. */
   // private List<Exon> mUtr5p = new ArrayList<Exon>();
@@ -176,7 +193,20 @@ public class GenomicElement extends GenomicRegion {
    * @param e A genomic entity.
    */
   public void addChild(GenomicElement e) {
-    mElemMap.get(e.mType).add(e);
+    if (mElemMap == null) {
+      mElemMap = new EnumMap<GenomicType, List<GenomicElement>>(GenomicType.class);
+    }
+
+    List<GenomicElement> children = mElemMap.get(e.mType);
+
+    if (children == null) {
+      children = new ArrayList<GenomicElement>(4);
+      mElemMap.put(e.mType, children);
+    }
+
+    if (!children.contains(e)) {
+      children.add(e);
+    }
   }
 
   /**
@@ -186,7 +216,12 @@ public class GenomicElement extends GenomicRegion {
    */
   @JsonIgnore
   public Iterable<GenomicType> getChildTypes() {
-    return mElemMap.keySet().stream().sorted().collect(Collectors.toList());
+    if (mElemMap == null) {
+      return Collections.emptyList();
+    }
+
+    // Enum maps are already sorted by type
+    return new ArrayList<GenomicType>(mElemMap.keySet());
   }
 
   /**
@@ -197,11 +232,21 @@ public class GenomicElement extends GenomicRegion {
    */
   @JsonIgnore
   public Iterable<GenomicElement> getChildren(GenomicType type) {
-    return mElemMap.get(type);
+    if (mElemMap == null) {
+      return Collections.emptyList();
+    }
+
+    List<GenomicElement> children = mElemMap.get(type);
+
+    return children != null ? children : Collections.<GenomicElement>emptyList();
   }
 
   @JsonIgnore
   public Set<Entry<GenomicType, List<GenomicElement>>> getChildren() {
+    if (mElemMap == null) {
+      return Collections.emptySet();
+    }
+
     return mElemMap.entrySet();
   }
 
@@ -213,7 +258,13 @@ public class GenomicElement extends GenomicRegion {
    */
   @JsonIgnore
   public int getChildCount(GenomicType type) {
-    return mElemMap.get(type).size();
+    if (mElemMap == null) {
+      return 0;
+    }
+
+    List<GenomicElement> children = mElemMap.get(type);
+
+    return children != null ? children.size() : 0;
   }
 
   // public Iterable<Entry<String, String>> getPropertyNames() {
@@ -228,23 +279,78 @@ public class GenomicElement extends GenomicRegion {
    * @return the genomic entity
    */
   public GenomicElement setProperty(String name, String value) {
-    mPropertyMap.put(name, value);
-
-    return this;
+    return putProperty(name, value);
   }
 
   public GenomicElement setProperty(String name, int value) {
+    return putProperty(name, value);
+  }
+
+  public GenomicElement setProperty(String name, double value) {
+    return putProperty(name, value);
+  }
+
+  private GenomicElement putProperty(String name, Object value) {
+    ownProperties();
+
     mPropertyMap.put(name, value);
+    mText = null;
 
     return this;
   }
 
-  public GenomicElement setProperty(String name, double value) {
-    mPropertyMap.put(name, value);
+  /**
+   * Returns the property map itself so that it can be written out along with
+   * which elements share it. The map must not be modified.
+   *
+   * @return the property map
+   */
+  Map<String, Object> getPropertyMap() {
+    return mPropertyMap;
+  }
+
+  /**
+   * Share the properties of another element rather than copying them. This is
+   * intended for child elements such as exons and UTRs, which have the same
+   * properties as their transcript, so that a transcriptome does not need a
+   * separate property map for every child. The shared map is copy on write:
+   * if either element is subsequently modified it receives its own copy and
+   * the other is unaffected.
+   *
+   * @param e the element whose properties should be shared.
+   * @return this element.
+   */
+  public GenomicElement shareProperties(GenomicElement e) {
+    e.mSharedProperties = true;
+
+    mPropertyMap = e.mPropertyMap;
+    mSharedProperties = true;
+    mText = null;
 
     return this;
   }
 
+  /**
+   * Returns true if this element shares its property map with other elements.
+   *
+   * @return true if the properties are shared.
+   */
+  @JsonIgnore
+  public boolean isSharedProperties() {
+    return mSharedProperties;
+  }
+
+  /**
+   * Ensure this element has its own copy of its properties before they are
+   * modified.
+   */
+  private void ownProperties() {
+    if (mSharedProperties || mPropertyMap == NO_PROPERTIES) {
+      mPropertyMap = new SmallMap<String, Object>(mPropertyMap);
+      mSharedProperties = false;
+    }
+  }
+
   /*
    * public GenomicElement setProperty(String name, Tag property) { if
    * (TextUtils.isNullOrEmpty(name)) { return this; }
@@ -301,9 +407,9 @@ public class GenomicElement extends GenomicRegion {
   }
 
   /**
-   * Return a property. If the property does not exist, a property with the string
-   * value of 'n/a' will be automatically created so that a null is never
-   * returned.
+   * Return a property. If the property does not exist, the string value of
+   * 'n/a' is returned so that a null is never returned. Reading a property
+   * never modifies the element, whether or not its properties are shared.
    *
    * @param type the type
    * @return the id
@@ -313,11 +419,9 @@ public class GenomicElement extends GenomicRegion {
 
     // System.err.println("tag:" + name);
 
-    if (!mPropertyMap.containsKey(name)) {
-      setProperty(name, TextUtils.NA);
-    }
+    Object ret = mPropertyMap.get(name);
 
-    return mPropertyMap.get(name);
+    return ret != null ? ret : TextUtils.NA;
   }
 
   public String getProperty(String name) {
@@ -340,6 +444,10 @@ public class GenomicElement extends GenomicRegion {
    * @return
    */
   public GenomicElement addTag(String tag) {
+    if (mTags == null) {
+      mTags = new TreeSet<String>();
+    }
+
     mTags.add(tag);
 
     return this;
@@ -354,6 +462,10 @@ public class GenomicElement extends GenomicRegion {
   }
 
   public GenomicElement addTags(Collection<String> tags) {
+    if (mTags == null) {
+      mTags = new TreeSet<String>();
+    }
+
     mTags.addAll(tags);
 
     return this;
@@ -366,6 +478,10 @@ public class GenomicElement extends GenomicRegion {
    */
   @JsonGetter("tags")
   public Iterable<String> getTags() {
+    if (mTags == null) {
+      return Collections.emptySet();
+    }
+
     return mTags;
   }
 
@@ -376,7 +492,7 @@ public class GenomicElement extends GenomicRegion {
    */
   @JsonIgnore
   public int getTagCount() {
-    return mTags.size();
+    return mTags != null ? mTags.size() : 0;
   }
 
   /**
@@ -31,7 +31,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.jebtk.core.event.ChangeListeners;
 
@@ -70,6 +73,18 @@ public abstract class GenomicElementsDB extends ChangeListeners {
     }
   };
 
+  /**
+   * TSS indexes of each element type, created when first needed. Also guards
+   * the generation.
+   */
+  private final Map<GenomicType, TssIndex> mTssIndexMap = new HashMap<GenomicType, TssIndex>();
+
+  /**
+   * Incremented each time the TSS indexes are discarded so that an index
+   * built while elements were changing is not published.
+   */
+  private long mTssGeneration = 0;
+
   public abstract void add(GenomicElement element);
 
   /**
@@ -180,6 +195,166 @@ public abstract class GenomicElementsDB extends ChangeListeners {
     return ret;
   }
 
+  /**
+   * Returns the elements whose TSS is closest to the mid point of a region
+   * regardless of how far away they are. Unlike
+   * {@code closestByTss(Genome, GenomicRegion, GenomicType, int)} this uses a
+   * TSS index so it is not limited to elements found near the region.
+   *
+   * @param genome the genome
+   * @param region the region
+   * @param type   the type of element
+   * @return the closest elements
+   */
+  public List<GenomicElement> closestTss(Genome genome, GenomicRegion region, GenomicType type) {
+    return getTssIndex(type).closest(region);
+  }
+
+  /**
+   * Find the closest elements by TSS to each of a set of regions, for example
+   * a set of peaks.
+   *
+   * @param genome  the genome
+   * @param regions the regions
+   * @param type    the type of element
+   * @return the closest elements to each region, in the same order as the
+   *         regions.
+   */
+  public List<List<GenomicElement>> closestTss(Genome genome, List<? extends GenomicRegion> regions,
+      GenomicType type) {
+    return getTssIndex(type).closest(regions);
+  }
+
+  /**
+   * Returns the k elements whose TSS is closest to the mid point of a region,
+   * ordered by distance.
+   *
+   * @param genome the genome
+   * @param region the region
+   * @param type   the type of element
+   * @param k      the number of elements
+   * @return the nearest elements
+   */
+  public List<GenomicElement> nearestTss(Genome genome, GenomicRegion region, GenomicType type, int k) {
+    return getTssIndex(type).nearest(region, k);
+  }
+
+  /**
+   * Find the k nearest elements by TSS to each of a set of regions.
+   *
+   * @param genome  the genome
+   * @param regions the regions
+   * @param type    the type of element
+   * @param k       the number of elements
+   * @return the nearest elements to each region, in the same order as the
+   *         regions.
+   */
+  public List<List<GenomicElement>> nearestTss(Genome genome, List<? extends GenomicRegion> regions,
+      GenomicType type, int k) {
+    return getTssIndex(type).nearest(regions, k);
+  }
+
+  /**
+   * Returns the elements whose TSS is within a distance of the mid point of a
+   * region.
+   *
+   * @param genome   the genome
+   * @param region   the region
+   * @param type     the type of element
+   * @param distance the maximum distance in bp
+   * @return the elements ordered by TSS
+   */
+  public List<GenomicElement> withinTss(Genome genome, GenomicRegion region, GenomicType type, int distance) {
+    return getTssIndex(type).within(region, distance);
+  }
+
+  /**
+   * Returns the TSS index of a type of element, creating it the first time
+   * it is requested.
+   *
+   * @param type the type of element
+   * @return the index
+   */
+  public TssIndex getTssIndex(GenomicType type) {
+    long generation;
+
+    synchronized (mTssIndexMap) {
+      TssIndex index = mTssIndexMap.get(type);
+
+      if (index != null) {
+        return index;
+      }
+
+      generation = mTssGeneration;
+    }
+
+    // Building may be slow so is done outside the lock
+    TssIndex index = createTssIndex(type);
+
+    synchronized (mTssIndexMap) {
+      // An index built from elements that have since changed can answer
+      // this query but is not kept
+      if (generation == mTssGeneration) {
+        TssIndex existing = mTssIndexMap.get(type);
+
+        if (existing != null) {
+          return existing;
+        }
+
+        mTssIndexMap.put(type, index);
+      }
+    }
+
+    return index;
+  }
+
+  /**
+   * Create the TSS index of a type of element. By default the index is
+   * built from {@code getElements()}. Databases that can return the
+   * elements of a single chromosome may index chromosomes on demand instead.
+   *
+   * @param type the type of element
+   * @return the index
+   */
+  protected TssIndex createTssIndex(GenomicType type) {
+    return new TssIndex(getElements(), type);
+  }
+
+  /**
+   * Discard the TSS indexes, for example because elements have been added.
+   */
+  protected void clearTssIndex() {
+    synchronized (mTssIndexMap) {
+      ++mTssGeneration;
+
+      mTssIndexMap.clear();
+    }
+  }
+
+  /**
+   * Discard the TSS indexes of a chromosome. Indexes built on demand only
+   * forget the chromosome, others are discarded.
+   *
+   * @param chr the chr
+   */
+  protected void clearTssIndex(Chromosome chr) {
+    synchronized (mTssIndexMap) {
+      ++mTssGeneration;
+
+      Iterator<TssIndex> iter = mTssIndexMap.values().iterator();
+
+      while (iter.hasNext()) {
+        TssIndex index = iter.next();
+
+        if (index.isOnDemand()) {
+          index.remove(chr);
+        } else {
+          iter.remove();
+        }
+      }
+    }
+  }
+
   /*
    * public List<GenomicElement> search(GenomicRegion region) {
    * List<GenomicElement> elements = GenomicRegions
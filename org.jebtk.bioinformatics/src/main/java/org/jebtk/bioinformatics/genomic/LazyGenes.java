@@ -3,9 +3,14 @@ package org.jebtk.bioinformatics.genomic;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
- * Only load genes when requested.
+ * Only load genes when requested. The file is parsed at most once: if several
+ * threads make the first request at the same time, one parses the file and the
+ * others wait for it to finish.
  * 
  * @author antony
  *
@@ -15,9 +20,18 @@ public class LazyGenes extends FixedGapGenes {
   private static final long serialVersionUID = 1L;
 
   private GeneParser mParser;
-  private boolean mAutoLoad = true;
   private Path mFile;
 
+  /** Parses the file the first time it is run. */
+  private final FutureTask<Void> mLoader = new FutureTask<Void>(new Callable<Void>() {
+    @Override
+    public Void call() throws IOException {
+      mParser.parse(mFile, mGenome, LazyGenes.this);
+
+      return null;
+    }
+  });
+
   public LazyGenes(Path file, Genome genome, GeneParser parser) {
     super(genome);
 
@@ -26,20 +40,41 @@ public class LazyGenes extends FixedGapGenes {
   }
 
   /**
-   * We only load genes on request
+   * We only load genes on request. A FutureTask only runs once, so callers
+   * that arrive while another thread is parsing wait for its result.
    */
   private void autoLoad() {
-    if (mAutoLoad) {
-      try {
-        mParser.parse(mFile, mGenome, this);
-      } catch (IOException e) {
-        e.printStackTrace();
-      }
-
-      mAutoLoad = false;
+    mLoader.run();
+
+    try {
+      mLoader.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      e.printStackTrace();
     }
   }
 
+  /**
+   * Start loading the genes in the background rather than waiting for the
+   * first request.
+   */
+  public void prefetch() {
+    Thread t = new Thread(mLoader, "prefetch-" + mFile);
+
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Returns true if the genes have been loaded.
+   * 
+   * @return true if loaded.
+   */
+  public boolean isLoaded() {
+    return mLoader.isDone();
+  }
+
   /*
    * @Override public void autoFindMainVariants() { autoLoad();
    * 
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map for the handful of properties most genomic elements have. Up to
+ * {@code MAX_SMALL_SIZE} entries are stored as alternating keys and values in
+ * a single array that is searched linearly, which for a few entries is both
+ * smaller and faster than a hash map. Larger maps switch to a hash map.
+ *
+ * @author Antony Holmes
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class SmallMap<K, V> extends AbstractMap<K, V> {
+
+  public static final int MAX_SMALL_SIZE = 8;
+
+  private static final Object[] EMPTY = new Object[0];
+
+  /** Keys and values, k0, v0, k1, v1... */
+  private Object[] mEntries = EMPTY;
+
+  private int mSize = 0;
+
+  /** Used once the map has more than {@code MAX_SMALL_SIZE} entries. */
+  private Map<K, V> mLarge = null;
+
+  public SmallMap() {
+    // do nothing
+  }
+
+  public SmallMap(Map<? extends K, ? extends V> map) {
+    if (map.size() > MAX_SMALL_SIZE) {
+      mLarge = new HashMap<K, V>(map);
+    } else {
+      mEntries = new Object[map.size() * 2];
+
+      putAll(map);
+    }
+  }
+
+  @Override
+  public int size() {
+    return mLarge != null ? mLarge.size() : mSize;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return mLarge != null ? mLarge.containsKey(key) : indexOf(key) != -1;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(Object key) {
+    if (mLarge != null) {
+      return mLarge.get(key);
+    }
+
+    int i = indexOf(key);
+
+    return i != -1 ? (V) mEntries[2 * i + 1] : null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V put(K key, V value) {
+    if (mLarge != null) {
+      return mLarge.put(key, value);
+    }
+
+    int i = indexOf(key);
+
+    if (i != -1) {
+      V old = (V) mEntries[2 * i + 1];
+      mEntries[2 * i + 1] = value;
+      return old;
+    }
+
+    if (mSize == MAX_SMALL_SIZE) {
+      mLarge = new HashMap<K, V>(MAX_SMALL_SIZE * 4);
+
+      for (int j = 0; j < mSize; ++j) {
+        mLarge.put((K) mEntries[2 * j], (V) mEntries[2 * j + 1]);
+      }
+
+      mEntries = EMPTY;
+      mSize = 0;
+
+      return mLarge.put(key, value);
+    }
+
+    if (2 * mSize == mEntries.length) {
+      // Grow by one entry at a time while small since most elements have
+      // a fixed number of properties
+      Object[] entries = new Object[mEntries.length + 2];
+      System.arraycopy(mEntries, 0, entries, 0, mEntries.length);
+      mEntries = entries;
+    }
+
+    mEntries[2 * mSize] = key;
+    mEntries[2 * mSize + 1] = value;
+    ++mSize;
+
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V remove(Object key) {
+    if (mLarge != null) {
+      return mLarge.remove(key);
+    }
+
+    int i = indexOf(key);
+
+    if (i == -1) {
+      return null;
+    }
+
+    V old = (V) mEntries[2 * i + 1];
+
+    removeAt(i);
+
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    mLarge = null;
+    mEntries = EMPTY;
+    mSize = 0;
+  }
+
+  @Override
+  public Set<Entry<K, V>> entrySet() {
+    if (mLarge != null) {
+      return mLarge.entrySet();
+    }
+
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return mSize;
+      }
+    };
+  }
+
+  private int indexOf(Object key) {
+    for (int i = 0; i < mSize; ++i) {
+      Object k = mEntries[2 * i];
+
+      if (k == key || (key != null && key.equals(k))) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private void removeAt(int i) {
+    int n = 2 * (mSize - i - 1);
+
+    if (n > 0) {
+      System.arraycopy(mEntries, 2 * i + 2, mEntries, 2 * i, n);
+    }
+
+    --mSize;
+
+    mEntries[2 * mSize] = null;
+    mEntries[2 * mSize + 1] = null;
+  }
+
+  /**
+   * Iterates over the entries of the small array.
+   */
+  private class EntryIterator implements Iterator<Entry<K, V>> {
+    private int mNext = 0;
+    private int mLast = -1;
+
+    @Override
+    public boolean hasNext() {
+      return mNext < mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Entry<K, V> next() {
+      if (mNext >= mSize) {
+        throw new NoSuchElementException();
+      }
+
+      mLast = mNext++;
+
+      return new ArrayEntry((K) mEntries[2 * mLast], (V) mEntries[2 * mLast + 1]);
+    }
+
+    @Override
+    public void remove() {
+      if (mLast == -1) {
+        throw new IllegalStateException();
+      }
+
+      removeAt(mLast);
+
+      mNext = mLast;
+      mLast = -1;
+    }
+  }
+
+  /**
+   * Copy of an entry that writes changes of value through to the map.
+   */
+  private class ArrayEntry extends SimpleEntry<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    public ArrayEntry(K key, V value) {
+      super(key, value);
+    }
+
+    @Override
+    public V setValue(V value) {
+      put(getKey(), value);
+
+      return super.setValue(value);
+    }
+  }
+}
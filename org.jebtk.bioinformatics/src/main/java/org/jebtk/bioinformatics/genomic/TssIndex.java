@@ -0,0 +1,442 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the transcription start sites (TSS) of a set of elements. The TSS
+ * of an element is its start on the sense strand and its end on the antisense
+ * strand. The TSS positions of each chromosome are stored in a sorted int
+ * array alongside the elements so nearest and within distance queries take
+ * O(log n + k) time and, unlike searching bins around a location, are not
+ * limited to elements close to the location.
+ *
+ * Distances are measured from the mid point of a query region to the TSS.
+ *
+ * An index created from a database indexes each chromosome the first time it
+ * is queried, using {@code getElements(Chromosome)}, so databases that load
+ * chromosomes on demand are indexed one chromosome at a time.
+ *
+ * @author Antony Holmes
+ */
+public class TssIndex {
+
+  /**
+   * TSS positions of a chromosome, sorted, with the corresponding elements.
+   */
+  private static class ChrTss {
+    private final int[] mTss;
+    private final GenomicElement[] mElements;
+
+    public ChrTss(List<GenomicElement> elements) {
+      Collections.sort(elements, TSS_COMPARATOR);
+
+      int n = elements.size();
+
+      mTss = new int[n];
+      mElements = elements.toArray(new GenomicElement[n]);
+
+      for (int i = 0; i < n; ++i) {
+        mTss[i] = tss(mElements[i]);
+      }
+    }
+  }
+
+  private static final Comparator<GenomicElement> TSS_COMPARATOR = new Comparator<GenomicElement>() {
+    @Override
+    public int compare(GenomicElement e1, GenomicElement e2) {
+      return Integer.compare(tss(e1), tss(e2));
+    }
+  };
+
+  private final Map<Chromosome, ChrTss> mChrMap = new ConcurrentHashMap<Chromosome, ChrTss>();
+
+  /** Source of the elements of chromosomes not yet indexed. */
+  private final GenomicElementsDB mDb;
+
+  private final GenomicType mType;
+
+  /**
+   * Incremented when a chromosome is removed so that an index of the
+   * chromosome built from its old elements is not kept.
+   */
+  private long mGeneration = 0;
+
+  /**
+   * Index the elements of a given type. Children of the elements, for example
+   * the transcripts of a gene, are also searched for elements of the type.
+   *
+   * @param elements the elements
+   * @param type     the type of element to index.
+   */
+  public TssIndex(Collection<? extends GenomicElement> elements, GenomicType type) {
+    mDb = null;
+    mType = type;
+
+    Map<Chromosome, List<GenomicElement>> chrMap = new TreeMap<Chromosome, List<GenomicElement>>();
+
+    for (GenomicElement e : elements) {
+      collect(e, type, chrMap);
+    }
+
+    for (Entry<Chromosome, List<GenomicElement>> item : chrMap.entrySet()) {
+      mChrMap.put(item.getKey(), new ChrTss(item.getValue()));
+    }
+  }
+
+  /**
+   * Index the elements of a database, one chromosome at a time as each
+   * chromosome is queried.
+   *
+   * @param db   the database
+   * @param type the type of element to index.
+   */
+  public TssIndex(GenomicElementsDB db, GenomicType type) {
+    mDb = db;
+    mType = type;
+  }
+
+  /**
+   * Returns the index of a chromosome, creating it if the index is backed by
+   * a database.
+   *
+   * @param chr the chr
+   * @return the index or null if the chromosome has no elements.
+   */
+  private ChrTss getChrTss(Chromosome chr) {
+    ChrTss ret = mChrMap.get(chr);
+
+    if (ret == null && mDb != null) {
+      long generation;
+
+      synchronized (this) {
+        generation = mGeneration;
+      }
+
+      // Index outside of any lock since getting the elements may load the
+      // chromosome. If two threads race, the first index published is kept.
+      Map<Chromosome, List<GenomicElement>> chrMap = new HashMap<Chromosome, List<GenomicElement>>();
+
+      for (GenomicElement e : mDb.getElements(chr)) {
+        collect(e, mType, chrMap);
+      }
+
+      List<GenomicElement> elements = chrMap.get(chr);
+
+      ret = new ChrTss(elements != null ? elements : new ArrayList<GenomicElement>());
+
+      synchronized (this) {
+        if (generation == mGeneration) {
+          ChrTss existing = mChrMap.putIfAbsent(chr, ret);
+
+          if (existing != null) {
+            ret = existing;
+          }
+        }
+      }
+    }
+
+    return ret != null && ret.mTss.length > 0 ? ret : null;
+  }
+
+  private static void collect(GenomicElement e, GenomicType type, Map<Chromosome, List<GenomicElement>> chrMap) {
+    if (e.mType == type) {
+      List<GenomicElement> chrElements = chrMap.get(e.mChr);
+
+      if (chrElements == null) {
+        chrElements = new ArrayList<GenomicElement>();
+        chrMap.put(e.mChr, chrElements);
+      }
+
+      chrElements.add(e);
+    }
+
+    for (Entry<GenomicType, List<GenomicElement>> children : e.getChildren()) {
+      for (GenomicElement child : children.getValue()) {
+        collect(child, type, chrMap);
+      }
+    }
+  }
+
+  /**
+   * Returns true if chromosomes are indexed from a database as they are
+   * queried.
+   *
+   * @return true if the index is on demand.
+   */
+  public boolean isOnDemand() {
+    return mDb != null;
+  }
+
+  /**
+   * Discard the index of a chromosome so that it is indexed again when next
+   * queried, for example because its elements have changed. Only applies to
+   * indexes backed by a database.
+   *
+   * @param chr the chr
+   */
+  public synchronized void remove(Chromosome chr) {
+    ++mGeneration;
+
+    mChrMap.remove(chr);
+  }
+
+  /**
+   * Returns the number of indexed elements. For an index backed by a
+   * database this only counts the chromosomes queried so far.
+   *
+   * @return the size
+   */
+  public int size() {
+    int ret = 0;
+
+    for (ChrTss chrTss : mChrMap.values()) {
+      ret += chrTss.mTss.length;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the elements whose TSS is closest to the mid point of a region.
+   * All elements at the minimum distance are returned.
+   *
+   * @param region the region
+   * @return the closest elements
+   */
+  public List<GenomicElement> closest(GenomicRegion region) {
+    ChrTss chrTss = getChrTss(region.mChr);
+
+    if (chrTss == null) {
+      return Collections.emptyList();
+    }
+
+    int[] tss = chrTss.mTss;
+    int mid = GenomicRegion.mid(region);
+
+    int i = lowerBound(tss, mid);
+
+    // The closest TSS is either the first at or after the mid point or the
+    // one before it
+    int d = Integer.MAX_VALUE;
+
+    if (i < tss.length) {
+      d = tss[i] - mid;
+    }
+
+    if (i > 0) {
+      d = Math.min(d, mid - tss[i - 1]);
+    }
+
+    return within(chrTss, mid - d, mid + d);
+  }
+
+  /**
+   * Returns the k elements whose TSS is closest to the mid point of a region,
+   * ordered by distance. Ties are broken in favour of the upstream element
+   * in genomic coordinates.
+   *
+   * @param region the region
+   * @param k      the number of elements
+   * @return the nearest elements
+   */
+  public List<GenomicElement> nearest(GenomicRegion region, int k) {
+    ChrTss chrTss = getChrTss(region.mChr);
+
+    if (chrTss == null || k < 1) {
+      return Collections.emptyList();
+    }
+
+    int[] tss = chrTss.mTss;
+    int mid = GenomicRegion.mid(region);
+
+    List<GenomicElement> ret = new ArrayList<GenomicElement>(Math.min(k, tss.length));
+
+    // Expand outwards from the mid point taking the closer side each time
+    int right = lowerBound(tss, mid);
+    int left = right - 1;
+
+    while (ret.size() < k && (left >= 0 || right < tss.length)) {
+      if (right >= tss.length || (left >= 0 && mid - tss[left] <= tss[right] - mid)) {
+        ret.add(chrTss.mElements[left--]);
+      } else {
+        ret.add(chrTss.mElements[right++]);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the elements whose TSS is within a distance of the mid point of a
+   * region, ordered by TSS position.
+   *
+   * @param region   the region
+   * @param distance the maximum distance in bp
+   * @return the elements
+   */
+  public List<GenomicElement> within(GenomicRegion region, int distance) {
+    ChrTss chrTss = getChrTss(region.mChr);
+
+    if (chrTss == null) {
+      return Collections.emptyList();
+    }
+
+    int mid = GenomicRegion.mid(region);
+
+    if (distance < 0) {
+      return Collections.emptyList();
+    }
+
+    return within(chrTss, mid - distance, mid + distance);
+  }
+
+  private static List<GenomicElement> within(ChrTss chrTss, int start, int end) {
+    int[] tss = chrTss.mTss;
+
+    int s = lowerBound(tss, start);
+    int e = lowerBound(tss, end + 1);
+
+    List<GenomicElement> ret = new ArrayList<GenomicElement>(e - s);
+
+    for (int i = s; i < e; ++i) {
+      ret.add(chrTss.mElements[i]);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Find the closest elements to each of a set of regions, for example a set
+   * of peaks. Chromosomes are processed in parallel.
+   *
+   * @param regions the regions
+   * @return the closest elements of each region, in the same order as the
+   *         regions.
+   */
+  public List<List<GenomicElement>> closest(final List<? extends GenomicRegion> regions) {
+    final List<List<GenomicElement>> ret = new ArrayList<List<GenomicElement>>(
+        Collections.nCopies(regions.size(), Collections.<GenomicElement>emptyList()));
+
+    batch(regions).parallelStream().forEach(indices -> {
+      for (int i : indices) {
+        ret.set(i, closest(regions.get(i)));
+      }
+    });
+
+    return ret;
+  }
+
+  /**
+   * Find the k nearest elements to each of a set of regions.
+   *
+   * @param regions the regions
+   * @param k       the number of elements
+   * @return the nearest elements of each region, in the same order as the
+   *         regions.
+   */
+  public List<List<GenomicElement>> nearest(final List<? extends GenomicRegion> regions, final int k) {
+    final List<List<GenomicElement>> ret = new ArrayList<List<GenomicElement>>(
+        Collections.nCopies(regions.size(), Collections.<GenomicElement>emptyList()));
+
+    batch(regions).parallelStream().forEach(indices -> {
+      for (int i : indices) {
+        ret.set(i, nearest(regions.get(i), k));
+      }
+    });
+
+    return ret;
+  }
+
+  /**
+   * Group the indices of regions by chromosome so that each chromosome can be
+   * processed by a separate thread. Setting distinct elements of an
+   * ArrayList from different threads is safe since the list is not resized.
+   *
+   * @param regions the regions
+   * @return the indices of the regions on each chromosome.
+   */
+  private static Collection<List<Integer>> batch(List<? extends GenomicRegion> regions) {
+    Map<Chromosome, List<Integer>> ret = new HashMap<Chromosome, List<Integer>>();
+
+    for (int i = 0; i < regions.size(); ++i) {
+      Chromosome chr = regions.get(i).mChr;
+
+      List<Integer> indices = ret.get(chr);
+
+      if (indices == null) {
+        indices = new ArrayList<Integer>();
+        ret.put(chr, indices);
+      }
+
+      indices.add(i);
+    }
+
+    return ret.values();
+  }
+
+  /**
+   * Returns the TSS of an element taking its strand into account.
+   *
+   * @param e the element
+   * @return the TSS
+   */
+  public static int tss(GenomicRegion e) {
+    return e.mStrand == Strand.SENSE ? e.mStart : e.mEnd;
+  }
+
+  /**
+   * Returns the index of the first value greater than or equal to x.
+   */
+  private static int lowerBound(int[] values, int x) {
+    int min = 0;
+    int max = values.length;
+
+    while (min < max) {
+      int mid = (min + max) >>> 1;
+
+      if (values[mid] < x) {
+        min = mid + 1;
+      } else {
+        max = mid;
+      }
+    }
+
+    return min;
+  }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.genomic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal local genes service backed by a genes database, so that
+ * {@code WebGenes} and {@code AsyncWebGenes} can be used and tested without a
+ * remote server. The server only listens on the loopback address.
+ *
+ * The find and search end points accept the GET queries made by
+ * {@code WebGenes} and the batched POST queries made by
+ * {@code AsyncWebGenes}, whose response is an array with the results of each
+ * query.
+ *
+ * @author Antony Holmes
+ */
+public class WebGenesServer {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final GenomicElementsDB mGenes;
+
+  private final HttpServer mServer;
+
+  private final ExecutorService mExecutor;
+
+  private final AtomicLong mRequests = new AtomicLong();
+
+  /**
+   * Create a server on a free port.
+   *
+   * @param genes the genes to serve.
+   * @throws IOException
+   */
+  public WebGenesServer(GenomicElementsDB genes) throws IOException {
+    this(genes, 0);
+  }
+
+  public WebGenesServer(GenomicElementsDB genes, int port) throws IOException {
+    mGenes = genes;
+
+    mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+    mServer.createContext("/find", e -> handle(e, true));
+    mServer.createContext("/search", e -> handle(e, false));
+    mServer.createContext("/databases", e -> databases(e));
+
+    mExecutor = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "web-genes-server");
+      t.setDaemon(true);
+      return t;
+    });
+
+    mServer.setExecutor(mExecutor);
+  }
+
+  public WebGenesServer start() {
+    mServer.start();
+
+    return this;
+  }
+
+  public void stop() {
+    mServer.stop(0);
+    mExecutor.shutdown();
+  }
+
+  public int getPort() {
+    return mServer.getAddress().getPort();
+  }
+
+  /**
+   * Returns the base url of the service.
+   *
+   * @return the url
+   * @throws MalformedURLException
+   */
+  public URL getUrl() throws MalformedURLException {
+    return new URL("http", mServer.getAddress().getHostString(), getPort(), "/");
+  }
+
+  /**
+   * Returns the number of requests handled.
+   *
+   * @return the requests
+   */
+  public long getRequests() {
+    return mRequests.get();
+  }
+
+  private void handle(HttpExchange exchange, boolean find) throws IOException {
+    mRequests.incrementAndGet();
+
+    try {
+      JsonNode ret;
+
+      if ("POST".equals(exchange.getRequestMethod())) {
+        JsonNode body;
+
+        try (InputStream in = exchange.getRequestBody()) {
+          body = MAPPER.readTree(in);
+        }
+
+        Genome genome = new Genome(body.get("genome").asText(), body.get("assembly").asText(),
+            body.get("track").asText());
+
+        GenomicType type = body.has("type") ? GenomicType.valueOf(body.get("type").asText())
+            : GenomicType.TRANSCRIPT;
+
+        int minBp = body.has("minbp") ? body.get("minbp").asInt() : 1;
+
+        ArrayNode results = MAPPER.createArrayNode();
+
+        for (JsonNode q : body.get("q")) {
+          results.add(query(genome, q.asText(), type, minBp, find));
+        }
+
+        ret = results;
+      } else {
+        Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+
+        Genome genome = new Genome(params.get("genome"), params.get("assembly"), params.get("track"));
+
+        String q = find ? params.get("chr") + ":" + params.get("s") + "-" + params.get("e") : params.get("s");
+
+        ret = query(genome, q, GenomicType.TRANSCRIPT, 1, find);
+      }
+
+      send(exchange, 200, ret);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+
+      send(exchange, 400, MAPPER.createArrayNode());
+    }
+  }
+
+  private ArrayNode query(Genome genome, String q, GenomicType type, int minBp, boolean find) {
+    List<GenomicElement> genes;
+
+    if (find) {
+      GenomicRegion region = GenomicRegion.parse(genome, q);
+
+      if (region == null) {
+        return MAPPER.createArrayNode();
+      }
+
+      genes = mGenes.find(genome, region, type, minBp);
+    } else {
+      genes = mGenes.getElements(genome, q, type);
+    }
+
+    ArrayNode ret = MAPPER.createArrayNode();
+
+    for (GenomicElement gene : genes) {
+      ret.add(toJson(gene));
+    }
+
+    return ret;
+  }
+
+  private void databases(HttpExchange exchange) throws IOException {
+    mRequests.incrementAndGet();
+
+    ArrayNode ret = MAPPER.createArrayNode();
+
+    for (Genome genome : mGenes.getGenomes()) {
+      ObjectNode dbJson = ret.addObject();
+
+      dbJson.put("genome", genome.getName());
+      dbJson.put("assembly", genome.getAssembly());
+      dbJson.put("track", genome.getTrack());
+    }
+
+    send(exchange, 200, ret);
+  }
+
+  /**
+   * Convert a gene to the format returned by the genes service.
+   *
+   * @param gene the gene
+   * @return the json
+   */
+  private static ObjectNode toJson(GenomicElement gene) {
+    ObjectNode ret = MAPPER.createObjectNode();
+
+    ret.put("loc", gene.getLocation());
+    ret.put("strand", Strand.toString(gene.mStrand));
+
+    ObjectNode idsJson = ret.putObject("ids");
+
+    addId(GenomicEntity.GENE_ID, gene, idsJson);
+    addId(GenomicEntity.TRANSCRIPT_ID, gene, idsJson);
+    addId(GenomicEntity.GENE_NAME, gene, idsJson);
+
+    ArrayNode exonsJson = ret.putArray("exons");
+
+    for (GenomicElement exon : gene.getChildren(GenomicType.EXON)) {
+      exonsJson.addObject().put("loc", exon.getLocation());
+    }
+
+    return ret;
+  }
+
+  private static void addId(String name, GenomicElement gene, ObjectNode json) {
+    if (gene.hasProperty(name)) {
+      json.put(name, gene.getProperty(name));
+    }
+  }
+
+  private static void send(HttpExchange exchange, int code, JsonNode json) throws IOException {
+    byte[] bytes = MAPPER.writeValueAsBytes(json);
+
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+
+    // A fixed length lets the client keep the connection open
+    exchange.sendResponseHeaders(code, bytes.length);
+
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static Map<String, String> params(String query) throws UnsupportedEncodingException {
+    Map<String, String> ret = new HashMap<String, String>();
+
+    if (query == null) {
+      return ret;
+    }
+
+    for (String param : query.split("&")) {
+      int i = param.indexOf('=');
+
+      if (i > 0) {
+        ret.put(URLDecoder.decode(param.substring(0, i), "UTF-8"), URLDecoder.decode(param.substring(i + 1), "UTF-8"));
+      }
+    }
+
+    return ret;
+  }
+}
@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.util.Arrays;
+
+/**
+ * Counts of k-mers encoded as longs in an open addressing hash table with
+ * linear probing. Keys, counts and the last region each k-mer was seen in are
+ * kept in parallel primitive arrays so that counting millions of k-mers
+ * creates no objects. For each k-mer the table counts both the number of
+ * occurrences and the number of regions containing it, which relies on the
+ * regions being added one after another.
+ *
+ * @author Antony Holmes
+ */
+class KmerCounts {
+
+  /** Marks an empty slot. Valid keys are never negative. */
+  private static final long EMPTY = -1;
+
+  /** Default number of slots. */
+  private static final int DEFAULT_CAPACITY = 1 << 12;
+
+  private long[] mKeys;
+  private int[] mRegions;
+  private int[] mHits;
+  private int[] mLast;
+  private int mMask;
+  private int mSize = 0;
+
+  /** Number of regions added. */
+  private int mTotal = 0;
+
+  /** Number of bases in the regions added. */
+  private long mBases = 0;
+
+  public KmerCounts() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Create a table.
+   *
+   * @param capacity the number of slots, rounded up to a power of two.
+   */
+  public KmerCounts(int capacity) {
+    allocate(Integer.highestOneBit(Math.max(16, capacity - 1)) << 1);
+  }
+
+  private void allocate(int capacity) {
+    mKeys = new long[capacity];
+    mRegions = new int[capacity];
+    mHits = new int[capacity];
+    mLast = new int[capacity];
+    mMask = capacity - 1;
+
+    Arrays.fill(mKeys, EMPTY);
+  }
+
+  /**
+   * Count an occurrence of a k-mer in a region.
+   *
+   * @param key    the k-mer
+   * @param region the id of the region, which must not be smaller than the
+   *               ids of regions already added.
+   */
+  public void add(long key, int region) {
+    int i = insert(key);
+
+    ++mHits[i];
+
+    if (mLast[i] != region) {
+      mLast[i] = region;
+      ++mRegions[i];
+    }
+  }
+
+  /**
+   * Record that a region was counted.
+   *
+   * @param length the length of the region.
+   */
+  public void addRegion(int length) {
+    ++mTotal;
+    mBases += length;
+  }
+
+  /**
+   * Add the counts of another table to this one.
+   *
+   * @param counts the counts
+   */
+  public void add(KmerCounts counts) {
+    for (int j = 0; j < counts.mKeys.length; ++j) {
+      if (counts.mKeys[j] != EMPTY) {
+        int i = insert(counts.mKeys[j]);
+
+        mRegions[i] += counts.mRegions[j];
+        mHits[i] += counts.mHits[j];
+      }
+    }
+
+    mTotal += counts.mTotal;
+    mBases += counts.mBases;
+  }
+
+  /**
+   * Returns the slot of a key, adding it if it is not in the table.
+   */
+  private int insert(long key) {
+    int i = slot(key);
+
+    if (mKeys[i] == EMPTY) {
+      // Keep the table at most half full so that probes stay short
+      if (2 * (mSize + 1) > mKeys.length) {
+        grow();
+
+        i = slot(key);
+      }
+
+      mKeys[i] = key;
+      mLast[i] = -1;
+      ++mSize;
+    }
+
+    return i;
+  }
+
+  private int slot(long key) {
+    int i = hash(key) & mMask;
+
+    while (mKeys[i] != EMPTY && mKeys[i] != key) {
+      i = (i + 1) & mMask;
+    }
+
+    return i;
+  }
+
+  private void grow() {
+    long[] keys = mKeys;
+    int[] regions = mRegions;
+    int[] hits = mHits;
+    int[] last = mLast;
+
+    allocate(keys.length * 2);
+
+    for (int j = 0; j < keys.length; ++j) {
+      if (keys[j] != EMPTY) {
+        int i = slot(keys[j]);
+
+        mKeys[i] = keys[j];
+        mRegions[i] = regions[j];
+        mHits[i] = hits[j];
+        mLast[i] = last[j];
+      }
+    }
+  }
+
+  /**
+   * Mix the bits of a key since k-mer codes that differ only in their last
+   * bases would otherwise fall in neighbouring slots.
+   */
+  private static int hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+
+    return (int) key;
+  }
+
+  /**
+   * Returns the slot of a k-mer.
+   *
+   * @param key the k-mer
+   * @return the slot or -1 if the k-mer has not been counted.
+   */
+  public int find(long key) {
+    int i = slot(key);
+
+    return mKeys[i] != EMPTY ? i : -1;
+  }
+
+  /**
+   * Returns the number of slots, some of which are empty.
+   *
+   * @return the capacity
+   */
+  public int capacity() {
+    return mKeys.length;
+  }
+
+  public boolean isEmpty(int slot) {
+    return mKeys[slot] == EMPTY;
+  }
+
+  public long getKey(int slot) {
+    return mKeys[slot];
+  }
+
+  /**
+   * Returns the number of regions containing the k-mer in a slot.
+   *
+   * @param slot the slot
+   * @return the regions
+   */
+  public int getRegions(int slot) {
+    return mRegions[slot];
+  }
+
+  /**
+   * Returns the number of occurrences of the k-mer in a slot.
+   *
+   * @param slot the slot
+   * @return the hits
+   */
+  public int getHits(int slot) {
+    return mHits[slot];
+  }
+
+  /**
+   * Returns the number of distinct k-mers.
+   *
+   * @return the size
+   */
+  public int size() {
+    return mSize;
+  }
+
+  public int getTotal() {
+    return mTotal;
+  }
+
+  public long getBases() {
+    return mBases;
+  }
+}
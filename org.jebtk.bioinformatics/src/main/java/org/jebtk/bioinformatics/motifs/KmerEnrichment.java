@@ -0,0 +1,447 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.SequenceReader;
+
+/**
+ * Finds k-mers enriched in a foreground set of regions, for example peaks,
+ * compared to a background, without needing known motifs. K-mers may be
+ * gapped, i.e. two half sites separated by a fixed number of unspecified
+ * bases, which suits dimeric factors.
+ *
+ * Each k-mer and its reverse complement are counted as one k-mer so both
+ * strands are searched. Regions are grouped by chromosome and each chromosome
+ * is counted in parallel into its own primitive hash table, which are then
+ * merged. K-mers are tested in the same way as known motifs in
+ * {@code MotifEnrichment} and enriched k-mers are returned as motifs so that
+ * they can be scanned for or compared to known motifs.
+ *
+ * @author Antony Holmes
+ */
+public class KmerEnrichment {
+
+  /**
+   * The database of motifs created from k-mers.
+   */
+  public static final String DE_NOVO_DB = "De novo";
+
+  /**
+   * Maximum number of specified bases in a k-mer so that it can be encoded
+   * in a long.
+   */
+  public static final int MAX_K = 31;
+
+  /**
+   * Counts the k-mers of sequences. Buffers are reused between sequences so
+   * each parallel task has its own counter.
+   */
+  private static class KmerCounter {
+    private final int mK;
+    private final int mGap;
+
+    /** Length of the first half site. */
+    private final int mL1;
+
+    /** Length of the second half site. */
+    private final int mL2;
+
+    private long[] mFwd1 = new long[0];
+    private long[] mRc1 = new long[0];
+    private long[] mFwd2 = new long[0];
+    private long[] mRc2 = new long[0];
+    private int[] mNs = new int[0];
+
+    public KmerCounter(int k, int gap) {
+      mK = k;
+      mGap = gap;
+      mL1 = gap > 0 ? k / 2 : k;
+      mL2 = k - mL1;
+    }
+
+    /**
+     * Count the k-mers of a sequence.
+     *
+     * @param seq    the sequence where a = 0, c = 1, g = 2, t = 3 and n = 4.
+     * @param region the id of the region the sequence came from.
+     * @param counts the counts to add to.
+     */
+    public void count(byte[] seq, int region, KmerCounts counts) {
+      final int n = seq.length;
+      final int w = mK + mGap;
+
+      counts.addRegion(n);
+
+      if (n < w) {
+        return;
+      }
+
+      if (mNs.length < n + 1) {
+        mFwd1 = new long[n];
+        mRc1 = new long[n];
+        mFwd2 = new long[n];
+        mRc2 = new long[n];
+        mNs = new int[n + 1];
+      }
+
+      for (int i = 0; i < n; ++i) {
+        mNs[i + 1] = mNs[i] + (seq[i] == 4 ? 1 : 0);
+      }
+
+      codes(seq, mL1, mFwd1, mRc1);
+
+      // Half sites of gapped k-mers are the same length so share codes
+      long[] fwd2 = mL2 == mL1 ? mFwd1 : mFwd2;
+      long[] rc2 = mL2 == mL1 ? mRc1 : mRc2;
+
+      if (mL2 > 0 && mL2 != mL1) {
+        codes(seq, mL2, mFwd2, mRc2);
+      }
+
+      final int shift1 = 2 * mL1;
+      final int shift2 = 2 * mL2;
+
+      for (int i = 0; i <= n - w; ++i) {
+        int j = i + mL1 + mGap;
+
+        if (mNs[i + mL1] > mNs[i] || mNs[i + w] > mNs[j]) {
+          continue;
+        }
+
+        long fwd;
+        long rc;
+
+        if (mL2 > 0) {
+          fwd = (mFwd1[i] << shift2) | fwd2[j];
+
+          // The reverse complement reads the second half site first
+          rc = (rc2[j] << shift1) | mRc1[i];
+        } else {
+          fwd = mFwd1[i];
+          rc = mRc1[i];
+        }
+
+        counts.add(Math.min(fwd, rc), region);
+      }
+    }
+
+    /**
+     * Encode the l-mer starting at each position of a sequence and its
+     * reverse complement, two bits per base with the first base in the high
+     * bits.
+     */
+    private static void codes(byte[] seq, int l, long[] fwd, long[] rc) {
+      final long mask = (1L << (2 * l)) - 1;
+      final int shift = 2 * (l - 1);
+
+      long f = 0;
+      long r = 0;
+
+      for (int i = 0; i < seq.length; ++i) {
+        int b = seq[i] & 3;
+
+        f = ((f << 2) | b) & mask;
+        r = (r >>> 2) | ((long) (3 - b) << shift);
+
+        if (i >= l - 1) {
+          fwd[i - l + 1] = f;
+          rc[i - l + 1] = r;
+        }
+      }
+    }
+  }
+
+  private final Genome mGenome;
+
+  private final SequenceReader mReader;
+
+  public KmerEnrichment(Genome genome, SequenceReader reader) {
+    mGenome = genome;
+    mReader = reader;
+  }
+
+  /**
+   * Find k-mers enriched in a foreground set of regions compared to a
+   * background set.
+   *
+   * @param fg     the foreground regions
+   * @param bg     the background regions
+   * @param k      the number of specified bases in each k-mer.
+   * @param gap    the number of unspecified bases between the two half sites
+   *               of each k-mer, or 0 for contiguous k-mers.
+   * @param pValue the largest hypergeometric p-value of k-mers to return.
+   * @return the enriched k-mers ordered by p-value.
+   * @throws IOException
+   */
+  public List<MotifEnrichmentResult> enrichment(List<? extends GenomicRegion> fg, List<? extends GenomicRegion> bg,
+      int k, int gap, double pValue) throws IOException {
+    check(k, gap);
+
+    return results(count(fg, k, gap, 0, 0), count(bg, k, gap, 0, 0), k, gap, pValue);
+  }
+
+  /**
+   * Find k-mers enriched in a foreground set of regions compared to
+   * dinucleotide shuffles of the foreground sequences.
+   *
+   * @param fg       the foreground regions
+   * @param k        the number of specified bases in each k-mer.
+   * @param gap      the number of unspecified bases between the two half
+   *                 sites of each k-mer, or 0 for contiguous k-mers.
+   * @param shuffles the number of shuffles of each region to use as
+   *                 background.
+   * @param pValue   the largest hypergeometric p-value of k-mers to return.
+   * @param seed     random seed so that results are reproducible.
+   * @return the enriched k-mers ordered by p-value.
+   * @throws IOException
+   */
+  public List<MotifEnrichmentResult> shuffledEnrichment(List<? extends GenomicRegion> fg, int k, int gap,
+      int shuffles, double pValue, long seed) throws IOException {
+    check(k, gap);
+
+    return results(count(fg, k, gap, 0, seed), count(fg, k, gap, Math.max(1, shuffles), seed), k, gap, pValue);
+  }
+
+  private static void check(int k, int gap) {
+    if (k < 1 || k > MAX_K) {
+      throw new IllegalArgumentException("k must be between 1 and " + MAX_K + ".");
+    }
+
+    if (gap < 0) {
+      throw new IllegalArgumentException("gap cannot be negative.");
+    }
+
+    // A k-mer and its reverse complement must have the same half sites to
+    // be counted as one
+    if (gap > 0 && k % 2 != 0) {
+      throw new IllegalArgumentException("Gapped k-mers must have an even number of bases.");
+    }
+  }
+
+  /**
+   * Count the k-mers of a set of regions, or of shuffles of their sequences,
+   * counting the regions of each chromosome in parallel.
+   */
+  private KmerCounts count(final List<? extends GenomicRegion> regions, final int k, final int gap,
+      final int shuffles, final long seed) throws IOException {
+    // Region ids must increase as regions are counted so keep the indices
+    // of the regions of each chromosome
+    Map<Chromosome, List<Integer>> groups = new LinkedHashMap<Chromosome, List<Integer>>();
+
+    for (int i = 0; i < regions.size(); ++i) {
+      Chromosome chr = regions.get(i).mChr;
+
+      if (!groups.containsKey(chr)) {
+        groups.put(chr, new ArrayList<Integer>());
+      }
+
+      groups.get(chr).add(i);
+    }
+
+    final List<List<Integer>> chrs = new ArrayList<List<Integer>>(groups.values());
+
+    // One chromosome per batch
+    List<KmerCounts> results = MotifScanner.runBatches(chrs.size(), 1, (c, start, end) -> {
+      KmerCounter counter = new KmerCounter(k, gap);
+
+      KmerCounts counts = new KmerCounts();
+
+      for (int i : chrs.get(c)) {
+        byte[] seq = MotifScanner.getSequence(mReader, mGenome, regions.get(i));
+
+        if (shuffles == 0) {
+          counter.count(seq, i, counts);
+        } else {
+          // Seed each region so that the background does not depend on
+          // how chromosomes are scheduled
+          Random random = new Random(seed + i);
+
+          for (int j = 0; j < shuffles; ++j) {
+            counter.count(MotifEnrichment.dinucleotideShuffle(seq, random), i * shuffles + j, counts);
+          }
+        }
+      }
+
+      return counts;
+    });
+
+    KmerCounts ret = new KmerCounts();
+
+    for (KmerCounts counts : results) {
+      ret.add(counts);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Test each foreground k-mer and return those with a p-value of at most a
+   * threshold.
+   */
+  private static List<MotifEnrichmentResult> results(KmerCounts fg, KmerCounts bg, int k, int gap,
+      double pValue) {
+    // Under the null hypothesis occurrences fall in the foreground in
+    // proportion to the number of bases counted
+    double p = fg.getBases() + bg.getBases() > 0 ? fg.getBases() / (double) (fg.getBases() + bg.getBases()) : 0;
+
+    int tests = fg.size();
+
+    int[] slots = new int[tests];
+    int[] bgSlots = new int[tests];
+    double[] pValues = new double[tests];
+
+    int n = 0;
+
+    for (int i = 0; i < fg.capacity(); ++i) {
+      if (fg.isEmpty(i)) {
+        continue;
+      }
+
+      int j = bg.find(fg.getKey(i));
+
+      int bgRegions = j != -1 ? bg.getRegions(j) : 0;
+
+      // Only k-mers more frequent in the foreground than the background
+      // can be significant, the rest only count as tests
+      if ((long) fg.getRegions(i) * bg.getTotal() <= (long) bgRegions * fg.getTotal()) {
+        continue;
+      }
+
+      double hyperGP = MotifEnrichment.hyperGeometricUpperTail(fg.getRegions(i), fg.getTotal(),
+          fg.getRegions(i) + bgRegions, fg.getTotal() + bg.getTotal());
+
+      if (hyperGP <= pValue) {
+        slots[n] = i;
+        bgSlots[n] = j;
+        pValues[n] = hyperGP;
+        ++n;
+      }
+    }
+
+    List<MotifEnrichmentResult> ret = new ArrayList<MotifEnrichmentResult>(n);
+
+    for (int r = 0; r < n; ++r) {
+      int i = slots[r];
+      int j = bgSlots[r];
+
+      int bgRegions = j != -1 ? bg.getRegions(j) : 0;
+      int bgHits = j != -1 ? bg.getHits(j) : 0;
+
+      double binomialP = MotifEnrichment.binomialUpperTail(fg.getHits(i), fg.getHits(i) + bgHits, p);
+
+      ret.add(new MotifEnrichmentResult(toMotif(toString(fg.getKey(i), k, gap)), fg.getRegions(i), fg.getTotal(),
+          bgRegions, bg.getTotal(), fg.getHits(i), bgHits, pValues[r], binomialP));
+    }
+
+    Collections.sort(ret);
+
+    // Benjamini-Hochberg over all k-mers tested. K-mers that were not
+    // returned have larger p-values so do not change the ranks.
+    double fdr = 1;
+
+    for (int i = ret.size() - 1; i >= 0; --i) {
+      fdr = Math.min(fdr, ret.get(i).getHyperGP() * tests / (i + 1));
+
+      ret.get(i).setFdr(fdr);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Decode a k-mer.
+   *
+   * @param key the k-mer
+   * @param k   the number of specified bases.
+   * @param gap the number of unspecified bases between the half sites.
+   * @return the k-mer with unspecified bases as N.
+   */
+  public static String toString(long key, int k, int gap) {
+    int l1 = gap > 0 ? k / 2 : k;
+
+    StringBuilder buffer = new StringBuilder(k + gap);
+
+    for (int i = 0; i < k; ++i) {
+      if (i == l1) {
+        for (int j = 0; j < gap; ++j) {
+          buffer.append('N');
+        }
+      }
+
+      buffer.append("ACGT".charAt((int) (key >>> (2 * (k - 1 - i))) & 3));
+    }
+
+    return buffer.toString();
+  }
+
+  /**
+   * Create a motif from a k-mer. Each specified base has a frequency of one
+   * at its position and unspecified bases have a uniform frequency.
+   *
+   * @param kmer the k-mer, for example ACGTNNACGT.
+   * @return the motif
+   */
+  public static Motif toMotif(String kmer) {
+    double[][] pwm = new double[5][kmer.length()];
+
+    for (int i = 0; i < kmer.length(); ++i) {
+      switch (Character.toUpperCase(kmer.charAt(i))) {
+      case 'A':
+        pwm[0][i] = 1;
+        break;
+      case 'C':
+        pwm[1][i] = 1;
+        break;
+      case 'G':
+        pwm[2][i] = 1;
+        break;
+      case 'T':
+        pwm[3][i] = 1;
+        break;
+      default:
+        for (int b = 0; b < 4; ++b) {
+          pwm[b][i] = 0.25;
+        }
+        break;
+      }
+    }
+
+    return new Motif(kmer, kmer, kmer, DE_NOVO_DB, pwm);
+  }
+}
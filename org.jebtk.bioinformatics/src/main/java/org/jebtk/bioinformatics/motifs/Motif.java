@@ -34,15 +34,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.jebtk.bioinformatics.BaseCounts;
 import org.jebtk.bioinformatics.annotation.Species;
-import org.jebtk.core.io.FileUtils;
-import org.jebtk.core.io.Io;
 import org.jebtk.core.text.FormattedTxt;
-import org.jebtk.core.text.Splitter;
 import org.jebtk.core.text.TextUtils;
 
 /**
@@ -56,11 +51,6 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
   // private static final Pattern MOTIF_HEADER_PATTERN =
   // Pattern.compile(">([^\\t]+)\\t([^\\t]+)\\t([^\\t]+)");
 
-  /**
-   * The constant JASPAR_HEADER_PATTERN.
-   */
-  private static final Pattern JASPAR_HEADER_PATTERN = Pattern.compile(">([^\\s]+)\\s(.+)");
-
   /**
    * The constant USER_DB.
    */
@@ -92,9 +82,10 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
   private double mBgPwm;
 
   /**
-   * The member bases.
+   * The member bases. Created from the pwm when first needed since most
+   * uses of a motif only need the pwm.
    */
-  private List<BaseCounts> mBases;
+  private volatile List<BaseCounts> mBases = null;
 
   /**
    * The member database.
@@ -110,6 +101,9 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
   /** The m organisms. */
   private List<Species> mOrganisms = new ArrayList<Species>();
 
+  /** The score matrix against a uniform background, built on first use. */
+  private volatile ScoreMatrix mScoreMatrix = null;
+
   /**
    * Construct a new motif with the given name.
    *
@@ -153,24 +147,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @param bases    the bases
    */
   public Motif(String id, String name, String gene, String database, Collection<BaseCounts> bases) {
-    mId = id;
-    mName = name;
-    mGene = gene;
-    mDatabase = database;
-
-    mBases = new ArrayList<BaseCounts>(bases);
-
-    mBgPwm = Math.pow(0.25, mBases.size());
-
-    mPwm = new double[5][bases.size()];
-
-    for (int i = 0; i < bases.size(); ++i) {
-      mPwm[0][i] = mBases.get(i).getA();
-      mPwm[1][i] = mBases.get(i).getC();
-      mPwm[2][i] = mBases.get(i).getG();
-      mPwm[3][i] = mBases.get(i).getT();
-      mPwm[4][i] = mBases.get(i).getN();
-    }
+    this(id, name, gene, database, toPwm(bases));
   }
 
   /**
@@ -182,15 +159,69 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @param pwm  the pwm
    */
   public Motif(String id, String name, String gene, double[][] pwm) {
+    this(id, name, gene, null, pwm);
+  }
+
+  /**
+   * Instantiates a new motif from a primitive matrix. This is the most
+   * compact form of a motif since only the pwm is stored.
+   *
+   * @param id       the id
+   * @param name     the name
+   * @param gene     the gene
+   * @param database the database
+   * @param pwm      the frequencies of a, c, g, t and n (rows) at each
+   *                 position (columns).
+   */
+  public Motif(String id, String name, String gene, String database, double[][] pwm) {
     mId = id;
     mName = name;
     mGene = gene;
+    mDatabase = database;
 
     mBgPwm = Math.pow(0.25, pwm[0].length);
 
     mPwm = pwm;
   }
 
+  private static double[][] toPwm(Collection<BaseCounts> bases) {
+    double[][] pwm = new double[5][bases.size()];
+
+    int i = 0;
+
+    for (BaseCounts c : bases) {
+      pwm[0][i] = c.getA();
+      pwm[1][i] = c.getC();
+      pwm[2][i] = c.getG();
+      pwm[3][i] = c.getT();
+      pwm[4][i] = c.getN();
+
+      ++i;
+    }
+
+    return pwm;
+  }
+
+  /**
+   * Returns the counts of each position, creating them from the pwm the
+   * first time they are needed.
+   */
+  private List<BaseCounts> getBases() {
+    List<BaseCounts> ret = mBases;
+
+    if (ret == null) {
+      ret = new ArrayList<BaseCounts>(mPwm[0].length);
+
+      for (int i = 0; i < mPwm[0].length; ++i) {
+        ret.add(new BaseCounts(mPwm[0][i], mPwm[1][i], mPwm[2][i], mPwm[3][i], mPwm[4][i], false));
+      }
+
+      mBases = ret;
+    }
+
+    return ret;
+  }
+
   /**
    * Gets the pwm.
    *
@@ -200,6 +231,25 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
     return mPwm;
   }
 
+  /**
+   * Returns the integer log-odds matrix of the motif against a uniform
+   * background. The matrix and its p-value table are cached so that they are
+   * only calculated once however many times the motif is scanned for.
+   *
+   * @return the score matrix
+   */
+  public ScoreMatrix getScoreMatrix() {
+    ScoreMatrix ret = mScoreMatrix;
+
+    if (ret == null) {
+      ret = new ScoreMatrix(this);
+
+      mScoreMatrix = ret;
+    }
+
+    return ret;
+  }
+
   /**
    * Gets the counts.
    *
@@ -207,7 +257,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @return the counts
    */
   public BaseCounts getCounts(int p) {
-    return mBases.get(p);
+    return getBases().get(p);
   }
 
   /**
@@ -273,7 +323,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    */
   @Override
   public Iterator<BaseCounts> iterator() {
-    return mBases.iterator();
+    return getBases().iterator();
   }
 
   /*
@@ -353,56 +403,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public static List<Motif> parseJaspar(Path file) throws IOException {
-    BufferedReader reader = FileUtils.newBufferedReader(file);
-
-    Motif motif = null;
-
-    String line;
-
-    List<Motif> motifs = new ArrayList<Motif>();
-
-    try {
-      while ((line = reader.readLine()) != null) {
-        if (Io.isEmptyLine(line)) {
-          continue;
-        }
-
-        Matcher matcher = JASPAR_HEADER_PATTERN.matcher(line);
-
-        if (matcher.find()) {
-          String id = matcher.group(1);
-          String name = matcher.group(2);
-
-          List<String> a = TextUtils.tabSplit(reader.readLine());
-          List<String> c = TextUtils.tabSplit(reader.readLine());
-          List<String> g = TextUtils.tabSplit(reader.readLine());
-          List<String> t = TextUtils.tabSplit(reader.readLine());
-
-          int l = a.size();
-
-          List<BaseCounts> counts = new ArrayList<BaseCounts>();
-
-          for (int i = 0; i < l; ++i) {
-            // Convert the values of each column to percentages
-
-            double af = Double.parseDouble(a.get(i));
-            double cf = Double.parseDouble(c.get(i));
-            double gf = Double.parseDouble(g.get(i));
-            double tf = Double.parseDouble(t.get(i));
-
-            counts.add(new BaseCounts(af, cf, gf, tf, true));
-          }
-
-          motif = new Motif(id, name, counts);
-
-          motifs.add(motif);
-        }
-      }
-    } finally {
-      reader.close();
-    }
-
-    return motifs;
+    return MotifReader.jaspar(file).toList();
   }
 
   /**
@@ -437,9 +438,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public static List<Motif> parseMotifs(Path file, String database) throws IOException {
-    BufferedReader reader = FileUtils.newBufferedReader(file);
-
-    return parseMotifs(reader, database);
+    return MotifReader.motifs(file, database).toList();
   }
 
   /**
@@ -451,67 +450,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public static List<Motif> parseMotifs(BufferedReader reader, String database) throws IOException {
-    Motif motif = null;
-
-    String line;
-
-    List<Motif> motifs = new ArrayList<Motif>();
-
-    try {
-      while ((line = reader.readLine()) != null) {
-        if (Io.isEmptyLine(line)) {
-          continue;
-        }
-
-        line = line.trim();
-
-        List<String> tokens = Splitter.onTab().text(line.substring(1));
-
-        String id = tokens.get(0);
-
-        String name = id;
-
-        if (tokens.size() > 1) {
-          name = tokens.get(1);
-        }
-
-        String gene = id;
-
-        if (tokens.size() > 2) {
-          gene = tokens.get(2);
-        }
-
-        List<String> a = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> c = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> g = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> t = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-
-        int l = a.size();
-
-        List<BaseCounts> counts = new ArrayList<BaseCounts>(l);
-
-        // System.err.println(a);
-
-        for (int i = 0; i < l; ++i) {
-          // Convert the values of each column to percentages
-
-          double af = Double.parseDouble(a.get(i));
-          double cf = Double.parseDouble(c.get(i));
-          double gf = Double.parseDouble(g.get(i));
-          double tf = Double.parseDouble(t.get(i));
-
-          counts.add(new BaseCounts(af, cf, gf, tf, true));
-        }
-
-        motif = new Motif(id, name, gene, database, counts);
-
-        motifs.add(motif);
-      }
-    } finally {
-      reader.close();
-    }
-
-    return motifs;
+    return MotifReader.motifs(reader, database).toList();
   }
 
   /**
@@ -533,9 +472,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public static List<Motif> parsePwmMotifs(Path file) throws IOException {
-    BufferedReader reader = FileUtils.newBufferedReader(file);
-
-    return parsePwmMotifs(reader);
+    return MotifReader.pwm(file).toList();
   }
 
   /**
@@ -546,59 +483,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public static List<Motif> parsePwmMotifs(BufferedReader reader) throws IOException {
-    Motif motif = null;
-
-    String line;
-
-    List<Motif> motifs = new ArrayList<Motif>();
-
-    try {
-      while ((line = reader.readLine()) != null) {
-        if (Io.isEmptyLine(line)) {
-          continue;
-        }
-
-        line = line.trim();
-
-        String id = line.substring(1);
-
-        List<String> a = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> c = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> g = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> t = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-
-        int l = a.size();
-
-        List<BaseCounts> counts = new ArrayList<BaseCounts>(l);
-
-        // First char is the nucleotide so ignore it
-        for (int i = 0; i < l; ++i) {
-          // Convert the values of each column to percentages
-
-          double af = Double.parseDouble(a.get(i));
-          double cf = Double.parseDouble(c.get(i));
-          double gf = Double.parseDouble(g.get(i));
-          double tf = Double.parseDouble(t.get(i));
-
-          // double total = af + cf + gf + tf;
-
-          // af /= total;
-          // cf /= total;
-          // gf /= total;
-          // tf /= total;
-
-          counts.add(new BaseCounts(af, cf, gf, tf, true));
-        }
-
-        motif = new Motif(id, counts);
-
-        motifs.add(motif);
-      }
-    } finally {
-      reader.close();
-    }
-
-    return motifs;
+    return MotifReader.pwm(reader).toList();
   }
 
   /**
@@ -620,9 +505,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public static List<Motif> parsePwm2Motifs(Path file) throws IOException {
-    BufferedReader reader = FileUtils.newBufferedReader(file);
-
-    return parsePwm2Motifs(reader);
+    return MotifReader.pwm2(file).toList();
   }
 
   /**
@@ -633,61 +516,7 @@ public class Motif implements Comparable<Motif>, Iterable<BaseCounts>, Formatted
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public static List<Motif> parsePwm2Motifs(BufferedReader reader) throws IOException {
-    Motif motif = null;
-
-    String line;
-
-    List<Motif> motifs = new ArrayList<Motif>();
-
-    try {
-      while ((line = reader.readLine()) != null) {
-        if (Io.isEmptyLine(line)) {
-          continue;
-        }
-
-        line = line.trim();
-
-        String id = line.substring(1);
-
-        List<String> a = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> c = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> g = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> t = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-        List<String> n = Splitter.onTab().ignoreEmptyStrings().text(reader.readLine());
-
-        int l = a.size();
-
-        List<BaseCounts> counts = new ArrayList<BaseCounts>(l);
-
-        // First char is the nucleotide so ignore it
-        for (int i = 1; i < l; ++i) {
-          // Convert the values of each column to percentages
-
-          double af = Double.parseDouble(a.get(i));
-          double cf = Double.parseDouble(c.get(i));
-          double gf = Double.parseDouble(g.get(i));
-          double tf = Double.parseDouble(t.get(i));
-          double nf = Double.parseDouble(n.get(i));
-
-          // double total = af + cf + gf + tf;
-
-          // af /= total;
-          // cf /= total;
-          // gf /= total;
-          // tf /= total;
-
-          counts.add(new BaseCounts(af, cf, gf, tf, nf, true));
-        }
-
-        motif = new Motif(id, counts);
-
-        motifs.add(motif);
-      }
-    } finally {
-      reader.close();
-    }
-
-    return motifs;
+    return MotifReader.pwm2(reader).toList();
   }
 
   /*
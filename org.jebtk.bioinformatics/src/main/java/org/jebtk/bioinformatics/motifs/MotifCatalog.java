@@ -0,0 +1,458 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jebtk.core.io.FileUtils;
+import org.jebtk.core.io.PathUtils;
+import org.jebtk.core.objectdb.RadixObjectDb;
+import org.jebtk.core.objectdb.RadixObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The parsed motifs of a motif data source grouped by database, along with a
+ * radix index of their names, ids and genes for prefix searches. A catalog is
+ * built once from the source files and records their modification times so
+ * that a data source can tell when it needs rebuilding. Catalogs can be saved
+ * to a binary file so that the motif files do not have to be parsed again
+ * when an application restarts.
+ *
+ * The binary layout is:
+ *
+ * <pre>
+ * int      check (43)
+ * byte     version
+ * int      number of source files
+ * for each file:
+ *   string   path
+ *   long     modification time
+ * int      number of databases
+ * for each database:
+ *   string   name
+ *   int      number of motifs
+ *   for each motif:
+ *     string   id
+ *     string   name
+ *     string   gene
+ *     string   database
+ *     int      length
+ *     double[] a, c, g, t and n of each position
+ * </pre>
+ *
+ * Strings are stored as an int byte length followed by UTF-8 bytes, or -1 for
+ * null.
+ *
+ * @author Antony Holmes
+ */
+public class MotifCatalog {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MotifCatalog.class);
+
+  public static final int CHECK = 43;
+  public static final byte VERSION = 1;
+
+  /** Modification time of each source file. */
+  private final Map<Path, Long> mFiles;
+
+  /** The motifs of each database in display order. */
+  private final Map<String, List<Motif>> mMotifs;
+
+  private Map<String, RadixObjectDb<Motif>> mIndex = null;
+  private Map<String, RadixObjectDb<Motif>> mLcIndex = null;
+
+  /**
+   * Create a catalog.
+   *
+   * @param files  the modification time of each source file.
+   * @param motifs the motifs of each database.
+   */
+  public MotifCatalog(Map<Path, Long> files, Map<String, List<Motif>> motifs) {
+    mFiles = new HashMap<Path, Long>(files);
+    mMotifs = new LinkedHashMap<String, List<Motif>>();
+
+    for (Entry<String, List<Motif>> e : motifs.entrySet()) {
+      mMotifs.put(e.getKey(), Collections.unmodifiableList(new ArrayList<Motif>(e.getValue())));
+    }
+  }
+
+  /**
+   * Returns the names of the databases in the catalog.
+   *
+   * @return the databases
+   */
+  public Iterable<String> getDatabases() {
+    return Collections.unmodifiableSet(mMotifs.keySet());
+  }
+
+  /**
+   * Returns the motifs of a database.
+   *
+   * @param database the database
+   * @return the motifs, or an empty list if the database is not in the
+   *         catalog.
+   */
+  public List<Motif> getMotifs(String database) {
+    List<Motif> ret = mMotifs.get(database);
+
+    return ret != null ? ret : Collections.<Motif>emptyList();
+  }
+
+  /**
+   * Returns the motifs of a database whose name, id or gene starts with a
+   * term.
+   *
+   * @param database      the database
+   * @param term          the term
+   * @param caseSensitive whether the search is case sensitive.
+   * @return the matching node of the index, or null if nothing matches.
+   */
+  public RadixObjectNode<Motif> search(String database, String term, boolean caseSensitive) {
+    RadixObjectDb<Motif> db = getIndex(caseSensitive).get(database);
+
+    if (db == null) {
+      return null;
+    }
+
+    return db.getChild(caseSensitive ? term : term.toLowerCase());
+  }
+
+  /**
+   * Returns the index of each database, creating it the first time it is
+   * needed. Indexes are immutable once built so they can be shared by
+   * concurrent searches.
+   */
+  private synchronized Map<String, RadixObjectDb<Motif>> getIndex(boolean caseSensitive) {
+    if (caseSensitive) {
+      if (mIndex == null) {
+        mIndex = createIndex(true);
+      }
+
+      return mIndex;
+    } else {
+      if (mLcIndex == null) {
+        mLcIndex = createIndex(false);
+      }
+
+      return mLcIndex;
+    }
+  }
+
+  private Map<String, RadixObjectDb<Motif>> createIndex(boolean caseSensitive) {
+    Map<String, RadixObjectDb<Motif>> ret = new HashMap<String, RadixObjectDb<Motif>>();
+
+    for (Entry<String, List<Motif>> e : mMotifs.entrySet()) {
+      RadixObjectDb<Motif> db = new RadixObjectDb<Motif>();
+
+      for (Motif motif : e.getValue()) {
+        if (caseSensitive) {
+          db.addObject(motif.getName(), motif);
+          db.addObject(motif.getId(), motif);
+          db.addObject(motif.getGene(), motif);
+        } else {
+          db.addObject(motif.getName().toLowerCase(), motif);
+          db.addObject(motif.getId().toLowerCase(), motif);
+          db.addObject(motif.getGene().toLowerCase(), motif);
+        }
+      }
+
+      ret.put(e.getKey(), db);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns true if the catalog was built from exactly these files and none
+   * of them have been modified since.
+   *
+   * @param files the current source files.
+   * @return true if the catalog is up to date.
+   * @throws IOException
+   */
+  public boolean isValid(List<Path> files) throws IOException {
+    if (files.size() != mFiles.size()) {
+      return false;
+    }
+
+    for (Path file : files) {
+      Long time = mFiles.get(file);
+
+      if (time == null || time != Files.getLastModifiedTime(file).toMillis()) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the modification time of each file in a list.
+   *
+   * @param files the files
+   * @return the modification times
+   * @throws IOException
+   */
+  public static Map<Path, Long> getTimes(List<Path> files) throws IOException {
+    Map<Path, Long> ret = new HashMap<Path, Long>();
+
+    for (Path file : files) {
+      ret.put(file, Files.getLastModifiedTime(file).toMillis());
+    }
+
+    return ret;
+  }
+
+  /**
+   * Save the catalog. The catalog is written to a temporary file which then
+   * replaces the file so that readers never see a partial catalog.
+   *
+   * @param file the file
+   * @throws IOException
+   */
+  public void write(Path file) throws IOException {
+    Path tmp = file.resolveSibling(PathUtils.getName(file) + ".tmp");
+
+    DataOutputStream writer = FileUtils.newDataOutputStream(tmp);
+
+    try {
+      writer.writeInt(CHECK);
+      writer.writeByte(VERSION);
+
+      writer.writeInt(mFiles.size());
+
+      for (Entry<Path, Long> e : mFiles.entrySet()) {
+        writeString(e.getKey().toString(), writer);
+        writer.writeLong(e.getValue());
+      }
+
+      writer.writeInt(mMotifs.size());
+
+      for (Entry<String, List<Motif>> e : mMotifs.entrySet()) {
+        writeString(e.getKey(), writer);
+        writer.writeInt(e.getValue().size());
+
+        for (Motif motif : e.getValue()) {
+          writeMotif(motif, writer);
+        }
+      }
+    } finally {
+      writer.close();
+    }
+
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Load a saved catalog.
+   *
+   * @param file the file
+   * @return the catalog, or null if the file does not exist or is not a
+   *         catalog of the current version.
+   * @throws IOException if the file cannot be read or is corrupt.
+   */
+  public static MotifCatalog read(Path file) throws IOException {
+    if (!FileUtils.exists(file)) {
+      return null;
+    }
+
+    // No count or length can be larger than the file
+    long size = Files.size(file);
+
+    DataInputStream reader = FileUtils.newDataInputStream(file);
+
+    try {
+      if (reader.readInt() != CHECK || reader.readByte() != VERSION) {
+        LOG.info("Ignoring motif catalog {} from a different version.", file);
+
+        return null;
+      }
+
+      Map<Path, Long> files = new HashMap<Path, Long>();
+
+      int n = readLength(reader, size);
+
+      for (int i = 0; i < n; ++i) {
+        Path path = Paths.get(readString(reader, size));
+
+        files.put(path, reader.readLong());
+      }
+
+      Map<String, List<Motif>> motifs = new LinkedHashMap<String, List<Motif>>();
+
+      n = readLength(reader, size);
+
+      for (int i = 0; i < n; ++i) {
+        String database = readString(reader, size);
+
+        int m = readLength(reader, size);
+
+        List<Motif> dbMotifs = new ArrayList<Motif>(m);
+
+        for (int j = 0; j < m; ++j) {
+          dbMotifs.add(readMotif(reader, size));
+        }
+
+        motifs.put(database, dbMotifs);
+      }
+
+      return new MotifCatalog(files, motifs);
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Write a motif in the catalog format.
+   *
+   * @param motif  the motif
+   * @param writer the writer
+   * @throws IOException
+   */
+  static void writeMotif(Motif motif, DataOutputStream writer) throws IOException {
+    writeString(motif.getId(), writer);
+    writeString(motif.getName(), writer);
+    writeString(motif.getGene(), writer);
+    writeString(motif.getDatabase(), writer);
+
+    double[][] pwm = motif.getPwm();
+
+    writer.writeInt(pwm[0].length);
+
+    for (int i = 0; i < pwm[0].length; ++i) {
+      for (int b = 0; b < 5; ++b) {
+        writer.writeDouble(pwm[b][i]);
+      }
+    }
+  }
+
+  /**
+   * Read a motif written by {@code writeMotif()}.
+   *
+   * @param reader the reader
+   * @return the motif
+   * @throws IOException
+   */
+  static Motif readMotif(DataInputStream reader) throws IOException {
+    return readMotif(reader, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Read a motif written by {@code writeMotif()} from a file of a given size.
+   *
+   * @param reader the reader
+   * @param size   the size of the file.
+   * @return the motif
+   * @throws IOException if the motif is corrupt.
+   */
+  private static Motif readMotif(DataInputStream reader, long size) throws IOException {
+    String id = readString(reader, size);
+    String name = readString(reader, size);
+    String gene = readString(reader, size);
+    String db = readString(reader, size);
+
+    // Each position is five doubles
+    int l = readLength(reader, size / 40);
+
+    // Already normalized when the motifs were parsed
+    double[][] pwm = new double[5][l];
+
+    for (int i = 0; i < l; ++i) {
+      for (int b = 0; b < 5; ++b) {
+        pwm[b][i] = reader.readDouble();
+      }
+    }
+
+    return new Motif(id, name, gene, db, pwm);
+  }
+
+  private static void writeString(String s, DataOutputStream writer) throws IOException {
+    if (s == null) {
+      writer.writeInt(-1);
+      return;
+    }
+
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+    writer.writeInt(bytes.length);
+    writer.write(bytes);
+  }
+
+  private static String readString(DataInputStream reader, long size) throws IOException {
+    int n = reader.readInt();
+
+    if (n == -1) {
+      return null;
+    }
+
+    checkLength(n, size);
+
+    byte[] bytes = new byte[n];
+
+    reader.readFully(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read a count or length.
+   *
+   * @param reader the reader
+   * @param max    the largest valid value.
+   * @return the value
+   * @throws IOException if the value is negative or too large.
+   */
+  private static int readLength(DataInputStream reader, long max) throws IOException {
+    int ret = reader.readInt();
+
+    checkLength(ret, max);
+
+    return ret;
+  }
+
+  private static void checkLength(int n, long max) throws IOException {
+    if (n < 0 || n > max) {
+      throw new IOException("Motif catalog is corrupt: invalid length " + n + ".");
+    }
+  }
+}
@@ -27,6 +27,7 @@
  */
 package org.jebtk.bioinformatics.motifs;
 
+import java.util.Collections;
 import java.util.List;
 
 import org.jebtk.core.tree.TreeNode;
@@ -52,4 +53,16 @@ public abstract class MotifDataSource {
    */
   public abstract void createTree(TreeNode<Motif> root, List<String> terms, boolean inList, boolean exactMatch,
       boolean caseSensitive) throws Exception;
+
+  /**
+   * Returns all of the motifs in the data source, for example to scan for
+   * every known motif. Sources that cannot list their motifs return an empty
+   * list.
+   *
+   * @return the motifs
+   * @throws Exception the exception
+   */
+  public List<Motif> getMotifs() throws Exception {
+    return Collections.emptyList();
+  }
 }
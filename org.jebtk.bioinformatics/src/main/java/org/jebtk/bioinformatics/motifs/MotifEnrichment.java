@@ -0,0 +1,733 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeReader;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.SequenceReader;
+
+/**
+ * Tests a collection of motifs, such as all of the motifs in a
+ * {@code MotifDataSource}, for enrichment in a foreground set of regions, for
+ * example peaks, compared to a background. The background can be a set of
+ * regions, such as GC matched random genomic regions, or dinucleotide
+ * shuffles of the foreground sequences.
+ *
+ * All motifs are scanned for in one pass over each sequence using a
+ * {@code MotifSetScanner} and only the number of hits of each motif is kept,
+ * so regions are streamed in parallel batches and memory does not grow with
+ * the number of regions or hits. Each motif is tested using a hypergeometric
+ * test of the number of regions with at least one hit and a binomial test of
+ * the number of hits.
+ *
+ * @author Antony Holmes
+ */
+public class MotifEnrichment {
+
+  /**
+   * How many random regions to try to find one with a matching GC content
+   * before settling for the closest.
+   */
+  private static final int GC_MATCH_TRIES = 100;
+
+  /**
+   * Maximum difference in GC content of a background region and the
+   * foreground region it is matched to.
+   */
+  public static final double GC_TOLERANCE = 0.02;
+
+  /**
+   * Random regions containing a larger fraction of N are not used as
+   * background.
+   */
+  private static final double MAX_N = 0.1;
+
+  /**
+   * Terms of a tail sum smaller than this fraction of the sum so far are
+   * ignored.
+   */
+  private static final double TAIL_EPSILON = 1e-16;
+
+  /**
+   * Number of regions with a hit and number of hits of each motif in a set of
+   * regions.
+   */
+  private static class Counts {
+    private final int[] mRegions;
+    private final long[] mHits;
+    private long mBases = 0;
+    private int mTotal = 0;
+
+    public Counts(int n) {
+      mRegions = new int[n];
+      mHits = new long[n];
+    }
+
+    /**
+     * Scan a sequence and add its counts.
+     *
+     * @param scanner the scanner
+     * @param seq     the sequence
+     * @param buffer  working space for the hits of each motif.
+     */
+    public void add(MotifSetScanner scanner, byte[] seq, int[] buffer) {
+      Arrays.fill(buffer, 0);
+
+      scanner.count(seq, buffer);
+
+      for (int i = 0; i < buffer.length; ++i) {
+        if (buffer[i] > 0) {
+          ++mRegions[i];
+          mHits[i] += buffer[i];
+        }
+      }
+
+      mBases += seq.length;
+      ++mTotal;
+    }
+
+    public void add(Counts counts) {
+      for (int i = 0; i < mRegions.length; ++i) {
+        mRegions[i] += counts.mRegions[i];
+        mHits[i] += counts.mHits[i];
+      }
+
+      mBases += counts.mBases;
+      mTotal += counts.mTotal;
+    }
+  }
+
+  /**
+   * Draws a random background region for a foreground region of a given
+   * length.
+   */
+  private interface RegionSampler {
+    GenomicRegion sample(Random random, int length);
+  }
+
+  private final Genome mGenome;
+
+  private final SequenceReader mReader;
+
+  public MotifEnrichment(Genome genome, SequenceReader reader) {
+    mGenome = genome;
+    mReader = reader;
+  }
+
+  /**
+   * Test all of the motifs in a data source for enrichment in a foreground
+   * set of regions compared to a background set.
+   *
+   * @param source  the motif source
+   * @param fg      the foreground regions
+   * @param bg      the background regions
+   * @param pValue  the p-value of a motif hit.
+   * @return the results of each motif ordered by p-value.
+   * @throws Exception the exception
+   */
+  public List<MotifEnrichmentResult> enrichment(MotifDataSource source, List<? extends GenomicRegion> fg,
+      List<? extends GenomicRegion> bg, double pValue) throws Exception {
+    return enrichment(source.getMotifs(), fg, bg, pValue);
+  }
+
+  /**
+   * Test motifs for enrichment in a foreground set of regions compared to a
+   * background set.
+   *
+   * @param motifs the motifs
+   * @param fg     the foreground regions
+   * @param bg     the background regions
+   * @param pValue the p-value of a motif hit.
+   * @return the results of each motif ordered by p-value.
+   * @throws IOException
+   */
+  public List<MotifEnrichmentResult> enrichment(Collection<Motif> motifs, List<? extends GenomicRegion> fg,
+      List<? extends GenomicRegion> bg, double pValue) throws IOException {
+    List<Motif> ms = new ArrayList<Motif>(motifs);
+
+    MotifSetScanner scanner = new MotifSetScanner(ms, pValue);
+
+    return results(ms, count(scanner, fg, 0, 0), count(scanner, bg, 0, 0));
+  }
+
+  /**
+   * Test motifs for enrichment in a foreground set of regions compared to
+   * dinucleotide shuffles of the foreground sequences, which preserve their
+   * base and dinucleotide composition but not any motifs.
+   *
+   * @param motifs   the motifs
+   * @param fg       the foreground regions
+   * @param shuffles the number of shuffles of each region to use as
+   *                 background.
+   * @param pValue   the p-value of a motif hit.
+   * @param seed     random seed so that results are reproducible.
+   * @return the results of each motif ordered by p-value.
+   * @throws IOException
+   */
+  public List<MotifEnrichmentResult> shuffledEnrichment(Collection<Motif> motifs,
+      List<? extends GenomicRegion> fg, int shuffles, double pValue, long seed) throws IOException {
+    List<Motif> ms = new ArrayList<Motif>(motifs);
+
+    MotifSetScanner scanner = new MotifSetScanner(ms, pValue);
+
+    return results(ms, count(scanner, fg, 0, seed), count(scanner, fg, Math.max(1, shuffles), seed));
+  }
+
+  /**
+   * Create a background of random genomic regions with the same lengths and
+   * GC content as a set of foreground regions. Chromosomes are chosen in
+   * proportion to their size so that every base of the genome is equally
+   * likely to be sampled.
+   *
+   * @param fg        the foreground regions
+   * @param perRegion the number of background regions per foreground region.
+   * @param seed      random seed
+   * @return the background regions
+   * @throws IOException
+   */
+  public List<GenomicRegion> gcMatchedBackground(List<? extends GenomicRegion> fg, int perRegion, long seed)
+      throws IOException {
+    ChromosomeReader reader = ChromosomeService.getInstance().chrs(mGenome);
+
+    final List<Chromosome> chrs = new ArrayList<Chromosome>();
+    final List<Integer> sizes = new ArrayList<Integer>();
+
+    for (Chromosome chr : reader) {
+      int size = reader.size(chr);
+
+      if (size > 0) {
+        chrs.add(chr);
+        sizes.add(size);
+      }
+    }
+
+    if (chrs.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    // The genome position at which each chromosome ends
+    final long[] ends = new long[chrs.size()];
+
+    long total = 0;
+
+    for (int i = 0; i < ends.length; ++i) {
+      total += sizes.get(i);
+      ends[i] = total;
+    }
+
+    final long genomeSize = total;
+
+    return gcMatched(fg, perRegion, seed, (random, length) -> {
+      int c = chrIndex(ends, (long) (random.nextDouble() * genomeSize));
+
+      int size = sizes.get(c);
+
+      if (size < length) {
+        return null;
+      }
+
+      int start = 1 + random.nextInt(size - length + 1);
+
+      return new GenomicRegion(chrs.get(c), start, start + length - 1);
+    });
+  }
+
+  /**
+   * Returns the index of the chromosome containing a genome position.
+   *
+   * @param ends     the genome position at which each chromosome ends.
+   * @param position a position from zero to the genome size - 1.
+   * @return the chromosome index.
+   */
+  private static int chrIndex(long[] ends, long position) {
+    int i = Arrays.binarySearch(ends, position);
+
+    // The first chromosome ending after the position
+    return i >= 0 ? i + 1 : -(i + 1);
+  }
+
+  /**
+   * Create a background by choosing regions from a set of candidates, for
+   * example all promoters, with the same GC content as a set of foreground
+   * regions.
+   *
+   * @param fg         the foreground regions
+   * @param candidates the candidate background regions
+   * @param perRegion  the number of background regions per foreground
+   *                   region.
+   * @param seed       random seed
+   * @return the background regions
+   * @throws IOException
+   */
+  public List<GenomicRegion> gcMatchedBackground(List<? extends GenomicRegion> fg,
+      final List<? extends GenomicRegion> candidates, int perRegion, long seed) throws IOException {
+    if (candidates.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    return gcMatched(fg, perRegion, seed, (random, length) -> candidates.get(random.nextInt(candidates.size())));
+  }
+
+  private List<GenomicRegion> gcMatched(final List<? extends GenomicRegion> fg, final int perRegion,
+      final long seed, final RegionSampler sampler) throws IOException {
+    List<List<GenomicRegion>> results = MotifScanner.runBatches(fg.size(), MotifScanner.BATCH_SIZE,
+        (b, start, end) -> {
+          // Seed each batch so that the background does not depend on how
+          // batches are scheduled
+          Random random = new Random(seed + b);
+
+          List<GenomicRegion> bg = new ArrayList<GenomicRegion>();
+
+          for (int i = start; i < end; ++i) {
+            GenomicRegion region = fg.get(i);
+
+            double gc = gc(getSequence(region));
+
+            for (int j = 0; j < perRegion; ++j) {
+              GenomicRegion match = match(region.getLength(), gc, random, sampler);
+
+              if (match != null) {
+                bg.add(match);
+              }
+            }
+          }
+
+          return bg;
+        });
+
+    List<GenomicRegion> ret = new ArrayList<GenomicRegion>();
+
+    for (List<GenomicRegion> bg : results) {
+      ret.addAll(bg);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Find a random region whose GC content is within {@code GC_TOLERANCE} of
+   * a target, or the closest found if none are.
+   */
+  private GenomicRegion match(int length, double gc, Random random, RegionSampler sampler) throws IOException {
+    GenomicRegion ret = null;
+    double best = Double.MAX_VALUE;
+
+    for (int i = 0; i < GC_MATCH_TRIES; ++i) {
+      GenomicRegion region = sampler.sample(random, length);
+
+      if (region == null) {
+        continue;
+      }
+
+      double d = Math.abs(gc(getSequence(region)) - gc);
+
+      if (d < best) {
+        ret = region;
+        best = d;
+
+        if (d <= GC_TOLERANCE) {
+          break;
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the GC content of the called bases of an indexed sequence, or
+   * NaN if too much of the sequence is N for it to be meaningful.
+   */
+  private static double gc(byte[] seq) {
+    int gc = 0;
+    int n = 0;
+
+    for (byte b : seq) {
+      if (b == 1 || b == 2) {
+        ++gc;
+      } else if (b == 4) {
+        ++n;
+      }
+    }
+
+    if (seq.length == 0 || n > MAX_N * seq.length) {
+      return Double.NaN;
+    }
+
+    return gc / (double) (seq.length - n);
+  }
+
+  /**
+   * Count the hits of each motif in a set of regions, or in shuffles of
+   * their sequences.
+   */
+  private Counts count(final MotifSetScanner scanner, final List<? extends GenomicRegion> regions,
+      final int shuffles, final long seed) throws IOException {
+    final int n = scanner.size();
+
+    List<Counts> results = MotifScanner.runBatches(regions.size(), MotifScanner.BATCH_SIZE, (b, start, end) -> {
+      Random random = new Random(seed + b);
+
+      Counts counts = new Counts(n);
+
+      int[] buffer = new int[n];
+
+      for (int i = start; i < end; ++i) {
+        byte[] seq = getSequence(regions.get(i));
+
+        if (shuffles == 0) {
+          counts.add(scanner, seq, buffer);
+        } else {
+          for (int j = 0; j < shuffles; ++j) {
+            counts.add(scanner, dinucleotideShuffle(seq, random), buffer);
+          }
+        }
+      }
+
+      return counts;
+    });
+
+    Counts ret = new Counts(n);
+
+    for (Counts counts : results) {
+      ret.add(counts);
+    }
+
+    return ret;
+  }
+
+  private byte[] getSequence(GenomicRegion region) throws IOException {
+    return MotifScanner.getSequence(mReader, mGenome, region);
+  }
+
+  /**
+   * Test each motif and estimate the false discovery rate.
+   */
+  private static List<MotifEnrichmentResult> results(List<Motif> motifs, Counts fg, Counts bg) {
+    List<MotifEnrichmentResult> ret = new ArrayList<MotifEnrichmentResult>(motifs.size());
+
+    // Under the null hypothesis hits fall in the foreground in proportion
+    // to the number of bases scanned
+    double p = fg.mBases + bg.mBases > 0 ? fg.mBases / (double) (fg.mBases + bg.mBases) : 0;
+
+    for (int i = 0; i < motifs.size(); ++i) {
+      double hyperGP = hyperGeometricUpperTail(fg.mRegions[i], fg.mTotal, fg.mRegions[i] + bg.mRegions[i],
+          fg.mTotal + bg.mTotal);
+
+      long hits = fg.mHits[i] + bg.mHits[i];
+
+      double binomialP = binomialUpperTail((int) Math.min(fg.mHits[i], Integer.MAX_VALUE),
+          (int) Math.min(hits, Integer.MAX_VALUE), p);
+
+      ret.add(new MotifEnrichmentResult(motifs.get(i), fg.mRegions[i], fg.mTotal, bg.mRegions[i], bg.mTotal,
+          fg.mHits[i], bg.mHits[i], hyperGP, binomialP));
+    }
+
+    Collections.sort(ret);
+
+    // Benjamini-Hochberg, enforcing that the fdr does not decrease with
+    // p-value
+    double fdr = 1;
+
+    for (int i = ret.size() - 1; i >= 0; --i) {
+      fdr = Math.min(fdr, ret.get(i).getHyperGP() * ret.size() / (i + 1));
+
+      ret.get(i).setFdr(fdr);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the probability of drawing at least x successes in n draws
+   * without replacement from a population of a given size containing k
+   * successes.
+   *
+   * @param x     the observed successes.
+   * @param n     the number of draws.
+   * @param k     the successes in the population.
+   * @param total the population size.
+   * @return the p-value
+   */
+  public static double hyperGeometricUpperTail(int x, int n, int k, int total) {
+    int min = Math.max(0, n + k - total);
+    int max = Math.min(n, k);
+
+    if (x <= min) {
+      return 1;
+    }
+
+    if (x > max) {
+      return 0;
+    }
+
+    // Sum away from the mode so that the terms decrease
+    if (x > (double) n * k / total) {
+      double t = 1;
+      double sum = 1;
+
+      for (int i = x; i < max; ++i) {
+        t *= (double) (k - i) * (n - i) / ((i + 1.0) * (total - k - n + i + 1.0));
+        sum += t;
+
+        if (t < sum * TAIL_EPSILON) {
+          break;
+        }
+      }
+
+      return Math.min(1, Math.exp(logHyperGeometric(x, n, k, total) + Math.log(sum)));
+    } else {
+      int y = x - 1;
+
+      double t = 1;
+      double sum = 1;
+
+      for (int i = y; i > min; --i) {
+        t *= i * (total - k - n + (double) i) / ((k - i + 1.0) * (n - i + 1.0));
+        sum += t;
+
+        if (t < sum * TAIL_EPSILON) {
+          break;
+        }
+      }
+
+      return Math.max(0, 1 - Math.exp(logHyperGeometric(y, n, k, total) + Math.log(sum)));
+    }
+  }
+
+  /**
+   * Returns the probability of at least x successes in n trials with a
+   * given probability of success.
+   *
+   * @param x the observed successes.
+   * @param n the number of trials.
+   * @param p the probability of success.
+   * @return the p-value
+   */
+  public static double binomialUpperTail(int x, int n, double p) {
+    if (x <= 0) {
+      return 1;
+    }
+
+    if (x > n || p <= 0) {
+      return 0;
+    }
+
+    if (p >= 1) {
+      return 1;
+    }
+
+    double r = p / (1 - p);
+
+    if (x > n * p) {
+      double t = 1;
+      double sum = 1;
+
+      for (int i = x; i < n; ++i) {
+        t *= (n - i) / (i + 1.0) * r;
+        sum += t;
+
+        if (t < sum * TAIL_EPSILON) {
+          break;
+        }
+      }
+
+      return Math.min(1, Math.exp(logBinomial(x, n, p) + Math.log(sum)));
+    } else {
+      int y = x - 1;
+
+      double t = 1;
+      double sum = 1;
+
+      for (int i = y; i > 0; --i) {
+        t *= i / (n - i + 1.0) / r;
+        sum += t;
+
+        if (t < sum * TAIL_EPSILON) {
+          break;
+        }
+      }
+
+      return Math.max(0, 1 - Math.exp(logBinomial(y, n, p) + Math.log(sum)));
+    }
+  }
+
+  private static double logHyperGeometric(int x, int n, int k, int total) {
+    return logChoose(k, x) + logChoose(total - k, n - x) - logChoose(total, n);
+  }
+
+  private static double logBinomial(int x, int n, double p) {
+    return logChoose(n, x) + x * Math.log(p) + (n - x) * Math.log1p(-p);
+  }
+
+  private static double logChoose(int n, int k) {
+    return logGamma(n + 1.0) - logGamma(k + 1.0) - logGamma(n - k + 1.0);
+  }
+
+  private static final double[] LANCZOS = { 0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+      771.32342877765313, -176.61502916214059, 12.507343278686905, -0.13857109526572012, 9.9843695780195716e-6,
+      1.5056327351493116e-7 };
+
+  /**
+   * Lanczos approximation of log(gamma(x)) for x >= 1.
+   */
+  private static double logGamma(double x) {
+    x -= 1;
+
+    double a = LANCZOS[0];
+    double t = x + 7.5;
+
+    for (int i = 1; i < LANCZOS.length; ++i) {
+      a += LANCZOS[i] / (x + i);
+    }
+
+    return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(a);
+  }
+
+  /**
+   * Shuffle an indexed sequence preserving its dinucleotide counts using the
+   * Altschul-Erickson algorithm. The sequence is treated as a walk over the
+   * edges of a graph whose vertices are bases. A random Eulerian walk that
+   * starts with the same base is found by choosing a random last exit edge
+   * from each base so that they form a tree leading to the last base, and
+   * then using the remaining edges of each base in random order.
+   *
+   * @param seq    the sequence where a = 0, c = 1, g = 2, t = 3 and n = 4.
+   * @param random the random
+   * @return a new shuffled sequence
+   */
+  public static byte[] dinucleotideShuffle(byte[] seq, Random random) {
+    final int n = seq.length;
+
+    if (n < 3) {
+      return seq.clone();
+    }
+
+    final int bases = ScoreMatrix.BASES;
+
+    // Out edges of each base
+    int[] degree = new int[bases];
+
+    for (int i = 0; i < n - 1; ++i) {
+      ++degree[seq[i]];
+    }
+
+    int[][] edges = new int[bases][];
+
+    for (int b = 0; b < bases; ++b) {
+      edges[b] = new int[degree[b]];
+    }
+
+    int[] fill = new int[bases];
+
+    for (int i = 0; i < n - 1; ++i) {
+      edges[seq[i]][fill[seq[i]]++] = seq[i + 1];
+    }
+
+    int last = seq[n - 1];
+
+    // Choose a last edge for each base until they form a tree rooted at
+    // the last base, i.e. following last edges from any base reaches it.
+    int[] lastEdge = new int[bases];
+
+    boolean tree = false;
+
+    while (!tree) {
+      for (int b = 0; b < bases; ++b) {
+        lastEdge[b] = b != last && degree[b] > 0 ? random.nextInt(degree[b]) : -1;
+      }
+
+      tree = true;
+
+      for (int b = 0; b < bases && tree; ++b) {
+        if (b == last || degree[b] == 0) {
+          continue;
+        }
+
+        int v = b;
+
+        for (int steps = 0; v != last; ++steps) {
+          if (steps > bases) {
+            tree = false;
+            break;
+          }
+
+          v = edges[v][lastEdge[v]];
+        }
+      }
+    }
+
+    // Move each chosen last edge to the end and shuffle the others
+    for (int b = 0; b < bases; ++b) {
+      int[] e = edges[b];
+
+      if (lastEdge[b] != -1) {
+        swap(e, lastEdge[b], e.length - 1);
+      }
+
+      int m = lastEdge[b] != -1 ? e.length - 1 : e.length;
+
+      for (int i = m - 1; i > 0; --i) {
+        swap(e, i, random.nextInt(i + 1));
+      }
+    }
+
+    byte[] ret = new byte[n];
+
+    int[] used = new int[bases];
+
+    int v = seq[0];
+
+    ret[0] = (byte) v;
+
+    for (int i = 1; i < n; ++i) {
+      v = edges[v][used[v]++];
+
+      ret[i] = (byte) v;
+    }
+
+    return ret;
+  }
+
+  private static void swap(int[] a, int i, int j) {
+    int t = a[i];
+    a[i] = a[j];
+    a[j] = t;
+  }
+}
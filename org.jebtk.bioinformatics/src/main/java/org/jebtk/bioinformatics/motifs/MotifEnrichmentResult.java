@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+/**
+ * How enriched a motif is in a foreground set of regions compared to a
+ * background set.
+ *
+ * @author Antony Holmes
+ */
+public class MotifEnrichmentResult implements Comparable<MotifEnrichmentResult> {
+
+  private final Motif mMotif;
+  private final int mFgRegions;
+  private final int mFgTotal;
+  private final int mBgRegions;
+  private final int mBgTotal;
+  private final long mFgHits;
+  private final long mBgHits;
+  private final double mHyperGP;
+  private final double mBinomialP;
+  private double mFdr = 1;
+
+  public MotifEnrichmentResult(Motif motif, int fgRegions, int fgTotal, int bgRegions, int bgTotal, long fgHits,
+      long bgHits, double hyperGP, double binomialP) {
+    mMotif = motif;
+    mFgRegions = fgRegions;
+    mFgTotal = fgTotal;
+    mBgRegions = bgRegions;
+    mBgTotal = bgTotal;
+    mFgHits = fgHits;
+    mBgHits = bgHits;
+    mHyperGP = hyperGP;
+    mBinomialP = binomialP;
+  }
+
+  public Motif getMotif() {
+    return mMotif;
+  }
+
+  /**
+   * Returns the number of foreground regions with at least one hit.
+   *
+   * @return the fg regions
+   */
+  public int getFgRegions() {
+    return mFgRegions;
+  }
+
+  /**
+   * Returns the number of foreground regions scanned.
+   *
+   * @return the fg total
+   */
+  public int getFgTotal() {
+    return mFgTotal;
+  }
+
+  /**
+   * Returns the number of background regions with at least one hit.
+   *
+   * @return the bg regions
+   */
+  public int getBgRegions() {
+    return mBgRegions;
+  }
+
+  /**
+   * Returns the number of background regions scanned.
+   *
+   * @return the bg total
+   */
+  public int getBgTotal() {
+    return mBgTotal;
+  }
+
+  /**
+   * Returns the total number of hits in the foreground.
+   *
+   * @return the fg hits
+   */
+  public long getFgHits() {
+    return mFgHits;
+  }
+
+  /**
+   * Returns the total number of hits in the background.
+   *
+   * @return the bg hits
+   */
+  public long getBgHits() {
+    return mBgHits;
+  }
+
+  /**
+   * Returns the ratio of the fraction of foreground regions with a hit to the
+   * fraction of background regions with a hit.
+   *
+   * @return the enrichment
+   */
+  public double getEnrichment() {
+    double fg = mFgTotal > 0 ? mFgRegions / (double) mFgTotal : 0;
+    double bg = mBgTotal > 0 ? mBgRegions / (double) mBgTotal : 0;
+
+    return bg > 0 ? fg / bg : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Returns the hypergeometric p-value of seeing at least as many foreground
+   * regions with a hit given the number of regions with a hit overall.
+   *
+   * @return the p-value
+   */
+  public double getHyperGP() {
+    return mHyperGP;
+  }
+
+  /**
+   * Returns the binomial p-value of seeing at least as many hits in the
+   * foreground given the total number of hits and the fraction of bases
+   * scanned that were in the foreground.
+   *
+   * @return the p-value
+   */
+  public double getBinomialP() {
+    return mBinomialP;
+  }
+
+  /**
+   * Returns the Benjamini-Hochberg false discovery rate of the
+   * hypergeometric p-value across all of the motifs tested.
+   *
+   * @return the fdr
+   */
+  public double getFdr() {
+    return mFdr;
+  }
+
+  void setFdr(double fdr) {
+    mFdr = fdr;
+  }
+
+  @Override
+  public int compareTo(MotifEnrichmentResult r) {
+    return Double.compare(mHyperGP, r.mHyperGP);
+  }
+
+  @Override
+  public String toString() {
+    return mMotif.getName() + " " + mFgRegions + "/" + mFgTotal + " " + mBgRegions + "/" + mBgTotal + " "
+        + mHyperGP + " " + mFdr;
+  }
+}
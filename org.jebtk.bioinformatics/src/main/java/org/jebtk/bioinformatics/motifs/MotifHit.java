@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.Strand;
+
+/**
+ * The location of a motif in a genome and how well it scored. Hits keep the
+ * integer score and the matrix that produced it so that the score in bits and
+ * the p-value are derived on demand from the shared tables of the matrix.
+ *
+ * @author Antony Holmes
+ */
+public class MotifHit extends GenomicRegion {
+
+  private static final long serialVersionUID = 1L;
+
+  private final ScoreMatrix mMatrix;
+
+  private final int mScore;
+
+  public MotifHit(ScoreMatrix matrix, Chromosome chr, int start, int end, Strand strand, int score) {
+    super(chr, start, end, strand);
+
+    mMatrix = matrix;
+    mScore = score;
+  }
+
+  public Motif getMotif() {
+    return mMatrix.getMotif();
+  }
+
+  public ScoreMatrix getMatrix() {
+    return mMatrix;
+  }
+
+  /**
+   * Returns the log-odds score of the hit in bits.
+   *
+   * @return the score
+   */
+  public double getScore() {
+    return mMatrix.toBits(mScore);
+  }
+
+  /**
+   * Returns the score of the hit in matrix units.
+   *
+   * @return the raw score
+   */
+  public int getRawScore() {
+    return mScore;
+  }
+
+  /**
+   * Returns the probability of a random sequence scoring at least as well as
+   * the hit.
+   *
+   * @return the p-value
+   */
+  public double getPValue() {
+    return mMatrix.pValue(mScore);
+  }
+
+  @Override
+  public String toString() {
+    return getMotif().getName() + " " + super.toString() + " " + mStrand + " " + getScore();
+  }
+}
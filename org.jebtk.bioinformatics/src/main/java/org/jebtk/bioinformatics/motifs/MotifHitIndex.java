@@ -0,0 +1,313 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.Strand;
+import org.jebtk.core.io.FileUtils;
+
+/**
+ * Precomputed hits of a set of motifs across a genome, written by a
+ * {@code MotifHitIndexWriter}, so that finding the motif sites in a region,
+ * for example to overlap them with peaks, is a binary search rather than a
+ * scan. Each chromosome is a separate file that is memory mapped the first
+ * time it is queried.
+ *
+ * The index directory contains a motifs file listing the motifs and the
+ * p-value used to find their hits, and one file per chromosome laid out as:
+ *
+ * <pre>
+ * int      check (44)
+ * byte     version
+ * int      number of motifs
+ * for each motif:
+ *   long     offset of its hits
+ *   int      number of hits
+ * for each motif, hits sorted by position:
+ *   int      start, with the top bit set for the antisense strand
+ *   short    score in matrix units
+ * </pre>
+ *
+ * @author Antony Holmes
+ */
+public class MotifHitIndex {
+
+  public static final int CHECK = 44;
+  public static final byte VERSION = 1;
+
+  public static final String MOTIFS_FILE = "motifs.mhi";
+
+  public static final String CHR_FILE_EXT = ".hits.mhi";
+
+  static final int HEADER_BYTES = 4 + 1 + 4;
+  static final int MOTIF_HEADER_BYTES = 8 + 4;
+  static final int HIT_BYTES = 4 + 2;
+
+  static final int ANTISENSE_BIT = 0x80000000;
+
+  private static final ByteBuffer NO_HITS = ByteBuffer.allocate(0);
+
+  private final Path mDir;
+
+  private final List<Motif> mMotifs = new ArrayList<Motif>();
+
+  private final Map<String, Integer> mIdMap = new HashMap<String, Integer>();
+
+  private final double mPValue;
+
+  /** Mapped file of each chromosome. */
+  private final Map<Chromosome, ByteBuffer> mBufferMap = new HashMap<Chromosome, ByteBuffer>();
+
+  /**
+   * Open an index.
+   *
+   * @param dir the index directory.
+   * @throws IOException
+   */
+  public MotifHitIndex(Path dir) throws IOException {
+    mDir = dir;
+
+    DataInputStream reader = FileUtils.newDataInputStream(dir.resolve(MOTIFS_FILE));
+
+    try {
+      if (reader.readInt() != CHECK || reader.readByte() != VERSION) {
+        throw new IOException(dir + " is not a current motif hit index.");
+      }
+
+      mPValue = reader.readDouble();
+
+      int n = reader.readInt();
+
+      for (int i = 0; i < n; ++i) {
+        Motif motif = MotifCatalog.readMotif(reader);
+
+        mIdMap.put(motif.getId(), i);
+        mMotifs.add(motif);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Returns the file of a chromosome in an index.
+   *
+   * @param dir the index directory.
+   * @param chr the chromosome
+   * @return the file
+   */
+  public static Path getFile(Path dir, Chromosome chr) {
+    return dir.resolve(chr + CHR_FILE_EXT);
+  }
+
+  /**
+   * Returns the motifs in the index.
+   *
+   * @return the motifs
+   */
+  public List<Motif> getMotifs() {
+    return Collections.unmodifiableList(mMotifs);
+  }
+
+  /**
+   * Returns the indexed motif with a given id.
+   *
+   * @param id the id
+   * @return the motif or null if it is not indexed.
+   */
+  public Motif getMotif(String id) {
+    Integer m = mIdMap.get(id);
+
+    return m != null ? mMotifs.get(m) : null;
+  }
+
+  /**
+   * Returns the p-value threshold of the hits in the index.
+   *
+   * @return the p-value
+   */
+  public double getPValue() {
+    return mPValue;
+  }
+
+  /**
+   * Find the hits of a motif overlapping a region.
+   *
+   * @param motif    the motif
+   * @param region   the region
+   * @param minScore the minimum score of hits in bits.
+   * @return the hits ordered by position.
+   * @throws IOException
+   */
+  public List<MotifHit> find(Motif motif, GenomicRegion region, double minScore) throws IOException {
+    return find(motif.getId(), region, minScore);
+  }
+
+  /**
+   * Find the hits of a motif overlapping a region.
+   *
+   * @param id       the motif id.
+   * @param region   the region
+   * @param minScore the minimum score of hits in bits.
+   * @return the hits ordered by position.
+   * @throws IOException
+   */
+  public List<MotifHit> find(String id, GenomicRegion region, double minScore) throws IOException {
+    List<MotifHit> ret = new ArrayList<MotifHit>();
+
+    Integer m = mIdMap.get(id);
+
+    if (m == null) {
+      return ret;
+    }
+
+    ScoreMatrix matrix = mMotifs.get(m).getScoreMatrix();
+
+    int threshold = matrix.toScore(minScore);
+
+    ByteBuffer buffer = getBuffer(region.mChr);
+
+    if (buffer.capacity() == 0) {
+      return ret;
+    }
+
+    int base = HEADER_BYTES + m * MOTIF_HEADER_BYTES;
+
+    long offset = buffer.getLong(base);
+    int n = buffer.getInt(base + 8);
+
+    int l = matrix.getLength();
+
+    // Hits are indexed by their start so any starting up to a motif width
+    // before the region overlap it
+    int from = region.mStart - l + 1;
+
+    for (int i = lowerBound(buffer, offset, n, from); i < n; ++i) {
+      int p = (int) offset + i * HIT_BYTES;
+
+      int position = buffer.getInt(p);
+      int start = position & ~ANTISENSE_BIT;
+
+      if (start > region.mEnd) {
+        break;
+      }
+
+      int score = buffer.getShort(p + 4);
+
+      if (score >= threshold) {
+        ret.add(new MotifHit(matrix, region.mChr, start, start + l - 1,
+            (position & ANTISENSE_BIT) != 0 ? Strand.ANTISENSE : Strand.SENSE, score));
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the number of hits of a motif in a region.
+   *
+   * @param id       the motif id.
+   * @param region   the region
+   * @param minScore the minimum score of hits in bits.
+   * @return the count
+   * @throws IOException
+   */
+  public int count(String id, GenomicRegion region, double minScore) throws IOException {
+    return find(id, region, minScore).size();
+  }
+
+  /**
+   * Returns the index of the first of n hits starting at or after a
+   * position.
+   */
+  private static int lowerBound(ByteBuffer buffer, long offset, int n, int position) {
+    int low = 0;
+    int high = n;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      int start = buffer.getInt((int) offset + mid * HIT_BYTES) & ~ANTISENSE_BIT;
+
+      if (start < position) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Returns the mapped file of a chromosome, mapping it the first time it is
+   * needed. Buffers are only read with absolute gets so they can be shared
+   * by concurrent queries.
+   */
+  private synchronized ByteBuffer getBuffer(Chromosome chr) throws IOException {
+    ByteBuffer ret = mBufferMap.get(chr);
+
+    if (ret == null) {
+      Path file = getFile(mDir, chr);
+
+      if (FileUtils.exists(file)) {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+        try {
+          ret = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+          channel.close();
+        }
+
+        if (ret.getInt(0) != CHECK || ret.get(4) != VERSION || ret.getInt(5) != mMotifs.size()) {
+          throw new IOException(file + " does not match the motif hit index.");
+        }
+      } else {
+        // Chromosomes that were not indexed have no hits
+        ret = NO_HITS;
+      }
+
+      mBufferMap.put(chr, ret);
+    }
+
+    return ret;
+  }
+}
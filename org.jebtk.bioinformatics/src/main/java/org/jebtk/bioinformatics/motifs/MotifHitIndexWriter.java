@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.SequenceReader;
+import org.jebtk.bioinformatics.genomic.Strand;
+import org.jebtk.core.io.FileUtils;
+import org.jebtk.core.io.PathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans whole chromosomes for a set of motifs and writes the hits to a
+ * {@code MotifHitIndex} so that they can be queried by region without
+ * scanning again. Chromosomes are read and scanned in parallel chunks and the
+ * hits of each motif are kept as packed ints until they are written.
+ *
+ * @author Antony Holmes
+ */
+public class MotifHitIndexWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MotifHitIndexWriter.class);
+
+  /**
+   * Number of bases read and scanned at a time.
+   */
+  public static final int CHUNK_SIZE = 1000000;
+
+  /**
+   * Growable list of hits packed as position and strand followed by score.
+   */
+  private static class HitList {
+    private int[] mData = new int[64];
+    private int mSize = 0;
+
+    public void add(int position, int score) {
+      if (mSize == mData.length) {
+        int[] data = new int[mData.length * 2];
+        System.arraycopy(mData, 0, data, 0, mSize);
+        mData = data;
+      }
+
+      mData[mSize++] = position;
+      mData[mSize++] = score;
+    }
+
+    public int size() {
+      return mSize / 2;
+    }
+  }
+
+  private final Genome mGenome;
+  private final SequenceReader mReader;
+  private final List<Motif> mMotifs;
+  private final double mPValue;
+  private final MotifSetScanner mScanner;
+  private final Map<ScoreMatrix, Integer> mMatrixMap = new IdentityHashMap<ScoreMatrix, Integer>();
+  private final int mMaxLength;
+
+  /**
+   * Create a writer indexing the hits of motifs with a p-value of at most a
+   * threshold.
+   *
+   * @param genome the genome
+   * @param reader the reader
+   * @param motifs the motifs
+   * @param pValue the p-value
+   */
+  public MotifHitIndexWriter(Genome genome, SequenceReader reader, Collection<Motif> motifs, double pValue) {
+    mGenome = genome;
+    mReader = reader;
+    mMotifs = new ArrayList<Motif>(motifs);
+    mPValue = pValue;
+    mScanner = new MotifSetScanner(mMotifs, pValue);
+
+    int max = 0;
+
+    for (int i = 0; i < mMotifs.size(); ++i) {
+      ScoreMatrix matrix = mMotifs.get(i).getScoreMatrix();
+
+      mMatrixMap.put(matrix, i);
+
+      max = Math.max(max, matrix.getLength());
+    }
+
+    mMaxLength = max;
+  }
+
+  /**
+   * Index chromosomes, looking up their sizes in the
+   * {@code ChromosomeService}.
+   *
+   * @param chrs the chromosomes
+   * @param dir  the index directory.
+   * @throws IOException
+   */
+  public void write(Collection<Chromosome> chrs, Path dir) throws IOException {
+    for (Chromosome chr : chrs) {
+      write(chr, ChromosomeService.getInstance().size(mGenome, chr), dir);
+    }
+  }
+
+  /**
+   * Index a chromosome. The motif table of the index is also written so that
+   * the index can be read as soon as any chromosome is complete.
+   *
+   * @param chr  the chromosome
+   * @param size the size of the chromosome
+   * @param dir  the index directory.
+   * @throws IOException
+   */
+  public void write(final Chromosome chr, final int size, Path dir) throws IOException {
+    LOG.info("Indexing motif hits on {}...", chr);
+
+    if (!FileUtils.exists(dir)) {
+      Files.createDirectories(dir);
+    }
+
+    writeMotifs(dir);
+
+    // Batches are chunks of bases. The 0-based exclusive end of a chunk is
+    // also its last 1-based base.
+    List<HitList[]> results = MotifScanner.runBatches(size, CHUNK_SIZE, (c, offset, last) -> {
+      int start = offset + 1;
+
+      // Overlap the next chunk so that hits spanning the boundary are
+      // found, but only keep hits starting in this chunk
+      int end = Math.min(size, last + mMaxLength - 1);
+
+      List<MotifHit> hits = new ArrayList<MotifHit>();
+
+      mScanner.scan(chr, start, MotifScanner.getSequence(mReader, mGenome, new GenomicRegion(chr, start, end)), hits);
+
+      HitList[] lists = newHitLists();
+
+      for (MotifHit hit : hits) {
+        if (hit.mStart > last) {
+          continue;
+        }
+
+        int position = hit.mStart | (hit.getStrand() == Strand.ANTISENSE ? MotifHitIndex.ANTISENSE_BIT : 0);
+
+        lists[mMatrixMap.get(hit.getMatrix())].add(position, hit.getRawScore());
+      }
+
+      return lists;
+    });
+
+    Path file = MotifHitIndex.getFile(dir, chr);
+    Path tmp = file.resolveSibling(PathUtils.getName(file) + ".tmp");
+
+    DataOutputStream writer = FileUtils.newDataOutputStream(tmp);
+
+    try {
+      writer.writeInt(MotifHitIndex.CHECK);
+      writer.writeByte(MotifHitIndex.VERSION);
+      writer.writeInt(mMotifs.size());
+
+      long offset = MotifHitIndex.HEADER_BYTES + mMotifs.size() * MotifHitIndex.MOTIF_HEADER_BYTES;
+
+      for (int m = 0; m < mMotifs.size(); ++m) {
+        int n = 0;
+
+        for (HitList[] lists : results) {
+          n += lists[m].size();
+        }
+
+        writer.writeLong(offset);
+        writer.writeInt(n);
+
+        offset += (long) n * MotifHitIndex.HIT_BYTES;
+      }
+
+      // Chunks are in order and hits within a chunk are in order so the
+      // hits of each motif are written sorted by position
+      for (int m = 0; m < mMotifs.size(); ++m) {
+        for (HitList[] lists : results) {
+          HitList list = lists[m];
+
+          for (int i = 0; i < list.mSize; i += 2) {
+            writer.writeInt(list.mData[i]);
+            writer.writeShort(clampScore(list.mData[i + 1]));
+          }
+        }
+      }
+    } finally {
+      writer.close();
+    }
+
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Write the motifs and p-value of the index.
+   */
+  private void writeMotifs(Path dir) throws IOException {
+    Path file = dir.resolve(MotifHitIndex.MOTIFS_FILE);
+    Path tmp = file.resolveSibling(PathUtils.getName(file) + ".tmp");
+
+    DataOutputStream writer = FileUtils.newDataOutputStream(tmp);
+
+    try {
+      writer.writeInt(MotifHitIndex.CHECK);
+      writer.writeByte(MotifHitIndex.VERSION);
+      writer.writeDouble(mPValue);
+      writer.writeInt(mMotifs.size());
+
+      for (Motif motif : mMotifs) {
+        MotifCatalog.writeMotif(motif, writer);
+      }
+    } finally {
+      writer.close();
+    }
+
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private HitList[] newHitLists() {
+    HitList[] ret = new HitList[mMotifs.size()];
+
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = new HitList();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Scores are stored as shorts, which at the default scale of 100 units per
+   * bit covers any realistic motif.
+   */
+  private static int clampScore(int score) {
+    return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, score));
+  }
+}
@@ -0,0 +1,641 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jebtk.bioinformatics.file.DecimalParser;
+import org.jebtk.core.io.FileUtils;
+import org.jebtk.core.io.Io;
+import org.jebtk.core.io.PathUtils;
+
+/**
+ * Reads motifs from a file one at a time so that large collections can be
+ * filtered or loaded without first holding every motif in memory. Rows of
+ * numbers are parsed in place, without splitting lines into tokens, directly
+ * into the primitive matrix each motif keeps.
+ *
+ * Readers are both iterators and iterables so that they can be used in for
+ * loops. The underlying file is closed once the last motif has been read or
+ * when the reader is closed. Errors reading the file during iteration are
+ * thrown as {@code UncheckedIOException}.
+ *
+ * @author Antony Holmes
+ */
+public abstract class MotifReader implements Iterator<Motif>, Iterable<Motif>, Closeable {
+
+  private final BufferedReader mReader;
+
+  protected final String mDatabase;
+
+  private String mPushBack = null;
+
+  private Motif mNext = null;
+
+  private boolean mDone = false;
+
+  /** Values of the row being parsed, grown as needed. */
+  private double[] mRow = new double[32];
+
+  public MotifReader(BufferedReader reader, String database) {
+    mReader = reader;
+    mDatabase = database;
+  }
+
+  /**
+   * Read the next motif from the file.
+   *
+   * @return the motif or null if there are no more motifs.
+   * @throws IOException
+   */
+  protected abstract Motif readMotif() throws IOException;
+
+  @Override
+  public boolean hasNext() {
+    if (mNext == null && !mDone) {
+      try {
+        mNext = readMotif();
+
+        if (mNext == null) {
+          mDone = true;
+
+          close();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    return mNext != null;
+  }
+
+  @Override
+  public Motif next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    Motif ret = mNext;
+
+    mNext = null;
+
+    return ret;
+  }
+
+  @Override
+  public Iterator<Motif> iterator() {
+    return this;
+  }
+
+  @Override
+  public void close() throws IOException {
+    mDone = true;
+
+    mReader.close();
+  }
+
+  /**
+   * Returns the motifs as a stream. Closing the stream closes the reader.
+   *
+   * @return the stream
+   */
+  public Stream<Motif> stream() {
+    return StreamSupport
+        .stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+        .onClose(() -> {
+          try {
+            close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+  }
+
+  /**
+   * Read all of the remaining motifs and close the reader.
+   *
+   * @return the motifs
+   * @throws IOException
+   */
+  public List<Motif> toList() throws IOException {
+    List<Motif> ret = new ArrayList<Motif>();
+
+    try {
+      while (hasNext()) {
+        ret.add(next());
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the next non empty line.
+   *
+   * @return the line or null at the end of the file.
+   * @throws IOException
+   */
+  protected String nextLine() throws IOException {
+    String line;
+
+    if (mPushBack != null) {
+      line = mPushBack;
+      mPushBack = null;
+    } else {
+      line = mReader.readLine();
+    }
+
+    while (line != null && Io.isEmptyLine(line)) {
+      line = mReader.readLine();
+    }
+
+    return line;
+  }
+
+  /**
+   * Return a line so that it is the next line read.
+   *
+   * @param line the line
+   */
+  protected void pushBack(String line) {
+    mPushBack = line;
+  }
+
+  /**
+   * Read a row of numbers from the next line.
+   *
+   * @return the numbers
+   * @throws IOException if the file ends.
+   */
+  protected double[] nextRow() throws IOException {
+    String line = nextLine();
+
+    if (line == null) {
+      throw new IOException("Motif matrix ends unexpectedly.");
+    }
+
+    return parseRow(line);
+  }
+
+  /**
+   * Parse the numbers of a row separated by white space. Tokens that are not
+   * numbers, such as base labels and the brackets of the newer JASPAR
+   * format, are skipped.
+   *
+   * @param line the line
+   * @return the numbers
+   */
+  protected double[] parseRow(String line) {
+    final int l = line.length();
+
+    int n = 0;
+    int i = 0;
+
+    while (i < l) {
+      char c = line.charAt(i);
+
+      if (isSeparator(c)) {
+        ++i;
+        continue;
+      }
+
+      int end = i + 1;
+
+      while (end < l && !isSeparator(line.charAt(end))) {
+        ++end;
+      }
+
+      double v = DecimalParser.parseDouble(line, i, end);
+
+      if (!Double.isNaN(v)) {
+        if (n == mRow.length) {
+          double[] row = new double[n * 2];
+          System.arraycopy(mRow, 0, row, 0, n);
+          mRow = row;
+        }
+
+        mRow[n++] = v;
+      }
+
+      i = end;
+    }
+
+    double[] ret = new double[n];
+
+    System.arraycopy(mRow, 0, ret, 0, n);
+
+    return ret;
+  }
+
+  private static boolean isSeparator(char c) {
+    return c == ' ' || c == '\t' || c == '[' || c == ']';
+  }
+
+  /**
+   * Convert rows of values, one row per base, into a motif matrix whose
+   * columns sum to one.
+   *
+   * @param rows the values of a, c, g, t and optionally n.
+   * @return the matrix
+   * @throws IOException if the rows differ in length.
+   */
+  protected static double[][] toPwm(double[]... rows) throws IOException {
+    int l = rows[0].length;
+
+    for (double[] row : rows) {
+      if (row.length != l) {
+        throw new IOException("Motif matrix rows must be the same length.");
+      }
+    }
+
+    double[][] pwm = new double[5][l];
+
+    for (int i = 0; i < l; ++i) {
+      double total = 0;
+
+      for (int b = 0; b < rows.length; ++b) {
+        total += rows[b][i];
+      }
+
+      for (int b = 0; b < rows.length; ++b) {
+        pwm[b][i] = total > 0 ? rows[b][i] / total : 0;
+      }
+    }
+
+    return pwm;
+  }
+
+  /**
+   * Read a file of motifs choosing the format from the file name, MEME
+   * format for names containing {@code .meme} and the motif format of
+   * {@code parseMotifs()} otherwise.
+   *
+   * @param file     the file
+   * @param database the database the motifs belong to.
+   * @return the reader
+   * @throws IOException
+   */
+  public static MotifReader open(Path file, String database) throws IOException {
+    if (PathUtils.getName(file).toLowerCase().contains(".meme")) {
+      return meme(file, database);
+    } else {
+      return motifs(file, database);
+    }
+  }
+
+  /**
+   * Read a JASPAR matrix file where each motif has a {@code >id name} header
+   * followed by rows of a, c, g and t counts.
+   *
+   * @param file the file
+   * @return the reader
+   * @throws IOException
+   */
+  public static MotifReader jaspar(Path file) throws IOException {
+    return new JasparReader(FileUtils.newBufferedReader(file));
+  }
+
+  /**
+   * Read a motif file where each motif has a tab separated
+   * {@code >id name gene} header followed by rows of a, c, g and t counts.
+   *
+   * @param file     the file
+   * @param database the database the motifs belong to.
+   * @return the reader
+   * @throws IOException
+   */
+  public static MotifReader motifs(Path file, String database) throws IOException {
+    return motifs(FileUtils.newBufferedReader(file), database);
+  }
+
+  public static MotifReader motifs(BufferedReader reader, String database) {
+    return new MotifsReader(reader, database);
+  }
+
+  /**
+   * Read a pwm file where each motif has a {@code >id} header followed by
+   * rows of a, c, g and t counts.
+   *
+   * @param file the file
+   * @return the reader
+   * @throws IOException
+   */
+  public static MotifReader pwm(Path file) throws IOException {
+    return pwm(FileUtils.newBufferedReader(file));
+  }
+
+  public static MotifReader pwm(BufferedReader reader) {
+    return new PwmReader(reader, 4);
+  }
+
+  /**
+   * Read a pwm file where each motif has a {@code >id} header followed by
+   * labelled rows of a, c, g, t and n counts.
+   *
+   * @param file the file
+   * @return the reader
+   * @throws IOException
+   */
+  public static MotifReader pwm2(Path file) throws IOException {
+    return pwm2(FileUtils.newBufferedReader(file));
+  }
+
+  public static MotifReader pwm2(BufferedReader reader) {
+    return new PwmReader(reader, 5);
+  }
+
+  /**
+   * Read a MEME format file, such as the CIS-BP and JASPAR collections
+   * distributed with the MEME suite.
+   *
+   * @param file the file
+   * @return the reader
+   * @throws IOException
+   */
+  public static MotifReader meme(Path file) throws IOException {
+    return meme(file, null);
+  }
+
+  public static MotifReader meme(Path file, String database) throws IOException {
+    return meme(FileUtils.newBufferedReader(file), database);
+  }
+
+  public static MotifReader meme(BufferedReader reader, String database) {
+    return new MemeReader(reader, database);
+  }
+
+  /**
+   * JASPAR matrix files.
+   */
+  private static class JasparReader extends MotifReader {
+    public JasparReader(BufferedReader reader) {
+      super(reader, null);
+    }
+
+    @Override
+    protected Motif readMotif() throws IOException {
+      String line;
+
+      while ((line = nextLine()) != null) {
+        line = line.trim();
+
+        if (!line.startsWith(">")) {
+          continue;
+        }
+
+        int i = 1;
+
+        while (i < line.length() && !Character.isWhitespace(line.charAt(i))) {
+          ++i;
+        }
+
+        String id = line.substring(1, i);
+        String name = line.substring(i).trim();
+
+        if (name.isEmpty()) {
+          name = id;
+        }
+
+        double[][] pwm = toPwm(nextRow(), nextRow(), nextRow(), nextRow());
+
+        return new Motif(id, name, name, null, pwm);
+      }
+
+      return null;
+    }
+  }
+
+  /**
+   * Motif files with tab separated headers.
+   */
+  private static class MotifsReader extends MotifReader {
+    public MotifsReader(BufferedReader reader, String database) {
+      super(reader, database);
+    }
+
+    @Override
+    protected Motif readMotif() throws IOException {
+      String line = nextLine();
+
+      if (line == null) {
+        return null;
+      }
+
+      line = line.trim().substring(1);
+
+      int t1 = line.indexOf('\t');
+      int t2 = t1 != -1 ? line.indexOf('\t', t1 + 1) : -1;
+
+      String id = t1 != -1 ? line.substring(0, t1) : line;
+      String name = id;
+      String gene = id;
+
+      if (t1 != -1) {
+        name = t2 != -1 ? line.substring(t1 + 1, t2) : line.substring(t1 + 1);
+
+        if (t2 != -1) {
+          int t3 = line.indexOf('\t', t2 + 1);
+
+          gene = t3 != -1 ? line.substring(t2 + 1, t3) : line.substring(t2 + 1);
+        }
+      }
+
+      double[][] pwm = toPwm(nextRow(), nextRow(), nextRow(), nextRow());
+
+      return new Motif(id, name, gene, mDatabase, pwm);
+    }
+  }
+
+  /**
+   * Pwm files with 4 or 5 rows per motif.
+   */
+  private static class PwmReader extends MotifReader {
+    private final int mRows;
+
+    public PwmReader(BufferedReader reader, int rows) {
+      super(reader, null);
+
+      mRows = rows;
+    }
+
+    @Override
+    protected Motif readMotif() throws IOException {
+      String line = nextLine();
+
+      if (line == null) {
+        return null;
+      }
+
+      String id = line.trim().substring(1);
+
+      double[][] rows = new double[mRows][];
+
+      for (int i = 0; i < mRows; ++i) {
+        rows[i] = nextRow();
+      }
+
+      return new Motif(id, id, id, null, toPwm(rows));
+    }
+  }
+
+  /**
+   * MEME format files. Each motif starts with a {@code MOTIF id [name]} line
+   * and its matrix follows a {@code letter-probability matrix:} line as one
+   * row of a, c, g and t probabilities per position.
+   */
+  private static class MemeReader extends MotifReader {
+    public MemeReader(BufferedReader reader, String database) {
+      super(reader, database);
+    }
+
+    @Override
+    protected Motif readMotif() throws IOException {
+      String line;
+
+      String id = null;
+      String name = null;
+
+      while ((line = nextLine()) != null) {
+        line = line.trim();
+
+        if (line.startsWith("MOTIF")) {
+          String[] tokens = line.split("\\s+");
+
+          if (tokens.length < 2) {
+            throw new IOException("MEME motif has no id: " + line);
+          }
+
+          id = tokens[1];
+          name = tokens.length > 2 ? tokens[2] : id;
+        } else if (id != null && line.startsWith("letter-probability matrix")) {
+          int alength = getValue(line, "alength=");
+
+          if (alength != -1 && alength != 4) {
+            throw new IOException("Only DNA MEME motifs are supported: " + line);
+          }
+
+          return new Motif(id, name, name, mDatabase, readMatrix(getValue(line, "w=")));
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Read the rows of a matrix, one per position. If the width is not
+     * known, rows are read until a line that is not four numbers.
+     */
+    private double[][] readMatrix(int w) throws IOException {
+      List<double[]> rows = new ArrayList<double[]>(w != -1 ? w : 32);
+
+      while (w == -1 || rows.size() < w) {
+        String line = nextLine();
+
+        if (line == null) {
+          if (w == -1) {
+            break;
+          }
+
+          throw new IOException("MEME motif matrix ends unexpectedly.");
+        }
+
+        double[] row = parseRow(line);
+
+        if (row.length != 4) {
+          if (w == -1) {
+            pushBack(line);
+            break;
+          }
+
+          throw new IOException("MEME motif matrix rows must have 4 values: " + line);
+        }
+
+        rows.add(row);
+      }
+
+      double[][] pwm = new double[5][rows.size()];
+
+      for (int i = 0; i < rows.size(); ++i) {
+        double[] row = rows.get(i);
+
+        double total = row[0] + row[1] + row[2] + row[3];
+
+        for (int b = 0; b < 4; ++b) {
+          pwm[b][i] = total > 0 ? row[b] / total : 0;
+        }
+      }
+
+      return pwm;
+    }
+
+    /**
+     * Returns the integer following a key such as {@code w=} in a line.
+     *
+     * @return the value or -1 if the key is not present.
+     */
+    private static int getValue(String line, String key) {
+      int i = line.indexOf(key);
+
+      if (i == -1) {
+        return -1;
+      }
+
+      i += key.length();
+
+      while (i < line.length() && line.charAt(i) == ' ') {
+        ++i;
+      }
+
+      int ret = 0;
+      int start = i;
+
+      while (i < line.length() && Character.isDigit(line.charAt(i))) {
+        ret = ret * 10 + (line.charAt(i) - '0');
+        ++i;
+      }
+
+      return i > start ? ret : -1;
+    }
+  }
+}
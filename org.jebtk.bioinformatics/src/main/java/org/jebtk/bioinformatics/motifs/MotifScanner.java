@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.RepeatMaskType;
+import org.jebtk.bioinformatics.genomic.SequenceReader;
+import org.jebtk.bioinformatics.genomic.Strand;
+
+/**
+ * Scans genomic regions for motif hits. Each motif is converted to an integer
+ * {@code ScoreMatrix} and both strands of each region are scored in a single
+ * pass over the indexed sequence, so scanning is a tight loop of array
+ * lookups and additions. Sets of regions are scanned in parallel.
+ *
+ * Sequences are read from any {@code SequenceReader}. Since readers are not
+ * guaranteed to be thread safe, sequences are fetched one at a time and only
+ * the scanning runs concurrently.
+ *
+ * @author Antony Holmes
+ */
+public class MotifScanner {
+
+  /**
+   * Number of regions each parallel task reads and scans.
+   */
+  static final int BATCH_SIZE = 64;
+
+  /**
+   * Scans the sequence of a region.
+   */
+  private interface RegionScanner {
+    void scan(GenomicRegion region, byte[] seq, List<MotifHit> hits);
+  }
+
+  /**
+   * Processes the items from {@code start} (inclusive) to {@code end}
+   * (exclusive) of batch {@code batch}.
+   */
+  interface BatchTask<T> {
+    T run(int batch, int start, int end) throws IOException;
+  }
+
+  private final Genome mGenome;
+
+  private final SequenceReader mReader;
+
+  public MotifScanner(Genome genome, SequenceReader reader) {
+    mGenome = genome;
+    mReader = reader;
+  }
+
+  /**
+   * Find hits scoring at least a given number of bits in a region.
+   *
+   * @param motif    the motif
+   * @param region   the region
+   * @param minScore the minimum score in bits.
+   * @return the hits ordered by position.
+   * @throws IOException
+   */
+  public List<MotifHit> scan(Motif motif, GenomicRegion region, double minScore) throws IOException {
+    ScoreMatrix matrix = motif.getScoreMatrix();
+
+    List<MotifHit> ret = new ArrayList<MotifHit>();
+
+    scan(matrix, region.mChr, region.mStart, getSequence(region), matrix.toScore(minScore), ret);
+
+    return ret;
+  }
+
+  /**
+   * Find hits scoring at least a given number of bits in a set of regions.
+   *
+   * @param motif    the motif
+   * @param regions  the regions
+   * @param minScore the minimum score in bits.
+   * @return the hits ordered by region and then position.
+   * @throws IOException
+   */
+  public List<MotifHit> scan(Motif motif, List<? extends GenomicRegion> regions, double minScore)
+      throws IOException {
+    ScoreMatrix matrix = motif.getScoreMatrix();
+
+    return scan(matrix, regions, matrix.toScore(minScore));
+  }
+
+  /**
+   * Find hits whose probability of occurring by chance at a given position is
+   * at most a p-value.
+   *
+   * @param motif   the motif
+   * @param regions the regions
+   * @param pValue  the p-value
+   * @return the hits ordered by region and then position.
+   * @throws IOException
+   */
+  public List<MotifHit> scanPValue(Motif motif, List<? extends GenomicRegion> regions, double pValue)
+      throws IOException {
+    ScoreMatrix matrix = motif.getScoreMatrix();
+
+    return scan(matrix, regions, matrix.scoreForPValue(pValue));
+  }
+
+  /**
+   * Find hits scoring at least a threshold in matrix units in a set of
+   * regions.
+   *
+   * @param matrix    the matrix
+   * @param regions   the regions
+   * @param threshold the minimum score.
+   * @return the hits ordered by region and then position.
+   * @throws IOException
+   */
+  public List<MotifHit> scan(final ScoreMatrix matrix, final List<? extends GenomicRegion> regions,
+      final int threshold) throws IOException {
+    return scanRegions(regions, (region, seq, hits) -> scan(matrix, region.mChr, region.mStart, seq, threshold, hits));
+  }
+
+  /**
+   * Find hits of a collection of motifs, such as a whole database, whose
+   * probability of occurring by chance at a given position is at most a
+   * p-value. All of the motifs are scanned for in one pass over each region.
+   *
+   * @param motifs  the motifs
+   * @param regions the regions
+   * @param pValue  the p-value
+   * @return the hits ordered by region and then position.
+   * @throws IOException
+   */
+  public List<MotifHit> scanPValue(Collection<Motif> motifs, List<? extends GenomicRegion> regions, double pValue)
+      throws IOException {
+    return scan(new MotifSetScanner(motifs, pValue), regions);
+  }
+
+  /**
+   * Find hits of a set of motifs in a set of regions.
+   *
+   * @param motifs  the motifs
+   * @param regions the regions
+   * @return the hits ordered by region and then position.
+   * @throws IOException
+   */
+  public List<MotifHit> scan(final MotifSetScanner motifs, final List<? extends GenomicRegion> regions)
+      throws IOException {
+    return scanRegions(regions, (region, seq, hits) -> motifs.scan(region.mChr, region.mStart, seq, hits));
+  }
+
+  /**
+   * Scan batches of regions in parallel.
+   */
+  private List<MotifHit> scanRegions(final List<? extends GenomicRegion> regions, final RegionScanner scanner)
+      throws IOException {
+    List<List<MotifHit>> results = runBatches(regions.size(), BATCH_SIZE, (b, start, end) -> {
+      List<MotifHit> hits = new ArrayList<MotifHit>();
+
+      for (int i = start; i < end; ++i) {
+        GenomicRegion region = regions.get(i);
+
+        scanner.scan(region, getSequence(region), hits);
+      }
+
+      return hits;
+    });
+
+    List<MotifHit> ret = new ArrayList<MotifHit>();
+
+    for (List<MotifHit> hits : results) {
+      ret.addAll(hits);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Split {@code size} items into batches and run a task on each batch in
+   * parallel.
+   *
+   * @param size      the number of items
+   * @param batchSize the number of items per batch
+   * @param task      the task
+   * @return the result of each batch, in batch order.
+   * @throws IOException the first exception thrown by any batch.
+   */
+  static <T> List<T> runBatches(final int size, final int batchSize, final BatchTask<T> task) throws IOException {
+    int batches = (size + batchSize - 1) / batchSize;
+
+    final List<T> ret = new ArrayList<T>(Collections.nCopies(batches, (T) null));
+
+    try {
+      IntStream.range(0, batches).parallel().forEach(b -> {
+        try {
+          ret.set(b, task.run(b, b * batchSize, Math.min(size, (b + 1) * batchSize)));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the indexed sequence of a region.
+   *
+   * @param region the region
+   * @return the sequence where a = 0, c = 1, g = 2, t = 3 and n = 4.
+   * @throws IOException
+   */
+  private byte[] getSequence(GenomicRegion region) throws IOException {
+    return getSequence(mReader, mGenome, region);
+  }
+
+  /**
+   * Returns the indexed sequence of a region. Reads are synchronized on the
+   * reader so that it can be shared by parallel scans.
+   *
+   * @param reader the reader
+   * @param genome the genome
+   * @param region the region
+   * @return the sequence where a = 0, c = 1, g = 2, t = 3 and n = 4.
+   * @throws IOException
+   */
+  static byte[] getSequence(SequenceReader reader, Genome genome, GenomicRegion region) throws IOException {
+    synchronized (reader) {
+      return reader.getSequence(genome, region, true, RepeatMaskType.UPPERCASE).getSequence().toIndex();
+    }
+  }
+
+  /**
+   * Scan both strands of an indexed sequence.
+   *
+   * @param matrix    the matrix
+   * @param chr       the chromosome of the sequence.
+   * @param start     the genomic position of the first base.
+   * @param seq       the indexed sequence.
+   * @param threshold the minimum score.
+   * @param ret       hits are added to this list in order of position.
+   */
+  public static void scan(ScoreMatrix matrix, Chromosome chr, int start, byte[] seq, int threshold,
+      List<MotifHit> ret) {
+    final int l = matrix.getLength();
+    final int[] scores = matrix.getScores();
+    final int[] rcScores = matrix.getRcScores();
+    final int n = seq.length - l + 1;
+
+    for (int i = 0; i < n; ++i) {
+      int s = 0;
+      int rs = 0;
+
+      for (int j = 0, k = 0; j < l; ++j, k += ScoreMatrix.BASES) {
+        int b = seq[i + j];
+
+        s += scores[k + b];
+        rs += rcScores[k + b];
+      }
+
+      if (s >= threshold) {
+        ret.add(new MotifHit(matrix, chr, start + i, start + i + l - 1, Strand.SENSE, s));
+      }
+
+      if (rs >= threshold) {
+        ret.add(new MotifHit(matrix, chr, start + i, start + i + l - 1, Strand.ANTISENSE, rs));
+      }
+    }
+  }
+}
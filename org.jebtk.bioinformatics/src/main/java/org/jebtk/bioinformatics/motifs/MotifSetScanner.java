@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Strand;
+
+/**
+ * Scans a sequence for many motifs at once. The sequence is decoded once into
+ * the codes of the k-mers starting at each position, which all motifs share.
+ * Each motif is split into chunks of k positions and the score of every
+ * possible k-mer in each chunk is precomputed, so scoring a window takes one
+ * table lookup per chunk rather than one per base. The best score the
+ * remaining chunks could add is also precomputed so that scoring of a window
+ * stops as soon as it can no longer reach the threshold, which for stringent
+ * thresholds is after the first chunk for most windows.
+ *
+ * Windows containing N are scored base by base using the {@code ScoreMatrix}.
+ *
+ * @author Antony Holmes
+ */
+public class MotifSetScanner {
+
+  /**
+   * Default k-mer size. Each chunk table has 4^k entries, so 5 uses 4 kb per
+   * chunk.
+   */
+  public static final int DEFAULT_K = 5;
+
+  /**
+   * Positions scored per motif before moving to the next so that the k-mer
+   * codes being scanned stay in cache.
+   */
+  private static final int BLOCK_SIZE = 4096;
+
+  private static final Comparator<MotifHit> START_COMPARATOR = new Comparator<MotifHit>() {
+    @Override
+    public int compare(MotifHit h1, MotifHit h2) {
+      return Integer.compare(h1.mStart, h2.mStart);
+    }
+  };
+
+  /**
+   * Chunk tables of one strand of a motif. Chunks are evaluated in order of
+   * decreasing score range since the most variable chunks are the most
+   * likely to show that a window cannot reach the threshold.
+   */
+  private static class ChunkTables {
+    /** Score of each k-mer code of each chunk. */
+    private final int[][] mTables;
+
+    /** Offset of each chunk in the motif. */
+    private final int[] mOffsets;
+
+    /**
+     * Shift to apply to a k-mer code to get the code of a chunk, non zero
+     * for the last chunk if it is shorter than k.
+     */
+    private final int[] mShifts;
+
+    /**
+     * The score a window must have after each chunk to still be able to
+     * reach the threshold with the best possible scores of the remaining
+     * chunks.
+     */
+    private final int[] mNeeded;
+
+    public ChunkTables(int[] scores, int l, int k, int threshold) {
+      final int n = (l + k - 1) / k;
+
+      int[][] tables = new int[n][];
+      int[] max = new int[n];
+      int[] min = new int[n];
+
+      for (int c = 0; c < n; ++c) {
+        int start = c * k;
+        int len = Math.min(k, l - start);
+
+        int[] table = new int[1 << (2 * len)];
+
+        max[c] = Integer.MIN_VALUE;
+        min[c] = Integer.MAX_VALUE;
+
+        for (int x = 0; x < table.length; ++x) {
+          int s = 0;
+
+          for (int j = 0; j < len; ++j) {
+            int b = (x >> (2 * (len - 1 - j))) & 3;
+
+            s += scores[(start + j) * ScoreMatrix.BASES + b];
+          }
+
+          table[x] = s;
+          max[c] = Math.max(max[c], s);
+          min[c] = Math.min(min[c], s);
+        }
+
+        tables[c] = table;
+      }
+
+      Integer[] order = new Integer[n];
+
+      for (int c = 0; c < n; ++c) {
+        order[c] = c;
+      }
+
+      Arrays.sort(order, (c1, c2) -> Integer.compare(max[c2] - min[c2], max[c1] - min[c1]));
+
+      mTables = new int[n][];
+      mOffsets = new int[n];
+      mShifts = new int[n];
+      mNeeded = new int[n];
+
+      int rest = 0;
+
+      for (int i = n - 1; i >= 0; --i) {
+        int c = order[i];
+
+        mTables[i] = tables[c];
+        mOffsets[i] = c * k;
+        mShifts[i] = 2 * (k - Math.min(k, l - c * k));
+        mNeeded[i] = threshold - rest;
+
+        rest += max[c];
+      }
+    }
+  }
+
+  /**
+   * Receives the hits found by a scan.
+   */
+  private interface HitVisitor {
+    void hit(int motif, int offset, Strand strand, int score);
+  }
+
+  /**
+   * A motif and its tables.
+   */
+  private static class MotifTables {
+    private final ScoreMatrix mMatrix;
+    private final int mThreshold;
+    private final ChunkTables mFwd;
+    private final ChunkTables mRc;
+
+    public MotifTables(ScoreMatrix matrix, int threshold, int k) {
+      mMatrix = matrix;
+      mThreshold = threshold;
+      mFwd = new ChunkTables(matrix.getScores(), matrix.getLength(), k, threshold);
+      mRc = new ChunkTables(matrix.getRcScores(), matrix.getLength(), k, threshold);
+    }
+  }
+
+  private final List<MotifTables> mMotifs = new ArrayList<MotifTables>();
+
+  private final int mK;
+
+  /**
+   * Create a scanner reporting hits of each motif with a p-value of at most
+   * a threshold.
+   *
+   * @param motifs the motifs
+   * @param pValue the p-value
+   */
+  public MotifSetScanner(Collection<Motif> motifs, double pValue) {
+    this(DEFAULT_K);
+
+    for (Motif motif : motifs) {
+      ScoreMatrix matrix = motif.getScoreMatrix();
+
+      add(matrix, matrix.scoreForPValue(pValue));
+    }
+  }
+
+  /**
+   * Create an empty scanner.
+   *
+   * @param k the k-mer size of the chunk tables.
+   */
+  public MotifSetScanner(int k) {
+    mK = Math.max(1, Math.min(k, 8));
+  }
+
+  /**
+   * Add a motif to the set.
+   *
+   * @param matrix    the motif matrix.
+   * @param threshold the minimum score of hits in matrix units.
+   * @return the scanner
+   */
+  public MotifSetScanner add(ScoreMatrix matrix, int threshold) {
+    mMotifs.add(new MotifTables(matrix, threshold, mK));
+
+    return this;
+  }
+
+  /**
+   * Returns the number of motifs being scanned for.
+   *
+   * @return the size
+   */
+  public int size() {
+    return mMotifs.size();
+  }
+
+  /**
+   * Scan both strands of an indexed sequence for all of the motifs.
+   *
+   * @param chr   the chromosome of the sequence.
+   * @param start the genomic position of the first base.
+   * @param seq   the sequence where a = 0, c = 1, g = 2, t = 3 and n = 4.
+   * @param ret   hits are added to this list in order of position.
+   */
+  public void scan(final Chromosome chr, final int start, byte[] seq, final List<MotifHit> ret) {
+    int first = ret.size();
+
+    scan(seq, (motif, offset, strand, score) -> {
+      ScoreMatrix matrix = mMotifs.get(motif).mMatrix;
+
+      ret.add(new MotifHit(matrix, chr, start + offset, start + offset + matrix.getLength() - 1, strand, score));
+    });
+
+    // Blocks are scanned motif by motif so put the hits of this sequence
+    // back in position order. The sort is stable so motifs remain in the
+    // order they were added.
+    ret.subList(first, ret.size()).sort(START_COMPARATOR);
+  }
+
+  /**
+   * Count the hits of each motif on both strands of an indexed sequence
+   * without creating them, for example to test motifs for enrichment.
+   *
+   * @param seq    the sequence where a = 0, c = 1, g = 2, t = 3 and n = 4.
+   * @param counts the number of hits of each motif, in the order the motifs
+   *               were added, is added to this array.
+   */
+  public void count(byte[] seq, final int[] counts) {
+    scan(seq, (motif, offset, strand, score) -> ++counts[motif]);
+  }
+
+  private void scan(byte[] seq, HitVisitor visitor) {
+    final int n = seq.length;
+    final int k = mK;
+    final int mask = (1 << (2 * k)) - 1;
+
+    // k-mer codes with the first base in the high bits. Past the end of the
+    // sequence the codes are padded with a so that shorter chunks, which use
+    // the high bits, can share them.
+    int[] codes = new int[n];
+
+    // Number of Ns before each position
+    int[] ns = new int[n + 1];
+
+    int code = 0;
+
+    for (int i = 0; i < n + k - 1; ++i) {
+      int b = i < n ? seq[i] : 0;
+
+      code = ((code << 2) | (b & 3)) & mask;
+
+      if (i >= k - 1) {
+        codes[i - k + 1] = code;
+      }
+
+      if (i < n) {
+        ns[i + 1] = ns[i] + (b == 4 ? 1 : 0);
+      }
+    }
+
+    for (int block = 0; block < n; block += BLOCK_SIZE) {
+      for (int m = 0; m < mMotifs.size(); ++m) {
+        MotifTables motif = mMotifs.get(m);
+
+        int l = motif.mMatrix.getLength();
+        int end = Math.min(block + BLOCK_SIZE, n - l + 1);
+
+        for (int i = block; i < end; ++i) {
+          int s;
+          int rs;
+
+          if (ns[i + l] > ns[i]) {
+            s = motif.mMatrix.score(seq, i);
+            rs = motif.mMatrix.rcScore(seq, i);
+          } else {
+            s = score(motif.mFwd, codes, i);
+            rs = score(motif.mRc, codes, i);
+          }
+
+          if (s >= motif.mThreshold) {
+            visitor.hit(m, i, Strand.SENSE, s);
+          }
+
+          if (rs >= motif.mThreshold) {
+            visitor.hit(m, i, Strand.ANTISENSE, rs);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Score a window using the chunk tables, stopping early if the window
+   * cannot reach the threshold.
+   *
+   * @return the score, or a score below the threshold if the window was
+   *         abandoned.
+   */
+  private static int score(ChunkTables tables, int[] codes, int i) {
+    final int[][] t = tables.mTables;
+    final int[] offsets = tables.mOffsets;
+    final int[] shifts = tables.mShifts;
+    final int[] needed = tables.mNeeded;
+
+    int s = 0;
+
+    for (int c = 0; c < t.length; ++c) {
+      s += t[c][codes[i + offsets[c]] >> shifts[c]];
+
+      if (s < needed[c]) {
+        return Integer.MIN_VALUE;
+      }
+    }
+
+    return s;
+  }
+}
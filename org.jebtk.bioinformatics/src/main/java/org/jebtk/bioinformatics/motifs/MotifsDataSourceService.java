@@ -27,6 +27,7 @@
  */
 package org.jebtk.bioinformatics.motifs;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.jebtk.core.collections.UniqueArrayList;
@@ -103,4 +104,20 @@ public class MotifsDataSourceService extends MotifDataSource {
     // Sort the folders
     root.sortChildren();
   }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.jebtk.bioinformatics.motifs.MotifDataSource#getMotifs()
+   */
+  @Override
+  public List<Motif> getMotifs() throws Exception {
+    List<Motif> ret = new ArrayList<Motif>();
+
+    for (MotifDataSource db : mDbs) {
+      ret.addAll(db.getMotifs());
+    }
+
+    return ret;
+  }
 }
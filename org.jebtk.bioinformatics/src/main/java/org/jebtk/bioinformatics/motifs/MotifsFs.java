@@ -27,37 +27,66 @@
  */
 package org.jebtk.bioinformatics.motifs;
 
+import java.io.IOException;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.jebtk.core.collections.CollectionUtils;
-import org.jebtk.core.collections.DefaultHashMap;
-import org.jebtk.core.collections.EntryCreator;
 import org.jebtk.core.io.FileUtils;
 import org.jebtk.core.io.PathUtils;
-import org.jebtk.core.objectdb.RadixObjectDb;
 import org.jebtk.core.objectdb.RadixObjectNode;
 import org.jebtk.core.tree.TreeNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The class MotifsFile.
  */
 public class MotifsFs extends MotifDataSource implements Comparable<MotifsFs> {
 
+  private static final Logger LOG = LoggerFactory.getLogger(MotifsFs.class);
+
+  /**
+   * Minimum time between checks that the motif files have not changed.
+   */
+  public static final long CHECK_INTERVAL_MS = 5000;
+
   /**
    * The member dir.
    */
   protected Path mDir;
 
+  /**
+   * Where the catalog is saved, or null if it is only kept in memory.
+   */
+  private final Path mCatalogFile;
+
+  private MotifCatalog mCatalog = null;
+
+  private long mLastCheck = 0;
+
   /**
    * Instantiates a new motifs file.
    *
    * @param dir the dir
    */
   public MotifsFs(Path dir) {
+    this(dir, null);
+  }
+
+  /**
+   * Instantiates a new motifs file whose catalog is saved so that the motifs
+   * do not have to be parsed again the next time the application runs.
+   *
+   * @param dir         the dir
+   * @param catalogFile the catalog file, or null to not save the catalog.
+   */
+  public MotifsFs(Path dir, Path catalogFile) {
     mDir = dir;
+    mCatalogFile = catalogFile;
   }
 
   /*
@@ -106,7 +135,7 @@ public class MotifsFs extends MotifDataSource implements Comparable<MotifsFs> {
       boolean caseSensitive) throws Exception {
     // TreeRootNode<Motif> root = new TreeRootNode<Motif>();
 
-    createTreeDir(mDir, root, terms, inList, exactMatch, caseSensitive);
+    createTreeDir(getCatalog(), root, terms, inList, exactMatch, caseSensitive);
 
     // return root;
   }
@@ -114,85 +143,37 @@ public class MotifsFs extends MotifDataSource implements Comparable<MotifsFs> {
   /**
    * Creates the tree dir.
    *
-   * @param root          the root
+   * @param catalog       the catalog
    * @param rootNode      the root node
    * @param terms         the terms
    * @param inList        the in list
    * @param exactMatch    the exact match
    * @param caseSensitive the case sensitive
-   * @return the int
    * @throws Exception the exception
    */
-  private static void createTreeDir(Path root, TreeNode<Motif> rootNode, List<String> terms, boolean inList,
-      boolean exactMatch, boolean caseSensitive) throws Exception {
-    if (!FileUtils.exists(root)) {
-      return;
-    }
-
-    // process dirs first
-
-    List<Path> dirs = FileUtils.lsdir(root);
-
-    // Only create a folder if it has something in it
+  private static void createTreeDir(MotifCatalog catalog, TreeNode<Motif> rootNode, List<String> terms,
+      boolean inList, boolean exactMatch, boolean caseSensitive) throws Exception {
 
     if (terms != null && terms.size() > 0) {
+      Map<String, TreeNode<Motif>> nodeMap = new LinkedHashMap<String, TreeNode<Motif>>();
 
-      // For each dir, create a radix db for searching
-      Map<Path, RadixObjectDb<Motif>> motifMap = DefaultHashMap.create(new EntryCreator<RadixObjectDb<Motif>>() {
-        @Override
-        public RadixObjectDb<Motif> newEntry() {
-          return new RadixObjectDb<Motif>();
-        }
-      });
-
-      Map<Path, TreeNode<Motif>> nodeMap = new HashMap<Path, TreeNode<Motif>>();
-
-      for (Path dir : dirs) {
-        nodeMap.put(dir, new TreeNode<Motif>(PathUtils.getName(dir)));
-
-        if (FileUtils.ls(dir).size() > 0) {
-          List<Path> files = FileUtils.ls(dir);
-
-          for (Path file : files) {
-            if (PathUtils.getName(file).endsWith("motif.gz")) {
-              // Extract all the nodes from the file and add them
-              for (Motif motif : Motif.parseMotifs(file, PathUtils.getName(file.getParent()))) {
-
-                if (caseSensitive) {
-                  motifMap.get(dir).addObject(motif.getName(), motif);
-                  motifMap.get(dir).addObject(motif.getId(), motif);
-                  motifMap.get(dir).addObject(motif.getGene(), motif);
-                } else {
-                  motifMap.get(dir).addObject(motif.getName().toLowerCase(), motif);
-                  motifMap.get(dir).addObject(motif.getId().toLowerCase(), motif);
-                  motifMap.get(dir).addObject(motif.getGene().toLowerCase(), motif);
-                }
-              }
-            }
-          }
-        }
+      for (String db : catalog.getDatabases()) {
+        nodeMap.put(db, new TreeNode<Motif>(db));
       }
 
       for (String term : terms) {
-        String s = caseSensitive ? term : term.toLowerCase();
+        for (String db : catalog.getDatabases()) {
+          RadixObjectNode<Motif> node = catalog.search(db, term, caseSensitive);
 
-        for (Path dir : dirs) {
-          if (motifMap.containsKey(dir)) {
-
-            RadixObjectNode<Motif> db = motifMap.get(dir).getChild(s);
-
-            if (db != null) {
-              for (Motif motif : db) {
-                nodeMap.get(dir).addChild(new TreeNode<Motif>(motif.getName() + " (" + motif.getId() + ")", motif));
-              }
+          if (node != null) {
+            for (Motif motif : node) {
+              nodeMap.get(db).addChild(new TreeNode<Motif>(motif.getName() + " (" + motif.getId() + ")", motif));
             }
           }
         }
       }
 
-      for (Path dir : dirs) {
-        TreeNode<Motif> node = nodeMap.get(dir);
-
+      for (TreeNode<Motif> node : nodeMap.values()) {
         // Only add dir (database) nodes if they have some children
         if (node.getChildCount() > 0) {
           rootNode.addChild(node);
@@ -201,27 +182,140 @@ public class MotifsFs extends MotifDataSource implements Comparable<MotifsFs> {
     } else {
       // Add all nodes if there are no search terms.
 
-      for (Path dir : dirs) {
-        if (FileUtils.ls(dir).size() > 0) {
-          TreeNode<Motif> node = new TreeNode<Motif>(PathUtils.getName(dir));
+      for (String db : catalog.getDatabases()) {
+        TreeNode<Motif> node = new TreeNode<Motif>(db);
 
-          List<Path> files = FileUtils.ls(dir);
+        for (Motif motif : catalog.getMotifs(db)) {
+          node.addChild(new TreeNode<Motif>(motif.getName() + " (" + motif.getId() + ")", motif));
+        }
 
-          for (Path file : files) {
-            if (PathUtils.getName(file).endsWith("motif.gz")) {
-              // Extract all the nodes from the file and add them
-              for (Motif motif : CollectionUtils.sort(Motif.parseMotifs(file, PathUtils.getName(file.getParent())))) {
-                node.addChild(new TreeNode<Motif>(motif.getName() + " (" + motif.getId() + ")", motif));
-              }
-            }
-          }
+        if (node.getChildCount() > 0) {
+          rootNode.addChild(node);
+        }
+      }
+    }
+  }
 
-          if (node.getChildCount() > 0) {
-            rootNode.addChild(node);
-          }
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.jebtk.bioinformatics.motifs.MotifDataSource#getMotifs()
+   */
+  @Override
+  public List<Motif> getMotifs() throws Exception {
+    MotifCatalog catalog = getCatalog();
+
+    List<Motif> ret = new ArrayList<Motif>();
+
+    for (String db : catalog.getDatabases()) {
+      ret.addAll(catalog.getMotifs(db));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the catalog of the motifs in the directory. The catalog is built
+   * the first time it is needed, from the saved catalog if there is one and it
+   * is up to date, and afterwards only rebuilt if the motif files change.
+   * Changes are checked for at most once every {@code CHECK_INTERVAL_MS} so
+   * that repeated searches, such as one per keystroke, do not touch the file
+   * system.
+   *
+   * @return the catalog
+   * @throws Exception the exception
+   */
+  public synchronized MotifCatalog getCatalog() throws Exception {
+    long time = System.currentTimeMillis();
+
+    if (mCatalog != null && time - mLastCheck < CHECK_INTERVAL_MS) {
+      return mCatalog;
+    }
+
+    mLastCheck = time;
+
+    List<Path> files = listFiles();
+
+    if (mCatalog != null && mCatalog.isValid(files)) {
+      return mCatalog;
+    }
+
+    if (mCatalog == null && mCatalogFile != null) {
+      try {
+        MotifCatalog catalog = MotifCatalog.read(mCatalogFile);
+
+        if (catalog != null && catalog.isValid(files)) {
+          mCatalog = catalog;
+
+          return mCatalog;
         }
+      } catch (IOException | RuntimeException e) {
+        // A damaged catalog is simply rebuilt
+        LOG.warn("Rebuilding motif catalog {}: {}", mCatalogFile, e.toString());
       }
     }
+
+    mCatalog = new MotifCatalog(MotifCatalog.getTimes(files), parseMotifs(files));
+
+    if (mCatalogFile != null) {
+      try {
+        mCatalog.write(mCatalogFile);
+      } catch (IOException e) {
+        LOG.warn("Could not save motif catalog {}: {}", mCatalogFile, e.toString());
+      }
+    }
+
+    return mCatalog;
+  }
+
+  /**
+   * Returns the motif files in the sub directories of the directory, one sub
+   * directory per database.
+   *
+   * @return the files
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  protected List<Path> listFiles() throws IOException {
+    List<Path> ret = new ArrayList<Path>();
+
+    if (!FileUtils.exists(mDir)) {
+      return ret;
+    }
+
+    for (Path dir : FileUtils.lsdir(mDir)) {
+      for (Path file : FileUtils.ls(dir)) {
+        String name = PathUtils.getName(file);
+
+        if (name.endsWith("motif.gz") || name.endsWith(".meme") || name.endsWith(".meme.gz")) {
+          ret.add(file);
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Parse motif files into the motifs of each database.
+   *
+   * @param files the files
+   * @return the motifs of each database
+   * @throws Exception the exception
+   */
+  protected Map<String, List<Motif>> parseMotifs(List<Path> files) throws Exception {
+    Map<String, List<Motif>> ret = new LinkedHashMap<String, List<Motif>>();
+
+    for (Path file : files) {
+      String db = PathUtils.getName(file.getParent());
+
+      if (!ret.containsKey(db)) {
+        ret.put(db, new ArrayList<Motif>());
+      }
+
+      ret.get(db).addAll(CollectionUtils.sort(MotifReader.open(file, db).toList()));
+    }
+
+    return ret;
   }
 
   protected static void filter(Motifs motifs, TreeNode<Motif> rootNode, List<String> terms, boolean inList,
@@ -30,7 +30,10 @@ package org.jebtk.bioinformatics.motifs;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -56,6 +59,16 @@ public class MotifsXmlFs extends MotifsFs {
     super(dir);
   }
 
+  /**
+   * Instantiates a new motifs file whose catalog is saved.
+   *
+   * @param dir         the dir
+   * @param catalogFile the catalog file, or null to not save the catalog.
+   */
+  public MotifsXmlFs(Path dir, Path catalogFile) {
+    super(dir, catalogFile);
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -80,42 +93,57 @@ public class MotifsXmlFs extends MotifsFs {
   @Override
   public void createTree(TreeNode<Motif> root, List<String> terms, boolean inList, boolean exactMatch,
       boolean caseSensitive) throws Exception {
-    // TreeRootNode<Motif> root = new TreeRootNode<Motif>();
-
-    createTreeDir(mDir, root, terms, inList, exactMatch, caseSensitive);
+    MotifCatalog catalog = getCatalog();
 
-    // return root;
+    for (String db : catalog.getDatabases()) {
+      filter(new Motifs(db, catalog.getMotifs(db)), root, terms, inList, exactMatch, caseSensitive);
+    }
   }
 
-  /**
-   * Creates the tree dir.
-   *
-   * @param root          the root
-   * @param rootNode      the root node
-   * @param terms         the terms
-   * @param inList        the in list
-   * @param exactMatch    the exact match
-   * @param caseSensitive the case sensitive
-   * @return the int
-   * @throws Exception the exception
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.jebtk.bioinformatics.motifs.MotifsFs#listFiles()
    */
-  private static void createTreeDir(Path root, TreeNode<Motif> rootNode, List<String> terms, boolean inList,
-      boolean exactMatch, boolean caseSensitive) throws Exception {
-    if (!FileUtils.exists(root)) {
-      return;
-    }
+  @Override
+  protected List<Path> listFiles() throws IOException {
+    List<Path> ret = new ArrayList<Path>();
 
-    List<Path> files = FileUtils.ls(root, false, true);
+    if (!FileUtils.exists(mDir)) {
+      return ret;
+    }
 
-    for (Path file : files) {
-      if (!PathUtils.getName(file).endsWith("xml.gz")) {
-        continue;
+    for (Path file : FileUtils.ls(mDir, false, true)) {
+      if (PathUtils.getName(file).endsWith("xml.gz")) {
+        ret.add(file);
       }
+    }
+
+    return ret;
+  }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.jebtk.bioinformatics.motifs.MotifsFs#parseMotifs(java.util.List)
+   */
+  @Override
+  protected Map<String, List<Motif>> parseMotifs(List<Path> files) throws Exception {
+    Map<String, List<Motif>> ret = new LinkedHashMap<String, List<Motif>>();
+
+    for (Path file : files) {
       Motifs motifs = parseMotifXmlGz(file);
 
-      filter(motifs, rootNode, terms, inList, exactMatch, caseSensitive);
+      if (!ret.containsKey(motifs.getName())) {
+        ret.put(motifs.getName(), new ArrayList<Motif>());
+      }
+
+      for (Motif motif : motifs) {
+        ret.get(motifs.getName()).add(motif);
+      }
     }
+
+    return ret;
   }
 
   /**
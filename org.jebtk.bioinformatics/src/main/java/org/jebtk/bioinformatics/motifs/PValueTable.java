@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+/**
+ * Exact p-values of the scores of a {@code ScoreMatrix}. The probability of
+ * each score in a random sequence drawn from the background is calculated
+ * once by dynamic programming over the columns of the matrix and summed into
+ * a tail table, so that the p-value of any score is a single array lookup and
+ * the score for a p-value is a binary search of the table.
+ *
+ * Tables are immutable and are normally obtained from
+ * {@code ScoreMatrix.getPValues()}, which builds them on first use.
+ *
+ * @author Antony Holmes
+ */
+public class PValueTable {
+
+  private final int mMinScore;
+
+  /**
+   * mTail[i] is the probability of a score of at least min score + i. The
+   * table has an extra trailing 0 for scores above the maximum.
+   */
+  private final double[] mTail;
+
+  /**
+   * Create the table of a matrix.
+   *
+   * @param matrix the matrix
+   */
+  public PValueTable(ScoreMatrix matrix) {
+    this(matrix.getMinScore(), matrix.distribution());
+  }
+
+  /**
+   * Create a table from a score distribution.
+   *
+   * @param minScore the score of the first element of the distribution.
+   * @param dist     the probability of each score from the minimum score.
+   */
+  public PValueTable(int minScore, double[] dist) {
+    mMinScore = minScore;
+    mTail = new double[dist.length + 1];
+
+    // Sum from the highest score so that the small tail probabilities, which
+    // are the ones of interest, do not lose precision to the large ones
+    for (int i = dist.length - 1; i >= 0; --i) {
+      mTail[i] = Math.min(1, mTail[i + 1] + dist[i]);
+    }
+  }
+
+  public int getMinScore() {
+    return mMinScore;
+  }
+
+  public int getMaxScore() {
+    return mMinScore + mTail.length - 2;
+  }
+
+  /**
+   * Returns the probability of a random sequence scoring at least a given
+   * score.
+   *
+   * @param score a score in matrix units.
+   * @return the p-value
+   */
+  public double pValue(int score) {
+    int i = score - mMinScore;
+
+    if (i <= 0) {
+      return 1;
+    } else if (i >= mTail.length) {
+      return 0;
+    } else {
+      return mTail[i];
+    }
+  }
+
+  /**
+   * Returns the lowest score whose probability of being equalled or exceeded
+   * by chance is at most a given p-value. If no score is that unlikely, the
+   * returned score is one more than the maximum score so that nothing can
+   * match it.
+   *
+   * @param pValue the p-value
+   * @return the score threshold
+   */
+  public int scoreForPValue(double pValue) {
+    // The tail decreases with score so find the first index at or below
+    // the p-value
+    int low = 0;
+    int high = mTail.length - 1;
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+
+      if (mTail[mid] <= pValue) {
+        high = mid;
+      } else {
+        low = mid + 1;
+      }
+    }
+
+    return mMinScore + low;
+  }
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.motifs;
+
+/**
+ * Log-odds scoring matrix of a motif scaled to integers so that scanning only
+ * needs integer table lookups and additions. Scores are log2 odds of the motif
+ * frequencies against a background multiplied by a scale factor, so with the
+ * default scale of 100 one unit is 0.01 bits.
+ *
+ * Scores are stored flattened as {@code scores[position * 5 + base]} using
+ * the base indices of {@code Sequence.baseToIndex()}, a = 0, c = 1, g = 2,
+ * t = 3 and n = 4. N is given the lowest score of its column so that it
+ * never contributes to a hit. A reverse complement matrix is stored alongside
+ * so that scanning the forward sequence with it finds hits on the reverse
+ * strand.
+ *
+ * @author Antony Holmes
+ */
+public class ScoreMatrix {
+
+  public static final int BASES = 5;
+
+  public static final double DEFAULT_SCALE = 100;
+
+  public static final double DEFAULT_PSEUDOCOUNT = 0.01;
+
+  public static final double[] UNIFORM_BG = { 0.25, 0.25, 0.25, 0.25 };
+
+  private final Motif mMotif;
+  private final int mLength;
+  private final int[] mScores;
+  private final int[] mRcScores;
+  private final double mScale;
+  private final double[] mBg;
+  private final int mMinScore;
+  private final int mMaxScore;
+
+  /** Built on first use since only p-value based scans need it. */
+  private volatile PValueTable mPValues = null;
+
+  /**
+   * Create a matrix using a uniform background.
+   *
+   * @param motif the motif
+   */
+  public ScoreMatrix(Motif motif) {
+    this(motif, UNIFORM_BG, DEFAULT_PSEUDOCOUNT, DEFAULT_SCALE);
+  }
+
+  /**
+   * Create a matrix.
+   *
+   * @param motif       the motif.
+   * @param bg          the background frequencies of a, c, g and t.
+   * @param pseudocount added to each frequency to avoid log(0).
+   * @param scale       score units per bit.
+   */
+  public ScoreMatrix(Motif motif, double[] bg, double pseudocount, double scale) {
+    mMotif = motif;
+    mBg = bg.clone();
+    mScale = scale;
+
+    double[][] pwm = motif.getPwm();
+
+    mLength = pwm[0].length;
+    mScores = new int[mLength * BASES];
+    mRcScores = new int[mLength * BASES];
+
+    int min = 0;
+    int max = 0;
+
+    for (int i = 0; i < mLength; ++i) {
+      // Columns may be counts rather than frequencies so normalize them
+      double total = 0;
+
+      for (int b = 0; b < 4; ++b) {
+        total += pwm[b][i];
+      }
+
+      int colMin = Integer.MAX_VALUE;
+      int colMax = Integer.MIN_VALUE;
+
+      for (int b = 0; b < 4; ++b) {
+        double p = total > 0 ? pwm[b][i] / total : 0.25;
+
+        p = (p + pseudocount) / (1 + 4 * pseudocount);
+
+        int s = (int) Math.round(log2(p / mBg[b]) * scale);
+
+        mScores[i * BASES + b] = s;
+
+        colMin = Math.min(colMin, s);
+        colMax = Math.max(colMax, s);
+      }
+
+      mScores[i * BASES + 4] = colMin;
+
+      min += colMin;
+      max += colMax;
+    }
+
+    // The reverse complement reads the motif backwards with a <-> t and
+    // c <-> g
+    for (int i = 0; i < mLength; ++i) {
+      int j = mLength - 1 - i;
+
+      for (int b = 0; b < 4; ++b) {
+        mRcScores[i * BASES + b] = mScores[j * BASES + 3 - b];
+      }
+
+      mRcScores[i * BASES + 4] = mScores[j * BASES + 4];
+    }
+
+    mMinScore = min;
+    mMaxScore = max;
+  }
+
+  public Motif getMotif() {
+    return mMotif;
+  }
+
+  /**
+   * Returns the width of the motif.
+   *
+   * @return the length
+   */
+  public int getLength() {
+    return mLength;
+  }
+
+  /**
+   * Returns the forward strand scores.
+   *
+   * @return the scores
+   */
+  public int[] getScores() {
+    return mScores;
+  }
+
+  /**
+   * Returns the scores of the reverse complement of the motif.
+   *
+   * @return the rc scores
+   */
+  public int[] getRcScores() {
+    return mRcScores;
+  }
+
+  public double getScale() {
+    return mScale;
+  }
+
+  /**
+   * Returns the background frequency of a base.
+   *
+   * @param base a base index 0-3.
+   * @return the bg
+   */
+  public double getBg(int base) {
+    return mBg[base];
+  }
+
+  public int getMinScore() {
+    return mMinScore;
+  }
+
+  public int getMaxScore() {
+    return mMaxScore;
+  }
+
+  /**
+   * Score the motif on the forward strand at a position in an indexed
+   * sequence.
+   *
+   * @param seq    the sequence
+   * @param offset the position
+   * @return the score
+   */
+  public int score(byte[] seq, int offset) {
+    return score(mScores, seq, offset);
+  }
+
+  /**
+   * Score the motif on the reverse strand at a position in an indexed
+   * sequence.
+   *
+   * @param seq    the sequence
+   * @param offset the position
+   * @return the score
+   */
+  public int rcScore(byte[] seq, int offset) {
+    return score(mRcScores, seq, offset);
+  }
+
+  private int score(int[] scores, byte[] seq, int offset) {
+    int s = 0;
+
+    for (int i = 0; i < mLength; ++i) {
+      s += scores[i * BASES + seq[offset + i]];
+    }
+
+    return s;
+  }
+
+  /**
+   * Convert a score in bits to matrix units.
+   *
+   * @param bits the bits
+   * @return the score
+   */
+  public int toScore(double bits) {
+    return (int) Math.ceil(bits * mScale);
+  }
+
+  /**
+   * Convert a matrix score to bits.
+   *
+   * @param score the score
+   * @return the bits
+   */
+  public double toBits(int score) {
+    return score / mScale;
+  }
+
+  /**
+   * Returns the score a fraction of the way between the minimum and maximum
+   * scores, for example 0.8 for hits scoring at least 80% of the best
+   * possible score.
+   *
+   * @param f the fraction
+   * @return the score
+   */
+  public int relativeScore(double f) {
+    return mMinScore + (int) Math.ceil(f * (mMaxScore - mMinScore));
+  }
+
+  /**
+   * Returns the probability of each score from the minimum to the maximum
+   * score, i.e. element i is the probability of score {@code getMinScore() + i}
+   * occurring in a random sequence drawn from the background. The
+   * distribution is calculated exactly by convolving the columns of the
+   * matrix.
+   *
+   * @return the distribution
+   */
+  public double[] distribution() {
+    double[] dist = new double[] { 1 };
+
+    for (int i = 0; i < mLength; ++i) {
+      int colMin = mScores[i * BASES + 4];
+      int colMax = colMin;
+
+      for (int b = 0; b < 4; ++b) {
+        colMax = Math.max(colMax, mScores[i * BASES + b]);
+      }
+
+      double[] next = new double[dist.length + colMax - colMin];
+
+      for (int b = 0; b < 4; ++b) {
+        int shift = mScores[i * BASES + b] - colMin;
+        double p = mBg[b];
+
+        for (int s = 0; s < dist.length; ++s) {
+          next[s + shift] += dist[s] * p;
+        }
+      }
+
+      dist = next;
+    }
+
+    return dist;
+  }
+
+  /**
+   * Returns the p-value table of the matrix. The table is calculated once and
+   * then shared by all callers.
+   *
+   * @return the p-values
+   */
+  public PValueTable getPValues() {
+    PValueTable ret = mPValues;
+
+    if (ret == null) {
+      // Tables are immutable so a race only costs building one twice
+      ret = new PValueTable(this);
+
+      mPValues = ret;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the probability of a random sequence scoring at least a given
+   * score.
+   *
+   * @param score a score in matrix units.
+   * @return the p-value
+   */
+  public double pValue(int score) {
+    return getPValues().pValue(score);
+  }
+
+  /**
+   * Returns the lowest score whose probability of being equalled or exceeded
+   * by chance is at most a given p-value.
+   *
+   * @param pValue the p-value
+   * @return the score threshold
+   */
+  public int scoreForPValue(double pValue) {
+    return getPValues().scoreForPValue(pValue);
+  }
+
+  private static double log2(double x) {
+    return Math.log(x) / Math.log(2);
+  }
+}
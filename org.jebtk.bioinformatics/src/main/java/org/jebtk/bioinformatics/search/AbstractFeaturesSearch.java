@@ -30,11 +30,11 @@ package org.jebtk.bioinformatics.search;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 import org.jebtk.bioinformatics.Bounds;
 import org.jebtk.bioinformatics.genomic.Chromosome;
@@ -46,9 +46,11 @@ import org.jebtk.bioinformatics.genomic.GenomicRegion;
 public abstract class AbstractFeaturesSearch {
 
   /**
-   * The feature by name.
+   * The feature by name, or null if the features are not cached. The map is
+   * replaced rather than modified once it has been published so that searches
+   * never see a partially loaded or freed map.
    */
-  protected Map<String, Feature> mFeatureByName = new HashMap<String, Feature>();
+  protected volatile Map<String, Feature> mFeatureByName = null;
 
   /**
    * The member name.
@@ -60,6 +62,11 @@ public abstract class AbstractFeaturesSearch {
    */
   private String mDescription;
 
+  /**
+   * The server the track is registered with, if any.
+   */
+  private volatile FeaturesServer mServer = null;
+
   /**
    * Instantiates a new abstract features search.
    *
@@ -228,15 +235,7 @@ public abstract class AbstractFeaturesSearch {
    * @return the feature
    */
   public final Feature getFeature(String name) {
-    if (mFeatureByName.size() == 0) {
-      cacheFeatures();
-    }
-
-    if (mFeatureByName.containsKey(name)) {
-      return mFeatureByName.get(name);
-    }
-
-    return null;
+    return getCached(() -> mFeatureByName).get(name);
   }
 
   /**
@@ -248,22 +247,38 @@ public abstract class AbstractFeaturesSearch {
   public List<Feature> getFeatures(String s) {
     List<Feature> features = new ArrayList<Feature>();
 
-    for (String name : this.mFeatureByName.keySet()) {
+    Map<String, Feature> featureByName = mFeatureByName;
+
+    if (featureByName == null) {
+      return features;
+    }
+
+    for (String name : featureByName.keySet()) {
       if (name.toLowerCase().indexOf(s) != -1) {
-        features.add(this.mFeatureByName.get(name));
+        features.add(featureByName.get(name));
       }
     }
 
     return features;
   }
 
+  /**
+   * Returns true if the features have been cached in memory. A track without
+   * features is cached once it has been read.
+   *
+   * @return true if the features are cached.
+   */
+  public boolean isCached() {
+    return mFeatureByName != null;
+  }
+
   /**
    * Frees cached items from memory.
    */
   public void freeMemory() {
     System.out.println("Unloading " + this.mName);
 
-    mFeatureByName.clear();
+    mFeatureByName = null;
   }
 
   /**
@@ -271,6 +286,55 @@ public abstract class AbstractFeaturesSearch {
    */
   public abstract void cacheFeatures();
 
+  /**
+   * Called at the start of each search to cache the features if they are
+   * missing. Tracks registered with a server are loaded through it so that
+   * they are counted against its memory budget, even if they were previously
+   * unloaded by it, and so that each search marks the track as recently used.
+   */
+  protected final void autoCacheFeatures() {
+    FeaturesServer server = mServer;
+
+    if (server != null) {
+      server.load(this);
+    } else if (!isCached()) {
+      cacheFeatures();
+    }
+  }
+
+  /**
+   * Returns a snapshot of the cached features for a search, caching them if
+   * necessary. Since a server may unload the track between it being loaded
+   * and the snapshot being taken, the track is reloaded until a snapshot is
+   * available. Searches should only use the returned snapshot so that the
+   * track being freed by another thread does not affect them.
+   *
+   * @param <T>      the snapshot type
+   * @param snapshot returns the current snapshot or null if the features are
+   *                 not cached.
+   * @return the snapshot
+   */
+  protected final <T> T getCached(Supplier<T> snapshot) {
+    T features;
+
+    do {
+      autoCacheFeatures();
+
+      features = snapshot.get();
+    } while (features == null);
+
+    return features;
+  }
+
+  /**
+   * Register the track with the server that manages its memory.
+   *
+   * @param server the server
+   */
+  void setServer(FeaturesServer server) {
+    mServer = server;
+  }
+
   /**
    * Gets the features.
    *
@@ -0,0 +1,337 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.search;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.core.io.FileUtils;
+import org.jebtk.core.io.PathUtils;
+
+/**
+ * Reads and writes the binary version of the common region bins used by
+ * {@link FeaturesCommonRegionBinarySearch}. The file is memory mapped on
+ * reading so that a track can be loaded without tokenizing text. The size and
+ * modification time of the text files the bins were converted from are
+ * recorded so that a binary file is not used once they change.
+ *
+ * The layout is:
+ *
+ * <pre>
+ * int      check (42)
+ * byte     version
+ * int      number of source files
+ * for each source file:
+ *   long     size
+ *   long     last modified time in ms
+ * int      number of chromosomes
+ *
+ * for each chromosome:
+ *   varchar  chr name
+ *   int      number of bins
+ *   int[]    bin start locations (sorted)
+ *   int      number of features
+ *   for each feature:
+ *     varchar  name
+ *     int      start
+ *     int      end
+ *     int      first bin index
+ *     int      number of bins the feature occupies
+ * </pre>
+ *
+ * Features always occupy a contiguous run of bins so only the first bin and
+ * the run length need to be stored. A varchar is an unsigned short byte count
+ * followed by UTF-8 bytes.
+ *
+ * @author Antony Holmes
+ */
+public class FeatureBinsFile {
+
+  /**
+   * The constant BIN_FILE_ENDING.
+   */
+  public static final String BIN_FILE_ENDING = "_bins.fcb";
+
+  public static final int CHECK = 42;
+  public static final byte VERSION = 2;
+
+  public static final int MAX_VARCHAR_LENGTH = 65535;
+
+  private FeatureBinsFile() {
+    // Do nothing
+  }
+
+  /**
+   * Returns the binary bins file associated with a file prefix.
+   *
+   * @param filePrefix The track file prefix.
+   * @return The path of the binary file.
+   */
+  public static Path getFile(String filePrefix) {
+    return PathUtils.getPath(filePrefix + BIN_FILE_ENDING);
+  }
+
+  /**
+   * Write the bins of a track to a binary file.
+   *
+   * @param bins    The bins of each chromosome, sorted by start.
+   * @param file    The output file.
+   * @param sources The files the bins were created from.
+   * @throws IOException
+   */
+  public static void write(Map<Chromosome, List<FeatureBin>> bins, Path file, Path... sources) throws IOException {
+    byte[] buffer = new byte[MAX_VARCHAR_LENGTH];
+
+    DataOutputStream writer = FileUtils.newDataOutputStream(file);
+
+    try {
+      writer.writeInt(CHECK);
+      writer.writeByte(VERSION);
+
+      writer.writeInt(sources.length);
+
+      for (Path source : sources) {
+        long[] stamp = stamp(source);
+
+        writer.writeLong(stamp[0]);
+        writer.writeLong(stamp[1]);
+      }
+
+      writer.writeInt(bins.size());
+
+      for (Entry<Chromosome, List<FeatureBin>> item : bins.entrySet()) {
+        List<FeatureBin> chrBins = item.getValue();
+
+        writeVarchar(item.getKey().toString(), buffer, writer);
+
+        writer.writeInt(chrBins.size());
+
+        for (FeatureBin bin : chrBins) {
+          writer.writeInt(bin.getStart());
+        }
+
+        // Features are repeated in every bin they overlap so work out
+        // the run of bins each occupies. Bins are processed in order so
+        // the first time we see a feature is its first bin.
+        Map<Feature, int[]> runs = new IdentityHashMap<Feature, int[]>();
+        List<Feature> features = new ArrayList<Feature>();
+
+        for (int i = 0; i < chrBins.size(); ++i) {
+          for (Feature feature : chrBins.get(i)) {
+            int[] run = runs.get(feature);
+
+            if (run == null) {
+              runs.put(feature, new int[] { i, 1 });
+              features.add(feature);
+            } else {
+              ++run[1];
+            }
+          }
+        }
+
+        writer.writeInt(features.size());
+
+        for (Feature feature : features) {
+          int[] run = runs.get(feature);
+
+          writeVarchar(feature.getName(), buffer, writer);
+          writer.writeInt(feature.getStart());
+          writer.writeInt(feature.getEnd());
+          writer.writeInt(run[0]);
+          writer.writeInt(run[1]);
+        }
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Load a binary bins file.
+   *
+   * @param file    The binary file.
+   * @param bins    Bins will be added to this map.
+   * @param byName  Features will be indexed by name in this map.
+   * @param sources The files the bins were created from. If any has changed
+   *                since the binary file was written, the file is rejected.
+   * @return The number of feature to bin assignments loaded.
+   * @throws IOException if the file cannot be read, is corrupt or is out of
+   *                     date. The maps may have been partially filled.
+   */
+  public static int read(Path file, Map<Chromosome, List<FeatureBin>> bins, Map<String, Feature> byName,
+      Path... sources) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      return read(file, buffer, bins, byName, sources);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+      throw new IOException(file + " is corrupt.", e);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static int read(Path file, ByteBuffer buffer, Map<Chromosome, List<FeatureBin>> bins,
+      Map<String, Feature> byName, Path... sources) throws IOException {
+    if (buffer.getInt() != CHECK) {
+      throw new IOException(file + " is not a feature bins file.");
+    }
+
+    int version = buffer.get();
+
+    if (version != VERSION) {
+      throw new IOException(file + " has unsupported version " + version + ".");
+    }
+
+    if (buffer.getInt() != sources.length) {
+      throw new IOException(file + " is out of date.");
+    }
+
+    for (Path source : sources) {
+      long[] stamp = stamp(source);
+
+      if (buffer.getLong() != stamp[0] || buffer.getLong() != stamp[1]) {
+        throw new IOException(file + " is older than " + source + ".");
+      }
+    }
+
+    int size = 0;
+
+    byte[] chars = new byte[MAX_VARCHAR_LENGTH];
+
+    int chrCount = buffer.getInt();
+
+    for (int c = 0; c < chrCount; ++c) {
+      Chromosome chr = ChromosomeService.getInstance().guessChr(file, readVarchar(buffer, chars));
+
+      int binCount = buffer.getInt();
+
+      List<FeatureBin> chrBins = new ArrayList<FeatureBin>(binCount);
+
+      for (int i = 0; i < binCount; ++i) {
+        chrBins.add(new FeatureBin(buffer.getInt()));
+      }
+
+      int featureCount = buffer.getInt();
+
+      for (int i = 0; i < featureCount; ++i) {
+        String name = readVarchar(buffer, chars);
+        int start = buffer.getInt();
+        int end = buffer.getInt();
+        int firstBin = buffer.getInt();
+        int n = buffer.getInt();
+
+        Feature feature = new Feature(name, chr, start, end);
+
+        for (int b = firstBin; b < firstBin + n; ++b) {
+          chrBins.get(b).add(feature);
+        }
+
+        size += n;
+
+        byName.put(name, feature);
+      }
+
+      bins.put(chr, chrBins);
+    }
+
+    return size;
+  }
+
+  /**
+   * Returns the size and last modified time of a file, or -1 for both if it
+   * does not exist.
+   */
+  private static long[] stamp(Path file) throws IOException {
+    if (!FileUtils.exists(file)) {
+      return new long[] { -1, -1 };
+    }
+
+    return new long[] { Files.size(file), Files.getLastModifiedTime(file).toMillis() };
+  }
+
+  /**
+   * Convert the text bins and locations files of a track into the binary
+   * format. The binary file is written next to the text files.
+   *
+   * @param filePrefix The track file prefix.
+   * @throws IOException
+   */
+  public static void convert(String filePrefix) throws IOException {
+    FeaturesCommonRegionBinarySearch search = new FeaturesCommonRegionBinarySearch(filePrefix, filePrefix, filePrefix,
+        false);
+
+    write(search.getBins(), getFile(filePrefix), search.getSourceFiles());
+  }
+
+  private static void writeVarchar(String s, byte[] buffer, DataOutputStream writer) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+    int l = bytes.length;
+
+    if (l > MAX_VARCHAR_LENGTH) {
+      l = MAX_VARCHAR_LENGTH;
+
+      // Do not split a multi-byte character, whose continuation bytes all
+      // start with 10
+      while (l > 0 && (bytes[l] & 0xc0) == 0x80) {
+        --l;
+      }
+    }
+
+    System.arraycopy(bytes, 0, buffer, 0, l);
+
+    writer.writeShort(l);
+    writer.write(buffer, 0, l);
+  }
+
+  private static String readVarchar(ByteBuffer buffer, byte[] chars) {
+    int l = buffer.getShort() & 0xffff;
+
+    buffer.get(chars, 0, l);
+
+    return new String(chars, 0, l, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Sorted array index of the features on a single chromosome. Starts and ends
+ * are stored in primitive columns along with a tree of the maximum end of each
+ * run of features so that point, range and nearest queries work even when
+ * features overlap or are nested, which the binary searches in
+ * {@link org.jebtk.bioinformatics.Search} do not support.
+ *
+ * Overlap queries take O((k + 1) log n) time where k is the number of
+ * features returned and nearest queries take O(log n) time.
+ *
+ * @author Antony Holmes
+ */
+public class FeatureIndex {
+
+  private static final Comparator<Feature> START_COMPARATOR = new Comparator<Feature>() {
+    @Override
+    public int compare(Feature f1, Feature f2) {
+      return Integer.compare(f1.getStart(), f2.getStart());
+    }
+  };
+
+  private final Feature[] mFeatures;
+
+  private final int[] mStarts;
+
+  private final int[] mEnds;
+
+  /**
+   * Index of the feature with the greatest end among features 0..i. Since
+   * this is a prefix maximum the corresponding ends are non-decreasing, which
+   * lets a search stop scanning backwards as soon as no earlier feature can
+   * reach the query.
+   */
+  private final int[] mMaxEndIndex;
+
+  /**
+   * Segment tree of the maximum end of the features under each node. Node 1
+   * is the root and the children of node i are 2i and 2i + 1. Leaves past the
+   * last feature hold Integer.MIN_VALUE.
+   */
+  private final int[] mMaxEndTree;
+
+  /** The number of leaves in the tree, a power of two. */
+  private final int mLeaves;
+
+  /**
+   * Instantiates a new feature index. The features do not need to be sorted.
+   *
+   * @param features the features
+   */
+  public FeatureIndex(Collection<Feature> features) {
+    List<Feature> sorted = new ArrayList<Feature>(features);
+
+    Collections.sort(sorted, START_COMPARATOR);
+
+    int n = sorted.size();
+
+    mFeatures = sorted.toArray(new Feature[n]);
+    mStarts = new int[n];
+    mEnds = new int[n];
+    mMaxEndIndex = new int[n];
+
+    int maxIndex = 0;
+
+    for (int i = 0; i < n; ++i) {
+      mStarts[i] = mFeatures[i].getStart();
+      mEnds[i] = mFeatures[i].getEnd();
+
+      if (mEnds[i] > mEnds[maxIndex]) {
+        maxIndex = i;
+      }
+
+      mMaxEndIndex[i] = maxIndex;
+    }
+
+    int leaves = 1;
+
+    while (leaves < n) {
+      leaves <<= 1;
+    }
+
+    mLeaves = leaves;
+    mMaxEndTree = new int[2 * leaves];
+
+    Arrays.fill(mMaxEndTree, leaves, 2 * leaves, Integer.MIN_VALUE);
+    System.arraycopy(mEnds, 0, mMaxEndTree, leaves, n);
+
+    for (int i = leaves - 1; i > 0; --i) {
+      mMaxEndTree[i] = Math.max(mMaxEndTree[2 * i], mMaxEndTree[2 * i + 1]);
+    }
+  }
+
+  /**
+   * Returns the number of features in the index.
+   *
+   * @return the size
+   */
+  public int size() {
+    return mFeatures.length;
+  }
+
+  /**
+   * Returns all of the features, ordered by start.
+   *
+   * @return the features
+   */
+  public List<Feature> getFeatures() {
+    return Collections.unmodifiableList(Arrays.asList(mFeatures));
+  }
+
+  /**
+   * Returns the features containing a location, ordered by start.
+   *
+   * @param location the location
+   * @return the features
+   */
+  public List<Feature> contains(int location) {
+    return overlap(location, location);
+  }
+
+  /**
+   * Returns the features overlapping a range (inclusive), ordered by start.
+   *
+   * @param start the start
+   * @param end   the end
+   * @return the features
+   */
+  public List<Feature> overlap(int start, int end) {
+    List<Feature> ret = new ArrayList<Feature>();
+
+    // Only features starting at or before the end of the range can overlap
+    // it
+    int last = lastStartAtOrBefore(end);
+
+    if (last >= 0) {
+      overlap(1, 0, mLeaves - 1, last, start, ret);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Add the features under a tree node that are at or before an index and end
+   * at or after a location. Subtrees whose maximum end is before the location
+   * are skipped, so each feature found costs at most one path from the root.
+   *
+   * @param node     the tree node
+   * @param lo       the index of the first feature under the node
+   * @param hi       the index of the last feature under the node
+   * @param last     the index of the last feature to consider
+   * @param location the location
+   * @param ret      features are added to this list in start order
+   */
+  private void overlap(int node, int lo, int hi, int last, int location, List<Feature> ret) {
+    if (lo > last || mMaxEndTree[node] < location) {
+      return;
+    }
+
+    if (lo == hi) {
+      ret.add(mFeatures[lo]);
+      return;
+    }
+
+    int mid = (lo + hi) >>> 1;
+
+    overlap(2 * node, lo, mid, last, location, ret);
+    overlap(2 * node + 1, mid + 1, hi, last, location, ret);
+  }
+
+  /**
+   * Returns the feature nearest to a location. A feature containing the
+   * location has distance zero. If there are no features, null is returned.
+   *
+   * @param location the location
+   * @return the nearest feature
+   */
+  public Feature nearest(int location) {
+    if (mFeatures.length == 0) {
+      return null;
+    }
+
+    int i = lastStartAtOrBefore(location);
+
+    Feature ret = null;
+    int d = Integer.MAX_VALUE;
+
+    if (i >= 0) {
+      // Of the features starting before the location, the one with the
+      // greatest end is the closest
+      int m = mMaxEndIndex[i];
+
+      ret = mFeatures[m];
+      d = Math.max(0, location - mEnds[m]);
+    }
+
+    if (i + 1 < mStarts.length && mStarts[i + 1] - location < d) {
+      ret = mFeatures[i + 1];
+    }
+
+    return ret;
+  }
+
+  /**
+   * Returns the index of the last feature whose start is less than or equal to
+   * a location, or -1 if all features start after it.
+   *
+   * @param location the location
+   * @return the index
+   */
+  private int lastStartAtOrBefore(int location) {
+    int min = 0;
+    int max = mStarts.length - 1;
+
+    while (min <= max) {
+      int mid = (min + max) >>> 1;
+
+      if (mStarts[mid] <= location) {
+        min = mid + 1;
+      } else {
+        max = mid - 1;
+      }
+    }
+
+    return max;
+  }
+}
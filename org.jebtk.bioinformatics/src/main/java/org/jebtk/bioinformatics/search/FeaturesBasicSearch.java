@@ -30,8 +30,9 @@ package org.jebtk.bioinformatics.search;
 import java.io.BufferedReader;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
 
 import org.jebtk.bioinformatics.Search;
 import org.jebtk.bioinformatics.genomic.Chromosome;
@@ -48,9 +49,11 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
   // new HashMap<Short, List<Feature>>();
 
   /**
-   * The all locations.
+   * The features on each chromosome indexed by chromosome id, or null if the
+   * features are not cached. The lists are not modified once published so
+   * searches can use them while the track is being freed or reloaded.
    */
-  protected List<List<Feature>> allLocations = new CopyOnWriteArrayList<List<Feature>>();
+  protected volatile List<List<Feature>> allLocations = null;
 
   /**
    * The member file.
@@ -82,10 +85,14 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
    * cacheFeatures()
    */
   public final void cacheFeatures() {
-    allLocations.clear();
+    List<List<Feature>> locations = new ArrayList<List<Feature>>(26);
+
+    Map<String, Feature> featureByName = new HashMap<String, Feature>();
+
+    int size = 0;
 
     for (int i = 0; i < 26; ++i) {
-      allLocations.add(new ArrayList<Feature>());
+      locations.add(new ArrayList<Feature>());
     }
 
     try {
@@ -102,16 +109,13 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
             continue;
           }
 
-          List<String> row = TextUtils.fastSplit(line, TextUtils.TAB_DELIMITER);
-
-          Feature feature = new Feature(row.get(0), ChromosomeService.getInstance().guessChr(mFile, row.get(1)),
-              Integer.parseInt(row.get(2)), Integer.parseInt(row.get(3)));
+          Feature feature = parseFeature(mFile, line);
           // feature.type = type;
 
           // System.err.println(line + " chr:" + feature.getChromosome());
 
-          allLocations.get(feature.getChr().getId()).add(feature);
-          mFeatureByName.put(feature.getName(), feature);
+          locations.get(feature.getChr().getId()).add(feature);
+          featureByName.put(feature.getName(), feature);
 
           ++size;
         }
@@ -121,6 +125,25 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
     } catch (Exception e) {
       e.printStackTrace();
     }
+
+    this.size = size;
+    mFeatureByName = featureByName;
+    allLocations = locations;
+  }
+
+  /**
+   * Parse a feature from a line of a features file. Lines are tab separated
+   * and consist of the name, chromosome, start and end.
+   *
+   * @param file the file the line is from, used to guess the genome.
+   * @param line the line
+   * @return the feature
+   */
+  static Feature parseFeature(Path file, String line) {
+    List<String> row = TextUtils.fastSplit(line, TextUtils.TAB_DELIMITER);
+
+    return new Feature(row.get(0), ChromosomeService.getInstance().guessChr(file, row.get(1)),
+        Integer.parseInt(row.get(2)), Integer.parseInt(row.get(3)));
   }
 
   /*
@@ -130,11 +153,17 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
    * getFeatures (edu.columbia.rdf.lib.bioinformatics.genome.Chromosome)
    */
   public final List<Feature> getFeatures(Chromosome chromosome) {
-    if (allLocations.size() == 0) {
-      cacheFeatures();
-    }
+    return getLocations().get(chromosome.getId());
+  }
 
-    return allLocations.get(chromosome.getId());
+  /**
+   * Returns a snapshot of the features on each chromosome, caching them if
+   * necessary.
+   *
+   * @return the features indexed by chromosome id
+   */
+  protected final List<List<Feature>> getLocations() {
+    return getCached(() -> allLocations);
   }
 
   /*
@@ -146,7 +175,17 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
   public void freeMemory() {
     super.freeMemory();
 
-    allLocations.clear();
+    allLocations = null;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#isCached()
+   */
+  @Override
+  public boolean isCached() {
+    return allLocations != null;
   }
 
   /*
@@ -157,10 +196,6 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
    */
   @Override
   public List<Feature> getFeatures(Chromosome chromosome, int start, int endLocation) {
-    if (allLocations.size() == 0) {
-      cacheFeatures();
-    }
-
     // System.err.println(getName() + " " + chromosome + ":loc:" + startLocation
     // + "
     // " + endLocation);
@@ -172,7 +207,7 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
 
     List<Feature> features = new ArrayList<Feature>();
 
-    List<Feature> locations = allLocations.get(chromosome.getId());
+    List<Feature> locations = getLocations().get(chromosome.getId());
 
     if (locations.size() == 0) {
       return features;
@@ -231,13 +266,9 @@ public class FeaturesBasicSearch extends AbstractFeaturesSearch {
    */
   @Override
   public List<Feature> getFeatures(Chromosome chromosome, int location) {
-    if (allLocations.size() == 0) {
-      cacheFeatures();
-    }
-
     List<Feature> features = new ArrayList<Feature>();
 
-    List<Feature> locations = allLocations.get(chromosome.getId());
+    List<Feature> locations = getLocations().get(chromosome.getId());
 
     if (locations.size() == 0) {
       return features;
@@ -37,7 +37,8 @@ import org.jebtk.bioinformatics.genomic.Chromosome;
 
 /**
  * Provides binary search within an ordered list of features with the proviso
- * that none of the features have starting or stopping overlaps.
+ * that none of the features have starting or stopping overlaps. Tracks with
+ * overlapping or nested features should use {@link FeaturesIndexSearch}.
  *
  * @author Antony Holmes
  *
@@ -74,9 +75,9 @@ public class FeaturesBinarySearch extends FeaturesBasicSearch {
 
     List<Feature> features = new ArrayList<Feature>(100);
 
-    List<Feature> locations = allLocations.get(chromosome.getId());
+    List<Feature> locations = getLocations().get(chromosome.getId());
 
-    if (locations == null) {
+    if (locations.size() == 0) {
       // System.out.println("ropey chromosome " + chromosome);
       return features;
     }
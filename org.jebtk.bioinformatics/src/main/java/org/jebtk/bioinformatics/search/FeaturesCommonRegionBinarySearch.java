@@ -30,12 +30,14 @@ package org.jebtk.bioinformatics.search;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jebtk.bioinformatics.genomic.Chromosome;
 import org.jebtk.bioinformatics.genomic.ChromosomeService;
@@ -61,9 +63,12 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
   public static final String BIN_LOCATION_FILE_ENDING = "_bins_locations.txt";
 
   /**
-   * The features at location by index.
+   * The bins of each chromosome, or null if the features are not cached. The
+   * map is replaced rather than modified when the features are cached or
+   * freed so readers always see a complete set of bins. A track with no
+   * features is still cached once it has been read.
    */
-  private List<List<FeatureBin>> mFeaturesAtLocationByIndex = new CopyOnWriteArrayList<List<FeatureBin>>();
+  private volatile Map<Chromosome, List<FeatureBin>> mFeaturesAtLocation = null;
 
   /**
    * The bins file.
@@ -75,6 +80,16 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
    */
   private Path mFeatureFile;
 
+  /**
+   * The binary bins file.
+   */
+  private Path mBinaryFile;
+
+  /**
+   * Whether to load from the binary file when it exists.
+   */
+  private boolean mUseBinary;
+
   /**
    * The size.
    */
@@ -90,10 +105,27 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
    */
   public FeaturesCommonRegionBinarySearch(String name, String description, String filePrefix)
       throws FileNotFoundException {
+    this(name, description, filePrefix, true);
+  }
+
+  /**
+   * Instantiates a new features common region binary search.
+   *
+   * @param name        the name
+   * @param description the description
+   * @param filePrefix  the file prefix
+   * @param useBinary   whether to load the binary bins file, if it exists, in
+   *                    preference to the text files.
+   * @throws FileNotFoundException the file not found exception
+   */
+  public FeaturesCommonRegionBinarySearch(String name, String description, String filePrefix, boolean useBinary)
+      throws FileNotFoundException {
     super(name, description);
 
     mBinsFile = PathUtils.getPath(filePrefix + BIN_LOCATION_FILE_ENDING);
     mFeatureFile = PathUtils.getPath(filePrefix + BIN_FEATURE_FILE_ENDING);
+    mBinaryFile = FeatureBinsFile.getFile(filePrefix);
+    mUseBinary = useBinary;
 
     System.err.println(
         "Feature prefix " + filePrefix + " " + FileUtils.exists(mBinsFile) + " " + FileUtils.exists(mFeatureFile));
@@ -117,21 +149,35 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
    * cacheFeatures()
    */
   public final void cacheFeatures() {
-    mFeaturesAtLocationByIndex.clear();
+    Map<Chromosome, List<FeatureBin>> featuresAtLocation = new HashMap<Chromosome, List<FeatureBin>>();
 
-    Chromosome chromosome;
-    int startLocation;
+    Map<String, Feature> featureByName = new HashMap<String, Feature>();
 
-    // first the bins file
+    if (mUseBinary && FileUtils.exists(mBinaryFile)) {
+      try {
+        this.size = FeatureBinsFile.read(mBinaryFile, featuresAtLocation, featureByName, getSourceFiles());
 
-    // since we have 25 chromosomes, create place holders for them
-    // we need one more position than necessary because index 0 is
-    // never used since chromosomes are one based indexes.
+        mFeatureByName = featureByName;
+        mFeaturesAtLocation = featuresAtLocation;
 
-    for (int i = 0; i < 26; ++i) {
-      mFeaturesAtLocationByIndex.add(new ArrayList<FeatureBin>());
+        return;
+      } catch (IOException e) {
+        // Fall back to the text files if the binary file cannot be read or
+        // is older than them.
+        e.printStackTrace();
+
+        featuresAtLocation.clear();
+        featureByName.clear();
+      }
     }
 
+    int size = 0;
+
+    Chromosome chromosome;
+    int startLocation;
+
+    // first the bins file
+
     try {
       BufferedReader reader = FileUtils.newBufferedReader(mBinsFile);
 
@@ -158,7 +204,14 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
 
           // start
 
-          mFeaturesAtLocationByIndex.get(chromosome.getId()).add(new FeatureBin(startLocation));
+          List<FeatureBin> bins = featuresAtLocation.get(chromosome);
+
+          if (bins == null) {
+            bins = new ArrayList<FeatureBin>();
+            featuresAtLocation.put(chromosome, bins);
+          }
+
+          bins.add(new FeatureBin(startLocation));
 
         }
       } finally {
@@ -201,14 +254,14 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
             // - 1).getStart());
 
             // add the feature to each of the bins it belongs to
-            mFeaturesAtLocationByIndex.get(feature.getChr().getId()).get(b).add(feature);
+            featuresAtLocation.get(feature.getChr()).get(b).add(feature);
 
             ++size;
           }
 
           // System.out.println(feature.getName());
 
-          mFeatureByName.put(feature.getName(), feature);
+          featureByName.put(feature.getName(), feature);
         }
       } finally {
         reader.close();
@@ -216,6 +269,10 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
     } catch (Exception e) {
       e.printStackTrace();
     }
+
+    this.size = size;
+    mFeatureByName = featureByName;
+    mFeaturesAtLocation = featuresAtLocation;
   }
 
   /*
@@ -226,18 +283,14 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
    */
   @Override
   public List<Feature> getFeatures(Chromosome chromosome, int startLocation, int endLocation) {
-    if (mFeaturesAtLocationByIndex.size() == 0) {
-      cacheFeatures();
-    }
-
     int startIndex;
     int endIndex;
 
     List<Feature> returnFeatures = new ArrayList<Feature>();
 
-    List<FeatureBin> features = mFeaturesAtLocationByIndex.get(chromosome.getId());
+    List<FeatureBin> features = getBins().get(chromosome);
 
-    if (features.size() == 0) {
+    if (features == null || features.size() == 0) {
       return returnFeatures;
     }
 
@@ -292,15 +345,11 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
    */
   @Override
   public List<Feature> getFeatures(Chromosome chromosome, int location) {
-    if (mFeaturesAtLocationByIndex.size() == 0) {
-      cacheFeatures();
-    }
-
     List<Feature> returnFeatures = new ArrayList<Feature>();
 
-    List<FeatureBin> features = mFeaturesAtLocationByIndex.get(chromosome.getId());
+    List<FeatureBin> features = getBins().get(chromosome);
 
-    if (features.size() == 0) {
+    if (features == null || features.size() == 0) {
       return returnFeatures;
     }
 
@@ -425,7 +474,12 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
   public void freeMemory() {
     super.freeMemory();
 
-    mFeaturesAtLocationByIndex.clear();
+    mFeaturesAtLocation = null;
+  }
+
+  @Override
+  public boolean isCached() {
+    return mFeaturesAtLocation != null;
   }
 
   /*
@@ -435,15 +489,17 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
    * getFeatures (edu.columbia.rdf.lib.bioinformatics.genome.Chromosome)
    */
   public List<Feature> getFeatures(Chromosome chromosome) {
-    if (mFeaturesAtLocationByIndex.size() == 0) {
-      cacheFeatures();
-    }
-
     List<Feature> features = new ArrayList<Feature>();
 
     Set<String> used = new HashSet<String>();
 
-    for (FeatureBin featureBin : mFeaturesAtLocationByIndex.get(chromosome.getId())) {
+    List<FeatureBin> bins = getBins().get(chromosome);
+
+    if (bins == null) {
+      return features;
+    }
+
+    for (FeatureBin featureBin : bins) {
       for (Feature feature : featureBin) {
         if (used.contains(feature.toString())) {
           continue;
@@ -479,6 +535,34 @@ public class FeaturesCommonRegionBinarySearch extends AbstractFeaturesSearch {
     return new File(SettingsService.getInstance().getString(group + "." + name) + BIN_LOCATION_FILE_ENDING);
   }
 
+  /**
+   * Returns a snapshot of the bins of each chromosome, caching the features if
+   * necessary.
+   *
+   * @return the bins
+   */
+  public Map<Chromosome, List<FeatureBin>> getBins() {
+    return getCached(() -> mFeaturesAtLocation);
+  }
+
+  /**
+   * Gets the binary bins file.
+   *
+   * @return the binary file
+   */
+  public Path getBinaryFile() {
+    return mBinaryFile;
+  }
+
+  /**
+   * Returns the text files the features are read from.
+   *
+   * @return the bins locations file and the feature file.
+   */
+  public Path[] getSourceFiles() {
+    return new Path[] { mBinsFile, mFeatureFile };
+  }
+
   /**
    * Gets the feature file.
    *
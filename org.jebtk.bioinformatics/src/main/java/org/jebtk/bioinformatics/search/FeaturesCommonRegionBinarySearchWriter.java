@@ -89,6 +89,8 @@ public class FeaturesCommonRegionBinarySearchWriter extends FeaturesBasicSearch
 
     header += TextUtils.TAB_DELIMITER + "bins";
 
+    List<List<Feature>> chrLocations = getLocations();
+
     try {
       BufferedWriter locationsWriter = FileUtils.newBufferedWriter(dir.resolve(locationsPath));
 
@@ -103,8 +105,8 @@ public class FeaturesCommonRegionBinarySearchWriter extends FeaturesBasicSearch
         locationsWriter.write("location");
         locationsWriter.newLine();
 
-        for (short chromosome = 1; chromosome < allLocations.size(); ++chromosome) {
-          if (allLocations.get(chromosome) == null) {
+        for (short chromosome = 1; chromosome < chrLocations.size(); ++chromosome) {
+          if (chrLocations.get(chromosome) == null) {
             continue;
           }
 
@@ -112,7 +114,7 @@ public class FeaturesCommonRegionBinarySearchWriter extends FeaturesBasicSearch
 
           Set<Integer> inUse = new HashSet<Integer>();
 
-          for (Feature feature : allLocations.get(chromosome)) {
+          for (Feature feature : chrLocations.get(chromosome)) {
             if (!inUse.contains(feature.getStart())) {
               locations.add(feature.getStart());
               inUse.add(feature.getStart());
@@ -138,7 +140,7 @@ public class FeaturesCommonRegionBinarySearchWriter extends FeaturesBasicSearch
           }
 
           // see which features overlap the start of a location
-          for (Feature feature : allLocations.get(chromosome)) {
+          for (Feature feature : chrLocations.get(chromosome)) {
             List<Integer> overlap = new ArrayList<Integer>();
 
             for (int i = 0; i < locations.size(); ++i) {
@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.jebtk.bioinformatics.search;
+
+import java.io.BufferedReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.core.io.FileUtils;
+import org.jebtk.core.io.Io;
+
+/**
+ * Searches features using a {@link FeatureIndex} per chromosome. Unlike
+ * {@link FeaturesBinarySearch} and {@link FeaturesSkipSearch}, features may
+ * overlap or be nested and chromosomes are not limited to the numbered human
+ * ones.
+ *
+ * @author Antony Holmes
+ *
+ */
+public class FeaturesIndexSearch extends AbstractFeaturesSearch {
+
+  /**
+   * The index of each chromosome, or null if the features are not cached.
+   */
+  private volatile Map<Chromosome, FeatureIndex> mIndexMap = null;
+
+  /**
+   * The member file.
+   */
+  private final Path mFile;
+
+  /**
+   * The size.
+   */
+  private int mSize = 0;
+
+  /**
+   * Instantiates a new features index search.
+   *
+   * @param name        the name
+   * @param description the description
+   * @param file        the file
+   */
+  public FeaturesIndexSearch(String name, String description, Path file) {
+    super(name, description);
+
+    mFile = file;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#cacheFeatures()
+   */
+  @Override
+  public synchronized void cacheFeatures() {
+    Map<Chromosome, List<Feature>> featureMap = new HashMap<Chromosome, List<Feature>>();
+
+    Map<String, Feature> featureByName = new HashMap<String, Feature>();
+
+    int size = 0;
+
+    try {
+      BufferedReader reader = FileUtils.newBufferedReader(mFile);
+
+      String line;
+
+      try {
+        // skip header
+        line = reader.readLine();
+
+        while ((line = reader.readLine()) != null) {
+          if (Io.isEmptyLine(line)) {
+            continue;
+          }
+
+          Feature feature = FeaturesBasicSearch.parseFeature(mFile, line);
+
+          List<Feature> features = featureMap.get(feature.getChr());
+
+          if (features == null) {
+            features = new ArrayList<Feature>();
+            featureMap.put(feature.getChr(), features);
+          }
+
+          features.add(feature);
+          featureByName.put(feature.getName(), feature);
+
+          ++size;
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+
+    Map<Chromosome, FeatureIndex> indexMap = new HashMap<Chromosome, FeatureIndex>();
+
+    for (Entry<Chromosome, List<Feature>> item : featureMap.entrySet()) {
+      indexMap.put(item.getKey(), new FeatureIndex(item.getValue()));
+    }
+
+    mSize = size;
+    mFeatureByName = featureByName;
+    mIndexMap = indexMap;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#isCached()
+   */
+  @Override
+  public boolean isCached() {
+    return mIndexMap != null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#getFeatures(org.
+   * jebtk.bioinformatics.genomic.Chromosome)
+   */
+  @Override
+  public List<Feature> getFeatures(Chromosome chromosome) {
+    return getIndex(chromosome).getFeatures();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#getFeatures(org.
+   * jebtk.bioinformatics.genomic.Chromosome, int, int)
+   */
+  @Override
+  public List<Feature> getFeatures(Chromosome chromosome, int start, int end) {
+    return getIndex(chromosome).overlap(start, end);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#getFeatures(org.
+   * jebtk.bioinformatics.genomic.Chromosome, int)
+   */
+  @Override
+  public List<Feature> getFeatures(Chromosome chromosome, int location) {
+    return getIndex(chromosome).contains(location);
+  }
+
+  /**
+   * Returns the feature closest to a location or null if there are no features
+   * on the chromosome.
+   *
+   * @param chromosome the chromosome
+   * @param location   the location
+   * @return the nearest feature
+   */
+  public Feature getNearestFeature(Chromosome chromosome, int location) {
+    return getIndex(chromosome).nearest(location);
+  }
+
+  /**
+   * Returns the index of a chromosome, caching the features if necessary.
+   * Chromosomes without features have an empty index.
+   *
+   * @param chromosome the chromosome
+   * @return the index
+   */
+  public FeatureIndex getIndex(Chromosome chromosome) {
+    FeatureIndex index = getCached(() -> mIndexMap).get(chromosome);
+
+    if (index == null) {
+      index = new FeatureIndex(Collections.<Feature>emptyList());
+    }
+
+    return index;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#freeMemory()
+   */
+  @Override
+  public synchronized void freeMemory() {
+    super.freeMemory();
+
+    mIndexMap = null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.jebtk.bioinformatics.search.AbstractFeaturesSearch#size()
+   */
+  @Override
+  public int size() {
+    return mSize;
+  }
+}
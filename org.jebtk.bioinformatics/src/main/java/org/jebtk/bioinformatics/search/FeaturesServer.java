@@ -30,9 +30,16 @@ package org.jebtk.bioinformatics.search;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -40,7 +47,12 @@ import javax.xml.parsers.SAXParserFactory;
 import org.jebtk.bioinformatics.genomic.Genome;
 
 /**
- * Server for genome feature annotations.
+ * Server for genome feature annotations. Tracks are registered without being
+ * loaded and are cached the first time they are requested through
+ * {@link #get(Genome, String, String)} or first searched. If a memory budget
+ * is set, the least recently used tracks are unloaded when the estimated size
+ * of the loaded tracks exceeds it. Each track is loaded by one thread at a
+ * time while other tracks can be loaded concurrently.
  *
  * @author Antony Holmes
  *
@@ -57,6 +69,17 @@ public class FeaturesServer {
    */
   public static final File DEFAULT_FEATURES_FILE = new File("res/features.xml");
 
+  /**
+   * Approximate heap used by each feature (the feature object, its name and
+   * its references from bins and the name index).
+   */
+  public static final long FEATURE_BYTES = 160;
+
+  /**
+   * No memory budget so tracks are never unloaded.
+   */
+  public static final long NO_MEMORY_BUDGET = Long.MAX_VALUE;
+
   /**
    * Gets the single instance of FeaturesServer.
    *
@@ -72,6 +95,34 @@ public class FeaturesServer {
   // genome, group, feature name
   private Map<Genome, Map<String, Map<String, AbstractFeaturesSearch>>> mFeatureMap = new HashMap<Genome, Map<String, Map<String, AbstractFeaturesSearch>>>();
 
+  /**
+   * Loaded tracks and their estimated size in bytes, in least recently used
+   * order.
+   */
+  private final Map<AbstractFeaturesSearch, Long> mLoaded = new LinkedHashMap<AbstractFeaturesSearch, Long>(16, 0.75f,
+      true);
+
+  /**
+   * The time in ms taken to load each track the last time it was loaded.
+   */
+  private final Map<AbstractFeaturesSearch, Long> mLoadTimes = new HashMap<AbstractFeaturesSearch, Long>();
+
+  /**
+   * Tracks currently being loaded. Threads requesting a track that is being
+   * loaded wait for that load rather than starting another.
+   */
+  private final Map<AbstractFeaturesSearch, FutureTask<Void>> mLoading = new ConcurrentHashMap<AbstractFeaturesSearch, FutureTask<Void>>();
+
+  private long mMemoryBudget = NO_MEMORY_BUDGET;
+
+  private long mUsedBytes = 0;
+
+  private long mHits = 0;
+
+  private long mMisses = 0;
+
+  private long mEvictions = 0;
+
   /**
    * Instantiates a new features server.
    */
@@ -133,6 +184,21 @@ public class FeaturesServer {
     add(genome, group, features);
   }
 
+  /**
+   * Adds a search that uses a sorted index and allows overlapping features.
+   *
+   * @param genome      the genome
+   * @param group       the group
+   * @param name        the name
+   * @param description the description
+   * @param file        the file
+   */
+  public final void addIndexSearch(Genome genome, String group, String name, String description, Path file) {
+    AbstractFeaturesSearch features = new FeaturesIndexSearch(name, description, file);
+
+    add(genome, group, features);
+  }
+
   /**
    * Adds the basic search.
    *
@@ -166,6 +232,8 @@ public class FeaturesServer {
 
     System.err.println("adding feature " + genome + " " + group + " " + features.getName());
 
+    features.setServer(this);
+
     mFeatureMap.get(genome).get(group).put(features.getName(), features);
   }
 
@@ -188,11 +256,297 @@ public class FeaturesServer {
       return null;
     }
 
-    return mFeatureMap.get(genome).get(group).get(name);
+    AbstractFeaturesSearch features = mFeatureMap.get(genome).get(group).get(name);
+
+    if (features != null) {
+      load(features);
+    }
+
+    return features;
   }
 
   /**
-   * Returns the collection of features associated with a genome.
+   * Ensure a track is loaded and mark it as the most recently used. If loading
+   * the track takes the loaded tracks over the memory budget, the least
+   * recently used tracks are unloaded. The server lock is only held to update
+   * the accounting so loading one track does not block requests for others.
+   *
+   * @param features the features
+   */
+  void load(AbstractFeaturesSearch features) {
+    if (hit(features)) {
+      return;
+    }
+
+    FutureTask<Void> task = new FutureTask<Void>(() -> {
+      cache(features);
+
+      return null;
+    });
+
+    FutureTask<Void> current = mLoading.putIfAbsent(features, task);
+
+    if (current == null) {
+      current = task;
+
+      try {
+        task.run();
+      } finally {
+        mLoading.remove(features, task);
+      }
+    }
+
+    await(current);
+  }
+
+  /**
+   * If a track is loaded, mark it as the most recently used. Since tracks are
+   * loaded through the server each time they are searched, this records every
+   * search of a loaded track as a hit.
+   *
+   * @param features the features
+   * @return true if the track is loaded.
+   */
+  private synchronized boolean hit(AbstractFeaturesSearch features) {
+    if (mLoaded.containsKey(features) && features.isCached()) {
+      // Access order map so this moves the track to the end of the queue
+      mLoaded.get(features);
+
+      ++mHits;
+
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Load a track and account for its memory.
+   *
+   * @param features the features
+   */
+  private void cache(AbstractFeaturesSearch features) {
+    synchronized (this) {
+      // Another thread may have finished loading the track between the
+      // caller checking for it and starting this load
+      if (hit(features)) {
+        return;
+      }
+
+      ++mMisses;
+
+      // The track may have been reloaded by a caller holding a reference to it
+      // after it was evicted so remove any stale accounting.
+      Long stale = mLoaded.remove(features);
+
+      if (stale != null) {
+        mUsedBytes -= stale;
+      }
+    }
+
+    long start = System.currentTimeMillis();
+
+    features.cacheFeatures();
+
+    long time = System.currentTimeMillis() - start;
+
+    List<AbstractFeaturesSearch> evicted;
+
+    synchronized (this) {
+      mLoadTimes.put(features, time);
+
+      long bytes = features.size() * FEATURE_BYTES;
+
+      mLoaded.put(features, bytes);
+      mUsedBytes += bytes;
+
+      evicted = evict(features);
+    }
+
+    free(evicted);
+  }
+
+  /**
+   * Wait for a track to finish loading.
+   *
+   * @param task the load
+   */
+  private static void await(FutureTask<Void> task) {
+    try {
+      task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Remove least recently used tracks from the accounting until the loaded
+   * tracks fit within the memory budget. The removed tracks must be freed by
+   * the caller once it has released the server lock.
+   *
+   * @param keep a track that should not be unloaded, typically the one just
+   *             requested.
+   * @return the tracks to free.
+   */
+  private List<AbstractFeaturesSearch> evict(AbstractFeaturesSearch keep) {
+    List<AbstractFeaturesSearch> evicted = new ArrayList<AbstractFeaturesSearch>();
+
+    Iterator<Map.Entry<AbstractFeaturesSearch, Long>> iter = mLoaded.entrySet().iterator();
+
+    while (mUsedBytes > mMemoryBudget && iter.hasNext()) {
+      Map.Entry<AbstractFeaturesSearch, Long> item = iter.next();
+
+      if (item.getKey() == keep) {
+        continue;
+      }
+
+      evicted.add(item.getKey());
+      mUsedBytes -= item.getValue();
+      iter.remove();
+
+      ++mEvictions;
+    }
+
+    return evicted;
+  }
+
+  /**
+   * Free evicted tracks. This is done without holding the server lock since
+   * tracks may synchronize on themselves while being searched.
+   *
+   * @param evicted the evicted tracks
+   */
+  private static void free(List<AbstractFeaturesSearch> evicted) {
+    for (AbstractFeaturesSearch features : evicted) {
+      features.freeMemory();
+    }
+  }
+
+  /**
+   * Set the approximate number of bytes the loaded tracks may occupy before
+   * the least recently used tracks are unloaded.
+   *
+   * @param bytes the memory budget in bytes.
+   */
+  public void setMemoryBudget(long bytes) {
+    List<AbstractFeaturesSearch> evicted;
+
+    synchronized (this) {
+      mMemoryBudget = bytes;
+
+      evicted = evict(null);
+    }
+
+    free(evicted);
+  }
+
+  /**
+   * Gets the memory budget.
+   *
+   * @return the memory budget in bytes.
+   */
+  public synchronized long getMemoryBudget() {
+    return mMemoryBudget;
+  }
+
+  /**
+   * Returns the estimated number of bytes used by the loaded tracks.
+   *
+   * @return the used bytes
+   */
+  public synchronized long getUsedBytes() {
+    return mUsedBytes;
+  }
+
+  /**
+   * Returns the estimated number of bytes used by a track or zero if it is not
+   * loaded.
+   *
+   * @param features the features
+   * @return the bytes
+   */
+  public synchronized long getUsedBytes(AbstractFeaturesSearch features) {
+    Long bytes = mLoaded.get(features);
+
+    return bytes != null ? bytes : 0;
+  }
+
+  /**
+   * Returns the time in ms taken to load a track the last time it was loaded
+   * or -1 if it has never been loaded.
+   *
+   * @param features the features
+   * @return the load time
+   */
+  public synchronized long getLoadTime(AbstractFeaturesSearch features) {
+    Long time = mLoadTimes.get(features);
+
+    return time != null ? time : -1;
+  }
+
+  /**
+   * Returns the number of loaded tracks.
+   *
+   * @return the loaded count
+   */
+  public synchronized int getLoadedCount() {
+    return mLoaded.size();
+  }
+
+  /**
+   * Returns the number of requests for a track that was already loaded.
+   *
+   * @return the hits
+   */
+  public synchronized long getHits() {
+    return mHits;
+  }
+
+  /**
+   * Returns the number of requests that required a track to be loaded.
+   *
+   * @return the misses
+   */
+  public synchronized long getMisses() {
+    return mMisses;
+  }
+
+  /**
+   * Returns the fraction of requests for a track that was already loaded.
+   *
+   * @return the hit rate
+   */
+  public synchronized double getHitRate() {
+    long total = mHits + mMisses;
+
+    return total > 0 ? (double) mHits / total : 0;
+  }
+
+  /**
+   * Returns the number of tracks unloaded to stay within the memory budget.
+   *
+   * @return the evictions
+   */
+  public synchronized long getEvictions() {
+    return mEvictions;
+  }
+
+  /**
+   * Returns the collection of features associated with a genome. The tracks
+   * are not loaded by this method but are loaded through the server, and
+   * counted against its memory budget, when they are first searched.
    *
    * @param genome the genome
    * @param group  the group
@@ -211,15 +565,23 @@ public class FeaturesServer {
   }
 
   /**
-   * Uncaches any loaded feature sets.
+   * Uncaches any loaded feature sets. As with eviction, the tracks are freed
+   * after the server lock has been released.
    */
   public final void freeMemory() {
-    for (Genome genome : mFeatureMap.keySet()) {
-      for (String group : mFeatureMap.get(genome).keySet()) {
-        for (String name : mFeatureMap.get(genome).get(group).keySet()) {
-          mFeatureMap.get(genome).get(group).get(name).freeMemory();
+    List<AbstractFeaturesSearch> tracks = new ArrayList<AbstractFeaturesSearch>();
+
+    synchronized (this) {
+      mLoaded.clear();
+      mUsedBytes = 0;
+
+      for (Genome genome : mFeatureMap.keySet()) {
+        for (String group : mFeatureMap.get(genome).keySet()) {
+          tracks.addAll(mFeatureMap.get(genome).get(group).values());
         }
       }
     }
+
+    free(tracks);
   }
 }
\ No newline at end of file
@@ -73,9 +73,9 @@ public class FeaturesSkipSearch extends FeaturesBinarySearch {
 
     List<Feature> features = new ArrayList<Feature>();
 
-    List<Feature> locations = allLocations.get(chromosome.getId());
+    List<Feature> locations = getLocations().get(chromosome.getId());
 
-    if (locations == null) {
+    if (locations.size() == 0) {
       // System.out.println("ropey chromosome " + chromosome);
       return features;
     }
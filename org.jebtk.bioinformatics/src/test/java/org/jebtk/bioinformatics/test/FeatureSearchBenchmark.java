@@ -0,0 +1,196 @@
+/**
+ * Copyright 2016 Antony Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jebtk.bioinformatics.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jebtk.bioinformatics.Search;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.search.Feature;
+import org.jebtk.bioinformatics.search.FeatureIndex;
+import org.jebtk.bioinformatics.search.FeaturesBinarySearch;
+import org.jebtk.bioinformatics.search.FeaturesIndexSearch;
+import org.jebtk.bioinformatics.search.FeaturesSkipSearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link FeatureIndex} with the binary and skip searches on a
+ * synthetic track of non-overlapping features, the only kind the older
+ * searches support. Point lookups use the {@link Search} methods directly
+ * and range queries go through the search classes so that they include the
+ * cost of collecting the features.
+ *
+ * This is not a unit test so it is not run by the build. Run {@link #main}
+ * from the test classpath, after running test-compile so the JMH annotation
+ * processor has generated the benchmark list.
+ *
+ * @author Antony Holmes
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureSearchBenchmark {
+
+  /** Number of precomputed queries, a power of two so they can be cycled. */
+  private static final int QUERIES = 4096;
+
+  /** The skip used by FeaturesSkipSearch. */
+  private static final int SKIP = 1000;
+
+  /** Width of the range queries. */
+  private static final int RANGE = 5000;
+
+  private Path mFile;
+
+  private Chromosome mChr;
+
+  private List<Feature> mFeatures;
+
+  private FeatureIndex mIndex;
+
+  private FeaturesBinarySearch mBinarySearch;
+
+  private FeaturesSkipSearch mSkipSearch;
+
+  private FeaturesIndexSearch mIndexSearch;
+
+  private final int[] mQueries = new int[QUERIES];
+
+  private int mQuery = 0;
+
+  @Setup
+  public void setup() throws IOException {
+    mFeatures = SearchTest.createFeatures(Chromosome.newChr("chr1"));
+
+    mIndex = new FeatureIndex(mFeatures);
+
+    // The search classes read their features from a file
+    List<String> lines = new ArrayList<String>(mFeatures.size() + 1);
+
+    lines.add("name\tchr\tstart\tend");
+
+    for (Feature feature : mFeatures) {
+      lines.add(feature.getName() + "\tchr1\t" + feature.getStart() + "\t" + feature.getEnd());
+    }
+
+    mFile = Files.createTempFile("features", ".txt");
+
+    Files.write(mFile, lines, StandardCharsets.UTF_8);
+
+    mBinarySearch = new FeaturesBinarySearch("binary", "binary", mFile);
+    mSkipSearch = new FeaturesSkipSearch("skip", "skip", mFile);
+    mIndexSearch = new FeaturesIndexSearch("index", "index", mFile);
+
+    mBinarySearch.cacheFeatures();
+    mSkipSearch.cacheFeatures();
+    mIndexSearch.cacheFeatures();
+
+    // Use the chromosome the searches parsed so they find the features
+    mChr = mIndexSearch.getFeature(mFeatures.get(0).getName()).getChr();
+
+    int max = mFeatures.get(mFeatures.size() - 1).getEnd();
+
+    Random random = new Random(7);
+
+    for (int i = 0; i < QUERIES; ++i) {
+      mQueries[i] = 1 + random.nextInt(max);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(mFile);
+  }
+
+  /**
+   * Returns the next query location.
+   */
+  private int next() {
+    mQuery = (mQuery + 1) & (QUERIES - 1);
+
+    return mQueries[mQuery];
+  }
+
+  @Benchmark
+  public int indexContains() {
+    return mIndex.contains(next()).size();
+  }
+
+  @Benchmark
+  public int binaryContains() {
+    return Search.binaryRangeSearch(next(), mFeatures);
+  }
+
+  @Benchmark
+  public int skipContains() {
+    return Search.jumpSearchOuter(next(), mFeatures, SKIP);
+  }
+
+  @Benchmark
+  public int indexOverlap() {
+    int start = next();
+
+    return mIndexSearch.getFeatures(mChr, start, start + RANGE).size();
+  }
+
+  @Benchmark
+  public int binaryOverlap() {
+    int start = next();
+
+    return mBinarySearch.getFeatures(start, start + RANGE, mChr).size();
+  }
+
+  @Benchmark
+  public int skipOverlap() {
+    int start = next();
+
+    return mSkipSearch.getFeatures(start, start + RANGE, mChr).size();
+  }
+
+  /**
+   * Run the benchmarks.
+   *
+   * @param args the arguments
+   * @throws RunnerException if the benchmarks fail.
+   */
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(FeatureSearchBenchmark.class.getSimpleName()).build()).run();
+  }
+}
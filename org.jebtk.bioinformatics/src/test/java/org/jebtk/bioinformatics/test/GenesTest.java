@@ -1,7 +1,33 @@
 package org.jebtk.bioinformatics.test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
+import org.jebtk.bioinformatics.genomic.ChrParser;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.FixedGapGenes;
+import org.jebtk.bioinformatics.genomic.GTB2Parser;
+import org.jebtk.bioinformatics.genomic.GeneParser;
+import org.jebtk.bioinformatics.genomic.GenesDB;
+import org.jebtk.bioinformatics.genomic.GenesSnapshot;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicElement;
+import org.jebtk.bioinformatics.genomic.GenomicEntity;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.GenomicType;
+import org.jebtk.core.text.TextUtils;
+import org.junit.Assert;
 import org.junit.Test;
 
 public class GenesTest {
@@ -23,4 +49,382 @@ public class GenesTest {
      * System.err.println("found exon " + e); } }
      */
   }
+
+  @Test
+  public void sharedPropertiesTest() throws IOException, ParseException {
+    GenomicRegion region = GenomicRegion.parse(Genome.HG19, "chr1:1000-2000");
+
+    GenomicEntity transcript = new GenomicEntity(GenomicType.TRANSCRIPT, region);
+    transcript.setProperty(GenomicEntity.GENE_NAME, "BCL6");
+
+    GenomicEntity exon = GeneParser.addChildAttributes(GenomicType.EXON, region, transcript);
+
+    Assert.assertTrue(exon.isSharedProperties());
+    Assert.assertEquals("BCL6", exon.getGeneName());
+
+    // Reading a missing property must not copy the shared map
+    Assert.assertEquals(TextUtils.NA, exon.getProperty("missing"));
+    Assert.assertTrue(exon.isSharedProperties());
+    Assert.assertEquals(1, exon.getPropertyCount());
+
+    // Nor add it to an element that owns its map
+    GenomicEntity gene = new GenomicEntity(GenomicType.GENE, region);
+    gene.setProperty(GenomicEntity.GENE_NAME, "BCL6");
+
+    Assert.assertEquals(TextUtils.NA, gene.getProperty("missing"));
+    Assert.assertFalse(gene.hasProperty("missing"));
+    Assert.assertEquals(1, gene.getPropertyCount());
+
+    // Writes are copy on write in both directions
+    exon.setProperty("exon_number", "1");
+    transcript.setProperty(GenomicEntity.GENE_NAME, "BCL2");
+
+    Assert.assertFalse(exon.isSharedProperties());
+    Assert.assertEquals("BCL6", exon.getGeneName());
+    Assert.assertEquals("BCL2", transcript.getGeneName());
+    Assert.assertEquals(2, exon.getPropertyCount());
+  }
+
+  @Test
+  public void sharedPropertiesMemoryTest() throws IOException, ParseException {
+    GenomicRegion region = GenomicRegion.parse(Genome.HG19, "chr1:1000-2000");
+
+    int n = 1000;
+    int exons = 10;
+
+    // Every exon shares the map of its transcript, so each transcript and
+    // its exons use one map between them
+    List<GenomicEntity> shared = createTranscripts(region, n, exons, true);
+
+    Assert.assertEquals(n * (exons + 1), sharedCount(shared));
+
+    // Copying gives every element its own map
+    List<GenomicEntity> copied = createTranscripts(region, n, exons, false);
+
+    Assert.assertEquals(0, sharedCount(copied));
+
+    for (int i = 0; i < n; ++i) {
+      for (GenomicElement exon : shared.get(i).getChildren(GenomicType.EXON)) {
+        Assert.assertEquals("ENSG" + i, exon.getProperty(GenomicEntity.GENE_ID));
+      }
+
+      for (GenomicElement exon : copied.get(i).getChildren(GenomicType.EXON)) {
+        Assert.assertEquals("ENSG" + i, exon.getProperty(GenomicEntity.GENE_ID));
+      }
+    }
+
+    // Measure the heap retained by many more transcripts. Copying costs each
+    // exon a map and its entry array, roughly 70 bytes, which is about 30%
+    // of the total.
+    long sharedBytes = usedMemory(region, n * 10, exons, true);
+    long copiedBytes = usedMemory(region, n * 10, exons, false);
+
+    double reduction = 1 - (double) sharedBytes / copiedBytes;
+
+    Assert.assertTrue("shared " + sharedBytes + " bytes, copied " + copiedBytes + " bytes, reduction " + reduction,
+        reduction > 0.1);
+  }
+
+  /**
+   * Returns the number of transcripts and children sharing their properties.
+   */
+  private static int sharedCount(List<GenomicEntity> transcripts) {
+    int ret = 0;
+
+    for (GenomicEntity transcript : transcripts) {
+      if (transcript.isSharedProperties()) {
+        ++ret;
+      }
+
+      for (GenomicElement exon : transcript.getChildren(GenomicType.EXON)) {
+        if (exon.isSharedProperties()) {
+          ++ret;
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  private static long usedMemory(GenomicRegion region, int n, int exons, boolean share) {
+    Runtime runtime = Runtime.getRuntime();
+
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+
+    List<GenomicEntity> transcripts = createTranscripts(region, n, exons, share);
+
+    System.gc();
+    long after = runtime.totalMemory() - runtime.freeMemory();
+
+    // Keep the transcripts reachable until measured
+    Assert.assertEquals(n, transcripts.size());
+
+    return after - before;
+  }
+
+  private static List<GenomicEntity> createTranscripts(GenomicRegion region, int n, int exons, boolean share) {
+    List<GenomicEntity> transcripts = new ArrayList<GenomicEntity>(n);
+
+    for (int i = 0; i < n; ++i) {
+      GenomicEntity transcript = new GenomicEntity(GenomicType.TRANSCRIPT, region);
+      transcript.setProperty(GenomicEntity.GENE_ID, "ENSG" + i);
+      transcript.setProperty(GenomicEntity.GENE_NAME, "GENE" + i);
+      transcript.setProperty(GenomicEntity.TRANSCRIPT_ID, "ENST" + i);
+      transcript.setProperty(GenomicEntity.REFSEQ_ID, "NM_" + i);
+
+      for (int j = 0; j < exons; ++j) {
+        GenomicEntity exon;
+
+        if (share) {
+          exon = GeneParser.addChildAttributes(GenomicType.EXON, region, transcript);
+        } else {
+          exon = new GenomicEntity(GenomicType.EXON, region);
+
+          for (String name : transcript.getPropertyNames()) {
+            exon.setProperty(name, transcript.getProperty(name));
+          }
+        }
+
+        transcript.addChild(exon);
+      }
+
+      transcripts.add(transcript);
+    }
+
+    return transcripts;
+  }
+
+  @Test
+  public void compactElementTest() {
+    Assert.assertSame(Chromosome.newChr("chr1"), Chromosome.newChr("1"));
+
+    GenomicRegion region = new GenomicRegion(Chromosome.newChr("chr1"), 1000, 2000);
+
+    GenomicEntity exon = new GenomicEntity(GenomicType.EXON, region);
+
+    Assert.assertEquals(0, exon.getPropertyCount());
+    Assert.assertEquals(0, exon.getTagCount());
+    Assert.assertEquals(0, exon.getChildCount(GenomicType.EXON));
+    Assert.assertFalse(exon.getChildren(GenomicType.EXON).iterator().hasNext());
+
+    // Properties move from the small array to a hash map as they grow
+    for (int i = 0; i < 20; ++i) {
+      exon.setProperty("p" + i, i);
+    }
+
+    exon.setProperty("p0", "a");
+
+    Assert.assertEquals(20, exon.getPropertyCount());
+    Assert.assertEquals("a", exon.getProperty("p0"));
+    Assert.assertEquals(19, exon.getInt("p19"));
+
+    GenomicEntity transcript = new GenomicEntity(GenomicType.TRANSCRIPT, region);
+    transcript.addChild(exon);
+    transcript.addChild(exon);
+
+    Assert.assertEquals(1, transcript.getChildCount(GenomicType.EXON));
+  }
+
+  @Test
+  public void chromosomeCacheTest() {
+    // A parser of its own so the shared caches are left alone
+    ChrParser parser = new ChrParser();
+
+    Chromosome chr1 = Chromosome.newChr("chr1", parser);
+
+    for (int i = 0; i < Chromosome.MAX_CACHED_NAMES; ++i) {
+      Chromosome.newChr("chr" + i, parser);
+    }
+
+    // Names seen before the cache filled are still shared
+    Assert.assertSame(chr1, Chromosome.newChr("chr1", parser));
+    Assert.assertSame(chr1, Chromosome.newChr("1", parser));
+
+    // New names are no longer cached but are still equal
+    Chromosome chr = Chromosome.newChr("chr20000", parser);
+
+    Assert.assertNotSame(chr, Chromosome.newChr("chr20000", parser));
+    Assert.assertEquals(chr, Chromosome.newChr("chr20000", parser));
+    Assert.assertEquals(20000, chr.getId());
+  }
+
+  @Test
+  public void compactElementMemoryTest() throws IOException, ParseException {
+    GenomicRegion region = GenomicRegion.parse(Genome.HG19, "chr1:1000-2000");
+
+    int n = 100000;
+
+    Runtime runtime = Runtime.getRuntime();
+
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+
+    List<GenomicEntity> exons = new ArrayList<GenomicEntity>(n);
+
+    for (int i = 0; i < n; ++i) {
+      exons.add(new GenomicEntity(GenomicType.EXON, region));
+    }
+
+    System.gc();
+    long after = runtime.totalMemory() - runtime.freeMemory();
+
+    Assert.assertEquals(n, exons.size());
+
+    // An element without properties, tags or children is just its fields,
+    // about 70 bytes, or 110 without compressed pointers. Allocating the
+    // property map, tag set and child map up front costs well over 200.
+    Assert.assertTrue((after - before) / n < 128);
+  }
+
+  private static final List<String> SNAPSHOT_LINES = Arrays.asList("chr\tstrand\tstart\tend",
+      "chr1\t+\t1000\t5000\t2\t1000;3000\t1500;5000\t1\t1000\t1100\t0\tn/a\tn/a\tgene_id=G1;gene_name=A;transcript_id=T1\tbasic",
+      "chr1\t-\t2000\t8000\t1\t2000\t8000\t0\tn/a\tn/a\t1\t7000\t8000\tgene_id=G2;gene_name=B;transcript_id=T2\tn/a",
+      "chr2\t+\t10\t500\t1\t10\t500\t0\tn/a\tn/a\t0\tn/a\tn/a\tgene_id=G3;gene_name=C;transcript_id=T3\tbasic");
+
+  @Test
+  public void snapshotTest() throws IOException {
+    Path dir = Files.createTempDirectory("snapshot");
+    Path file = dir.resolve("genes.gtb2");
+
+    List<String> lines = SNAPSHOT_LINES;
+
+    Files.write(file, lines, StandardCharsets.UTF_8);
+
+    GeneParser parser = new GTB2Parser();
+
+    String expected = describe(parser.parse(file, Genome.HG19));
+
+    // The first parse writes the snapshot and the second reads it
+    Assert.assertEquals(expected, describe(parser.snapshot().parse(file, Genome.HG19)));
+    Assert.assertTrue(Files.exists(GenesSnapshot.getFile(file)));
+    Assert.assertEquals(expected, describe(parser.snapshot().parse(file, Genome.HG19)));
+
+    // Touching the file does not invalidate the snapshot since the contents
+    // are unchanged
+    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+
+    Assert.assertEquals(expected, describe(parser.snapshot().parse(file, Genome.HG19)));
+
+    // and the snapshot records the new time so the file is not hashed again
+    Assert.assertEquals(Files.getLastModifiedTime(file).toMillis(), getSnapshotTime(file));
+
+    // Nor does adding the genes to an existing database
+    GenesDB genes = new FixedGapGenes(Genome.HG19);
+
+    parser.snapshot().parse(file, Genome.HG19, genes);
+
+    Assert.assertEquals(expected, describe(genes));
+
+    // Changing the file does
+    Files.write(file, lines.subList(0, 3), StandardCharsets.UTF_8);
+
+    expected = describe(parser.parse(file, Genome.HG19));
+
+    Assert.assertEquals(expected, describe(parser.snapshot().parse(file, Genome.HG19)));
+    Assert.assertEquals(expected, describe(parser.snapshot().parse(file, Genome.HG19)));
+  }
+
+  @Test
+  public void damagedSnapshotTest() throws IOException {
+    Path dir = Files.createTempDirectory("snapshot");
+    Path file = dir.resolve("genes.gtb2");
+
+    Files.write(file, SNAPSHOT_LINES, StandardCharsets.UTF_8);
+
+    GeneParser parser = new GTB2Parser();
+
+    String expected = describe(parser.parse(file, Genome.HG19));
+
+    parser.snapshot().parse(file, Genome.HG19);
+
+    Path snapshot = GenesSnapshot.getFile(file);
+
+    byte[] bytes = Files.readAllBytes(snapshot);
+
+    // Truncate the snapshot at every point after the header checks as well
+    // as damaging the string count
+    for (int length = 13; length < bytes.length; length += 7) {
+      Files.write(snapshot, Arrays.copyOf(bytes, length));
+
+      Assert.assertEquals(expected, describe(parser.snapshot().parse(file, Genome.HG19)));
+
+      // The damaged snapshot is replaced
+      Assert.assertArrayEquals(bytes, Files.readAllBytes(snapshot));
+    }
+
+    byte[] damaged = bytes.clone();
+
+    // The string count follows the header and the parser key
+    int offset = 33 + GenesSnapshot.getKey(parser, Genome.HG19, -1).getBytes(StandardCharsets.UTF_8).length;
+
+    ByteBuffer.wrap(damaged).putInt(offset, Integer.MAX_VALUE);
+
+    Files.write(snapshot, damaged);
+
+    Assert.assertEquals(expected, describe(parser.snapshot().parse(file, Genome.HG19)));
+    Assert.assertArrayEquals(bytes, Files.readAllBytes(snapshot));
+  }
+
+  /**
+   * Returns the source modification time recorded in the snapshot of a file.
+   */
+  private static long getSnapshotTime(Path file) throws IOException {
+    // Skip the check, version and size
+    return ByteBuffer.wrap(Files.readAllBytes(GenesSnapshot.getFile(file))).getLong(13);
+  }
+
+  /**
+   * Describe the elements of a database, their properties, tags and children
+   * so that two databases can be compared.
+   */
+  private static String describe(GenesDB genes) {
+    StringBuilder buffer = new StringBuilder();
+
+    List<String> elements = new ArrayList<String>();
+
+    for (GenomicElement e : genes.getElements()) {
+      StringBuilder element = new StringBuilder();
+
+      describe(e, element);
+
+      elements.add(element.toString());
+    }
+
+    Collections.sort(elements);
+
+    for (String e : elements) {
+      buffer.append(e).append('\n');
+    }
+
+    return buffer.toString();
+  }
+
+  private static void describe(GenomicElement e, StringBuilder buffer) {
+    buffer.append(e.getType()).append(' ').append(e.getChr()).append(':').append(e.getStart()).append('-')
+        .append(e.getEnd()).append(' ').append(e.getStrand());
+
+    TreeMap<String, Object> properties = new TreeMap<String, Object>();
+
+    for (Entry<String, Object> p : e.getProperties()) {
+      properties.put(p.getKey(), p.getValue());
+    }
+
+    buffer.append(' ').append(properties);
+
+    for (String tag : e.getTags()) {
+      buffer.append(' ').append(tag);
+    }
+
+    buffer.append(" [");
+
+    for (Entry<GenomicType, List<GenomicElement>> children : e.getChildren()) {
+      for (GenomicElement child : children.getValue()) {
+        describe(child, buffer);
+        buffer.append(';');
+      }
+    }
+
+    buffer.append(']');
+  }
 }
@@ -15,13 +15,64 @@
  */
 package org.jebtk.bioinformatics.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.jebtk.bioinformatics.ext.ucsc.BedGraphElement;
+import org.jebtk.bioinformatics.ext.ucsc.BedReader;
+import org.jebtk.bioinformatics.ext.ucsc.CoverageIndex;
+import org.jebtk.bioinformatics.ext.ucsc.CoverageIndexWriter;
+import org.jebtk.bioinformatics.ext.ucsc.CoverageSummary;
+import org.jebtk.bioinformatics.gapsearch.ConcurrentFixedGapSearch;
+import org.jebtk.bioinformatics.gapsearch.FixedGapSearch;
+import org.jebtk.bioinformatics.gapsearch.GapSearch;
+import org.jebtk.bioinformatics.genomic.AsyncWebGenes;
+import org.jebtk.bioinformatics.genomic.CachedGenesDB;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Coverage;
+import org.jebtk.bioinformatics.genomic.CoverageRuns;
+import org.jebtk.bioinformatics.genomic.FixedGapGenes;
+import org.jebtk.bioinformatics.genomic.GTB2Parser;
+import org.jebtk.bioinformatics.genomic.GTBZGenes;
+import org.jebtk.bioinformatics.genomic.GenesDB;
 import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicElement;
+import org.jebtk.bioinformatics.genomic.GenomicEntity;
 import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.GenomicType;
+import org.jebtk.bioinformatics.genomic.Strand;
+import org.jebtk.bioinformatics.genomic.TssIndex;
+import org.jebtk.bioinformatics.genomic.WebGenesServer;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpServer;
+
 public class GenomicTest {
   @Test
   public void genomicParseTest() throws IOException, ParseException {
@@ -32,4 +83,821 @@ public class GenomicTest {
   public void genomicParseSingleTest() throws IOException, ParseException {
     System.err.println(GenomicRegion.parse(Genome.HG19, "chrY:100"));
   }
+
+  @Test
+  public void tssIndexTest() {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    Random random = new Random(7);
+
+    List<GenomicElement> genes = new ArrayList<GenomicElement>();
+
+    for (int i = 0; i < 2000; ++i) {
+      int start = random.nextInt(1000000);
+
+      genes.add(new GenomicEntity(GenomicType.TRANSCRIPT, Genome.HG19, chr, start, start + random.nextInt(50000),
+          random.nextBoolean() ? Strand.SENSE : Strand.ANTISENSE));
+    }
+
+    TssIndex index = new TssIndex(genes, GenomicType.TRANSCRIPT);
+
+    assertEquals(genes.size(), index.size());
+
+    for (int i = 0; i < 1000; ++i) {
+      int start = random.nextInt(1100000);
+
+      GenomicRegion region = new GenomicRegion(chr, start, start + random.nextInt(1000));
+
+      int mid = GenomicRegion.mid(region);
+
+      List<Integer> d = new ArrayList<Integer>();
+
+      for (GenomicElement gene : genes) {
+        d.add(Math.abs(mid - TssIndex.tss(gene)));
+      }
+
+      Collections.sort(d);
+
+      // All closest genes share the minimum distance
+      List<GenomicElement> closest = index.closest(region);
+
+      assertEquals(Collections.frequency(d, d.get(0)), closest.size());
+
+      for (GenomicElement gene : closest) {
+        assertEquals((int) d.get(0), Math.abs(mid - TssIndex.tss(gene)));
+      }
+
+      // The k nearest have the k smallest distances in order
+      List<GenomicElement> nearest = index.nearest(region, 10);
+
+      for (int j = 0; j < 10; ++j) {
+        assertEquals((int) d.get(j), Math.abs(mid - TssIndex.tss(nearest.get(j))));
+      }
+
+      int n = 0;
+
+      for (int x : d) {
+        if (x <= 20000) {
+          ++n;
+        }
+      }
+
+      assertEquals(n, index.within(region, 20000).size());
+    }
+  }
+
+  @Test
+  public void tssIndexOnDemandTest() {
+    Chromosome chr1 = Chromosome.newChr("chr1");
+    Chromosome chr2 = Chromosome.newChr("chr2");
+
+    FixedGapGenes genes = new FixedGapGenes(Genome.HG19);
+
+    for (int i = 0; i < 10; ++i) {
+      genes.add(new GenomicEntity(GenomicType.GENE, Genome.HG19, chr1, i * 10000, i * 10000 + 5000, Strand.SENSE));
+      genes.add(new GenomicEntity(GenomicType.GENE, Genome.HG19, chr2, i * 10000, i * 10000 + 5000,
+          Strand.ANTISENSE));
+    }
+
+    GenomicRegion r1 = new GenomicRegion(chr1, 21000, 21000);
+
+    assertEquals(20000, genes.closestTss(Genome.HG19, r1, GenomicType.GENE).get(0).getStart());
+
+    // Only the queried chromosome has been indexed
+    assertEquals(10, genes.getTssIndex(GenomicType.GENE).size());
+
+    GenomicRegion r2 = new GenomicRegion(chr2, 21000, 21000);
+
+    assertEquals(25000, genes.closestTss(Genome.HG19, r2, GenomicType.GENE).get(0).getEnd());
+    assertEquals(20, genes.getTssIndex(GenomicType.GENE).size());
+
+    // Adding an element only re-indexes its chromosome
+    genes.add(new GenomicEntity(GenomicType.GENE, Genome.HG19, chr1, 21000, 22000, Strand.SENSE));
+
+    assertEquals(10, genes.getTssIndex(GenomicType.GENE).size());
+    assertEquals(21000, genes.closestTss(Genome.HG19, r1, GenomicType.GENE).get(0).getStart());
+    assertEquals(2, genes.withinTss(Genome.HG19, r1, GenomicType.GENE, 2000).size());
+  }
+
+  /**
+   * Create a zip with an empty entry per chromosome and a parser that adds 100
+   * transcripts 1 kb apart to whichever chromosome is requested.
+   */
+  private static GTBZGenes gtbzGenes(Path file, int chrs) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file))) {
+      for (int i = 1; i <= chrs; ++i) {
+        out.putNextEntry(new ZipEntry("chr" + i + ".gtb2"));
+        out.closeEntry();
+      }
+    }
+
+    GTB2Parser parser = new GTB2Parser() {
+      @Override
+      public void parse(Path file, Genome genome, Chromosome chr, GenesDB genes) throws IOException {
+        for (int i = 0; i < 100; ++i) {
+          genes.add(new GenomicEntity(GenomicType.TRANSCRIPT, genome, chr, i * 1000 + 1, i * 1000 + 500));
+        }
+      }
+    };
+
+    return new GTBZGenes(file, Genome.HG19, parser);
+  }
+
+  @Test
+  public void gtbzGenesConcurrencyTest() throws Exception {
+    Path file = Files.createTempFile("test", ".gtbz");
+
+    try {
+      final int chrs = 4;
+      final int threads = 8;
+      final int queries = 200;
+
+      // Room for one chromosome so loads constantly evict each other
+      final GTBZGenes genes = gtbzGenes(file, chrs).setMemoryBudget(100 * GTBZGenes.ELEMENT_BYTES).setPrefetch(true);
+
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+      for (int t = 0; t < threads; ++t) {
+        final Random random = new Random(t);
+
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < queries; ++i) {
+            Chromosome chr = Chromosome.newChr("chr" + (random.nextInt(chrs) + 1));
+
+            List<GenomicElement> found = genes.find(Genome.HG19, new GenomicRegion(chr, 1, 10000),
+                GenomicType.TRANSCRIPT, 1);
+
+            if (found.size() != 10) {
+              return false;
+            }
+          }
+
+          return true;
+        }));
+      }
+
+      executor.shutdown();
+
+      // Threads evicting each other's chromosomes must not livelock
+      assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+
+      assertTrue(genes.getEvictions() > 0);
+      assertTrue(genes.getHits() + genes.getMisses() >= threads * queries);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void gtbzGenesEmptyChrConcurrencyTest() throws Exception {
+    Path file = Files.createTempFile("test", ".gtbz");
+
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file))) {
+      for (int i = 1; i <= 2; ++i) {
+        out.putNextEntry(new ZipEntry("chr" + i + ".gtb2"));
+        out.closeEntry();
+      }
+    }
+
+    try {
+      final Chromosome chr1 = Chromosome.newChr("chr1");
+      final Chromosome chr2 = Chromosome.newChr("chr2");
+
+      // Only chr1 has genes
+      GTB2Parser parser = new GTB2Parser() {
+        @Override
+        public void parse(Path file, Genome genome, Chromosome chr, GenesDB genes) throws IOException {
+          if (chr.equals(chr1)) {
+            for (int i = 0; i < 100; ++i) {
+              genes.add(new GenomicEntity(GenomicType.TRANSCRIPT, genome, chr, i * 1000 + 1, i * 1000 + 500));
+            }
+          }
+        }
+      };
+
+      final GTBZGenes genes = new GTBZGenes(file, Genome.HG19, parser);
+
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+      for (int t = 0; t < 8; ++t) {
+        final Random random = new Random(t);
+
+        results.add(executor.submit(() -> {
+          for (int i = 0; i < 500; ++i) {
+            int start = random.nextInt(90000) + 1;
+
+            // Queries of a chromosome without genes run alongside the others
+            // under the same read lock
+            GenomicRegion r1 = new GenomicRegion(chr1, start, start + 10000);
+            GenomicRegion r2 = new GenomicRegion(chr2, start, start + 10000);
+
+            if (genes.find(Genome.HG19, r1, GenomicType.TRANSCRIPT, 1).isEmpty()
+                || !genes.find(Genome.HG19, r2, GenomicType.TRANSCRIPT, 1).isEmpty()
+                || !genes.closest(Genome.HG19, r2, GenomicType.TRANSCRIPT, 1).isEmpty()) {
+              return false;
+            }
+          }
+
+          return true;
+        }));
+      }
+
+      executor.shutdown();
+
+      assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+
+      // Reading a chromosome without genes does not add it to the search
+      assertTrue(genes.contains(chr1));
+      assertTrue(!genes.contains(chr2));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void gtbzGenesPrefetchTest() throws Exception {
+    Path file = Files.createTempFile("test", ".gtbz");
+
+    try {
+      GTBZGenes genes = gtbzGenes(file, 4).setPrefetch(true);
+
+      Chromosome chr = Chromosome.newChr("chr1");
+
+      assertEquals(10, genes.find(Genome.HG19, new GenomicRegion(chr, 1, 10000), GenomicType.TRANSCRIPT, 1).size());
+
+      long end = System.currentTimeMillis() + 10000;
+
+      while (genes.getLoadedCount() < 4 && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+
+      assertEquals(4, genes.getLoadedCount());
+
+      // Only the request counts, not the chromosomes prefetched after it
+      assertEquals(1, genes.getMisses());
+      assertEquals(0, genes.getHits());
+
+      // Prefetching only fills spare room so never evicts a chromosome
+      genes = gtbzGenes(file, 4).setMemoryBudget(250 * GTBZGenes.ELEMENT_BYTES).setPrefetch(true);
+
+      genes.find(Genome.HG19, new GenomicRegion(chr, 1, 10000), GenomicType.TRANSCRIPT, 1);
+
+      end = System.currentTimeMillis() + 10000;
+
+      while (genes.getLoadedCount() < 2 && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+
+      // Give the prefetch time to try the chromosome that does not fit
+      Thread.sleep(200);
+
+      assertEquals(2, genes.getLoadedCount());
+      assertEquals(0, genes.getEvictions());
+      assertTrue(genes.getUsedBytes() <= genes.getMemoryBudget());
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void coverageTest() {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    // Overlapping regions are split where the depth changes
+    List<GenomicRegion> regions = new ArrayList<GenomicRegion>();
+    regions.add(new GenomicRegion(chr, 10, 20));
+    regions.add(new GenomicRegion(chr, 15, 30));
+
+    CoverageRuns runs = Coverage.runs(regions).get(chr);
+
+    assertEquals(3, runs.size());
+    assertEquals(10, runs.getStart(0));
+    assertEquals(14, runs.getEnd(0));
+    assertEquals(1, runs.getDepth(0));
+    assertEquals(15, runs.getStart(1));
+    assertEquals(20, runs.getEnd(1));
+    assertEquals(2, runs.getDepth(1));
+    assertEquals(21, runs.getStart(2));
+    assertEquals(30, runs.getEnd(2));
+    assertEquals(1, runs.getDepth(2));
+
+    assertEquals(0, runs.depthAt(9));
+    assertEquals(2, runs.depthAt(17));
+    assertEquals(0, runs.depthAt(31));
+    assertEquals(21, runs.getCoveredBases());
+
+    long[] bins = Coverage.bins(regions, 10).get(chr);
+
+    assertEquals(15, bins[1]);
+    assertEquals(11, bins[2]);
+    assertEquals(1, bins[3]);
+
+    // Adjacent regions of the same depth form one run
+    regions = new ArrayList<GenomicRegion>();
+    regions.add(new GenomicRegion(chr, 21, 30));
+    regions.add(new GenomicRegion(chr, 10, 20));
+
+    runs = Coverage.runs(regions).get(chr);
+
+    assertEquals(1, runs.size());
+    assertEquals(10, runs.getStart(0));
+    assertEquals(30, runs.getEnd(0));
+    assertEquals(1, runs.getDepth(0));
+
+    // No regions means no coverage
+    assertTrue(Coverage.runs(Collections.<GenomicRegion>emptyList()).isEmpty());
+    assertTrue(Coverage.bins(Collections.<GenomicRegion>emptyList(), 10).isEmpty());
+
+    runs = new CoverageRuns(chr, new int[0], new int[0], new int[0], 0);
+
+    assertEquals(0, runs.depthAt(10));
+    assertEquals(0, runs.getCoveredBases());
+    assertEquals(11, runs.toBins(10, 100).length);
+  }
+
+  @Test
+  public void coverageGapSearchTest() {
+    Chromosome chr = Chromosome.newChr("chr1");
+    Chromosome chr2 = Chromosome.newChr("chr2");
+
+    List<GapSearch<GenomicRegion>> searches = new ArrayList<GapSearch<GenomicRegion>>();
+    searches.add(new FixedGapSearch<GenomicRegion>(10));
+    searches.add(new ConcurrentFixedGapSearch<GenomicRegion>(10));
+
+    for (GapSearch<GenomicRegion> search : searches) {
+      // Two distinct but equal features and a feature spanning several bins
+      GenomicRegion r1 = new GenomicRegion(chr, 10, 30);
+      GenomicRegion r2 = new GenomicRegion(chr, 10, 30);
+      GenomicRegion r3 = new GenomicRegion(chr, 25, 50);
+
+      search.add(r1, r1);
+      search.add(r2, r2);
+      search.add(r3, r3);
+
+      assertEquals(3, search.getAllFeatures(chr).size());
+
+      CoverageRuns runs = Coverage.runs(search).get(chr);
+
+      assertEquals(3, runs.size());
+      assertEquals(2, runs.depthAt(10));
+      assertEquals(3, runs.depthAt(25));
+      assertEquals(3, runs.depthAt(30));
+      assertEquals(1, runs.depthAt(31));
+      assertEquals(1, runs.depthAt(50));
+      assertEquals(41, runs.getCoveredBases());
+
+      // Looking up a chromosome without features does not add it
+      assertTrue(search.getAllFeatures(chr2).isEmpty());
+      assertTrue(!search.contains(chr2));
+      assertEquals(1, Coverage.runs(search).size());
+    }
+  }
+
+  @Test
+  public void cachedGenesDBTest() {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    FixedGapGenes genes = new FixedGapGenes(Genome.HG19);
+
+    for (int i = 0; i < 100; ++i) {
+      genes.add(new GenomicEntity(GenomicType.GENE, Genome.HG19, chr, i * 10000, i * 10000 + 5000, Strand.SENSE));
+    }
+
+    CachedGenesDB db = new CachedGenesDB(genes, 2, CachedGenesDB.NO_TTL);
+
+    GenomicRegion r1 = new GenomicRegion(chr, 1000, 2000);
+    GenomicRegion r2 = new GenomicRegion(chr, 21000, 22000);
+    GenomicRegion r3 = new GenomicRegion(chr, 41000, 42000);
+
+    List<GenomicElement> found = db.find(Genome.HG19, r1, GenomicType.GENE, 1);
+
+    assertEquals(genes.find(Genome.HG19, r1, GenomicType.GENE, 1).size(), found.size());
+    assertEquals(1, db.getMisses());
+
+    // An equal region is a hit and returns the same list
+    assertEquals(found, db.find(Genome.HG19, new GenomicRegion(chr, 1000, 2000), GenomicType.GENE, 1));
+    assertEquals(1, db.getHits());
+
+    // A different min bp is a different query
+    db.find(Genome.HG19, r1, GenomicType.GENE, 10);
+    assertEquals(2, db.getMisses());
+
+    // Exceeding the size discards the least recently used
+    db.find(Genome.HG19, r2, GenomicType.GENE, 1);
+    db.find(Genome.HG19, r3, GenomicType.GENE, 1);
+
+    assertEquals(2, db.size());
+    assertEquals(2, db.getEvictions());
+
+    // Adding elements invalidates results
+    db.add(new GenomicEntity(GenomicType.GENE, Genome.HG19, chr, 41500, 41700, Strand.SENSE));
+
+    assertEquals(0, db.size());
+    assertEquals(genes.find(Genome.HG19, r3, GenomicType.GENE, 1).size(),
+        db.find(Genome.HG19, r3, GenomicType.GENE, 1).size());
+  }
+
+  @Test
+  public void cachedGenesDBConcurrentTest() throws Exception {
+    final Chromosome chr = Chromosome.newChr("chr1");
+
+    final AtomicInteger searches = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+
+    FixedGapGenes genes = new FixedGapGenes(Genome.HG19) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public List<GenomicElement> find(Genome genome, GenomicRegion region, GenomicType type, int minBp) {
+        searches.incrementAndGet();
+
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+
+        return super.find(genome, region, type, minBp);
+      }
+    };
+
+    for (int i = 0; i < 100; ++i) {
+      genes.add(new GenomicEntity(GenomicType.GENE, Genome.HG19, chr, i * 10000, i * 10000 + 5000, Strand.SENSE));
+    }
+
+    final CachedGenesDB db = new CachedGenesDB(genes);
+
+    final GenomicRegion region = new GenomicRegion(chr, 1000, 2000);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      List<Future<List<GenomicElement>>> futures = new ArrayList<Future<List<GenomicElement>>>();
+
+      for (int i = 0; i < 8; ++i) {
+        futures.add(executor.submit(() -> db.find(Genome.HG19, region, GenomicType.GENE, 1)));
+      }
+
+      // Wait for every query to reach the cache before the search finishes
+      while (db.getHits() + db.getMisses() < 8) {
+        Thread.sleep(1);
+      }
+
+      release.countDown();
+
+      for (Future<List<GenomicElement>> f : futures) {
+        assertEquals(1, f.get(10, TimeUnit.SECONDS).size());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Concurrent callers share one search
+    assertEquals(1, searches.get());
+    assertEquals(1, db.getMisses());
+    assertEquals(7, db.getHits());
+
+    // Expired results are discarded when new results are added
+    CachedGenesDB expiring = new CachedGenesDB(genes, 100, 1);
+
+    expiring.find(Genome.HG19, region, GenomicType.GENE, 1);
+
+    Thread.sleep(10);
+
+    expiring.find(Genome.HG19, new GenomicRegion(chr, 21000, 22000), GenomicType.GENE, 1);
+
+    assertEquals(1, expiring.size());
+    assertEquals(1, expiring.getExpirations());
+  }
+
+  @Test
+  public void asyncWebGenesTest() throws IOException {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    FixedGapGenes genes = new FixedGapGenes(Genome.HG19);
+
+    for (int i = 0; i < 100; ++i) {
+      genes.add(new GenomicEntity(GenomicType.GENE, Genome.HG19, chr, i * 10000, i * 10000 + 5000, Strand.SENSE));
+    }
+
+    WebGenesServer server = new WebGenesServer(genes).start();
+
+    try {
+      AsyncWebGenes web = new AsyncWebGenes(server.getUrl(), 100, 2, 1000);
+
+      List<GenomicRegion> regions = new ArrayList<GenomicRegion>();
+
+      for (int i = 0; i < 250; ++i) {
+        regions.add(new GenomicRegion(chr, i * 4000, i * 4000 + 1000));
+      }
+
+      List<List<GenomicElement>> found = web.find(Genome.HG19, regions, GenomicType.GENE, 1);
+
+      assertEquals(regions.size(), found.size());
+
+      for (int i = 0; i < regions.size(); ++i) {
+        assertEquals(genes.find(Genome.HG19, regions.get(i), GenomicType.GENE, 1).size(), found.get(i).size());
+      }
+
+      // Queries are sent in batches
+      assertEquals(3, web.getRequests());
+      assertTrue(server.getRequests() <= 3);
+
+      // Repeated queries come from the cache
+      web.find(Genome.HG19, regions, GenomicType.GENE, 1);
+
+      assertEquals(3, web.getRequests());
+      assertEquals(regions.size(), web.getHits());
+
+      web.shutdown();
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void asyncWebGenesBadResponseTest() throws Exception {
+    final String[] responses = { "{not json", "[[{\"strand\":\"+\"}]]", "[]" };
+    final AtomicInteger requests = new AtomicInteger();
+
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    server.createContext("/find", e -> {
+      byte[] body = responses[requests.getAndIncrement() % responses.length].getBytes(StandardCharsets.UTF_8);
+
+      e.sendResponseHeaders(200, body.length);
+
+      try (OutputStream out = e.getResponseBody()) {
+        out.write(body);
+      }
+    });
+
+    server.start();
+
+    try {
+      AsyncWebGenes web = new AsyncWebGenes(
+          new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/"), 100, 2, 1000);
+
+      GenomicRegion region = new GenomicRegion(Chromosome.newChr("chr1"), 1000, 2000);
+
+      // A response that is not json, one that is json but not genes and one
+      // with fewer results than queries must all fail the query rather than
+      // leave it waiting or answer it with nothing
+      for (int i = 0; i < responses.length; ++i) {
+        CompletableFuture<List<GenomicElement>> f = web.findAsync(Genome.HG19, region, GenomicType.GENE, 1);
+
+        web.flush();
+
+        try {
+          f.get(10, TimeUnit.SECONDS);
+          fail();
+        } catch (ExecutionException e) {
+          // Expected
+        }
+
+        // Failed queries are not cached so each is sent again
+        assertEquals(i + 1, web.getMisses());
+        assertEquals(0, web.getHits());
+      }
+
+      assertTrue(web.find(Genome.HG19, region, GenomicType.GENE, 1).isEmpty());
+
+      web.shutdown();
+
+      // Queries after shutting down fail straight away
+      CompletableFuture<List<GenomicElement>> f = web.findAsync(Genome.HG19, region, GenomicType.GENE, 1);
+
+      assertTrue(f.isCompletedExceptionally());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void asyncWebGenesTimeoutTest() throws Exception {
+    final CountDownLatch done = new CountDownLatch(1);
+
+    HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+    // Never answers
+    server.createContext("/find", e -> {
+      try {
+        done.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+
+      e.close();
+    });
+
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+
+    try {
+      AsyncWebGenes web = new AsyncWebGenes(
+          new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/"), 100, 2, 1000, 200);
+
+      CompletableFuture<List<GenomicElement>> f = web.findAsync(Genome.HG19,
+          new GenomicRegion(Chromosome.newChr("chr1"), 1000, 2000), GenomicType.GENE, 1);
+
+      web.flush();
+
+      try {
+        f.get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof SocketTimeoutException);
+      }
+
+      web.shutdown();
+    } finally {
+      done.countDown();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void bedReaderTest() throws IOException {
+    Path file = Files.createTempFile("test", ".bedgraph");
+
+    StringBuilder buffer = new StringBuilder();
+
+    buffer.append("browser position chr1:1-1000\n");
+    buffer.append("# comment\n");
+    buffer.append("track type=bedGraph name=\"test\"\n");
+
+    for (int i = 0; i < 100000; ++i) {
+      buffer.append("chr1\t").append(i * 10).append("\t").append(i * 10 + 10).append("\t").append(i * 0.25)
+          .append("\n");
+    }
+
+    buffer.append("\nchr2 100 200 -1.5e-3\r\n");
+    buffer.append("chr2\t200\t300\t7");
+
+    Files.write(file, buffer.toString().getBytes(StandardCharsets.UTF_8));
+
+    BedReader reader = new BedReader(file, Genome.HG19);
+
+    int tracks = 0;
+    int lines = 0;
+
+    try {
+      while (reader.next()) {
+        if (reader.isTrackLine()) {
+          ++tracks;
+          assertTrue(reader.getLine().contains("name=\"test\""));
+          continue;
+        }
+
+        if (lines < 100000) {
+          assertEquals("chr1", reader.getChr().toString());
+          assertEquals(lines * 10 + 1, reader.getStart());
+          assertEquals(lines * 10 + 10, reader.getEnd());
+          assertEquals(lines * 0.25, reader.getDouble(3), 0);
+        } else if (lines == 100000) {
+          // Columns separated by spaces
+          assertEquals("chr2", reader.getChr().toString());
+          assertEquals(101, reader.getStart());
+          assertEquals(-1.5e-3, reader.getDouble(3), 0);
+        } else {
+          assertEquals(4, reader.getColumnCount());
+          assertEquals(300, reader.getEnd());
+          assertEquals(7, reader.getInt(3));
+        }
+
+        ++lines;
+      }
+    } finally {
+      reader.close();
+    }
+
+    assertEquals(1, tracks);
+    assertEquals(100002, lines);
+  }
+
+  @Test
+  public void coverageIndexTest() throws IOException {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    int length = 2000000;
+
+    float[] values = new float[length + 1];
+    boolean[] covered = new boolean[length + 1];
+
+    Random random = new Random(11);
+
+    List<int[]> intervals = new ArrayList<int[]>();
+
+    int start = 1;
+
+    while (true) {
+      start += random.nextInt(500);
+
+      int end = start + random.nextInt(200);
+
+      if (end > length) {
+        break;
+      }
+
+      intervals.add(new int[] { start, end });
+
+      start = end + 1;
+    }
+
+    // Intervals need not be added in order
+    Collections.shuffle(intervals, random);
+
+    CoverageIndexWriter writer = new CoverageIndexWriter();
+
+    for (int[] interval : intervals) {
+      float value = random.nextInt(100) / 4f;
+
+      writer.add(chr, interval[0], interval[1], value);
+
+      for (int i = interval[0]; i <= interval[1]; ++i) {
+        values[i] = value;
+        covered[i] = true;
+      }
+    }
+
+    Path file = Files.createTempFile("test", "." + CoverageIndex.EXT);
+
+    writer.write(file);
+
+    CoverageIndex index = new CoverageIndex(file);
+
+    for (int q = 0; q < 100; ++q) {
+      int s = 1 + random.nextInt(length);
+      int e = s + random.nextInt(q < 50 ? CoverageIndex.DEFAULT_ZOOMS[0] : 1000000);
+
+      int n = 0;
+
+      for (int[] interval : intervals) {
+        if (interval[1] >= s && interval[0] <= e) {
+          ++n;
+        }
+      }
+
+      List<BedGraphElement> found = index.find(new GenomicRegion(chr, s, e));
+
+      assertEquals(n, found.size());
+
+      for (BedGraphElement element : found) {
+        assertEquals(values[element.getStart()], element.getValue(), 0);
+      }
+
+      // Windows smaller than a zoom bin are summarised from the intervals so
+      // are exact
+      if (q < 50) {
+        CoverageSummary summary = index.summarize(new GenomicRegion(chr, s, e));
+
+        int bases = 0;
+        double sum = 0;
+
+        for (int i = s; i <= Math.min(e, length); ++i) {
+          if (covered[i]) {
+            ++bases;
+            sum += values[i];
+          }
+        }
+
+        assertEquals(bases, summary.getCoverage(), 0);
+        assertEquals(sum, summary.getSum(), 1e-6);
+      }
+    }
+
+    // Windows aligned to a zoom level are exact
+    int zoom = CoverageIndex.DEFAULT_ZOOMS[1];
+
+    CoverageSummary[] summaries = index.summarize(new GenomicRegion(chr, zoom, zoom * 201 - 1), 100);
+
+    for (int b = 0; b < 100; ++b) {
+      int bases = 0;
+      double max = 0;
+
+      for (int i = zoom * (2 * b + 1); i < zoom * (2 * b + 3); ++i) {
+        if (covered[i]) {
+          ++bases;
+          max = Math.max(max, values[i]);
+        }
+      }
+
+      assertEquals(bases, summaries[b].getCoverage(), 1e-6);
+      assertEquals(max, summaries[b].getMax(), 0);
+    }
+
+    assertTrue(index.summarize(new GenomicRegion(Chromosome.newChr("chr2"), 1, 1000)).isEmpty());
+  }
 }
@@ -0,0 +1,737 @@
+/**
+ * Copyright 2016 Antony Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jebtk.bioinformatics.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.jebtk.bioinformatics.BaseCounts;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.RepeatMaskType;
+import org.jebtk.bioinformatics.genomic.SequenceReader;
+import org.jebtk.bioinformatics.genomic.SequenceRegion;
+import org.jebtk.bioinformatics.genomic.Strand;
+import org.jebtk.bioinformatics.motifs.KmerEnrichment;
+import org.jebtk.bioinformatics.motifs.Motif;
+import org.jebtk.bioinformatics.motifs.MotifCatalog;
+import org.jebtk.bioinformatics.motifs.MotifEnrichment;
+import org.jebtk.bioinformatics.motifs.MotifEnrichmentResult;
+import org.jebtk.bioinformatics.motifs.MotifHit;
+import org.jebtk.bioinformatics.motifs.MotifHitIndex;
+import org.jebtk.bioinformatics.motifs.MotifHitIndexWriter;
+import org.jebtk.bioinformatics.motifs.MotifReader;
+import org.jebtk.bioinformatics.motifs.MotifScanner;
+import org.jebtk.bioinformatics.motifs.MotifSetScanner;
+import org.jebtk.bioinformatics.motifs.MotifsFs;
+import org.jebtk.bioinformatics.motifs.PValueTable;
+import org.jebtk.bioinformatics.motifs.ScoreMatrix;
+import org.jebtk.core.tree.TreeNode;
+import org.junit.Test;
+
+public class MotifTest {
+
+  private static final char[] BASES = { 'A', 'C', 'G', 'T' };
+
+  /**
+   * Reads bases from a random chromosome held in memory.
+   */
+  private static class MemSequenceReader extends SequenceReader {
+    private final String mSeq;
+
+    public MemSequenceReader(String seq) {
+      mSeq = seq;
+    }
+
+    @Override
+    public String getName() {
+      return "mem";
+    }
+
+    @Override
+    public SequenceRegion getSequence(Genome genome, GenomicRegion region, boolean displayUpper,
+        RepeatMaskType repeatMaskType) throws IOException {
+      return new SequenceRegion(region, mSeq.substring(region.mStart - 1, region.mEnd));
+    }
+  }
+
+  public static Motif randomMotif(Random random, int l) {
+    List<BaseCounts> counts = new ArrayList<BaseCounts>();
+
+    for (int i = 0; i < l; ++i) {
+      counts.add(new BaseCounts(random.nextInt(20), random.nextInt(20), random.nextInt(20), random.nextInt(20), true));
+    }
+
+    return new Motif("m" + l, counts);
+  }
+
+  public static String randomSequence(Random random, int n) {
+    StringBuilder buffer = new StringBuilder(n);
+
+    for (int i = 0; i < n; ++i) {
+      buffer.append(random.nextInt(100) == 0 ? 'N' : BASES[random.nextInt(4)]);
+    }
+
+    return buffer.toString();
+  }
+
+  @Test
+  public void scanTest() throws IOException {
+    Random random = new Random(11);
+
+    Motif motif = randomMotif(random, 10);
+
+    String seq = randomSequence(random, 100000);
+
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    MotifScanner scanner = new MotifScanner(Genome.HG19, new MemSequenceReader(seq));
+
+    List<GenomicRegion> regions = new ArrayList<GenomicRegion>();
+
+    for (int i = 0; i < 500; ++i) {
+      int start = 1 + random.nextInt(seq.length() - 1000);
+
+      regions.add(new GenomicRegion(chr, start, start + random.nextInt(500) + 10));
+    }
+
+    ScoreMatrix matrix = new ScoreMatrix(motif);
+
+    int threshold = matrix.relativeScore(0.7);
+
+    List<MotifHit> hits = scanner.scan(matrix, regions, threshold);
+
+    int expected = 0;
+
+    for (GenomicRegion region : regions) {
+      expected += countHits(matrix,
+          new SequenceRegion(region, seq.substring(region.mStart - 1, region.mEnd)).getSequence().toIndex(),
+          threshold);
+    }
+
+    assertEquals(expected, hits.size());
+
+    for (MotifHit hit : hits) {
+      assertTrue(hit.getScore() >= matrix.toBits(threshold));
+      assertEquals(matrix.getLength(), hit.getLength());
+      assertTrue(hit.getStrand() == Strand.SENSE || hit.getStrand() == Strand.ANTISENSE);
+    }
+  }
+
+  @Test
+  public void scoreDistributionTest() {
+    Random random = new Random(3);
+
+    ScoreMatrix matrix = new ScoreMatrix(randomMotif(random, 12));
+
+    double[] dist = matrix.distribution();
+
+    double total = 0;
+
+    for (double p : dist) {
+      total += p;
+    }
+
+    assertEquals(1, total, 1e-9);
+    assertEquals(matrix.getMaxScore() - matrix.getMinScore() + 1, dist.length);
+
+    // Stricter p-values need higher scores
+    assertTrue(matrix.scoreForPValue(1e-4) >= matrix.scoreForPValue(1e-2));
+  }
+
+  /**
+   * Brute force the number of windows on the forward strand and on the
+   * reverse complement that score at least the threshold.
+   */
+  private static int countHits(ScoreMatrix matrix, byte[] s, int threshold) {
+    int ret = 0;
+
+    byte[] rc = new byte[matrix.getLength()];
+
+    for (int i = 0; i <= s.length - matrix.getLength(); ++i) {
+      if (matrix.score(s, i) >= threshold) {
+        ++ret;
+      }
+
+      // Score the reverse complement of the window with the forward matrix
+      for (int j = 0; j < rc.length; ++j) {
+        byte b = s[i + rc.length - 1 - j];
+        rc[j] = b == 4 ? 4 : (byte) (3 - b);
+      }
+
+      if (matrix.score(rc, 0) >= threshold) {
+        ++ret;
+      }
+    }
+
+    return ret;
+  }
+
+  @Test
+  public void scanChromosomeTest() {
+    Random random = new Random(5);
+
+    ScoreMatrix matrix = new ScoreMatrix(randomMotif(random, 12));
+
+    byte[] seq = new SequenceRegion(new GenomicRegion(Chromosome.newChr("chr1"), 1, 1000000),
+        randomSequence(random, 1000000)).getSequence().toIndex();
+
+    int threshold = matrix.scoreForPValue(1e-4);
+
+    List<MotifHit> hits = new ArrayList<MotifHit>();
+
+    MotifScanner.scan(matrix, Chromosome.newChr("chr1"), 1, seq, threshold, hits);
+
+    // Roughly 1e-4 of the windows on each strand should score highly enough
+    assertTrue(hits.size() > 0);
+    assertEquals(countHits(matrix, seq, threshold), hits.size());
+  }
+
+  @Test
+  public void multiMotifScanTest() throws IOException {
+    Random random = new Random(13);
+
+    String seq = randomSequence(random, 50000);
+
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    MotifScanner scanner = new MotifScanner(Genome.HG19, new MemSequenceReader(seq));
+
+    List<GenomicRegion> regions = new ArrayList<GenomicRegion>();
+
+    for (int i = 0; i < 100; ++i) {
+      int start = 1 + random.nextInt(seq.length() - 2000);
+
+      regions.add(new GenomicRegion(chr, start, start + random.nextInt(1000) + 10));
+    }
+
+    List<Motif> motifs = new ArrayList<Motif>();
+
+    // Include widths that are not multiples of the chunk size
+    for (int i = 0; i < 20; ++i) {
+      motifs.add(randomMotif(random, 6 + random.nextInt(15)));
+    }
+
+    List<MotifHit> hits = scanner.scanPValue(motifs, regions, 0.001);
+
+    int expected = 0;
+
+    for (Motif motif : motifs) {
+      expected += scanner.scanPValue(motif, regions, 0.001).size();
+    }
+
+    assertEquals(expected, hits.size());
+
+    MotifSetScanner set = new MotifSetScanner(motifs, 0.001);
+
+    assertEquals(motifs.size(), set.size());
+  }
+
+  @Test
+  public void pValueTableTest() throws IOException {
+    Random random = new Random(17);
+
+    Motif motif = randomMotif(random, 7);
+
+    ScoreMatrix matrix = motif.getScoreMatrix();
+
+    // Cached so scans share the same tables
+    assertTrue(matrix == motif.getScoreMatrix());
+    assertTrue(matrix.getPValues() == matrix.getPValues());
+
+    PValueTable table = matrix.getPValues();
+
+    // Enumerate every 7-mer to get the exact score distribution
+    int n = 1 << (2 * matrix.getLength());
+
+    int[] scores = new int[n];
+
+    byte[] s = new byte[matrix.getLength()];
+
+    for (int x = 0; x < n; ++x) {
+      for (int j = 0; j < s.length; ++j) {
+        s[j] = (byte) ((x >> (2 * j)) & 3);
+      }
+
+      scores[x] = matrix.score(s, 0);
+    }
+
+    for (int score = table.getMinScore() - 10; score <= table.getMaxScore() + 10; score += 7) {
+      int c = 0;
+
+      for (int v : scores) {
+        if (v >= score) {
+          ++c;
+        }
+      }
+
+      assertEquals((double) c / n, table.pValue(score), 1e-12);
+    }
+
+    for (double p : new double[] { 0.1, 0.01, 0.001, 1e-4 }) {
+      int threshold = table.scoreForPValue(p);
+
+      assertTrue(table.pValue(threshold) <= p);
+      assertTrue(table.pValue(threshold - 1) > p);
+    }
+
+    String seq = randomSequence(random, 20000);
+
+    MotifScanner scanner = new MotifScanner(Genome.HG19, new MemSequenceReader(seq));
+
+    List<GenomicRegion> regions = new ArrayList<GenomicRegion>();
+
+    regions.add(new GenomicRegion(Chromosome.newChr("chr1"), 1, seq.length()));
+
+    for (MotifHit hit : scanner.scanPValue(motif, regions, 0.001)) {
+      assertTrue(hit.getPValue() <= 0.001);
+      assertEquals(table.pValue(hit.getRawScore()), hit.getPValue(), 0);
+    }
+  }
+
+  @Test
+  public void catalogTest() throws Exception {
+    Random random = new Random(19);
+
+    Path dir = Files.createTempDirectory("motifs");
+    Path db = Files.createDirectory(dir.resolve("test"));
+    Path file = db.resolve("test.motif.gz");
+    Path catalogFile = dir.resolve("motifs.catalog");
+
+    Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)),
+        StandardCharsets.UTF_8);
+
+    try {
+      for (int i = 0; i < 100; ++i) {
+        writer.write(">MA" + i + "\tfactor" + i + "\tGENE" + i + "\n");
+
+        for (int b = 0; b < 4; ++b) {
+          for (int j = 0; j < 8; ++j) {
+            writer.write((j > 0 ? "\t" : "") + random.nextInt(20));
+          }
+
+          writer.write("\n");
+        }
+      }
+    } finally {
+      writer.close();
+    }
+
+    MotifsFs fs = new MotifsFs(dir, catalogFile);
+
+    MotifCatalog catalog = fs.getCatalog();
+
+    assertEquals(100, catalog.getMotifs("test").size());
+    assertTrue(Files.exists(catalogFile));
+
+    // Searches reuse the catalog rather than parsing the files again
+    assertTrue(catalog == fs.getCatalog());
+
+    TreeNode<Motif> root = new TreeNode<Motif>("root");
+
+    List<String> terms = new ArrayList<String>();
+    terms.add("Factor1");
+
+    fs.createTree(root, terms, true, false, false);
+
+    assertEquals(1, root.getChildCount());
+
+    for (Motif motif : catalog.search("test", "Factor1", false)) {
+      assertTrue(motif.getName().startsWith("factor1"));
+    }
+
+    // A new data source loads the saved catalog
+    MotifCatalog saved = new MotifsFs(dir, catalogFile).getCatalog();
+
+    assertEquals(100, saved.getMotifs("test").size());
+
+    for (int i = 0; i < 100; ++i) {
+      Motif m1 = catalog.getMotifs("test").get(i);
+      Motif m2 = saved.getMotifs("test").get(i);
+
+      assertEquals(m1.getId(), m2.getId());
+      assertEquals(m1.getGene(), m2.getGene());
+      assertEquals(m1.getPwm()[2][3], m2.getPwm()[2][3], 0);
+    }
+
+    // Damaged catalogs with negative or impossible counts are rebuilt
+    for (int n : new int[] { -5, Integer.MAX_VALUE }) {
+      Files.write(catalogFile, new byte[] { 0, 0, 0, (byte) MotifCatalog.CHECK, MotifCatalog.VERSION, (byte) (n >>> 24),
+          (byte) (n >>> 16), (byte) (n >>> 8), (byte) n });
+
+      assertEquals(100, new MotifsFs(dir, catalogFile).getCatalog().getMotifs("test").size());
+      assertEquals(100, MotifCatalog.read(catalogFile).getMotifs("test").size());
+    }
+
+    // Changing a motif file invalidates the saved catalog
+    Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 10000));
+
+    assertTrue(!MotifCatalog.read(catalogFile).isValid(Collections.singletonList(file)));
+  }
+
+  @Test
+  public void dinucleotideShuffleTest() {
+    Random random = new Random(23);
+
+    byte[] seq = new SequenceRegion(new GenomicRegion(Chromosome.newChr("chr1"), 1, 5000),
+        randomSequence(random, 5000)).getSequence().toIndex();
+
+    byte[] shuffled = MotifEnrichment.dinucleotideShuffle(seq, random);
+
+    int[] counts = new int[25];
+    int[] shuffledCounts = new int[25];
+
+    for (int i = 0; i < seq.length - 1; ++i) {
+      ++counts[seq[i] * 5 + seq[i + 1]];
+      ++shuffledCounts[shuffled[i] * 5 + shuffled[i + 1]];
+    }
+
+    assertTrue(Arrays.equals(counts, shuffledCounts));
+    assertEquals(seq[0], shuffled[0]);
+    assertEquals(seq[seq.length - 1], shuffled[seq.length - 1]);
+    assertTrue(!Arrays.equals(seq, shuffled));
+  }
+
+  @Test
+  public void enrichmentTest() throws IOException {
+    Random random = new Random(29);
+
+    Motif planted = randomMotif(random, 10);
+    Motif other = randomMotif(random, 10);
+
+    ScoreMatrix matrix = planted.getScoreMatrix();
+
+    // The best scoring sequence of the planted motif
+    StringBuilder site = new StringBuilder();
+
+    for (int i = 0; i < matrix.getLength(); ++i) {
+      int best = 0;
+
+      for (int b = 1; b < 4; ++b) {
+        if (matrix.getScores()[i * ScoreMatrix.BASES + b] > matrix.getScores()[i * ScoreMatrix.BASES + best]) {
+          best = b;
+        }
+      }
+
+      site.append(BASES[best]);
+    }
+
+    StringBuilder seq = new StringBuilder(randomSequence(random, 500000));
+
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    List<GenomicRegion> fg = new ArrayList<GenomicRegion>();
+
+    for (int i = 0; i < 1000; ++i) {
+      int start = 1 + i * 400;
+
+      fg.add(new GenomicRegion(chr, start, start + 199));
+
+      // Plant the motif in half of the regions
+      if (i % 2 == 0) {
+        seq.replace(start + 50, start + 50 + site.length(), site.toString());
+      }
+    }
+
+    MotifEnrichment enrichment = new MotifEnrichment(Genome.HG19, new MemSequenceReader(seq.toString()));
+
+    List<Motif> motifs = new ArrayList<Motif>();
+    motifs.add(other);
+    motifs.add(planted);
+
+    List<MotifEnrichmentResult> results = enrichment.shuffledEnrichment(motifs, fg, 2, 1e-4, 31);
+
+    assertEquals(2, results.size());
+
+    // Sorted by p-value so the planted motif comes first
+    assertTrue(results.get(0).getMotif() == planted);
+    assertTrue(results.get(0).getFgRegions() >= 500);
+    assertEquals(2000, results.get(0).getBgTotal());
+    assertTrue(results.get(0).getHyperGP() < 1e-50);
+    assertTrue(results.get(0).getFdr() < 1e-50);
+    assertTrue(results.get(1).getHyperGP() > 1e-3);
+
+    // Exact tails of small distributions
+    assertEquals(0.5, MotifEnrichment.binomialUpperTail(1, 1, 0.5), 1e-12);
+    assertEquals(0.25 + 0.5, MotifEnrichment.binomialUpperTail(1, 2, 0.5), 1e-12);
+    assertEquals(1.0 / 6, MotifEnrichment.hyperGeometricUpperTail(2, 2, 2, 4), 1e-12);
+  }
+
+  @Test
+  public void hitIndexTest() throws IOException {
+    Random random = new Random(37);
+
+    String seq = randomSequence(random, 2500000);
+
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    MemSequenceReader reader = new MemSequenceReader(seq);
+
+    List<Motif> motifs = new ArrayList<Motif>();
+    motifs.add(randomMotif(random, 8));
+    motifs.add(randomMotif(random, 12));
+
+    Path dir = Files.createTempDirectory("hits");
+
+    // Spans several chunks so hits across chunk boundaries are tested
+    new MotifHitIndexWriter(Genome.HG19, reader, motifs, 1e-4).write(chr, seq.length(), dir);
+
+    MotifHitIndex index = new MotifHitIndex(dir);
+
+    assertEquals(2, index.getMotifs().size());
+    assertEquals(1e-4, index.getPValue(), 0);
+
+    MotifScanner scanner = new MotifScanner(Genome.HG19, reader);
+
+    for (Motif motif : motifs) {
+      int l = motif.getBaseCount();
+
+      for (int i = 0; i < 100; ++i) {
+        int start = l + random.nextInt(seq.length() - 2000);
+
+        GenomicRegion region = new GenomicRegion(chr, start, start + random.nextInt(1000));
+
+        // Hits overlapping the region are those within it when extended by
+        // the motif width
+        List<GenomicRegion> extended = new ArrayList<GenomicRegion>();
+        extended.add(new GenomicRegion(chr, region.mStart - l + 1, region.mEnd + l - 1));
+
+        List<MotifHit> expected = scanner.scanPValue(motif, extended, 1e-4);
+
+        List<MotifHit> hits = index.find(motif, region, Double.NEGATIVE_INFINITY);
+
+        assertEquals(expected.size(), hits.size());
+
+        for (MotifHit hit : hits) {
+          assertTrue(hit.mStart <= region.mEnd && hit.mEnd >= region.mStart);
+        }
+      }
+
+      // Boundaries between chunks
+      GenomicRegion boundary = new GenomicRegion(chr, MotifHitIndexWriter.CHUNK_SIZE - 50,
+          MotifHitIndexWriter.CHUNK_SIZE + 50);
+
+      List<GenomicRegion> extended = new ArrayList<GenomicRegion>();
+      extended.add(new GenomicRegion(chr, boundary.mStart - l + 1, boundary.mEnd + l - 1));
+
+      assertEquals(scanner.scanPValue(motif, extended, 1e-4).size(),
+          index.count(motif.getId(), boundary, Double.NEGATIVE_INFINITY));
+    }
+
+    assertTrue(index.find(motifs.get(0), new GenomicRegion(Chromosome.newChr("chr2"), 1, 1000), 0).isEmpty());
+  }
+
+  @Test
+  public void readerTest() throws Exception {
+    Path dir = Files.createTempDirectory("motifs");
+
+    Path jaspar = dir.resolve("test.jaspar");
+
+    Files.write(jaspar, Arrays.asList(">MA0001.1 AGL3", "A  [ 0  3 79 ]", "C  [ 94 75 4 ]", "G  [ 1 0 3 ]",
+        "T  [ 5 22 14 ]", "", ">MA0002.1 RUNX1", "10\t0", "10\t0", "10\t0", "10\t100"), StandardCharsets.UTF_8);
+
+    List<Motif> motifs = MotifReader.jaspar(jaspar).toList();
+
+    assertEquals(2, motifs.size());
+    assertEquals("MA0001.1", motifs.get(0).getId());
+    assertEquals("AGL3", motifs.get(0).getName());
+    assertEquals(3, motifs.get(0).getBaseCount());
+    assertEquals(0.94, motifs.get(0).getPwm()[1][0], 1e-9);
+    assertEquals(0.79, motifs.get(0).getPwm()[0][2], 1e-9);
+    assertEquals(0.25, motifs.get(1).getCounts(0).getA(), 1e-9);
+    assertEquals(1, motifs.get(1).getCounts(1).getT(), 1e-9);
+
+    Path meme = dir.resolve("test.meme");
+
+    Files.write(meme,
+        Arrays.asList("MEME version 4", "", "ALPHABET= ACGT", "", "strands: + -", "",
+            "Background letter frequencies", "A 0.3 C 0.2 G 0.2 T 0.3", "", "MOTIF M0001_1.02 FOXA1",
+            "letter-probability matrix: alength= 4 w= 2 nsites= 20 E= 0", " 0.100000  0.200000  0.300000  0.400000",
+            " 0.500000  0.500000  0.000000  0.000000", "URL http://example.org", "", "MOTIF M0002_1.02",
+            "letter-probability matrix: alength= 4", "1 0 0 0", "0 1 0 0", "0 0 1 0"),
+        StandardCharsets.UTF_8);
+
+    motifs = MotifReader.meme(meme, "cisbp").toList();
+
+    assertEquals(2, motifs.size());
+    assertEquals("FOXA1", motifs.get(0).getName());
+    assertEquals("cisbp", motifs.get(0).getDatabase());
+    assertEquals(2, motifs.get(0).getBaseCount());
+    assertEquals(0.4, motifs.get(0).getPwm()[3][0], 1e-9);
+    assertEquals(0.5, motifs.get(0).getPwm()[1][1], 1e-9);
+
+    // The width of the second motif is found from its rows
+    assertEquals("M0002_1.02", motifs.get(1).getName());
+    assertEquals(3, motifs.get(1).getBaseCount());
+    assertEquals(1, motifs.get(1).getPwm()[2][2], 1e-9);
+
+    // Motifs can be filtered without loading the whole file
+    try (MotifReader reader = MotifReader.meme(meme, "cisbp")) {
+      assertEquals(1, reader.stream().filter(m -> m.getName().equals("FOXA1")).count());
+    }
+
+    // Numbers in any format are read as the frequencies they encode
+    Path fixture = dir.resolve("fixture.motif");
+
+    Files.write(fixture, Arrays.asList(">MA1\tfactor1\tGENE1", "0.5\t0\t1e-1\t12.5", "0.25\t1\t0.2\t12.5",
+        "0.25\t0\t3E-1\t0", "0\t0\t+.4\t25.0"), StandardCharsets.UTF_8);
+
+    double[][] expected = { { 0.5, 0, 0.1, 0.25 }, { 0.25, 1, 0.2, 0.25 }, { 0.25, 0, 0.3, 0 }, { 0, 0, 0.4, 0.5 } };
+
+    Motif fixed = MotifReader.motifs(fixture, "test").toList().get(0);
+
+    assertEquals("GENE1", fixed.getGene());
+    assertEquals(4, fixed.getBaseCount());
+
+    for (int b = 0; b < 4; ++b) {
+      for (int j = 0; j < 4; ++j) {
+        assertEquals(expected[b][j], fixed.getPwm()[b][j], 1e-9);
+      }
+    }
+
+    // Large files give the frequencies of the values parsed by Java
+    Random random = new Random(23);
+
+    Path file = dir.resolve("test.motif");
+
+    double[][][] values = new double[1000][4][12];
+
+    Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+
+    try {
+      for (int i = 0; i < 1000; ++i) {
+        writer.write(">MA" + i + "\tfactor" + i + "\tGENE" + i + "\n");
+
+        for (int b = 0; b < 4; ++b) {
+          for (int j = 0; j < 12; ++j) {
+            String v = random.nextInt(50) + "." + random.nextInt(1000);
+
+            values[i][b][j] = Double.parseDouble(v);
+
+            writer.write((j > 0 ? "\t" : "") + v);
+          }
+
+          writer.write("\n");
+        }
+      }
+    } finally {
+      writer.close();
+    }
+
+    int i = 0;
+
+    for (Motif motif : MotifReader.motifs(file, "test")) {
+      assertEquals("MA" + i, motif.getId());
+      assertEquals("GENE" + i, motif.getGene());
+
+      for (int j = 0; j < 12; ++j) {
+        double total = 0;
+
+        for (int b = 0; b < 4; ++b) {
+          total += values[i][b][j];
+        }
+
+        for (int b = 0; b < 4; ++b) {
+          assertEquals(values[i][b][j] / total, motif.getPwm()[b][j], 0);
+        }
+      }
+
+      ++i;
+    }
+
+    assertEquals(1000, i);
+  }
+
+  @Test
+  public void kmerEnrichmentTest() throws IOException {
+    Random random = new Random(37);
+
+    String site = "GGAAAGCTTCC";
+
+    StringBuilder seq = new StringBuilder(randomSequence(random, 1000000));
+
+    Chromosome chr1 = Chromosome.newChr("chr1");
+    Chromosome chr2 = Chromosome.newChr("chr2");
+
+    List<GenomicRegion> fg = new ArrayList<GenomicRegion>();
+    List<GenomicRegion> bg = new ArrayList<GenomicRegion>();
+
+    for (int i = 0; i < 1000; ++i) {
+      int start = 1 + i * 400;
+
+      // Regions on two chromosomes so that they are counted in parallel
+      fg.add(new GenomicRegion(i % 2 == 0 ? chr1 : chr2, start, start + 199));
+      bg.add(new GenomicRegion(chr1, 500001 + i * 400, 500001 + i * 400 + 199));
+
+      // Plant the site in half of the regions
+      if (i % 2 == 0) {
+        seq.replace(start + 50, start + 50 + site.length(), site);
+      }
+    }
+
+    KmerEnrichment enrichment = new KmerEnrichment(Genome.HG19, new MemSequenceReader(seq.toString()));
+
+    // The site is a gapped palindrome
+    List<MotifEnrichmentResult> results = enrichment.enrichment(fg, bg, 8, 3, 1e-6);
+
+    assertTrue(results.size() > 0);
+    assertEquals("GGAANNNTTCC", results.get(0).getMotif().getId());
+    assertTrue(results.get(0).getFgRegions() >= 500);
+    assertEquals(1000, results.get(0).getBgTotal());
+    assertTrue(results.get(0).getFdr() < 1e-50);
+
+    // Contiguous k-mers of the site, counted on both strands
+    results = enrichment.shuffledEnrichment(fg, 6, 0, 2, 1e-6, 41);
+
+    assertTrue(results.size() > 0);
+    assertTrue(site.contains(results.get(0).getMotif().getId())
+        || reverseComplement(site).contains(results.get(0).getMotif().getId()));
+    assertEquals(2000, results.get(0).getBgTotal());
+
+    // Enriched k-mers are motifs
+    Motif motif = KmerEnrichment.toMotif("GGAANNNTTCC");
+
+    assertEquals(11, motif.getBaseCount());
+    assertEquals(1, motif.getPwm()[2][0], 1e-9);
+    assertEquals(0.25, motif.getPwm()[3][5], 1e-9);
+    assertEquals("GGAANNNTTCC", KmerEnrichment.toString(0b1010000011110101L, 8, 3));
+  }
+
+  private static String reverseComplement(String s) {
+    StringBuilder buffer = new StringBuilder(s.length());
+
+    for (int i = s.length() - 1; i >= 0; --i) {
+      buffer.append("TGCA".charAt("ACGT".indexOf(s.charAt(i))));
+    }
+
+    return buffer.toString();
+  }
+}
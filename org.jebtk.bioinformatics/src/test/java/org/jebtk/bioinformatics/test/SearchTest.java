@@ -0,0 +1,567 @@
+/**
+ * Copyright 2016 Antony Holmes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jebtk.bioinformatics.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jebtk.bioinformatics.Search;
+import org.jebtk.bioinformatics.gapsearch.ConcurrentFixedGapSearch;
+import org.jebtk.bioinformatics.gapsearch.FixedGapSearch;
+import org.jebtk.bioinformatics.gapsearch.GappedSearchFeatures;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomicRegion;
+import org.jebtk.bioinformatics.genomic.Strand;
+import org.jebtk.bioinformatics.search.AbstractFeaturesSearch;
+import org.jebtk.bioinformatics.search.Feature;
+import org.jebtk.bioinformatics.search.FeatureBinsFile;
+import org.jebtk.bioinformatics.search.FeatureIndex;
+import org.jebtk.bioinformatics.search.FeaturesBasicSearch;
+import org.jebtk.bioinformatics.search.FeaturesCommonRegionBinarySearch;
+import org.jebtk.bioinformatics.search.FeaturesIndexSearch;
+import org.jebtk.bioinformatics.search.FeaturesServer;
+import org.junit.Test;
+
+public class SearchTest {
+  /** Roughly the number of probes on a large chromosome of a SNP array. */
+  private static final int FEATURES = 200000;
+
+  private static final int QUERIES = 10000;
+
+  private static final int SKIP = 100;
+
+  /**
+   * Create non-overlapping features so that the existing binary and skip
+   * searches can be compared against the index.
+   */
+  static List<Feature> createFeatures(Chromosome chr) {
+    Random random = new Random(42);
+
+    List<Feature> features = new ArrayList<Feature>(FEATURES);
+
+    int start = 1;
+
+    for (int i = 0; i < FEATURES; ++i) {
+      start += 1 + random.nextInt(1000);
+
+      int end = start + random.nextInt(500);
+
+      features.add(new Feature("f" + i, chr, start, end));
+
+      start = end;
+    }
+
+    return features;
+  }
+
+  @Test
+  public void overlapTest() {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    Random random = new Random(1);
+
+    List<Feature> features = new ArrayList<Feature>();
+
+    // Nested and overlapping features
+    for (int i = 0; i < 1000; ++i) {
+      int start = random.nextInt(100000);
+
+      features.add(new Feature("f" + i, chr, start, start + random.nextInt(5000)));
+    }
+
+    FeatureIndex index = new FeatureIndex(features);
+
+    for (int i = 0; i < 1000; ++i) {
+      int start = random.nextInt(110000);
+      int end = start + random.nextInt(1000);
+
+      int n = 0;
+
+      for (Feature f : features) {
+        if (f.getStart() <= end && f.getEnd() >= start) {
+          ++n;
+        }
+      }
+
+      assertEquals(n, index.overlap(start, end).size());
+    }
+  }
+
+  @Test
+  public void binarySearchTest() {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    List<Feature> features = createFeatures(chr);
+
+    int max = features.get(features.size() - 1).getEnd();
+
+    FeatureIndex index = new FeatureIndex(features);
+
+    Random random = new Random(7);
+
+    for (int i = 0; i < QUERIES; ++i) {
+      int q = 1 + random.nextInt(max);
+
+      List<Feature> expected = new ArrayList<Feature>();
+
+      int b = Search.binaryRangeSearch(q, features);
+
+      if (b != -1) {
+        expected.add(features.get(b));
+      }
+
+      assertEquals(expected, index.contains(q));
+
+      // The skip search finds the last feature starting at or before the
+      // location, which must be the one the index found if it ends after it
+      int s = Search.jumpSearchOuter(q, features, SKIP);
+
+      if (s != -1 && features.get(s).getEnd() >= q) {
+        assertEquals(Arrays.asList(features.get(s)), index.contains(q));
+      }
+
+      if (i % 100 != 0) {
+        continue;
+      }
+
+      // Compare ranges against a linear scan for a sample of the queries
+      int end = q + random.nextInt(5000);
+
+      expected.clear();
+
+      for (Feature f : features) {
+        if (f.getStart() <= end && f.getEnd() >= q) {
+          expected.add(f);
+        }
+      }
+
+      assertEquals(expected, index.overlap(q, end));
+    }
+  }
+
+  /**
+   * Create random stranded regions, each with a single feature.
+   */
+  private static Map<GenomicRegion, List<Integer>> createRegions(Chromosome chr, int n, Random random) {
+    Map<GenomicRegion, List<Integer>> regions = new TreeMap<GenomicRegion, List<Integer>>();
+
+    while (regions.size() < n) {
+      int start = random.nextInt(1000000);
+
+      GenomicRegion region = new GenomicRegion(chr, start, start + random.nextInt(5000),
+          random.nextBoolean() ? Strand.SENSE : Strand.ANTISENSE);
+
+      if (!regions.containsKey(region)) {
+        regions.put(region, Arrays.asList(regions.size()));
+      }
+    }
+
+    return regions;
+  }
+
+  @Test
+  public void concurrentGapSearchTest() throws InterruptedException {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    Random random = new Random(3);
+
+    Map<GenomicRegion, List<Integer>> regions = createRegions(chr, 2000, random);
+
+    FixedGapSearch<Integer> fixed = new FixedGapSearch<Integer>(1000);
+
+    for (Entry<GenomicRegion, List<Integer>> r : regions.entrySet()) {
+      fixed.addAll(r.getKey(), r.getValue());
+    }
+
+    final ConcurrentFixedGapSearch<Integer> search = new ConcurrentFixedGapSearch<Integer>(1000);
+
+    final GenomicRegion query = new GenomicRegion(chr, 500000, 510000);
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    // Read while the features are added one region at a time
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (!done.get()) {
+            search.getValues(query);
+            search.getClosestFeatures(query, 5);
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      }
+    };
+
+    reader.start();
+
+    for (Entry<GenomicRegion, List<Integer>> r : regions.entrySet()) {
+      search.addAll(r.getKey(), r.getValue());
+    }
+
+    done.set(true);
+    reader.join();
+
+    assertNull(error.get());
+    assertEquals(regions.size(), search.size());
+
+    // Loading in one batch gives the same bins
+    ConcurrentFixedGapSearch<Integer> batch = new ConcurrentFixedGapSearch<Integer>(1000);
+
+    batch.addAll(regions);
+
+    assertEquals(regions.size(), batch.size());
+
+    for (int i = 0; i < 1000; ++i) {
+      int start = random.nextInt(1000000);
+
+      GenomicRegion q = new GenomicRegion(chr, start, start + random.nextInt(20000));
+
+      Set<Integer> expected = new HashSet<Integer>(fixed.getValues(q));
+
+      assertEquals(expected, new HashSet<Integer>(search.getValues(q)));
+      assertEquals(expected, new HashSet<Integer>(batch.getValues(q)));
+    }
+
+    // Looking up a missing region must not modify a shared bin
+    GappedSearchFeatures<Integer> bin = batch.getFeatures(query).get(0);
+
+    int size = bin.size();
+
+    assertTrue(bin.getValues(new GenomicRegion(chr, 500001, 500001)).isEmpty());
+    assertEquals(size, bin.size());
+  }
+
+  @Test
+  public void gapSearchSizeTest() {
+    Chromosome chr1 = Chromosome.newChr("chr1");
+    Chromosome chr2 = Chromosome.newChr("chr2");
+
+    FixedGapSearch<Integer> search = new FixedGapSearch<Integer>(1000);
+
+    // Several features on a region spanning three bins
+    search.addAll(new GenomicRegion(chr1, 100, 2500), Arrays.asList(1, 2, 3));
+    search.add(new GenomicRegion(chr1, 5000, 5100), 4);
+    search.add(new GenomicRegion(chr2, 100, 200), 5);
+
+    assertEquals(5, search.size());
+
+    // Copying adds each region once, not once per bin
+    FixedGapSearch<Integer> copy = new FixedGapSearch<Integer>(1000);
+
+    copy.add(search);
+
+    assertEquals(5, copy.size());
+    assertEquals(3, copy.getValues(new GenomicRegion(chr1, 1500, 1600)).size());
+
+    // Removing a chromosome subtracts the same counts that were added
+    assertEquals(4, search.remove(chr1));
+    assertEquals(1, search.size());
+    assertEquals(4, copy.remove(chr1));
+    assertEquals(1, copy.size());
+  }
+
+  @Test
+  public void closestGapSearchTest() {
+    Chromosome chr = Chromosome.newChr("chr1");
+
+    Random random = new Random(5);
+
+    Map<GenomicRegion, List<Integer>> regions = createRegions(chr, 500, random);
+
+    ConcurrentFixedGapSearch<Integer> search = new ConcurrentFixedGapSearch<Integer>(1000);
+
+    search.addAll(regions);
+
+    for (int i = 0; i < 200; ++i) {
+      int start = random.nextInt(1000000);
+
+      GenomicRegion q = new GenomicRegion(chr, start, start + random.nextInt(2000));
+
+      int mid = GenomicRegion.mid(q);
+
+      // Group the features by distance with a linear scan
+      TreeMap<Integer, Set<Integer>> distances = new TreeMap<Integer, Set<Integer>>();
+
+      for (Entry<GenomicRegion, List<Integer>> r : regions.entrySet()) {
+        GenomicRegion region = r.getKey();
+
+        int d = Math.abs(
+            (Strand.isSense(region.getStrand()) ? region.getStart() : region.getEnd()) - mid);
+
+        if (!distances.containsKey(d)) {
+          distances.put(d, new HashSet<Integer>());
+        }
+
+        distances.get(d).addAll(r.getValue());
+      }
+
+      List<Set<Integer>> expected = new ArrayList<Set<Integer>>(distances.values()).subList(0, 3);
+
+      List<Set<Integer>> closest = new ArrayList<Set<Integer>>();
+
+      for (List<Integer> features : search.getClosestFeatures(q, 3)) {
+        closest.add(new HashSet<Integer>(features));
+      }
+
+      assertEquals(expected, closest);
+    }
+  }
+
+  @Test
+  public void featureBinsFileTest() throws IOException {
+    Path dir = Files.createTempDirectory("bins");
+
+    String prefix = dir.resolve("track").toString();
+
+    Path locations = Files.write(dir.resolve("track" + FeaturesCommonRegionBinarySearch.BIN_LOCATION_FILE_ENDING),
+        Arrays.asList("chr\tstart", "chr1\t1", "chr1\t1000", "chr1\t2000"), StandardCharsets.UTF_8);
+
+    // Longer than the old one byte length limit and made of two byte
+    // characters
+    StringBuilder longName = new StringBuilder();
+
+    for (int i = 0; i < 200; ++i) {
+      longName.append('\u00e9');
+    }
+
+    Path features = Files.write(dir.resolve("track" + FeaturesCommonRegionBinarySearch.BIN_FEATURE_FILE_ENDING),
+        Arrays.asList("name\tchr\tstart\tend\tbins", "f1\tchr1\t1\t1500\t0,1", longName + "\tchr1\t2000\t2500\t2"),
+        StandardCharsets.UTF_8);
+
+    try {
+      FeatureBinsFile.convert(prefix);
+
+      assertTrue(Files.exists(FeatureBinsFile.getFile(prefix)));
+
+      FeaturesCommonRegionBinarySearch search = new FeaturesCommonRegionBinarySearch("track", "track", prefix);
+
+      assertNotNull(search.getFeature("f1"));
+      assertNotNull(search.getFeature(longName.toString()));
+      assertEquals(3, search.size());
+
+      // Once the text files change the binary file is out of date
+      Files.write(features, Arrays.asList("name\tchr\tstart\tend\tbins", "f2\tchr1\t1\t1500\t0,1"),
+          StandardCharsets.UTF_8);
+      Files.setLastModifiedTime(features,
+          FileTime.fromMillis(Files.getLastModifiedTime(features).toMillis() + 10000));
+
+      search = new FeaturesCommonRegionBinarySearch("track", "track", prefix);
+
+      assertNotNull(search.getFeature("f2"));
+      assertNull(search.getFeature("f1"));
+      assertEquals(2, search.size());
+    } finally {
+      Files.deleteIfExists(FeatureBinsFile.getFile(prefix));
+      Files.delete(locations);
+      Files.delete(features);
+      Files.delete(dir);
+    }
+  }
+
+  /**
+   * Write a features file with n non-overlapping features on chr1.
+   */
+  private static Path writeFeatures(Path dir, String name, int n) throws IOException {
+    List<String> lines = new ArrayList<String>();
+
+    lines.add("name\tchr\tstart\tend");
+
+    for (int i = 0; i < n; ++i) {
+      lines.add(name + i + "\tchr1\t" + (i * 100 + 1) + "\t" + (i * 100 + 50));
+    }
+
+    return Files.write(dir.resolve(name + ".txt"), lines, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void featuresServerTest() throws IOException {
+    Path dir = Files.createTempDirectory("features");
+
+    Path fileA = writeFeatures(dir, "a", 10);
+    Path fileB = writeFeatures(dir, "b", 10);
+    Path fileC = writeFeatures(dir, "c", 10);
+    Path fileEmpty = writeFeatures(dir, "empty", 0);
+
+    AbstractFeaturesSearch a = new FeaturesIndexSearch("a", "a", fileA);
+    AbstractFeaturesSearch b = new FeaturesIndexSearch("b", "b", fileB);
+    AbstractFeaturesSearch c = new FeaturesIndexSearch("c", "c", fileC);
+    AbstractFeaturesSearch empty = new FeaturesBasicSearch("empty", "empty", fileEmpty);
+
+    // The server is shared so register the tracks in a group of their own and
+    // compare the counters against their values before the test
+    FeaturesServer server = FeaturesServer.getInstance();
+
+    String group = "featuresServerTest";
+
+    server.add(Genome.HG19, group, a);
+    server.add(Genome.HG19, group, b);
+    server.add(Genome.HG19, group, c);
+    server.add(Genome.HG19, group, empty);
+
+    try {
+      // Room for two of the tracks
+      server.setMemoryBudget(20 * FeaturesServer.FEATURE_BYTES);
+
+      long hits = server.getHits();
+      long misses = server.getMisses();
+      long evictions = server.getEvictions();
+
+      assertEquals(-1, server.getLoadTime(a));
+
+      Chromosome chr = a.getFeature("a0").getChr();
+
+      assertTrue(server.getLoadTime(a) >= 0);
+      assertEquals(10 * FeaturesServer.FEATURE_BYTES, server.getUsedBytes(a));
+
+      assertNotNull(b.getFeature("b0"));
+
+      assertEquals(misses + 2, server.getMisses());
+      assertEquals(hits, server.getHits());
+
+      // Searching a through the reference already held marks it as recently
+      // used so b is now the least recently used track
+      assertEquals(10, a.getFeatures(chr, 1, 1000).size());
+
+      assertEquals(hits + 1, server.getHits());
+
+      assertNotNull(c.getFeature("c0"));
+
+      assertEquals(misses + 3, server.getMisses());
+      assertEquals(evictions + 1, server.getEvictions());
+      assertTrue(a.isCached());
+      assertFalse(b.isCached());
+      assertTrue(c.isCached());
+      assertEquals(0, server.getUsedBytes(b));
+      assertEquals(20 * FeaturesServer.FEATURE_BYTES, server.getUsedBytes(a) + server.getUsedBytes(c));
+
+      // An evicted track is reloaded when it is searched again
+      assertNotNull(b.getFeature("b1"));
+
+      assertEquals(misses + 4, server.getMisses());
+      assertEquals(evictions + 2, server.getEvictions());
+      assertFalse(a.isCached());
+
+      // A track without features is only loaded once
+      assertNull(empty.getFeature("a0"));
+      assertNull(empty.getFeature("a0"));
+
+      assertTrue(empty.isCached());
+      assertEquals(misses + 5, server.getMisses());
+      assertEquals(hits + 2, server.getHits());
+      assertEquals((double) server.getHits() / (server.getHits() + server.getMisses()), server.getHitRate(), 1e-9);
+
+      // Lowering the budget unloads tracks straight away
+      server.setMemoryBudget(0);
+
+      assertFalse(b.isCached());
+      assertFalse(c.isCached());
+    } finally {
+      server.setMemoryBudget(FeaturesServer.NO_MEMORY_BUDGET);
+      server.freeMemory();
+
+      Files.delete(fileA);
+      Files.delete(fileB);
+      Files.delete(fileC);
+      Files.delete(fileEmpty);
+      Files.delete(dir);
+    }
+  }
+
+  @Test
+  public void featuresServerFreeMemoryTest() throws IOException, InterruptedException {
+    Path dir = Files.createTempDirectory("features");
+
+    Path file = writeFeatures(dir, "f", 10);
+
+    final AbstractFeaturesSearch features = new FeaturesBasicSearch("f", "f", file);
+
+    FeaturesServer server = FeaturesServer.getInstance();
+
+    server.add(Genome.HG19, "featuresServerFreeMemoryTest", features);
+
+    final Chromosome chr = features.getFeature("f0").getChr();
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    List<Thread> readers = new ArrayList<Thread>();
+
+    // Search while the track is repeatedly unloaded so that searches may hold
+    // a reference to a track as it is freed
+    for (int i = 0; i < 4; ++i) {
+      Thread reader = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (!done.get()) {
+              assertEquals(10, features.getFeatures(chr).size());
+              assertNotNull(features.getFeature("f9"));
+            }
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        }
+      };
+
+      reader.start();
+
+      readers.add(reader);
+    }
+
+    try {
+      for (int i = 0; i < 500; ++i) {
+        server.freeMemory();
+      }
+    } finally {
+      done.set(true);
+
+      for (Thread reader : readers) {
+        reader.join();
+      }
+
+      server.freeMemory();
+
+      Files.delete(file);
+      Files.delete(dir);
+    }
+
+    assertNull(error.get());
+  }
+}